@@ -23,6 +23,7 @@ import eu.eunoiaproject.bikesharing.framework.qsim.BikeSharingEngine;
 import eu.eunoiaproject.bikesharing.framework.qsim.BikeSharingManager;
 import eu.eunoiaproject.bikesharing.framework.qsim.BikeSharingManagerImpl;
 import eu.eunoiaproject.bikesharing.framework.qsim.FacilityStateChangeRepeater;
+import eu.eunoiaproject.bikesharing.framework.qsim.PendingBikeSharingChangesNotifier;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingConfigGroup;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacilities;
 import org.matsim.api.core.v01.Scenario;
@@ -78,11 +79,12 @@ public class BikeSharingWithSimplisticRelocationQSimFactory implements MobsimFac
 						BikeSharingFacilities.ELEMENT_NAME ) );
 		final BikeSharingEngine bikeSharingEngine =
 			new BikeSharingEngine(
-					bikeSharingManager, eventsManager);
+					bikeSharingManager, eventsManager, conf.getTimeStepSize());
 		qSim.addDepartureHandler( bikeSharingEngine );
 		qSim.addMobsimEngine( bikeSharingEngine );
 
 		bikeSharingManager.addListener( new FacilityStateChangeRepeater( qSim ) );
+		qSim.addQueueSimulationListeners( new PendingBikeSharingChangesNotifier( bikeSharingManager ) );
 
 		final SimplisticRelocatorManagerEngine relocatorManager =
 			new SimplisticRelocatorManagerEngine(
@@ -25,6 +25,8 @@ import eu.eunoiaproject.bikesharing.framework.events.AgentStartsWaitingForFreeBi
 import eu.eunoiaproject.bikesharing.framework.events.AgentStopsWaitingForBikeEvent;
 import eu.eunoiaproject.bikesharing.framework.events.AgentStopsWaitingForFreeBikeSlotEvent;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingRoute;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.events.PersonStuckEvent;
 import org.matsim.api.core.v01.population.Leg;
@@ -34,18 +36,17 @@ import org.matsim.core.mobsim.framework.PlanAgent;
 import org.matsim.core.mobsim.qsim.InternalInterface;
 import org.matsim.core.mobsim.qsim.interfaces.DepartureHandler;
 import org.matsim.core.mobsim.qsim.interfaces.MobsimEngine;
-import org.matsim.core.utils.collections.MapUtils;
-import org.matsim.core.utils.collections.Tuple;
 import org.matsim.core.utils.misc.Time;
+import playground.thibautd.pseudoqsim.pseudoqsimengine.TimeBucketQueue;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.List;
 import java.util.Queue;
+import java.util.function.Consumer;
 
 /**
  * A {@link MobsimEngine} and {@link DepartureHandler} for bike sharing simulations.
@@ -60,22 +61,56 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 	private InternalInterface internalInterface = null;
 	private final EventsManager eventsManager;
 
-	private final ArrivalQueue arrivalQueue = new ArrivalQueue();
+	// a bit more than one hour: most bike trips should fit
+	private static final int N_BUCKETS = 4096;
 
-	private final MapUtils.Factory<Queue<MobsimAgent>> queueFactory =
-			new MapUtils.Factory<Queue<MobsimAgent>>() {
+	private static final Comparator<Arrival> COMPARATOR =
+			new Comparator<Arrival>() {
 				@Override
-				public Queue<MobsimAgent> create() {
-					return new ArrayDeque<MobsimAgent>();
+				public int compare(Arrival o1, Arrival o2) {
+					int ret = Double.compare( o1.time , o2.time ); // first compare time information
+					if (ret == 0) {
+						ret = o2.agent.getId().compareTo(o1.agent.getId()); // if they're equal, compare the Ids: the one with the larger Id should be first
+					}
+					return ret;
 				}
 			};
-	private final Map<Id, Queue<MobsimAgent>> agentsWaitingForDeparturePerStation = new HashMap<Id, Queue<MobsimAgent>>();
-	private final Map<Id, Queue<MobsimAgent>> agentsWaitingForArrivalPerStation = new HashMap<Id, Queue<MobsimAgent>>();
+
+	// agents travelling by bike, bucketed by the time step at which they arrive
+	private final TimeBucketQueue<Arrival> arrivalQueue;
+	// reused between steps. Agents are handled in the same order as before bucketing:
+	// by arrival time, and by decreasing Id for equal arrival times.
+	private final List<Arrival> dueArrivals = new ArrayList<Arrival>();
+	// field rather than lambda in doSimStep, to avoid allocating anything in steps without arrivals
+	private final Consumer<Arrival> dueArrivalsCollector = dueArrivals::add;
+	private double currentTime = Time.UNDEFINED_TIME;
+
+	// waiting queues are indexed by station, in the iteration order of the facilities of the manager.
+	// Queues are only created for stations where somebody had to wait.
+	private final TObjectIntMap<Id> stationIndices;
+	private final Queue<MobsimAgent>[] agentsWaitingForDeparturePerStation;
+	private final Queue<MobsimAgent>[] agentsWaitingForArrivalPerStation;
 
 	public BikeSharingEngine(final BikeSharingManager manager, EventsManager eventsManager) {
+		this( manager , eventsManager , 1 );
+	}
+
+	/**
+	 * @param timeStepSize the time step size of the QSim: agents arrive at the first time step at or after their arrival time.
+	 */
+	public BikeSharingEngine(final BikeSharingManager manager, EventsManager eventsManager, final double timeStepSize) {
 		this.bikeSharingManager = manager;
 		this.eventsManager = eventsManager;
-		bikeSharingManager.addListener( new Listener() );
+		this.arrivalQueue = new TimeBucketQueue<>( N_BUCKETS , timeStepSize );
+
+		final int nStations = manager.getFacilities().size();
+		this.stationIndices = new TObjectIntHashMap<>( nStations , 0.5f , -1 );
+		for ( Id id : manager.getFacilities().keySet() ) stationIndices.put( id , stationIndices.size() );
+		this.agentsWaitingForDeparturePerStation = new Queue[ nStations ];
+		this.agentsWaitingForArrivalPerStation = new Queue[ nStations ];
+
+		// waiting agents must get bikes and slots as soon as they are available, before anybody else
+		bikeSharingManager.addSynchronousListener( new Listener() );
 	}
 
 	// make this private to be sure it is not added twice
@@ -88,7 +123,7 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 
 		public void handleDepartures(final StatefulBikeSharingFacility facilityInNewState) {
 			// If there is a change in a facility, check if there are bikes for our waiting agents
-			final Queue<MobsimAgent> waitingAgents = agentsWaitingForDeparturePerStation.get( facilityInNewState.getId() );
+			final Queue<MobsimAgent> waitingAgents = agentsWaitingForDeparturePerStation[ getStationIndex( facilityInNewState ) ];
 			if ( waitingAgents == null ) return;
 
 			while ( facilityInNewState.hasBikes() && !waitingAgents.isEmpty() ) {
@@ -111,7 +146,7 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 
 		public void handleArrivals(final StatefulBikeSharingFacility facilityInNewState) {
 			// If there is a change in a facility, check if there are bikes for our waiting agents
-			final Queue<MobsimAgent> waitingAgents = agentsWaitingForArrivalPerStation.get( facilityInNewState.getId() );
+			final Queue<MobsimAgent> waitingAgents = agentsWaitingForArrivalPerStation[ getStationIndex( facilityInNewState ) ];
 			if ( waitingAgents == null ) return;
 
 			while ( facilityInNewState.getNumberOfBikes() < facilityInNewState.getCapacity() && !waitingAgents.isEmpty() ) {
@@ -133,22 +168,30 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 
 	@Override
 	public void doSimStep(double time) {
-		final Collection<MobsimAgent> agentsToArrive = arrivalQueue.retrieveAgentsForArrivalTime( time );
-		for ( MobsimAgent agent : agentsToArrive ) {
-			final StatefulBikeSharingFacility arrivalFacility = getArrivalFacility( agent );
+		currentTime = time;
+		if ( arrivalQueue.skipUntil( time ) ) return;
+
+		// handle agents only once all due ones are retrieved: agents departing again during the step arrive at the next step at the earliest
+		arrivalQueue.processUntil( time , dueArrivalsCollector );
+		if ( dueArrivals.size() > 1 ) Collections.sort( dueArrivals , COMPARATOR );
+		for ( Arrival arrival : dueArrivals ) handleArrival( arrival.agent );
+		dueArrivals.clear();
+	}
 
-			if ( arrivalFacility.getCapacity() > arrivalFacility.getNumberOfBikes() ) {
-				makeAgentArrive( time , agent , arrivalFacility );
-			}
-			else {
-				addAgentToWaitingList( agent , arrivalFacility , agentsWaitingForArrivalPerStation );
+	private void handleArrival( final MobsimAgent agent ) {
+		final StatefulBikeSharingFacility arrivalFacility = getArrivalFacility( agent );
 
-				eventsManager.processEvent(
-						new AgentStartsWaitingForFreeBikeSlotEvent(
-								internalInterface.getMobsim().getSimTimer().getTimeOfDay(),
-								agent.getId(),
-								arrivalFacility.getId()));
-			}
+		if ( arrivalFacility.getCapacity() > arrivalFacility.getNumberOfBikes() ) {
+			makeAgentArrive( currentTime , agent , arrivalFacility );
+		}
+		else {
+			addAgentToWaitingList( agent , arrivalFacility , agentsWaitingForArrivalPerStation );
+
+			eventsManager.processEvent(
+					new AgentStartsWaitingForFreeBikeSlotEvent(
+							internalInterface.getMobsim().getSimTimer().getTimeOfDay(),
+							agent.getId(),
+							arrivalFacility.getId()));
 		}
 	}
 
@@ -170,19 +213,25 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 	public void afterSim() {
 		final double now = internalInterface.getMobsim().getSimTimer().getTimeOfDay();
 
-		for ( MobsimAgent travelingAgent : arrivalQueue.retrieveAgentsForArrivalTime( Double.POSITIVE_INFINITY ) ) {
+		final List<Arrival> travelingAgents = new ArrayList<Arrival>( arrivalQueue.size() );
+		arrivalQueue.forEach( travelingAgents::add );
+		Collections.sort( travelingAgents , COMPARATOR );
+		for ( Arrival arrival : travelingAgents ) {
+			final MobsimAgent travelingAgent = arrival.agent;
 			eventsManager.processEvent(
 					new PersonStuckEvent(now, travelingAgent.getId(), travelingAgent.getDestinationLinkId(), travelingAgent.getMode()));
 		}
 
-		for ( Collection<MobsimAgent> queue : agentsWaitingForDeparturePerStation.values() ) {
+		for ( Collection<MobsimAgent> queue : agentsWaitingForDeparturePerStation ) {
+			if ( queue == null ) continue;
 			for ( MobsimAgent waitingAgent : queue ) {
 				eventsManager.processEvent(
 						new PersonStuckEvent(now, waitingAgent.getId(), waitingAgent.getDestinationLinkId(), waitingAgent.getMode()));
 			}
 		}
 
-		for ( Collection<MobsimAgent> queue : agentsWaitingForArrivalPerStation.values() ) {
+		for ( Collection<MobsimAgent> queue : agentsWaitingForArrivalPerStation ) {
+			if ( queue == null ) continue;
 			for ( MobsimAgent waitingAgent : queue ) {
 				eventsManager.processEvent(
 						new PersonStuckEvent(now, waitingAgent.getId(), waitingAgent.getDestinationLinkId(), waitingAgent.getMode()));
@@ -225,13 +274,16 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 	private void addAgentToWaitingList(
 			final MobsimAgent agent,
 			final StatefulBikeSharingFacility departureFacility,
-			final Map<Id, Queue<MobsimAgent>> queues) {
-		final Queue<MobsimAgent> queue =
-			MapUtils.getArbitraryObject(
-					departureFacility.getId(),
-					queues,
-					queueFactory);
-		queue.add( agent );
+			final Queue<MobsimAgent>[] queues) {
+		final int index = getStationIndex( departureFacility );
+		if ( queues[ index ] == null ) queues[ index ] = new ArrayDeque<MobsimAgent>();
+		queues[ index ].add( agent );
+	}
+
+	private int getStationIndex( final StatefulBikeSharingFacility facility ) {
+		final int index = stationIndices.get( facility.getId() );
+		if ( index < 0 ) throw new IllegalArgumentException( "unknown bike sharing station "+facility.getId() );
+		return index;
 	}
 
 	private void makeAgentDepart(
@@ -243,7 +295,7 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 			throw new RuntimeException( "agent "+agent+" has an undefined travel time for its bike sharing leg" );
 		}
 
-		arrivalQueue.addAgent( now + tt , agent );
+		arrivalQueue.add( now + tt , new Arrival( now + tt , agent ) );
 		bikeSharingManager.takeBike( departureFacility.getId() );
 		// XXX no need to fire departure event?
 	}
@@ -259,39 +311,14 @@ public class BikeSharingEngine implements DepartureHandler, MobsimEngine {
 		final BikeSharingRoute route = (BikeSharingRoute) leg.getRoute();
 		return bikeSharingManager.getFacilities().get( route.getDestinationStation() );
 	}
-}
-
-class ArrivalQueue {
-	private final Queue<Tuple<Double, MobsimAgent>> teleportationList =
-		new PriorityQueue<Tuple<Double, MobsimAgent>>(
-				30,
-				new Comparator<Tuple<Double, MobsimAgent>>() {
-
-					@Override
-					public int compare(Tuple<Double, MobsimAgent> o1, Tuple<Double, MobsimAgent> o2) {
-						int ret = o1.getFirst().compareTo(o2.getFirst()); // first compare time information
-						if (ret == 0) {
-							ret = o2.getSecond().getId().compareTo(o1.getSecond().getId()); // if they're equal, compare the Ids: the one with the larger Id should be first
-						}
-						return ret;
-					}
-				});
-
-	public void addAgent( final double arrivalTime , final MobsimAgent agent ) {
-		teleportationList.add( new Tuple<Double, MobsimAgent>( arrivalTime , agent ) );
-	}
-
-	public Collection<MobsimAgent> retrieveAgentsForArrivalTime( final double arrivalTime ) {
-		final Collection<MobsimAgent> agents = new ArrayList<MobsimAgent>();
 
-		while ( !teleportationList.isEmpty() ) {
-			final Tuple<Double, MobsimAgent> entry = teleportationList.element();
-			if (entry.getFirst().doubleValue() > arrivalTime ) return agents;
+	private static final class Arrival {
+		private final double time;
+		private final MobsimAgent agent;
 
-			teleportationList.remove();
-			agents.add( entry.getSecond() );
+		private Arrival( final double time , final MobsimAgent agent ) {
+			this.time = time;
+			this.agent = agent;
 		}
-
-		return agents;
 	}
 }
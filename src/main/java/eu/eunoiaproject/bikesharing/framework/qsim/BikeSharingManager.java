@@ -29,6 +29,21 @@ public interface BikeSharingManager {
 
 	public void addListener(BikeSharingManagerListener l);
 
+	/**
+	 * Adds a listener which is notified at each change, even if notifications to normal
+	 * listeners are coalesced. This is meant for listeners that need to react before anything
+	 * else happens at the station, such as the waiting queues of the {@link BikeSharingEngine}.
+	 */
+	public void addSynchronousListener(BikeSharingManagerListener l);
+
+	/**
+	 * If notifications are coalesced, notifies the listeners once for each facility that changed
+	 * since the last call. Does nothing otherwise.
+	 *
+	 * @see PendingBikeSharingChangesNotifier
+	 */
+	public void notifyPendingChanges();
+
 	public Map<Id, ? extends StatefulBikeSharingFacility> getFacilities();
 
 	public Map<Id, ? extends Collection<? extends StatefulBikeSharingFacility>> getFacilitiesAtLinks();
@@ -41,11 +41,13 @@ import java.util.Random;
 public class BikeSharingManagerImpl implements BikeSharingManager {
 	private final Map<Id, MutableStatefulBikeSharingFacility> facilities;
 	private final Map<Id, List<MutableStatefulBikeSharingFacility>> facilitiesAtLinks;
-	private final CompositeListener listener = new CompositeListener();
+	private final CompositeListener listener;
 
 	public BikeSharingManagerImpl(
 			final BikeSharingConfigGroup config,
 			final BikeSharingFacilities input ) {
+		this.listener = new CompositeListener( config.isCoalesceListenerNotifications() );
+
 		final Map<Id, MutableStatefulBikeSharingFacility> map =
 			new LinkedHashMap<Id, MutableStatefulBikeSharingFacility>();
 		this.facilities = Collections.unmodifiableMap( map );
@@ -82,6 +84,16 @@ public class BikeSharingManagerImpl implements BikeSharingManager {
 		listener.addListener( l );
 	}
 
+	@Override
+	public void addSynchronousListener( final BikeSharingManagerListener l ) {
+		listener.addSynchronousListener( l );
+	}
+
+	@Override
+	public void notifyPendingChanges() {
+		listener.notifyPendingChanges();
+	}
+
 	@Override
 	public Map<Id, ? extends StatefulBikeSharingFacility> getFacilities() {
 		return facilities;
@@ -92,11 +92,12 @@ public class BikeSharingWithoutRelocationQsimFactory implements MobsimFactory {
 							BikeSharingFacilities.ELEMENT_NAME ) );
 		final BikeSharingEngine bikeSharingEngine =
 			new BikeSharingEngine(
-					bikeSharingManager, eventsManager);
+					bikeSharingManager, eventsManager, conf.getTimeStepSize());
 		qSim.addDepartureHandler( bikeSharingEngine );
 		qSim.addMobsimEngine( bikeSharingEngine );
 
 		bikeSharingManager.addListener( new FacilityStateChangeRepeater( qSim ) );
+		qSim.addQueueSimulationListeners( new PendingBikeSharingChangesNotifier( bikeSharingManager ) );
 		// here ends the modified part.
 		//
 		// A relocation strategy could be added here,
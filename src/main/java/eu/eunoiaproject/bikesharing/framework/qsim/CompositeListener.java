@@ -16,23 +16,59 @@
  *   See also COPYING, LICENSE and WARRANTY file                           *
  *                                                                         *
  * *********************************************************************** */
-
 package eu.eunoiaproject.bikesharing.framework.qsim;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
-
+/**
+ * Dispatches facility changes to a set of listeners.
+ * <br>
+ * In coalescing mode, only synchronous listeners are notified at each change. The other listeners are notified
+ * once per changed facility, with its final state, when {@link #notifyPendingChanges()} is called
+ * (typically at the end of each time step).
+ */
 class CompositeListener implements BikeSharingManagerListener {
+	private final List<BikeSharingManagerListener> synchronousListeners = new ArrayList<BikeSharingManagerListener>();
 	private final List<BikeSharingManagerListener> listeners = new ArrayList<BikeSharingManagerListener>();
 
+	private final boolean coalesce;
+	// linked, so that listeners are notified in the order of the first change, independently of hash codes
+	private final Set<StatefulBikeSharingFacility> dirtyFacilities = new LinkedHashSet<StatefulBikeSharingFacility>();
+	private final List<StatefulBikeSharingFacility> facilitiesToNotify = new ArrayList<StatefulBikeSharingFacility>();
+
+	public CompositeListener( final boolean coalesce ) {
+		this.coalesce = coalesce;
+	}
+
 	public void addListener( final BikeSharingManagerListener l ) {
 		listeners.add( l );
 	}
 
+	public void addSynchronousListener( final BikeSharingManagerListener l ) {
+		synchronousListeners.add( l );
+	}
+
 	@Override
 	public void handleChange(final StatefulBikeSharingFacility f) {
-		for ( BikeSharingManagerListener l : listeners ) l.handleChange( f );
+		for ( BikeSharingManagerListener l : synchronousListeners ) l.handleChange( f );
+
+		if ( coalesce ) dirtyFacilities.add( f );
+		else for ( BikeSharingManagerListener l : listeners ) l.handleChange( f );
 	}
 
+	public void notifyPendingChanges() {
+		// listeners may themselves change facilities (think relocation): loop until nothing changes anymore
+		while ( !dirtyFacilities.isEmpty() ) {
+			facilitiesToNotify.addAll( dirtyFacilities );
+			dirtyFacilities.clear();
+
+			for ( StatefulBikeSharingFacility f : facilitiesToNotify ) {
+				for ( BikeSharingManagerListener l : listeners ) l.handleChange( f );
+			}
+			facilitiesToNotify.clear();
+		}
+	}
 }
@@ -43,7 +43,7 @@ import java.util.Map;
 public class GlobalCapacityBikeSharingManager implements BikeSharingManager {
 	private final Map<Id, DummyStatefulBikeSharingFacility> facilities;
 	private final Map<Id, List<DummyStatefulBikeSharingFacility>> facilitiesAtLinks;
-	private final CompositeListener listener = new CompositeListener();
+	private final CompositeListener listener;
 	
 	private int capacity = 0;
 	private int bikesAtStations = 0;
@@ -51,6 +51,8 @@ public class GlobalCapacityBikeSharingManager implements BikeSharingManager {
 	public GlobalCapacityBikeSharingManager(
 			final BikeSharingConfigGroup config,
 			final BikeSharingFacilities input ) {
+		this.listener = new CompositeListener( config.isCoalesceListenerNotifications() );
+
 		final Map<Id, DummyStatefulBikeSharingFacility> map =
 			new LinkedHashMap<Id, DummyStatefulBikeSharingFacility>();
 		this.facilities = Collections.unmodifiableMap( map );
@@ -82,6 +84,16 @@ public class GlobalCapacityBikeSharingManager implements BikeSharingManager {
 		listener.addListener( l );
 	}
 
+	@Override
+	public void addSynchronousListener( final BikeSharingManagerListener l ) {
+		listener.addSynchronousListener( l );
+	}
+
+	@Override
+	public void notifyPendingChanges() {
+		listener.notifyPendingChanges();
+	}
+
 	@Override
 	public Map<Id, ? extends StatefulBikeSharingFacility> getFacilities() {
 		return facilities;
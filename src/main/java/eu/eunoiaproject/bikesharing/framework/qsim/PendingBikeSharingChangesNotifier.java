@@ -0,0 +1,42 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2014 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package eu.eunoiaproject.bikesharing.framework.qsim;
+
+import org.matsim.core.mobsim.framework.events.MobsimAfterSimStepEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimAfterSimStepListener;
+
+/**
+ * Notifies the listeners of a {@link BikeSharingManager} of the changes of the time step,
+ * once all engines are done with it. Only has an effect if notifications are coalesced,
+ * but can be added in any case.
+ *
+ * @author thibautd
+ */
+public class PendingBikeSharingChangesNotifier implements MobsimAfterSimStepListener {
+	private final BikeSharingManager manager;
+
+	public PendingBikeSharingChangesNotifier( final BikeSharingManager manager ) {
+		this.manager = manager;
+	}
+
+	@Override
+	public void notifyMobsimAfterSimStep( final MobsimAfterSimStepEvent e ) {
+		manager.notifyPendingChanges();
+	}
+}
@@ -20,11 +20,16 @@
 package eu.eunoiaproject.bikesharing.framework.router;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import eu.eunoiaproject.bikesharing.framework.BikeSharingConstants;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingConfigGroup;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacilities;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacility;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingRoute;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.Activity;
@@ -38,14 +43,19 @@ import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.router.RoutingModule;
 import org.matsim.core.router.StageActivityTypes;
 import org.matsim.core.router.StageActivityTypesImpl;
+import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.facilities.Facility;
+import playground.ivt.router.lazyschedulebasedmatrix.BoundedStripedLongMap;
 
 import javax.inject.Named;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * a {@link RoutingModule} for bike sharing trips.
@@ -54,6 +64,9 @@ import java.util.Random;
  * The choice of the station is randomized, so that during the process,
  * agents learn the best station (the best ration bike availability/travel distance)
  * by themselves.
+ * <br>
+ * Candidate stations and bike routes between stations are looked up in a {@link StationIndex},
+ * which is shared by all instances, so that only the walk legs need to be routed for each trip.
  *
  * @author thibautd
  */
@@ -62,22 +75,20 @@ public class BikeSharingRoutingModule implements RoutingModule {
 
 
 	private final Random random;
-	private final BikeSharingFacilities bikeSharingFacilities;
-	private final double searchRadius;
+	private final StationIndex stationIndex;
 
 	private final RoutingModule walkRouting;
 	private final RoutingModule bikeRouting;
 
 	@Inject
 	public BikeSharingRoutingModule(
-			final Scenario scenario,
+			final StationIndex stationIndex,
 			@Named( TransportMode.walk )
 			final RoutingModule walkRouting,
 			@Named( TransportMode.bike )
 			final RoutingModule bikeRouting) {
 		this(MatsimRandom.getLocalInstance(),
-				(BikeSharingFacilities) scenario.getScenarioElement( BikeSharingFacilities.ELEMENT_NAME ),
-				((BikeSharingConfigGroup) scenario.getConfig().getModule( BikeSharingConfigGroup.GROUP_NAME )).getSearchRadius(),
+				stationIndex,
 				walkRouting,
 				bikeRouting );
 	}
@@ -88,9 +99,19 @@ public class BikeSharingRoutingModule implements RoutingModule {
 			final double searchRadius,
 			final RoutingModule walkRouting,
 			final RoutingModule bikeRouting) {
+		this( random,
+				new StationIndex( bikeSharingFacilities , searchRadius , false ),
+				walkRouting,
+				bikeRouting );
+	}
+
+	public BikeSharingRoutingModule(
+			final Random random,
+			final StationIndex stationIndex,
+			final RoutingModule walkRouting,
+			final RoutingModule bikeRouting) {
 		this.random = random;
-		this.bikeSharingFacilities = bikeSharingFacilities;
-		this.searchRadius = searchRadius;
+		this.stationIndex = stationIndex;
 		this.walkRouting = walkRouting;
 		this.bikeRouting = bikeRouting;
 	}
@@ -151,6 +172,15 @@ public class BikeSharingRoutingModule implements RoutingModule {
 			final BikeSharingFacility endStation,
 			final double departureTime,
 			final Person person) {
+		final BikeSharingRoute cachedRoute = stationIndex.getCachedRoute( startStation , endStation );
+		if ( cachedRoute != null ) {
+			final Leg leg = PopulationUtils.createLeg( BikeSharingConstants.MODE );
+			leg.setDepartureTime( departureTime );
+			leg.setTravelTime( cachedRoute.getTravelTime() );
+			leg.setRoute( cachedRoute );
+			return Collections.singletonList( leg );
+		}
+
 		final List<? extends PlanElement> trip =
 			bikeRouting.calcRoute(
 					startStation,
@@ -165,6 +195,7 @@ public class BikeSharingRoutingModule implements RoutingModule {
 
 		leg.setMode( BikeSharingConstants.MODE );
 		leg.setRoute( convertToBikeSharingRoute( leg.getRoute() , startStation , endStation ) );
+		stationIndex.cacheRoute( startStation , endStation , (BikeSharingRoute) leg.getRoute() );
 
 		return trip;
 	}
@@ -215,23 +246,198 @@ public class BikeSharingRoutingModule implements RoutingModule {
 	private BikeSharingFacility chooseCloseStation(
 			final Facility facility,
 			final double maxSearchRadius ) {
-		final Collection<BikeSharingFacility> stationsInRadius =
-			bikeSharingFacilities.getCurrentQuadTree().getDisk(
-					facility.getCoord().getX(),
-					facility.getCoord().getY(),
-					Math.min(
-							searchRadius,
-							maxSearchRadius));
-		return stationsInRadius.isEmpty() ?
-			bikeSharingFacilities.getCurrentQuadTree().getClosest(
-					facility.getCoord().getX(),
-					facility.getCoord().getY()) :
-			new ArrayList<BikeSharingFacility>( stationsInRadius ).get( random.nextInt( stationsInRadius.size() ) );
+		final StationIndex.Candidates candidates = stationIndex.getCandidates( facility.getCoord() );
+		final int nStationsInRadius = candidates.getNumberOfStationsWithin( maxSearchRadius );
+		return nStationsInRadius == 0 ?
+			candidates.closest :
+			candidates.stations[ random.nextInt( nStationsInRadius ) ];
 	}
 
 	@Override
 	public StageActivityTypes getStageActivityTypes() {
 		return stageTypes;
 	}
-}
 
+	/**
+	 * Stores, for the most recently routed origin and destination locations, the stations within the search radius,
+	 * sorted by distance, so that choosing a station for a trip only needs a binary search.
+	 * <br>
+	 * If switched on in the config group, bike routes between stations are stored in a station-to-station matrix,
+	 * with rows created on demand. This is only valid if bike routes depend neither on the departure time
+	 * nor on the person.
+	 * <br>
+	 * This class is thread safe.
+	 */
+	@Singleton
+	public static class StationIndex {
+		private static final int N_STRIPES = 64;
+
+		private final BikeSharingFacilities bikeSharingFacilities;
+		private final double searchRadius;
+		private final boolean cacheRoutes;
+
+		// least recently used locations are forgotten when there are too many
+		private final BoundedStripedLongMap<Candidates> candidatesPerLocation;
+
+		private final TObjectIntMap<Id<BikeSharingFacility>> stationIndices;
+		private final AtomicReferenceArray<AtomicReferenceArray<BikeSharingRoute>> routes;
+
+		@Inject
+		public StationIndex( final Scenario scenario ) {
+			this( (BikeSharingFacilities) scenario.getScenarioElement( BikeSharingFacilities.ELEMENT_NAME ),
+					(BikeSharingConfigGroup) scenario.getConfig().getModule( BikeSharingConfigGroup.GROUP_NAME ) );
+		}
+
+		public StationIndex(
+				final BikeSharingFacilities bikeSharingFacilities,
+				final BikeSharingConfigGroup configGroup ) {
+			this( bikeSharingFacilities,
+					configGroup.getSearchRadius(),
+					configGroup.isCacheBikeRoutes(),
+					configGroup.getMaxCachedStationCandidates() );
+		}
+
+		public StationIndex(
+				final BikeSharingFacilities bikeSharingFacilities,
+				final double searchRadius,
+				final boolean cacheRoutes ) {
+			this( bikeSharingFacilities,
+					searchRadius,
+					cacheRoutes,
+					new BikeSharingConfigGroup().getMaxCachedStationCandidates() );
+		}
+
+		public StationIndex(
+				final BikeSharingFacilities bikeSharingFacilities,
+				final double searchRadius,
+				final boolean cacheRoutes,
+				final int maxCachedLocations ) {
+			this.bikeSharingFacilities = bikeSharingFacilities;
+			this.candidatesPerLocation = new BoundedStripedLongMap<>( maxCachedLocations , N_STRIPES );
+			this.searchRadius = searchRadius;
+			this.cacheRoutes = cacheRoutes;
+
+			final int nStations = bikeSharingFacilities.getFacilities().size();
+			this.stationIndices = new TObjectIntHashMap<>( nStations , 0.5f , -1 );
+			for ( Id<BikeSharingFacility> id : bikeSharingFacilities.getFacilities().keySet() ) {
+				stationIndices.put( id , stationIndices.size() );
+			}
+			this.routes = new AtomicReferenceArray<>( nStations );
+		}
+
+		public Candidates getCandidates( final Coord coord ) {
+			final long key = calcKey( coord );
+			final Candidates cached = candidatesPerLocation.get( key );
+			// keys are hashes: check that the entry was really created for this location
+			if ( cached != null && cached.coord.equals( coord ) ) return cached;
+
+			// two threads might compute the candidates for the same location, which is harmless
+			final Candidates candidates = createCandidates( coord );
+			candidatesPerLocation.put( key , candidates );
+			return candidates;
+		}
+
+		private static long calcKey( final Coord coord ) {
+			final long x = Double.doubleToLongBits( coord.getX() );
+			final long y = Double.doubleToLongBits( coord.getY() );
+			// mix bits, so that close locations do not end up in the same stripe
+			return ( x * 0x9E3779B97F4A7C15L ) ^ Long.rotateLeft( y * 0xC2B2AE3D27D4EB4FL , 31 );
+		}
+
+		int getNumberOfCachedLocations() {
+			return candidatesPerLocation.size();
+		}
+
+		private Candidates createCandidates( final Coord coord ) {
+			final QuadTree<BikeSharingFacility> quadTree = bikeSharingFacilities.getCurrentQuadTree();
+			final BikeSharingFacility[] stations =
+					quadTree.getDisk(
+							coord.getX(),
+							coord.getY(),
+							searchRadius ).toArray( new BikeSharingFacility[ 0 ] );
+
+			final double[] distances = new double[ stations.length ];
+			Arrays.sort(
+					stations,
+					Comparator.comparingDouble( s -> CoordUtils.calcEuclideanDistance( coord , s.getCoord() ) ) );
+			for ( int i = 0; i < stations.length; i++ ) {
+				distances[ i ] = CoordUtils.calcEuclideanDistance( coord , stations[ i ].getCoord() );
+			}
+
+			return new Candidates(
+					coord,
+					stations,
+					distances,
+					stations.length > 0 ?
+							stations[ 0 ] :
+							quadTree.getClosest( coord.getX() , coord.getY() ) );
+		}
+
+		/**
+		 * @return a copy of the cached route, that can be modified freely, or null if there is none
+		 */
+		public BikeSharingRoute getCachedRoute(
+				final BikeSharingFacility startStation,
+				final BikeSharingFacility endStation ) {
+			if ( !cacheRoutes ) return null;
+			final AtomicReferenceArray<BikeSharingRoute> row = routes.get( getIndex( startStation ) );
+			if ( row == null ) return null;
+			final BikeSharingRoute route = row.get( getIndex( endStation ) );
+			return route == null ? null : route.clone();
+		}
+
+		public void cacheRoute(
+				final BikeSharingFacility startStation,
+				final BikeSharingFacility endStation,
+				final BikeSharingRoute route ) {
+			if ( !cacheRoutes ) return;
+			final int startIndex = getIndex( startStation );
+			if ( routes.get( startIndex ) == null ) {
+				// if another thread was faster, just use its row
+				routes.compareAndSet( startIndex , null , new AtomicReferenceArray<>( routes.length() ) );
+			}
+			// store a copy, the route in the plan might be modified
+			routes.get( startIndex ).set( getIndex( endStation ) , route.clone() );
+		}
+
+		private int getIndex( final BikeSharingFacility station ) {
+			final int index = stationIndices.get( station.getId() );
+			if ( index < 0 ) throw new IllegalArgumentException( "unknown bike sharing station "+station.getId() );
+			return index;
+		}
+
+		public static class Candidates {
+			private final Coord coord;
+			// sorted by increasing distance
+			private final BikeSharingFacility[] stations;
+			private final double[] distances;
+			private final BikeSharingFacility closest;
+
+			private Candidates(
+					final Coord coord,
+					final BikeSharingFacility[] stations,
+					final double[] distances,
+					final BikeSharingFacility closest ) {
+				this.coord = coord;
+				this.stations = stations;
+				this.distances = distances;
+				this.closest = closest;
+			}
+
+			/**
+			 * @return the number of stations at a distance lower or equal to maxDistance,
+			 * as long as it is not larger than the search radius
+			 */
+			int getNumberOfStationsWithin( final double maxDistance ) {
+				int low = 0;
+				int high = distances.length;
+				while ( low < high ) {
+					final int mid = ( low + high ) >>> 1;
+					if ( distances[ mid ] <= maxDistance ) low = mid + 1;
+					else high = mid;
+				}
+				return low;
+			}
+		}
+	}
+}
@@ -23,13 +23,18 @@ import eu.eunoiaproject.bikesharing.framework.BikeSharingConstants;
 import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingConfigGroup;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.router.MainModeIdentifier;
 import org.matsim.core.router.MainModeIdentifierImpl;
 import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.scoring.functions.ScoringParameters;
 import playground.thibautd.router.multimodal.LinkSlopeScorer;
 
@@ -37,7 +42,10 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Builds a standard trip router factory for bike sharing simulations.
@@ -51,6 +59,7 @@ public class BikeSharingTripRouterModule extends AbstractModule {
 	private final LinkSlopeScorer slopeScorer;
 
 	private final TransitMultiModalAccessRoutingModule.RoutingData data;
+	private final Map<String, Network> accessSubNetworks = new HashMap<String, Network>();
 
 	public BikeSharingTripRouterModule(
 			final TransitMultiModalAccessRoutingModule.RoutingData routingData,
@@ -96,12 +105,34 @@ public class BikeSharingTripRouterModule extends AbstractModule {
 		this.routePtUsingSchedule = routePtUsingSchedule;
 	}
 
+	private synchronized Network getAccessSubNetwork( final String mode ) {
+		Network subNetwork = accessSubNetworks.get( mode );
+
+		if ( subNetwork == null ) {
+			subNetwork = NetworkUtils.createNetwork();
+			new TransportModeNetworkFilter( scenario.getNetwork() ).filter( subNetwork , Collections.singleton( mode ) );
+			accessSubNetworks.put( mode , subNetwork );
+		}
+
+		return subNetwork;
+	}
+
 	private class InitialNodePtProvider implements Provider<RoutingModule> {
 		private final RoutingModule bsRouting;
+		private final Map<String, Provider<RoutingModule>> routingModules;
+		private final Map<String, TravelTime> travelTimes;
+		private final Map<String, TravelDisutilityFactory> travelDisutilityFactories;
 
 		@Inject
-		private InitialNodePtProvider(RoutingModule bsRouting) {
+		private InitialNodePtProvider(
+				final RoutingModule bsRouting,
+				final Map<String, Provider<RoutingModule>> routingModules,
+				final Map<String, TravelTime> travelTimes,
+				final Map<String, TravelDisutilityFactory> travelDisutilityFactories) {
 			this.bsRouting = bsRouting;
+			this.routingModules = routingModules;
+			this.travelTimes = travelTimes;
+			this.travelDisutilityFactories = travelDisutilityFactories;
 		}
 
 		@Override
@@ -109,6 +140,8 @@ public class BikeSharingTripRouterModule extends AbstractModule {
 			// XXX should be person-dependent
 			final ScoringParameters scoringParams =
 					new ScoringParameters.Builder(scenario.getConfig().planCalcScore(), scenario.getConfig().planCalcScore().getScoringParameters(null), scenario.getConfig().scenario()).build();
+			final BikeSharingConfigGroup bikeSharingConfig =
+					(BikeSharingConfigGroup) scenario.getConfig().getModule( BikeSharingConfigGroup.GROUP_NAME );
 			final Collection<InitialNodeRouter> initialNodeRouters = new ArrayList<InitialNodeRouter>( 2 );
 			initialNodeRouters.add(
 					new InitialNodeRouter(
@@ -116,11 +149,25 @@ public class BikeSharingTripRouterModule extends AbstractModule {
 							scenario.getConfig().transitRouter().getSearchRadius(),
 							1,
 							scoringParams ) );
+			for ( String mode : bikeSharingConfig.getPtAccessNetworkModes() ) {
+				// one tree to all stops, rather than one route per stop
+				final TravelTime travelTime = travelTimes.get( mode );
+				if ( travelTime == null ) throw new RuntimeException( "no travel time found for pt access mode "+mode );
+				initialNodeRouters.add(
+						new NetworkInitialNodeRouter(
+								mode,
+								routingModules.get( mode ).get(),
+								getAccessSubNetwork( mode ),
+								travelTime,
+								travelDisutilityFactories.get( mode ).createTravelDisutility( travelTime ),
+								bikeSharingConfig.getPtSearchRadius(),
+								scoringParams ) );
+			}
 			if ( contains( scenario.getConfig().subtourModeChoice().getModes() , BikeSharingConstants.MODE ) ) {
 				initialNodeRouters.add(
 						new InitialNodeRouter(
 								bsRouting,
-								( (BikeSharingConfigGroup) scenario.getConfig().getModule( BikeSharingConfigGroup.GROUP_NAME ) ).getPtSearchRadius(),
+								bikeSharingConfig.getPtSearchRadius(),
 								3, // there is randomness: keep the "best" of a few draws
 								scoringParams ) {
 							@Override
@@ -30,6 +30,8 @@ import org.matsim.core.utils.misc.Time;
 import org.matsim.facilities.Facility;
 import org.matsim.pt.router.TransitRouterNetwork.TransitRouterNetworkNode;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public class InitialNodeRouter {
@@ -62,6 +64,44 @@ public class InitialNodeRouter {
 		return new InitialNodeWithSubTrip( node , cost , dep + duration , trip );
 	}
 
+	/**
+	 * Computes the trips from the facility to all the given nodes, {@link #getDesiredNumberOfCalls()} times each.
+	 * This implementation just routes each pair separately: subclasses may do better, for instance
+	 * by routing to all nodes at once.
+	 */
+	public Collection<InitialNodeWithSubTrip> calcAccessRoutes(
+			final Collection<TransitRouterNetworkNode> nodes,
+			final Facility from,
+			final double dep,
+			final Person pers) {
+		final List<InitialNodeWithSubTrip> routes = new ArrayList<InitialNodeWithSubTrip>( nodes.size() * desiredNumberOfCalls );
+		for ( TransitRouterNetworkNode node : nodes ) {
+			for ( int i=0; i < desiredNumberOfCalls; i++ ) {
+				routes.add( calcRoute( node , from , node.getStop().getStopFacility() , dep , pers ) );
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * Computes the trips from all the given nodes to the facility, {@link #getDesiredNumberOfCalls()} times each.
+	 *
+	 * @see #calcAccessRoutes(Collection, Facility, double, Person)
+	 */
+	public Collection<InitialNodeWithSubTrip> calcEgressRoutes(
+			final Collection<TransitRouterNetworkNode> nodes,
+			final Facility to,
+			final double dep,
+			final Person pers) {
+		final List<InitialNodeWithSubTrip> routes = new ArrayList<InitialNodeWithSubTrip>( nodes.size() * desiredNumberOfCalls );
+		for ( TransitRouterNetworkNode node : nodes ) {
+			for ( int i=0; i < desiredNumberOfCalls; i++ ) {
+				routes.add( calcRoute( node , node.getStop().getStopFacility() , to , dep , pers ) );
+			}
+		}
+		return routes;
+	}
+
 
 	protected double calcDuration(final List<? extends PlanElement> trip) {
 		double tt = 0;
@@ -0,0 +1,265 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2014 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package eu.eunoiaproject.bikesharing.framework.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scoring.functions.ScoringParameters;
+import org.matsim.facilities.Facility;
+import org.matsim.pt.router.TransitRouterNetwork.TransitRouterNetworkNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An {@link InitialNodeRouter} for network modes (bike, car...), which computes the routes to or from
+ * all the candidate stops with one least cost path tree from (or to) the facility, instead of one
+ * point-to-point search per stop. The tree is only grown until all stops are reached.
+ * <br>
+ * The legs are built the same way as the ones of a network routing module for the same mode,
+ * which is still used for direct trips. The route of egress legs is computed as if they started at
+ * the departure time of the trip, as with point-to-point routing.
+ * As the result is deterministic, each stop is routed only once.
+ *
+ * @author thibautd
+ */
+public class NetworkInitialNodeRouter extends InitialNodeRouter {
+	private final String mode;
+	private final Network network;
+	private final TravelTime travelTime;
+	private final TravelDisutility travelDisutility;
+
+	/**
+	 * @param delegate the routing module for the mode, used for direct trips
+	 * @param network the network the mode can use
+	 */
+	public NetworkInitialNodeRouter(
+			final String mode,
+			final RoutingModule delegate,
+			final Network network,
+			final TravelTime travelTime,
+			final TravelDisutility travelDisutility,
+			final double searchRadius,
+			final ScoringParameters scoringParams) {
+		super( delegate , searchRadius , 1 , scoringParams );
+		this.mode = mode;
+		this.network = network;
+		this.travelTime = travelTime;
+		this.travelDisutility = travelDisutility;
+	}
+
+	@Override
+	public Collection<InitialNodeWithSubTrip> calcAccessRoutes(
+			final Collection<TransitRouterNetworkNode> nodes,
+			final Facility from,
+			final double dep,
+			final Person pers) {
+		final Link fromLink = network.getLinks().get( from.getLinkId() );
+		if ( fromLink == null ) return super.calcAccessRoutes( nodes , from , dep , pers );
+
+		final Set<Node> targets = new HashSet<Node>();
+		for ( TransitRouterNetworkNode node : nodes ) {
+			final Link stopLink = getStopLink( node );
+			if ( stopLink != null ) targets.add( stopLink.getFromNode() );
+		}
+
+		final Map<Node, NodeData> tree = growTree( fromLink.getToNode() , targets , true , dep , pers );
+
+		final List<InitialNodeWithSubTrip> routes = new ArrayList<InitialNodeWithSubTrip>( nodes.size() );
+		for ( TransitRouterNetworkNode node : nodes ) {
+			final Link stopLink = getStopLink( node );
+			if ( stopLink == fromLink ) {
+				routes.add( createInitialNode( node , fromLink , Collections.<Id<Link>>emptyList() , stopLink , 0 , dep ) );
+				continue;
+			}
+
+			final NodeData target = stopLink == null ? null : tree.get( stopLink.getFromNode() );
+			if ( target == null ) {
+				// not in the network of the mode, or not reachable: let the delegate decide what to do
+				routes.add( calcRoute( node , from , node.getStop().getStopFacility() , dep , pers ) );
+				continue;
+			}
+
+			// follow the tree back to the root
+			final List<Id<Link>> links = new ArrayList<Id<Link>>();
+			for ( NodeData d = target; d.link != null; d = tree.get( d.link.getFromNode() ) ) {
+				links.add( d.link.getId() );
+			}
+			Collections.reverse( links );
+
+			routes.add( createInitialNode( node , fromLink , links , stopLink , target.time - dep , dep ) );
+		}
+		return routes;
+	}
+
+	@Override
+	public Collection<InitialNodeWithSubTrip> calcEgressRoutes(
+			final Collection<TransitRouterNetworkNode> nodes,
+			final Facility to,
+			final double dep,
+			final Person pers) {
+		final Link toLink = network.getLinks().get( to.getLinkId() );
+		if ( toLink == null ) return super.calcEgressRoutes( nodes , to , dep , pers );
+
+		final Set<Node> targets = new HashSet<Node>();
+		for ( TransitRouterNetworkNode node : nodes ) {
+			final Link stopLink = getStopLink( node );
+			if ( stopLink != null ) targets.add( stopLink.getToNode() );
+		}
+
+		final Map<Node, NodeData> tree = growTree( toLink.getFromNode() , targets , false , dep , pers );
+
+		final List<InitialNodeWithSubTrip> routes = new ArrayList<InitialNodeWithSubTrip>( nodes.size() );
+		for ( TransitRouterNetworkNode node : nodes ) {
+			final Link stopLink = getStopLink( node );
+			if ( stopLink == toLink ) {
+				routes.add( createInitialNode( node , stopLink , Collections.<Id<Link>>emptyList() , toLink , 0 , dep ) );
+				continue;
+			}
+
+			final NodeData source = stopLink == null ? null : tree.get( stopLink.getToNode() );
+			if ( source == null ) {
+				// not in the network of the mode, or not reachable: let the delegate decide what to do
+				routes.add( calcRoute( node , node.getStop().getStopFacility() , to , dep , pers ) );
+				continue;
+			}
+
+			// the tree is backwards: following it goes towards the facility
+			final List<Id<Link>> links = new ArrayList<Id<Link>>();
+			for ( NodeData d = source; d.link != null; d = tree.get( d.link.getToNode() ) ) {
+				links.add( d.link.getId() );
+			}
+
+			// time in the backwards tree is the duration to reach the facility
+			routes.add( createInitialNode( node , stopLink , links , toLink , source.time , dep ) );
+		}
+		return routes;
+	}
+
+	private Link getStopLink( final TransitRouterNetworkNode node ) {
+		return network.getLinks().get( node.getStop().getStopFacility().getLinkId() );
+	}
+
+	private InitialNodeWithSubTrip createInitialNode(
+			final TransitRouterNetworkNode node,
+			final Link startLink,
+			final List<Id<Link>> links,
+			final Link endLink,
+			final double tt,
+			final double dep) {
+		final NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl( startLink.getId() , endLink.getId() );
+		route.setLinkIds( startLink.getId() , links , endLink.getId() );
+		route.setTravelTime( tt );
+		route.setDistance(
+				startLink == endLink ?
+					0 :
+					RouteUtils.calcDistanceExcludingStartEndLink( route , network ) + endLink.getLength() );
+
+		final Leg leg = PopulationUtils.createLeg( mode );
+		leg.setDepartureTime( dep );
+		leg.setTravelTime( tt );
+		leg.setRoute( route );
+
+		final List<PlanElement> trip = Collections.<PlanElement>singletonList( leg );
+		return new InitialNodeWithSubTrip( node , calcCost( trip ) , dep + calcDuration( trip ) , trip );
+	}
+
+	/**
+	 * Dijkstra, stopped as soon as all targets are settled.
+	 * In the forward direction, the time stored for each node is the arrival time,
+	 * in the backward direction, it is the travel time to the root, assuming departure at the given time.
+	 */
+	private Map<Node, NodeData> growTree(
+			final Node root,
+			final Set<Node> targets,
+			final boolean forward,
+			final double dep,
+			final Person person) {
+		final Map<Node, NodeData> settled = new HashMap<Node, NodeData>();
+		final PriorityQueue<NodeData> queue = new PriorityQueue<NodeData>();
+		queue.add( new NodeData( root , null , 0 , forward ? dep : 0 ) );
+
+		int nTargetsToSettle = targets.size();
+		while ( !queue.isEmpty() && nTargetsToSettle > 0 ) {
+			final NodeData current = queue.poll();
+			// lazy deletion: a node can be in the queue several times, only the first one counts
+			if ( settled.containsKey( current.node ) ) continue;
+			settled.put( current.node , current );
+			if ( targets.contains( current.node ) ) nTargetsToSettle--;
+
+			final Collection<? extends Link> links =
+					forward ?
+						current.node.getOutLinks().values() :
+						current.node.getInLinks().values();
+			for ( Link l : links ) {
+				final Node next = forward ? l.getToNode() : l.getFromNode();
+				if ( settled.containsKey( next ) ) continue;
+
+				final double linkTime = forward ? current.time : dep;
+				final double cost = current.cost + travelDisutility.getLinkTravelDisutility( l , linkTime , person , null );
+				final double time = current.time + travelTime.getLinkTravelTime( l , linkTime , person , null );
+				queue.add( new NodeData( next , l , cost , time ) );
+			}
+		}
+
+		return settled;
+	}
+
+	private static class NodeData implements Comparable<NodeData> {
+		private final Node node;
+		// the link used to reach the node in the tree
+		private final Link link;
+		private final double cost;
+		private final double time;
+
+		private NodeData(
+				final Node node,
+				final Link link,
+				final double cost,
+				final double time) {
+			this.node = node;
+			this.link = link;
+			this.cost = cost;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo( final NodeData o ) {
+			return Double.compare( cost , o.cost );
+		}
+	}
+}
@@ -329,32 +329,20 @@ public class TransitMultiModalAccessRoutingModule implements RoutingModule {
 							distance + data.config.getExtensionRadius());
 		}
 
-		for (TransitRouterNetworkNode node : nearestNodes) {
-			for ( int i=0; i < router.getDesiredNumberOfCalls(); i++ ) {
-				switch ( direction ) {
-				case access:
-					wrappedNearestNodes.put(
-							node,
-							router.calcRoute(
-								node,
-								facility,
-								node.getStop().getStopFacility(),
-								departureTime,
-								person) );
-					break;
-				case egress:
-					wrappedNearestNodes.put(
-							node,
-							router.calcRoute(
-								node,
-								node.getStop().getStopFacility(),
-								facility,
-								departureTime,
-								person) );
-					break;
-				default: throw new RuntimeException( direction+"?" );
-				}
-			}
+		// routers are asked for all nodes at once, so that they can use one-to-many searches
+		final Collection<InitialNodeWithSubTrip> initialNodes;
+		switch ( direction ) {
+		case access:
+			initialNodes = router.calcAccessRoutes( nearestNodes , facility , departureTime , person );
+			break;
+		case egress:
+			initialNodes = router.calcEgressRoutes( nearestNodes , facility , departureTime , person );
+			break;
+		default: throw new RuntimeException( direction+"?" );
+		}
+
+		for ( InitialNodeWithSubTrip initialNode : initialNodes ) {
+			wrappedNearestNodes.put( initialNode.getNode() , initialNode );
 		}
 	}
 
@@ -20,8 +20,11 @@
 package eu.eunoiaproject.bikesharing.framework.scenario;
 
 import org.matsim.core.config.ReflectiveConfigGroup;
+import org.matsim.core.utils.collections.CollectionUtils;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Stores the parameters from the config file for a bike sharing simulation.
@@ -34,10 +37,15 @@ public class BikeSharingConfigGroup extends ReflectiveConfigGroup {
 	private String facilitiesFile = null;
 	private double searchRadius = 500;
 	private double ptSearchRadius = 5000;
+	private boolean cacheBikeRoutes = false;
+	private int maxCachedStationCandidates = 100000;
+	private Set<String> ptAccessNetworkModes = Collections.emptySet();
 	
 	private double initialBikesRate = 1;
 	private double capacityRate = 1;
 
+	private boolean coalesceListenerNotifications = false;
+
 	public BikeSharingConfigGroup() {
 		super( GROUP_NAME );
 	}
@@ -47,8 +55,13 @@ public class BikeSharingConfigGroup extends ReflectiveConfigGroup {
 		final Map<String, String> comments = super.getComments();
 
 		comments.put( "searchRadius" , "the radius of the circles, centered on the origin and destination, within which the bike sharing stations will be seached for. In meters." );
+		comments.put( "coalesceListenerNotifications" , "if true, listeners of the state of bike sharing stations (for instance the one generating events) are notified only once per station and time step, with the state at the end of the time step, instead of at each taken or returned bike. Agents waiting for bikes or free slots are served exactly as without coalescing." );
+		comments.put( "cacheBikeRoutes" , "if true, bike routes between stations are computed only once and then reused for all agents. Only set to true if bike travel times depend neither on the time of day nor on the person (multimodal bike travel times for instance depend on age and sex, if known)." );
+		comments.put( "maxCachedStationCandidates" , "the maximum number of origin or destination locations for which the bike sharing stations within searchRadius are kept in memory. Least recently used locations are forgotten first. Non-positive values mean no limit." );
 		comments.put( "ptSearchRadius" , "the radius of the circles, centered on the origin and destination, within which the public transport stops to be accessed or egressed by bike sharing will be searched for. In meters." );
 
+		comments.put( "ptAccessNetworkModes" , "network modes (for instance bike) that can be used to access or egress public transport, in addition to bike sharing. Stops within ptSearchRadius are routed with one least cost path tree per trip." );
+
 		return comments;
 	}
 
@@ -92,6 +105,26 @@ public class BikeSharingConfigGroup extends ReflectiveConfigGroup {
 		this.ptSearchRadius = ptSearchRadius;
 	}
 
+	@StringGetter( "cacheBikeRoutes" )
+	public boolean isCacheBikeRoutes() {
+		return cacheBikeRoutes;
+	}
+
+	@StringSetter( "cacheBikeRoutes" )
+	public void setCacheBikeRoutes(final boolean cacheBikeRoutes) {
+		this.cacheBikeRoutes = cacheBikeRoutes;
+	}
+
+	@StringGetter( "maxCachedStationCandidates" )
+	public int getMaxCachedStationCandidates() {
+		return maxCachedStationCandidates;
+	}
+
+	@StringSetter( "maxCachedStationCandidates" )
+	public void setMaxCachedStationCandidates(final int maxCachedStationCandidates) {
+		this.maxCachedStationCandidates = maxCachedStationCandidates;
+	}
+
 	@StringGetter( "initialBikesRate" )
 	public double getInitialBikesRate() {
 		return initialBikesRate;
@@ -113,5 +146,32 @@ public class BikeSharingConfigGroup extends ReflectiveConfigGroup {
 		if ( capacityRate < 0 || capacityRate > 1 ) throw new IllegalArgumentException( ""+capacityRate );
 		this.capacityRate = capacityRate;
 	}
-}
 
+	@StringGetter( "coalesceListenerNotifications" )
+	public boolean isCoalesceListenerNotifications() {
+		return coalesceListenerNotifications;
+	}
+
+	@StringSetter( "coalesceListenerNotifications" )
+	public void setCoalesceListenerNotifications(final boolean coalesceListenerNotifications) {
+		this.coalesceListenerNotifications = coalesceListenerNotifications;
+	}
+
+	public Set<String> getPtAccessNetworkModes() {
+		return ptAccessNetworkModes;
+	}
+
+	@StringGetter( "ptAccessNetworkModes" )
+	private String getStringPtAccessNetworkModes() {
+		return CollectionUtils.setToString( ptAccessNetworkModes );
+	}
+
+	public void setPtAccessNetworkModes(final Set<String> ptAccessNetworkModes) {
+		this.ptAccessNetworkModes = ptAccessNetworkModes;
+	}
+
+	@StringSetter( "ptAccessNetworkModes" )
+	private void setStringPtAccessNetworkModes(final String ptAccessNetworkModes) {
+		this.ptAccessNetworkModes = CollectionUtils.stringToSet( ptAccessNetworkModes );
+	}
+}
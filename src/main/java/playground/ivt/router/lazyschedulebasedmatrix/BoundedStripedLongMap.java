@@ -0,0 +1,161 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread safe map from primitive long keys to values, with an (approximate) least-recently-used eviction.
+ * <br>
+ * The keys are spread over a fixed number of stripes, each with its own hash map and read-write lock,
+ * so that reads never block each other and writes only block accesses to the same stripe.
+ * Each stripe has a logical clock, and each entry remembers the time of its last access.
+ * When a stripe exceeds its share of the maximum size, the least recently accessed entries are removed
+ * until the stripe is back to three quarters of its share. This makes eviction cost amortized logarithmic
+ * per insertion, and keeps reads free of any structural modification.
+ *
+ * @author thibautd
+ */
+public final class BoundedStripedLongMap<V> {
+	private final Stripe<V>[] stripes;
+	private final int stripeBits;
+	private final int maxStripeSize;
+
+	/**
+	 * @param maxSize the maximum number of elements. Non-positive values mean "unbounded".
+	 * @param nStripes the number of stripes. Rounded up to a power of two.
+	 */
+	public BoundedStripedLongMap( final int maxSize , final int nStripes ) {
+		final int n = nStripes <= 1 ? 1 : Integer.highestOneBit( nStripes - 1 ) << 1;
+		this.stripes = new Stripe[ n ];
+		for ( int i = 0; i < n; i++ ) stripes[ i ] = new Stripe<>();
+		this.stripeBits = Integer.numberOfTrailingZeros( n );
+		this.maxStripeSize = maxSize > 0 ? Math.max( 1 , ( maxSize + n - 1 ) / n ) : Integer.MAX_VALUE;
+	}
+
+	public V get( final long key ) {
+		final Stripe<V> stripe = stripe( key );
+		stripe.lock.readLock().lock();
+		try {
+			final Entry<V> entry = stripe.map.get( key );
+			if ( entry == null ) return null;
+			entry.lastAccess = stripe.clock.incrementAndGet();
+			return entry.value;
+		}
+		finally {
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	public void put( final long key , final V value ) {
+		final Stripe<V> stripe = stripe( key );
+		stripe.lock.writeLock().lock();
+		try {
+			final Entry<V> entry = stripe.map.get( key );
+			if ( entry != null ) {
+				entry.value = value;
+				entry.lastAccess = stripe.clock.incrementAndGet();
+				return;
+			}
+			stripe.map.put( key , new Entry<>( value , stripe.clock.incrementAndGet() ) );
+			if ( stripe.map.size() > maxStripeSize ) evict( stripe );
+		}
+		finally {
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for ( Stripe<V> stripe : stripes ) {
+			stripe.lock.readLock().lock();
+			try {
+				size += stripe.map.size();
+			}
+			finally {
+				stripe.lock.readLock().unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Passes all entries to the procedure, stripe by stripe. The procedure must not modify the map.
+	 */
+	public void forEachEntry( final TLongObjectProcedure<? super V> procedure ) {
+		for ( Stripe<V> stripe : stripes ) {
+			stripe.lock.readLock().lock();
+			try {
+				final boolean goOn = stripe.map.forEachEntry( ( k , e ) -> procedure.execute( k , e.value ) );
+				if ( !goOn ) return;
+			}
+			finally {
+				stripe.lock.readLock().unlock();
+			}
+		}
+	}
+
+	private Stripe<V> stripe( final long key ) {
+		// shifting by 64 would be a no-op
+		if ( stripeBits == 0 ) return stripes[ 0 ];
+		// keys are typically packed coordinates, with a lot of structure in the lower bits: mix them
+		return stripes[ (int) ( ( key * 0x9E3779B97F4A7C15L ) >>> ( 64 - stripeBits ) ) ];
+	}
+
+	private void evict( final Stripe<V> stripe ) {
+		final long[] accesses = new long[ stripe.map.size() ];
+		int i = 0;
+		for ( Entry<V> e : stripe.map.valueCollection() ) accesses[ i++ ] = e.lastAccess;
+		Arrays.sort( accesses );
+
+		// access times are unique in a stripe
+		final int toKeep = Math.max( 1 , maxStripeSize * 3 / 4 );
+		final long threshold = accesses[ accesses.length - toKeep ];
+
+		for ( TLongObjectIterator<Entry<V>> it = stripe.map.iterator(); it.hasNext(); ) {
+			it.advance();
+			if ( it.value().lastAccess < threshold ) it.remove();
+		}
+	}
+
+	private static class Stripe<V> {
+		// stripe-level operations have to be mutually exclusive, but multiple threads can read at the same time
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final AtomicLong clock = new AtomicLong();
+		private final TLongObjectHashMap<Entry<V>> map = new TLongObjectHashMap<>();
+	}
+
+	private static class Entry<V> {
+		private V value;
+		// written by readers holding the read lock: which of concurrent accesses wins does not matter
+		private volatile long lastAccess;
+
+		private Entry( final V value , final long lastAccess ) {
+			this.value = value;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
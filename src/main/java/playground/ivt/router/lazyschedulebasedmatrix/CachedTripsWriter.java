@@ -0,0 +1,109 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import org.matsim.api.core.v01.population.PlanElement;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes cached trips in the format read by {@link LazyScheduleBasedMatrixRoutingModule.Cache#read(String)},
+ * entry by entry, so that the trips do not need to all be in memory at the same time.
+ * <br>
+ * The file is gzipped, and contains a header (format version, cell size, time bin duration) and a sequence of entries,
+ * each with the absolute coordinates of the origin and destination cells, the time slot and the trip.
+ * <br>
+ * Writing is synchronized, so that one instance can be shared by several threads.
+ *
+ * @author thibautd
+ */
+final class CachedTripsWriter implements AutoCloseable {
+	// "PTMC"
+	static final int MAGIC_NUMBER = 0x50544d43;
+	// increment each time the format changes
+	static final int FORMAT_VERSION = 1;
+
+	private final DataOutputStream stream;
+	private final TripSerializer serializer = new TripSerializer();
+	private int count = 0;
+
+	public CachedTripsWriter(
+			final String file,
+			final double cellSize_m,
+			final double timeBinDuration_s ) {
+		try {
+			this.stream =
+					new DataOutputStream(
+							new BufferedOutputStream(
+									new GZIPOutputStream(
+											new FileOutputStream( file ) ) ) );
+			stream.writeInt( MAGIC_NUMBER );
+			stream.writeInt( FORMAT_VERSION );
+			stream.writeDouble( cellSize_m );
+			stream.writeDouble( timeBinDuration_s );
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public synchronized void write(
+			final int originCellX,
+			final int originCellY,
+			final int destinationCellX,
+			final int destinationCellY,
+			final int timeSlot,
+			final List<? extends PlanElement> trip ) {
+		try {
+			stream.writeBoolean( true );
+			stream.writeInt( originCellX );
+			stream.writeInt( originCellY );
+			stream.writeInt( destinationCellX );
+			stream.writeInt( destinationCellY );
+			stream.writeInt( timeSlot );
+			serializer.writeTrip( stream , trip );
+			count++;
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			// end marker
+			stream.writeBoolean( false );
+			stream.close();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+}
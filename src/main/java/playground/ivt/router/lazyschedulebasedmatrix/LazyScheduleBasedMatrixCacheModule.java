@@ -0,0 +1,63 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import com.google.inject.Inject;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+
+/**
+ * Binds the {@link LazyScheduleBasedMatrixRoutingModule.Cache}, and writes it at shutdown if a cache file is configured,
+ * so that the next run can start with the trips of this one.
+ *
+ * @author thibautd
+ */
+public class LazyScheduleBasedMatrixCacheModule extends AbstractModule {
+	@Override
+	public void install() {
+		bind( LazyScheduleBasedMatrixRoutingModule.Cache.class );
+		addControlerListenerBinding().to( CacheWriter.class );
+	}
+
+	private static class CacheWriter implements ShutdownListener {
+		private final LazyScheduleBasedMatrixRoutingModule.Cache cache;
+		private final String cacheFile;
+
+		@Inject
+		public CacheWriter(
+				final LazyScheduleBasedMatrixRoutingModule.Cache cache,
+				final Config config ) {
+			this.cache = cache;
+			this.cacheFile =
+					ConfigUtils.addOrGetModule(
+							config,
+							LazyScheduleBasedMatrixConfigGroup.GROUP_NAME,
+							LazyScheduleBasedMatrixConfigGroup.class ).getCacheFile();
+		}
+
+		@Override
+		public void notifyShutdown( final ShutdownEvent event ) {
+			// do not overwrite a good cache with the one of a crashed run
+			if ( cacheFile != null && !event.isUnexpected() ) cache.write( cacheFile );
+		}
+	}
+}
@@ -30,6 +30,9 @@ public class LazyScheduleBasedMatrixConfigGroup extends ReflectiveConfigGroup {
 	private double cellSize_m = 1000;
 	private double timeBinDuration_s = 15 * 60;
 
+	private int maxCachedTrips = 2000000;
+	private String cacheFile = null;
+
 	public LazyScheduleBasedMatrixConfigGroup() {
 		super( GROUP_NAME );
 	}
@@ -61,4 +64,32 @@ public class LazyScheduleBasedMatrixConfigGroup extends ReflectiveConfigGroup {
 	public void setTimeBinDuration_s( double timeBinDuration_s ) {
 		this.timeBinDuration_s = timeBinDuration_s;
 	}
+
+	@StringGetter( "maxCachedTrips" )
+	public int getMaxCachedTrips() {
+		return maxCachedTrips;
+	}
+
+	/**
+	 * @param maxCachedTrips the maximum number of lazily computed trips to keep in cache. Least recently used trips are evicted first.
+	 * Trips read from the cache file are never evicted, but at most that many are read, and at most that many trips
+	 * are written to the cache file. Non-positive values mean no limit.
+	 */
+	@StringSetter( "maxCachedTrips" )
+	public void setMaxCachedTrips( int maxCachedTrips ) {
+		this.maxCachedTrips = maxCachedTrips;
+	}
+
+	@StringGetter( "cacheFile" )
+	public String getCacheFile() {
+		return cacheFile;
+	}
+
+	/**
+	 * @param cacheFile a file from which to read cached trips at startup if it exists, and where to write them at shutdown.
+	 */
+	@StringSetter( "cacheFile" )
+	public void setCacheFile( String cacheFile ) {
+		this.cacheFile = cacheFile;
+	}
 }
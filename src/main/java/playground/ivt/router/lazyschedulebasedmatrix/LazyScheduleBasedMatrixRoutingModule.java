@@ -21,18 +21,21 @@ package playground.ivt.router.lazyschedulebasedmatrix;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
-import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteFactories;
 import org.matsim.core.router.ActivityWrapperFacility;
 import org.matsim.core.router.RoutingModule;
 import org.matsim.core.router.StageActivityTypes;
@@ -41,184 +44,340 @@ import org.matsim.facilities.Facility;
 import org.matsim.pt.router.TransitRouter;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author thibautd
  */
 public class LazyScheduleBasedMatrixRoutingModule implements RoutingModule {
+	private static final Logger log = Logger.getLogger( LazyScheduleBasedMatrixRoutingModule.class );
+
 	private final RoutingModule delegate;
 	private final RoutingModule walkRouter;
 	private final Cache cache;
 
 	private double timeBinDuration_s;
 
+	/**
+	 * Stores binned trips in a flat map, keyed by (origin cell, destination cell, time slot) packed in a long.
+	 * Cells are indexed relative to the bounding box of the network, so that the packing does not depend on the
+	 * coordinate system. Departures outside of the bounding box, or too late to be packed, are simply not cached.
+	 * <br>
+	 * The number of lazily computed trips is bounded, least recently used trips being evicted first.
+	 * The cache can be written to a compact binary file and read back in a later run. Trips read from a file
+	 * (typically a precomputed matrix) are kept in a separate store, and are never evicted. Both stores are bounded
+	 * by the same maximum size, and so is the written file, so that the file does not grow from run to run.
+	 */
 	@Singleton
 	public static class Cache {
+		private static final long NO_KEY = -1;
+		private static final int N_STRIPES = 64;
+
 		private final Network network;
+		private final RouteFactories routeFactories;
 		private final double timeBinDuration_s;
 		private final double cellSize_m;
+		private final int maxCachedTrips;
+
+		private final int minCellX;
+		private final int minCellY;
+		private final int nCellsX;
+		private final int nCellsY;
+		private final int cellBits;
+		private final int slotBits;
 
 		// could also store soft references if need arises
-		private final TIntObjectHashMap<
-				TIntObjectHashMap<
-						TIntObjectHashMap<
-								TIntObjectHashMap<
-										TIntObjectHashMap<
-												List<? extends PlanElement>>>>>> matrix = new TIntObjectHashMap<>();
-		private final TIntObjectHashMap<
-				TIntObjectHashMap<
-						Facility>> binnedFacilities = new TIntObjectHashMap<>();
+		private final BoundedStripedLongMap<List<? extends PlanElement>> matrix;
+		// not evicting: read() stops adding trips when it is full
+		private final BoundedStripedLongMap<List<? extends PlanElement>> readMatrix = new BoundedStripedLongMap<>( -1 , N_STRIPES );
+		private final BoundedStripedLongMap<Facility> binnedFacilities = new BoundedStripedLongMap<>( -1 , N_STRIPES );
 
 		@Inject
 		public Cache(
 				final Scenario scenario ) {
 			this(
 					scenario.getNetwork(),
+					scenario.getPopulation().getFactory().getRouteFactories(),
 					ConfigUtils.addOrGetModule(
 							scenario.getConfig(),
 							LazyScheduleBasedMatrixConfigGroup.GROUP_NAME,
 							LazyScheduleBasedMatrixConfigGroup.class ) );
 		}
 
-		private Cache( Network network, double timeBinDuration_s, double cellSize_m ) {
+		Cache(
+				final Network network,
+				final RouteFactories routeFactories,
+				final double timeBinDuration_s,
+				final double cellSize_m,
+				final int maxCachedTrips ) {
 			this.network = network;
+			this.routeFactories = routeFactories;
 			this.timeBinDuration_s = timeBinDuration_s;
 			this.cellSize_m = cellSize_m;
+			this.maxCachedTrips = maxCachedTrips;
+			this.matrix = new BoundedStripedLongMap<>( maxCachedTrips , N_STRIPES );
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for ( Node node : network.getNodes().values() ) {
+				minX = Math.min( minX , node.getCoord().getX() );
+				minY = Math.min( minY , node.getCoord().getY() );
+				maxX = Math.max( maxX , node.getCoord().getX() );
+				maxY = Math.max( maxY , node.getCoord().getY() );
+			}
+
+			if ( network.getNodes().isEmpty() ) {
+				this.minCellX = 0;
+				this.minCellY = 0;
+				this.nCellsX = 1;
+				this.nCellsY = 1;
+			}
+			else {
+				this.minCellX = cell( minX );
+				this.minCellY = cell( minY );
+				this.nCellsX = cell( maxX ) - minCellX + 1;
+				this.nCellsY = cell( maxY ) - minCellY + 1;
+			}
+
+			final long nCells = (long) nCellsX * nCellsY;
+			this.cellBits = Math.max( 1 , 64 - Long.numberOfLeadingZeros( nCells - 1 ) );
+			// keep the sign bit free, so that keys are never negative
+			this.slotBits = 63 - 2 * cellBits;
+			if ( slotBits < 8 ) {
+				throw new IllegalArgumentException( "cell size "+cellSize_m+" too small for the extent of the network ("+nCells+" cells)" );
+			}
 		}
 
 		public Cache( Network network, LazyScheduleBasedMatrixConfigGroup configGroup ) {
-			this( network , configGroup.getTimeBinDuration_s() , configGroup.getCellSize_m() );
+			this( network , new RouteFactories() , configGroup );
+		}
+
+		public Cache( Network network, RouteFactories routeFactories, LazyScheduleBasedMatrixConfigGroup configGroup ) {
+			this( network,
+					routeFactories,
+					configGroup.getTimeBinDuration_s(),
+					configGroup.getCellSize_m(),
+					configGroup.getMaxCachedTrips() );
+
+			final String cacheFile = configGroup.getCacheFile();
+			if ( cacheFile != null && new File( cacheFile ).exists() ) read( cacheFile );
 		}
 
-		private List<? extends PlanElement> uncache( final Coord origin, final Coord destination, final double time ) {
-			final int xo = (int) ( origin.getX() / cellSize_m );
-			final int yo = (int) ( origin.getY() / cellSize_m );
-			final int xd = (int) ( destination.getX() / cellSize_m );
-			final int yd = (int) ( destination.getY() / cellSize_m );
-			final int timeSlot = (int) ( time / timeBinDuration_s );
+		public int size() {
+			return matrix.size() + readMatrix.size();
+		}
+
+		double getCellSize_m() {
+			return cellSize_m;
+		}
+
+		double getTimeBinDuration_s() {
+			return timeBinDuration_s;
+		}
+
+		int cell( final double coord ) {
+			return (int) Math.floor( coord / cellSize_m );
+		}
+
+		private long cellIndex( final int cellX , final int cellY ) {
+			final int x = cellX - minCellX;
+			final int y = cellY - minCellY;
+			if ( x < 0 || x >= nCellsX || y < 0 || y >= nCellsY ) return NO_KEY;
+			return (long) x * nCellsY + y;
+		}
 
-			// just access: no need to synchronize
-			final TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>>>> atXo =
-					matrix.get( xo );
-			if ( atXo == null ) return null;
+		private long key( final int xo , final int yo , final int xd , final int yd , final long timeSlot ) {
+			final long origin = cellIndex( xo , yo );
+			final long destination = cellIndex( xd , yd );
+			if ( origin == NO_KEY || destination == NO_KEY ) return NO_KEY;
+			if ( timeSlot < 0 || timeSlot >= 1L << slotBits ) return NO_KEY;
 
-			final TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>>> atXoYo =
-					atXo.get( yo );
-			if ( atXoYo == null ) return null;
+			return ( ( ( origin << cellBits ) | destination ) << slotBits ) | timeSlot;
+		}
 
-			final TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>> atXoYoXd = atXoYo.get( xd );
-			if ( atXoYoXd == null ) return null;
+		private long key( final Coord origin, final Coord destination, final double time ) {
+			// NaN would silently be converted to slot 0
+			if ( Double.isNaN( time ) ) return NO_KEY;
+			return key(
+					cell( origin.getX() ),
+					cell( origin.getY() ),
+					cell( destination.getX() ),
+					cell( destination.getY() ),
+					(long) Math.floor( time / timeBinDuration_s ) );
+		}
 
-			final TIntObjectHashMap<List<? extends PlanElement>> atXoYoXdYd = atXoYoXd.get( yd );
-			if ( atXoYoXdYd == null ) return null;
+		List<? extends PlanElement> uncache( final Coord origin, final Coord destination, final double time ) {
+			final long key = key( origin , destination , time );
+			if ( key == NO_KEY ) return null;
 
-			return atXoYoXdYd.get( timeSlot );
+			final List<? extends PlanElement> read = readMatrix.get( key );
+			return read != null ? read : matrix.get( key );
 		}
 
-		private void cache(
+		void cache(
 				final Coord origin,
 				final Coord destination,
 				final double time,
 				final List<? extends PlanElement> trip ) {
-			final int xo = (int) ( origin.getX() / cellSize_m );
-			final int yo = (int) ( origin.getY() / cellSize_m );
-			final int xd = (int) ( destination.getX() / cellSize_m );
-			final int yd = (int) ( destination.getY() / cellSize_m );
-			final int timeSlot = (int) ( time / timeBinDuration_s );
-
-			// Always synchronize on check and add
-			// probably mainly conflicts on the full matrix, much less at lower levels
-			TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>>>> atXo;
-			synchronized ( matrix ) {
-				atXo = matrix.get( xo );
-				if ( atXo == null ) {
-					atXo = new TIntObjectHashMap<>();
-					matrix.put( xo, atXo );
+			final long key = key( origin , destination , time );
+			if ( key != NO_KEY ) matrix.put( key , trip );
+		}
+
+		private Facility binFacility( final Facility fromFacility ) {
+			return getCellFacility(
+					cell( fromFacility.getCoord().getX() ),
+					cell( fromFacility.getCoord().getY() ) );
+		}
+
+		/**
+		 * @return a facility at the center of the cell, attached to the closest link
+		 */
+		Facility getCellFacility( final int cellX , final int cellY ) {
+			// not restricted to the bounding box
+			final long key = ( (long) cellX << 32 ) | ( cellY & 0xffffffffL );
+
+			final Facility cached = binnedFacilities.get( key );
+			if ( cached != null ) return cached;
+
+			// two threads might create the same facility: this is harmless, as they are equivalent
+			final Facility f = new Facility() {
+				private Coord coord = new Coord( cellX * cellSize_m + cellSize_m / 2, cellY * cellSize_m + cellSize_m / 2 );
+				private Id<Link> linkId = NetworkUtils.getNearestLinkExactly( network , coord ).getId();
+
+				@Override
+				public Id<Link> getLinkId() {
+					return linkId;
 				}
-			}
 
-			TIntObjectHashMap<TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>>> atXoYo;
-			synchronized ( atXo ) {
-				atXoYo = atXo.get( yo );
-				if ( atXoYo == null ) {
-					atXoYo = new TIntObjectHashMap<>();
-					atXo.put( yo, atXoYo );
+				@Override
+				public Coord getCoord() {
+					return coord;
 				}
-			}
 
-			TIntObjectHashMap<TIntObjectHashMap<List<? extends PlanElement>>> atXoYoXd;
-			synchronized ( atXoYo ) {
-				atXoYoXd = atXoYo.get( xd );
-				if ( atXoYoXd == null ) {
-					atXoYoXd = new TIntObjectHashMap<>();
-					atXoYo.put( xd, atXoYoXd );
+				@Override
+				public Map<String, Object> getCustomAttributes() {
+					throw new UnsupportedOperationException();
 				}
-			}
 
-			TIntObjectHashMap<List<? extends PlanElement>> atXoYoXdYd;
-			synchronized ( atXoYoXd ) {
-				atXoYoXdYd = atXoYoXd.get( yd );
-				if ( atXoYoXdYd == null ) {
-					atXoYoXdYd = new TIntObjectHashMap<>();
-					atXoYoXd.put( xd, atXoYoXdYd );
+				@Override
+				public Id getId() {
+					throw new UnsupportedOperationException();
 				}
-			}
+			};
+			binnedFacilities.put( key , f );
 
-			synchronized ( atXoYoXdYd ) {
-				atXoYoXdYd.put( timeSlot, trip );
-			}
+			return f;
 		}
 
-		private Facility binFacility( final Facility fromFacility ) {
-			final int cellX = (int) ( fromFacility.getCoord().getX() / cellSize_m );
-			final int cellY = (int) ( fromFacility.getCoord().getY() / cellSize_m );
-
-			TIntObjectHashMap<Facility> atX;
-			synchronized ( binnedFacilities ) {
-				atX = binnedFacilities.get( cellX );
-				if ( atX == null ) {
-					atX = new TIntObjectHashMap<>();
-					binnedFacilities.put( cellX, atX );
+		private boolean isFull( final int nTrips ) {
+			return maxCachedTrips > 0 && nTrips >= maxCachedTrips;
+		}
+
+		/**
+		 * Writes the cached trips to a (gzipped) binary file. The cells are written with their absolute coordinates,
+		 * so that the file can be read with another network, as long as cell size and time bin duration are the same.
+		 * <br>
+		 * At most the maximum number of cached trips are written, trips read from a file first.
+		 */
+		public void write( final String file ) {
+			log.info( "write "+size()+" cached trips to "+file );
+			final long cellMask = ( 1L << cellBits ) - 1;
+			final long slotMask = ( 1L << slotBits ) - 1;
+
+			try ( CachedTripsWriter writer = new CachedTripsWriter( file , cellSize_m , timeBinDuration_s ) ) {
+				final TLongObjectProcedure<List<? extends PlanElement>> writeTrip = ( key , trip ) -> {
+					if ( isFull( writer.getCount() ) ) return false;
+
+					final long origin = key >>> ( slotBits + cellBits );
+					final long destination = ( key >>> slotBits ) & cellMask;
+					writer.write(
+							(int) ( origin / nCellsY ) + minCellX,
+							(int) ( origin % nCellsY ) + minCellY,
+							(int) ( destination / nCellsY ) + minCellX,
+							(int) ( destination % nCellsY ) + minCellY,
+							(int) ( key & slotMask ),
+							trip );
+					return true;
+				};
+				readMatrix.forEachEntry( writeTrip );
+				// trips are only computed lazily if they were not read
+				matrix.forEachEntry( writeTrip );
+
+				if ( isFull( writer.getCount() ) && writer.getCount() < size() ) {
+					log.warn( "only wrote "+writer.getCount()+" out of "+size()+" cached trips: maximum number of cached trips reached" );
 				}
 			}
+		}
 
-			Facility f;
-			synchronized ( atX ) {
-				f = atX.get( cellY );
-				if ( f == null ) {
-					f = new Facility() {
-						private Coord coord = new Coord( cellX * cellSize_m + cellSize_m / 2, cellY * cellSize_m + cellSize_m / 2 );
-						private Id<Link> linkId = NetworkUtils.getNearestLinkExactly( network , coord ).getId();
-
-						@Override
-						public Id<Link> getLinkId() {
-							return linkId;
-						}
-
-						@Override
-						public Coord getCoord() {
-							return coord;
-						}
-
-						@Override
-						public Map<String, Object> getCustomAttributes() {
-							throw new UnsupportedOperationException();
-						}
-
-						@Override
-						public Id getId() {
-							throw new UnsupportedOperationException();
-						}
-					};
-					atX.put( cellY, f );
+		/**
+		 * Adds the trips from a file written by {@link #write(String)}. Files written with another cell size or time bin
+		 * duration are ignored, as are trips with cells out of the bounding box of the network.
+		 * Trips after the maximum number of cached trips are ignored as well.
+		 */
+		public void read( final String file ) {
+			final TripSerializer serializer = new TripSerializer();
+
+			try ( DataInputStream stream =
+						new DataInputStream(
+								new BufferedInputStream(
+										new GZIPInputStream(
+												new FileInputStream( file ) ) ) ) ) {
+				if ( stream.readInt() != CachedTripsWriter.MAGIC_NUMBER ) {
+					log.warn( file+" is not a schedule based matrix cache" );
+					return;
+				}
+				final int version = stream.readInt();
+				if ( version != CachedTripsWriter.FORMAT_VERSION ) {
+					log.warn( "schedule based matrix cache "+file+" has version "+version+", expected "+CachedTripsWriter.FORMAT_VERSION );
+					return;
+				}
+				final double fileCellSize = stream.readDouble();
+				final double fileBinDuration = stream.readDouble();
+				if ( fileCellSize != cellSize_m || fileBinDuration != timeBinDuration_s ) {
+					log.warn( "schedule based matrix cache "+file+" was created with cell size "+fileCellSize+
+							" and bin duration "+fileBinDuration+": ignored" );
+					return;
 				}
-			}
 
-			return f;
+				log.info( "read cached trips from "+file );
+				int nRead = 0;
+				int nStored = readMatrix.size();
+				while ( stream.readBoolean() ) {
+					final long key = key(
+							stream.readInt(),
+							stream.readInt(),
+							stream.readInt(),
+							stream.readInt(),
+							stream.readInt() );
+					// read in any case, to advance in the stream
+					final List<? extends PlanElement> trip = serializer.readTrip( stream , routeFactories );
+					if ( key != NO_KEY && isFull( nStored ) ) {
+						log.warn( "maximum number of cached trips "+maxCachedTrips+" reached: ignore remaining trips from "+file );
+						break;
+					}
+					nRead++;
+					if ( key == NO_KEY ) continue;
+
+					readMatrix.put( key , trip );
+					nStored++;
+				}
+				log.info( "read "+nRead+" cached trips from "+file+". Cache now has size "+size() );
+			}
+			catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
 		}
 	}
 
@@ -306,7 +465,7 @@ public class LazyScheduleBasedMatrixRoutingModule implements RoutingModule {
 	}
 
 
-	private List<? extends PlanElement> trim( List<? extends PlanElement> trip ) {
+	static List<? extends PlanElement> trim( List<? extends PlanElement> trip ) {
 		if ( trip.size() == 1 ) return Collections.emptyList();
 		return trip.subList( 1, trip.size() - 1 );
 	}
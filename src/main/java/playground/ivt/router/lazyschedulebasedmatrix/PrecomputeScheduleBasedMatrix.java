@@ -0,0 +1,260 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.router.DefaultRoutingModules;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.TransitRouterWrapper;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.misc.Time;
+import org.matsim.facilities.Facility;
+import org.matsim.pt.router.TransitRouter;
+import org.matsim.pt.router.TransitRouterConfig;
+import playground.ivt.utils.ArgParser;
+import playground.ivt.utils.LambdaCounter;
+import playground.thibautd.router.connectionscanalgorithm.ConnectionScanAlgorithm;
+import playground.thibautd.router.connectionscanalgorithm.ConnectionScanData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Fills the schedule based matrix offline, for all pairs of cells containing at least one activity of the population,
+ * and writes it in a file that can be used as cache file by {@link LazyScheduleBasedMatrixRoutingModule.Cache}.
+ * <br>
+ * Routes from one origin cell are computed for all destination cells at once, with one-to-many queries of the
+ * {@link ConnectionScanAlgorithm}: the entries are the ones the lazy matrix would get using the connection scan
+ * transit router. Origins are processed in parallel.
+ *
+ * @author thibautd
+ */
+public class PrecomputeScheduleBasedMatrix {
+	private static final Logger log = Logger.getLogger( PrecomputeScheduleBasedMatrix.class );
+
+	public static void main( final String[] args ) throws InterruptedException, ExecutionException {
+		final ArgParser parser = new ArgParser();
+		parser.setDefaultValue( "--config" , "-c" , null );
+		parser.setDefaultValue( "--output-file" , "-o" , null );
+		parser.setDefaultValue( "--start-time" , "05:00:00" );
+		parser.setDefaultValue( "--end-time" , "24:00:00" );
+		parser.setDefaultValue( "--n-threads" , "-t" , ""+Runtime.getRuntime().availableProcessors() );
+
+		main( parser.parseArgs( args ) );
+	}
+
+	private static void main( final ArgParser.Args args ) throws InterruptedException, ExecutionException {
+		final Config config = ConfigUtils.loadConfig( args.getValue( "--config" ) , new LazyScheduleBasedMatrixConfigGroup() );
+		final Scenario scenario = ScenarioUtils.loadScenario( config );
+
+		precompute(
+				scenario,
+				Time.parseTime( args.getValue( "--start-time" ) ),
+				Time.parseTime( args.getValue( "--end-time" ) ),
+				args.getIntegerValue( "--n-threads" ),
+				args.getValue( "--output-file" ) );
+	}
+
+	public static void precompute(
+			final Scenario scenario,
+			final double startTime,
+			final double endTime,
+			final int nThreads,
+			final String outputFile ) throws InterruptedException, ExecutionException {
+		final LazyScheduleBasedMatrixConfigGroup matrixConfig =
+				ConfigUtils.addOrGetModule(
+						scenario.getConfig(),
+						LazyScheduleBasedMatrixConfigGroup.GROUP_NAME,
+						LazyScheduleBasedMatrixConfigGroup.class );
+		// only used for the binning: never stores anything
+		final LazyScheduleBasedMatrixRoutingModule.Cache cells =
+				new LazyScheduleBasedMatrixRoutingModule.Cache(
+						scenario.getNetwork(),
+						scenario.getPopulation().getFactory().getRouteFactories(),
+						matrixConfig.getTimeBinDuration_s(),
+						matrixConfig.getCellSize_m(),
+						1 );
+
+		final long[] populatedCells = getPopulatedCells( scenario , cells );
+		log.info( populatedCells.length+" populated cells" );
+
+		final Facility[] facilities = new Facility[ populatedCells.length ];
+		final List<Coord> coords = new ArrayList<>( populatedCells.length );
+		for ( int i = 0; i < populatedCells.length; i++ ) {
+			facilities[ i ] = cells.getCellFacility( cellX( populatedCells[ i ] ) , cellY( populatedCells[ i ] ) );
+			coords.add( facilities[ i ].getCoord() );
+		}
+
+		final TransitRouterConfig routerConfig = new TransitRouterConfig( scenario.getConfig() );
+		final ConnectionScanAlgorithm algorithm =
+				new ConnectionScanAlgorithm(
+						ConnectionScanData.createData(
+								scenario.getTransitSchedule(),
+								routerConfig.getBeelineWalkConnectionDistance() ),
+						scenario.getTransitSchedule(),
+						routerConfig );
+
+		final RoutingModule walkRouter =
+				DefaultRoutingModules.createTeleportationRouter(
+						TransportMode.transit_walk,
+						scenario.getPopulation().getFactory(),
+						scenario.getConfig().plansCalcRoute().getModeRoutingParams().get( TransportMode.walk ) );
+		// the wrapper is used to get exactly the same stage activities as the lazy routing module
+		final ThreadLocal<ReplayingRouter> routers =
+				ThreadLocal.withInitial( () -> new ReplayingRouter( scenario , walkRouter ) );
+
+		final double binDuration = matrixConfig.getTimeBinDuration_s();
+		final int firstSlot = (int) Math.floor( startTime / binDuration );
+		final int lastSlot = (int) Math.ceil( endTime / binDuration ) - 1;
+
+		final LambdaCounter counter = new LambdaCounter( "precompute matrix for origin cell # " );
+		try ( CachedTripsWriter writer = new CachedTripsWriter( outputFile , matrixConfig.getCellSize_m() , binDuration ) ) {
+			final ForkJoinPool pool = new ForkJoinPool( nThreads );
+			pool.submit( () -> IntStream.range( 0 , populatedCells.length ).parallel().forEach( o -> {
+				counter.incCounter();
+				final ReplayingRouter router = routers.get();
+				for ( int slot = firstSlot; slot <= lastSlot; slot++ ) {
+					// the lazy module routes departures at the end of their time bin
+					final double departureTime = ( slot + 1 ) * binDuration;
+					final List<List<Leg>> routes =
+							algorithm.calcEarliestArrivalRoutes(
+									coords.get( o ),
+									coords,
+									departureTime );
+
+					final List<List<? extends PlanElement>> trips = new ArrayList<>( routes.size() );
+					for ( int d = 0; d < routes.size(); d++ ) {
+						trips.add( router.calcTrip( routes.get( d ) , facilities[ o ] , facilities[ d ] , departureTime ) );
+					}
+
+					// write all the trips of the origin at once, to limit contention on the writer
+					synchronized ( writer ) {
+						for ( int d = 0; d < trips.size(); d++ ) {
+							writer.write(
+									cellX( populatedCells[ o ] ),
+									cellY( populatedCells[ o ] ),
+									cellX( populatedCells[ d ] ),
+									cellY( populatedCells[ d ] ),
+									slot,
+									trips.get( d ) );
+						}
+					}
+				}
+			} ) ).get();
+			pool.shutdown();
+			counter.printCounter();
+
+			log.info( "wrote "+writer.getCount()+" trips to "+outputFile );
+		}
+	}
+
+	/**
+	 * @return the cells containing at least one activity, as (cell x, cell y) packed in a long, sorted
+	 */
+	private static long[] getPopulatedCells(
+			final Scenario scenario,
+			final LazyScheduleBasedMatrixRoutingModule.Cache cells ) {
+		final TLongSet populated = new TLongHashSet();
+		for ( Person person : scenario.getPopulation().getPersons().values() ) {
+			for ( Plan plan : person.getPlans() ) {
+				for ( PlanElement pe : plan.getPlanElements() ) {
+					if ( !( pe instanceof Activity ) ) continue;
+					final Activity activity = (Activity) pe;
+					final Coord coord =
+							activity.getCoord() != null ?
+									activity.getCoord() :
+									scenario.getNetwork().getLinks().get( activity.getLinkId() ).getCoord();
+					populated.add( cell( cells.cell( coord.getX() ) , cells.cell( coord.getY() ) ) );
+				}
+			}
+		}
+
+		// sorting makes the output independent of the hash set iteration order
+		final long[] array = populated.toArray();
+		Arrays.sort( array );
+		return array;
+	}
+
+	private static long cell( final int cellX , final int cellY ) {
+		return ( (long) cellX << 32 ) | ( cellY & 0xffffffffL );
+	}
+
+	private static int cellX( final long cell ) {
+		return (int) ( cell >> 32 );
+	}
+
+	private static int cellY( final long cell ) {
+		return (int) cell;
+	}
+
+	/**
+	 * Gives precomputed legs to a {@link TransitRouterWrapper}, to get the trip with stage activities.
+	 * Not thread safe.
+	 */
+	private static class ReplayingRouter implements TransitRouter {
+		private final TransitRouterWrapper wrapper;
+		private List<Leg> legs = null;
+
+		private ReplayingRouter( final Scenario scenario , final RoutingModule walkRouter ) {
+			this.wrapper =
+					new TransitRouterWrapper(
+							this,
+							scenario.getTransitSchedule(),
+							scenario.getNetwork(),
+							walkRouter );
+		}
+
+		public List<? extends PlanElement> calcTrip(
+				final List<Leg> legs,
+				final Facility origin,
+				final Facility destination,
+				final double departureTime ) {
+			this.legs = legs;
+			final List<? extends PlanElement> trip = wrapper.calcRoute( origin , destination , departureTime , null );
+			this.legs = null;
+			return LazyScheduleBasedMatrixRoutingModule.trim( trip );
+		}
+
+		@Override
+		public List<Leg> calcRoute(
+				final Facility<?> fromFacility,
+				final Facility<?> toFacility,
+				final double departureTime,
+				final Person person ) {
+			if ( legs == null ) throw new IllegalStateException( "no route to replay" );
+			return legs;
+		}
+	}
+}
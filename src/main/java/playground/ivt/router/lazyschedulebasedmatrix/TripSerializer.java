@@ -0,0 +1,188 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteFactories;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary representation of (trimmed) trips, as stored in the matrix cache.
+ * Strings (activity types, modes, link ids, route types and descriptions) are written only once per stream:
+ * later occurrences only write an index. The same instance must thus be used for a whole stream.
+ * <br>
+ * Routes are restored from their type and description, as when reading a plans file.
+ *
+ * @author thibautd
+ */
+final class TripSerializer {
+	private static final byte ACTIVITY = 0;
+	private static final byte LEG = 1;
+
+	private static final int NULL_STRING = -1;
+	private static final int NEW_STRING = -2;
+
+	private final TObjectIntMap<String> writtenStrings = new TObjectIntHashMap<>( 100 , 0.5f , NULL_STRING );
+	private final List<String> readStrings = new ArrayList<>();
+
+	public void writeTrip( final DataOutputStream stream , final List<? extends PlanElement> trip ) throws IOException {
+		stream.writeInt( trip.size() );
+		for ( PlanElement pe : trip ) {
+			if ( pe instanceof Activity ) writeActivity( stream , (Activity) pe );
+			else if ( pe instanceof Leg ) writeLeg( stream , (Leg) pe );
+			else throw new IllegalArgumentException( pe.getClass().getName()+"???" );
+		}
+	}
+
+	public List<? extends PlanElement> readTrip(
+			final DataInputStream stream,
+			final RouteFactories routeFactories ) throws IOException {
+		final int size = stream.readInt();
+		final List<PlanElement> trip = new ArrayList<>( size );
+		for ( int i = 0; i < size; i++ ) {
+			final byte type = stream.readByte();
+			switch ( type ) {
+				case ACTIVITY:
+					trip.add( readActivity( stream ) );
+					break;
+				case LEG:
+					trip.add( readLeg( stream , routeFactories ) );
+					break;
+				default:
+					throw new IllegalStateException( "unknown plan element type "+type );
+			}
+		}
+		return trip;
+	}
+
+	private void writeActivity( final DataOutputStream stream , final Activity activity ) throws IOException {
+		stream.writeByte( ACTIVITY );
+		writeString( stream , activity.getType() );
+		final Coord coord = activity.getCoord();
+		stream.writeDouble( coord == null ? Double.NaN : coord.getX() );
+		stream.writeDouble( coord == null ? Double.NaN : coord.getY() );
+		writeString( stream , toString( activity.getLinkId() ) );
+		stream.writeDouble( activity.getMaximumDuration() );
+	}
+
+	private Activity readActivity( final DataInputStream stream ) throws IOException {
+		final String type = readString( stream );
+		final double x = stream.readDouble();
+		final double y = stream.readDouble();
+		final Coord coord = Double.isNaN( x ) ? null : new Coord( x , y );
+		final Id<Link> linkId = toLinkId( readString( stream ) );
+
+		final Activity activity = PopulationUtils.createActivityFromCoordAndLinkId( type , coord , linkId );
+		activity.setMaximumDuration( stream.readDouble() );
+		return activity;
+	}
+
+	private void writeLeg( final DataOutputStream stream , final Leg leg ) throws IOException {
+		stream.writeByte( LEG );
+		writeString( stream , leg.getMode() );
+		stream.writeDouble( leg.getDepartureTime() );
+		stream.writeDouble( leg.getTravelTime() );
+
+		final Route route = leg.getRoute();
+		stream.writeBoolean( route != null );
+		if ( route == null ) return;
+
+		writeString( stream , route.getRouteType() );
+		writeString( stream , toString( route.getStartLinkId() ) );
+		writeString( stream , toString( route.getEndLinkId() ) );
+		stream.writeDouble( route.getTravelTime() );
+		stream.writeDouble( route.getDistance() );
+		writeString( stream , route.getRouteDescription() );
+	}
+
+	private Leg readLeg( final DataInputStream stream , final RouteFactories routeFactories ) throws IOException {
+		final Leg leg = PopulationUtils.createLeg( readString( stream ) );
+		leg.setDepartureTime( stream.readDouble() );
+		leg.setTravelTime( stream.readDouble() );
+
+		if ( !stream.readBoolean() ) return leg;
+
+		final String routeType = readString( stream );
+		final Route route =
+				routeFactories.createRoute(
+						routeFactories.getRouteClassForType( routeType ),
+						toLinkId( readString( stream ) ),
+						toLinkId( readString( stream ) ) );
+		route.setTravelTime( stream.readDouble() );
+		route.setDistance( stream.readDouble() );
+		final String description = readString( stream );
+		if ( description != null ) route.setRouteDescription( description );
+
+		leg.setRoute( route );
+		return leg;
+	}
+
+	private void writeString( final DataOutputStream stream , final String string ) throws IOException {
+		if ( string == null ) {
+			stream.writeInt( NULL_STRING );
+			return;
+		}
+
+		final int index = writtenStrings.get( string );
+		if ( index != NULL_STRING ) {
+			stream.writeInt( index );
+			return;
+		}
+
+		writtenStrings.put( string , writtenStrings.size() );
+		stream.writeInt( NEW_STRING );
+		stream.writeUTF( string );
+	}
+
+	private String readString( final DataInputStream stream ) throws IOException {
+		final int index = stream.readInt();
+		switch ( index ) {
+			case NULL_STRING:
+				return null;
+			case NEW_STRING:
+				final String string = stream.readUTF();
+				readStrings.add( string );
+				return string;
+			default:
+				return readStrings.get( index );
+		}
+	}
+
+	private static String toString( final Id<?> id ) {
+		return id == null ? null : id.toString();
+	}
+
+	private static Id<Link> toLinkId( final String id ) {
+		return id == null ? null : Id.createLinkId( id );
+	}
+}
@@ -0,0 +1,210 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * CompactTrip.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2011 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.analysis.joinabletripsidentifier;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Primitive representation of a {@link Trip}, as produced by the {@link StreamingTripReconstructor}.
+ * Links are referred to by their index in the reconstructor, and the route is stored as
+ * two packed arrays: link indices and event times.
+ * Link leave events are stored as the bitwise complement of the link index (thus negative),
+ * link enter events as the link index itself.
+ *
+ * @author thibautd
+ */
+final class CompactTrip {
+	private final Id<Trip> id;
+	private final Id<Person> agentId;
+	private final int tripNumber;
+	private final String mode;
+
+	private final int originLinkIndex;
+	private final String originActivityType;
+	private final double departureTime;
+
+	private final int destinationLinkIndex;
+	private final String destinationActivityType;
+	private final double arrivalTime;
+
+	private final int[] routeLinks;
+	private final double[] routeTimes;
+
+	CompactTrip(
+			final Id<Trip> id,
+			final Id<Person> agentId,
+			final int tripNumber,
+			final String mode,
+			final int originLinkIndex,
+			final String originActivityType,
+			final double departureTime,
+			final int destinationLinkIndex,
+			final String destinationActivityType,
+			final double arrivalTime,
+			final int[] routeLinks,
+			final double[] routeTimes ) {
+		if ( routeLinks.length != routeTimes.length ) {
+			throw new IllegalArgumentException( "incompatible route arrays: "+routeLinks.length+" links for "+routeTimes.length+" times" );
+		}
+		this.id = id;
+		this.agentId = agentId;
+		this.tripNumber = tripNumber;
+		this.mode = mode;
+		this.originLinkIndex = originLinkIndex;
+		this.originActivityType = originActivityType;
+		this.departureTime = departureTime;
+		this.destinationLinkIndex = destinationLinkIndex;
+		this.destinationActivityType = destinationActivityType;
+		this.arrivalTime = arrivalTime;
+		this.routeLinks = routeLinks;
+		this.routeTimes = routeTimes;
+	}
+
+	public void write( final DataOutputStream stream ) throws IOException {
+		stream.writeUTF( id.toString() );
+		stream.writeUTF( agentId.toString() );
+		stream.writeInt( tripNumber );
+		stream.writeUTF( mode );
+
+		stream.writeInt( originLinkIndex );
+		stream.writeUTF( originActivityType );
+		stream.writeDouble( departureTime );
+
+		stream.writeInt( destinationLinkIndex );
+		stream.writeUTF( destinationActivityType );
+		stream.writeDouble( arrivalTime );
+
+		stream.writeInt( routeLinks.length );
+		for ( int i = 0; i < routeLinks.length; i++ ) {
+			stream.writeInt( routeLinks[ i ] );
+			stream.writeDouble( routeTimes[ i ] );
+		}
+	}
+
+	public static CompactTrip read( final DataInputStream stream ) throws IOException {
+		final Id<Trip> id = Id.create( stream.readUTF() , Trip.class );
+		final Id<Person> agentId = Id.createPersonId( stream.readUTF() );
+		final int tripNumber = stream.readInt();
+		// there are only a few different modes and types: do not keep thousands of copies
+		final String mode = stream.readUTF().intern();
+
+		final int originLinkIndex = stream.readInt();
+		final String originActivityType = stream.readUTF().intern();
+		final double departureTime = stream.readDouble();
+
+		final int destinationLinkIndex = stream.readInt();
+		final String destinationActivityType = stream.readUTF().intern();
+		final double arrivalTime = stream.readDouble();
+
+		final int routeSize = stream.readInt();
+		final int[] routeLinks = new int[ routeSize ];
+		final double[] routeTimes = new double[ routeSize ];
+		for ( int i = 0; i < routeSize; i++ ) {
+			routeLinks[ i ] = stream.readInt();
+			routeTimes[ i ] = stream.readDouble();
+		}
+
+		return new CompactTrip(
+				id,
+				agentId,
+				tripNumber,
+				mode,
+				originLinkIndex,
+				originActivityType,
+				departureTime,
+				destinationLinkIndex,
+				destinationActivityType,
+				arrivalTime,
+				routeLinks,
+				routeTimes );
+	}
+
+	public static boolean isLinkLeave( final int packedLink ) {
+		return packedLink < 0;
+	}
+
+	public static int getLinkIndex( final int packedLink ) {
+		return packedLink < 0 ? ~packedLink : packedLink;
+	}
+
+	public Id<Trip> getId() {
+		return id;
+	}
+
+	public Id<Person> getAgentId() {
+		return agentId;
+	}
+
+	public int getTripNumber() {
+		return tripNumber;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public int getOriginLinkIndex() {
+		return originLinkIndex;
+	}
+
+	public String getOriginActivityType() {
+		return originActivityType;
+	}
+
+	public double getDepartureTime() {
+		return departureTime;
+	}
+
+	public int getDestinationLinkIndex() {
+		return destinationLinkIndex;
+	}
+
+	public String getDestinationActivityType() {
+		return destinationActivityType;
+	}
+
+	public double getArrivalTime() {
+		return arrivalTime;
+	}
+
+	/**
+	 * @return the number of link enter and leave events of the route
+	 */
+	public int getRouteSize() {
+		return routeLinks.length;
+	}
+
+	/**
+	 * @return the packed link of the i-th route event: use {@link #isLinkLeave(int)}
+	 * and {@link #getLinkIndex(int)} to decode it
+	 */
+	public int getRouteLink( final int i ) {
+		return routeLinks[ i ];
+	}
+
+	public double getRouteTime( final int i ) {
+		return routeTimes[ i ];
+	}
+}
@@ -30,6 +30,7 @@ import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
+import playground.ivt.utils.LambdaCounter;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -37,6 +38,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Final data structure of the event analysis, containing information
@@ -47,6 +53,9 @@ public class JoinableTrips {
 	private static final Logger log =
 		Logger.getLogger(JoinableTrips.class);
 
+	// more chunks than threads, so that threads finishing early can take over some work
+	private static final int CHUNKS_PER_THREAD = 16;
+
 	private final double distanceRadius;
 	private final double timeRadius;
 
@@ -67,22 +76,48 @@ public class JoinableTrips {
 	public JoinableTrips(
 			List<AcceptabilityCondition> conditions,
 			final TripReconstructor tripReconstructor) {
+		this( conditions , tripReconstructor , Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * "Computing" constructor, examining driver trips in parallel.
+	 * @param conditions the conditions for which to search trips
+	 * @param tripReconstructor the event-parsing instance
+	 * @param nThreads the number of threads to use
+	 */
+	public JoinableTrips(
+			List<AcceptabilityCondition> conditions,
+			final TripReconstructor tripReconstructor,
+			final int nThreads) {
 		this.conditions = conditions;
 
 		// get the "general" acceptability conditions
-		double maxDist = Double.NEGATIVE_INFINITY;
-		double maxTime = Double.NEGATIVE_INFINITY;
+		this.distanceRadius = getMaxDistance(conditions);
+		this.timeRadius = getMaxTime(conditions);
 
-		for (AcceptabilityCondition condition : conditions) {
-			maxDist = Math.max(maxDist, condition.getDistance());
-			maxTime = Math.max(maxTime, condition.getTime());
-		}
+		// externalize to an "identifier"?
+		identifyJoinableTrips(tripReconstructor, nThreads);
+	}
 
-		this.distanceRadius = maxDist;
-		this.timeRadius = maxTime;
+	/**
+	 * "Computing" constructor for large data sets. Driver trips are examined slice
+	 * by slice, only keeping in memory the trips of the slices which may contain
+	 * joinable trips.
+	 * @param conditions the conditions for which to search trips
+	 * @param tripReconstructor the event-parsing instance. It is closed if it was not already.
+	 * @param nThreads the number of threads to use
+	 */
+	public JoinableTrips(
+			final List<AcceptabilityCondition> conditions,
+			final StreamingTripReconstructor tripReconstructor,
+			final int nThreads) {
+		this.conditions = conditions;
 
-		// externalize to an "identifier"?
-		identifyJoinableTrips(tripReconstructor);
+		this.distanceRadius = getMaxDistance(conditions);
+		this.timeRadius = getMaxTime(conditions);
+
+		tripReconstructor.close();
+		identifyJoinableTrips(tripReconstructor, nThreads);
 	}
 
 	/**
@@ -103,95 +138,277 @@ public class JoinableTrips {
 	// /////////////////////////////////////////////////////////////////////////
 	// Joinable trip identification methods
 	// /////////////////////////////////////////////////////////////////////////
-	private void identifyJoinableTrips(final TripReconstructor tripReconstructor) {
-		JoinableTripMap joinableTrips = getJoinableTripMap(tripReconstructor);
+	private static double getMaxDistance(final List<AcceptabilityCondition> conditions) {
+		double maxDist = Double.NEGATIVE_INFINITY;
+		for (AcceptabilityCondition condition : conditions) {
+			maxDist = Math.max(maxDist, condition.getDistance());
+		}
+		return maxDist;
+	}
+
+	private static double getMaxTime(final List<AcceptabilityCondition> conditions) {
+		double maxTime = Double.NEGATIVE_INFINITY;
+		for (AcceptabilityCondition condition : conditions) {
+			maxTime = Math.max(maxTime, condition.getTime());
+		}
+		return maxTime;
+	}
+
+	private void identifyJoinableTrips(
+			final TripReconstructor tripReconstructor,
+			final int nThreads) {
+		JoinableTripMap joinableTrips = getJoinableTripMap(tripReconstructor, nThreads);
 		makeDataBase(joinableTrips, tripReconstructor);
 	}
 
 	private JoinableTripMap getJoinableTripMap(
-			final TripReconstructor tripReconstructor) {
+			final TripReconstructor tripReconstructor,
+			final int nThreads) {
 		final List<Trip> trips = tripReconstructor.getTrips();
-		final JoinableTripMap joinableTrips = new JoinableTripMap();
 		final QuadTree<LinkInformation> linkInformation = tripReconstructor.getLinkInformationQuadTree();
 		final Map<Id<Link>, ? extends Link> links = tripReconstructor.getNetwork().getLinks();
 
 		// trip examination to identify joinable trips
-		final JointTripCounter counter = new JointTripCounter(trips.size());
-
-		// FIXME: a lot of copy-paste here. try to "externalise" the common procedure
-		for ( Trip trip : trips ) {
-			counter.logCount();
-			final Id driverTripId = trip.getId();
-			for ( Event event : trip.getRouteEvents() ) {
-				if ( event instanceof LinkLeaveEvent ) {
-					// for departures
-					final double eventTime = event.getTime();
-
-					final Coord currentCoord = links.get(((LinkLeaveEvent) event).getLinkId()).getCoord();
-					final Collection<LinkInformation> neighbourInformations = linkInformation.getDisk(
-							currentCoord.getX(),
-							currentCoord.getY(),
-							distanceRadius);
-
-					for (LinkInformation info : neighbourInformations) {
-						final List<LinkInformation.Entry> entries = info.getDepartures();
-
-						// use the fact that entries are sorted by time!
-						for (LinkInformation.Entry entry : entries) {
-							if ( entry.getTripId().equals(driverTripId) ) continue;
-							if ( (entry.getDepartureTime() - timeRadius < eventTime) &&
-									// arrival time or latest arrival time?
-									(Math.max( entry.getArrivalTime(), entry.getDepartureTime() + timeRadius ) > eventTime) ) {
-								final JoinableTrip currentJoinableTrip = joinableTrips.get(
+		final LambdaCounter counter = new LambdaCounter( c -> log.info( "examining trip # "+c+"/"+trips.size() ) );
+		final JoinableTripMap joinableTrips =
+			getJoinableTripMap(
+					trips,
+					linkInformation,
+					nThreads,
+					counter,
+					(trip, map) -> {
+						final Id driverTripId = trip.getId();
+						for ( Event event : trip.getRouteEvents() ) {
+							if ( event instanceof LinkLeaveEvent ) {
+								examinePickUps(
+										map,
+										linkInformation,
 										driverTripId,
-										entry.getTripId());
-								currentJoinableTrip.addPassage(
-										Passage.Type.pickUp,
-										CoordUtils.calcEuclideanDistance(currentCoord, info.getCoord()),
-										eventTime - entry.getDepartureTime());
+										links.get(((LinkLeaveEvent) event).getLinkId()).getCoord(),
+										event.getTime());
 							}
-						}
-					}
-				}
-				else if ( event instanceof LinkEnterEvent ) {
-					// for arrivals
-					final double eventTime = event.getTime();
-
-					final Coord currentCoord = links.get(((LinkEnterEvent) event).getLinkId()).getCoord();
-					final Collection<LinkInformation> neighbourInformations = linkInformation.getDisk(
-							currentCoord.getX(),
-							currentCoord.getY(),
-							distanceRadius);
-
-					for (LinkInformation info : neighbourInformations) {
-						final List<LinkInformation.Entry> entries = info.getArrivals();
-
-						// use the fact that entries are sorted by time!
-						for (LinkInformation.Entry entry : entries) {
-							if ( entry.getTripId().equals(driverTripId) ) continue;
-							if ( (entry.getArrivalTime() + timeRadius > eventTime) &&
-									// departure time or sooner departure time ?
-									(Math.min( entry.getDepartureTime(), entry.getArrivalTime() - timeRadius ) < eventTime) ) {
-								final JoinableTrip currentJoinableTrip = joinableTrips.get(
+							else if ( event instanceof LinkEnterEvent ) {
+								examineDropOffs(
+										map,
+										linkInformation,
 										driverTripId,
-										entry.getTripId());
-								currentJoinableTrip.addPassage(
-										Passage.Type.dropOff,
-										CoordUtils.calcEuclideanDistance(currentCoord, info.getCoord()),
-										eventTime - entry.getArrivalTime());
+										links.get(((LinkEnterEvent) event).getLinkId()).getCoord(),
+										event.getTime());
 							}
 						}
-					}
+					});
+		counter.printCounter();
+
+		return joinableTrips;
+	}
+
+	private void identifyJoinableTrips(
+			final StreamingTripReconstructor tripReconstructor,
+			final int nThreads) {
+		final QuadTree<LinkInformation> linkInformation = tripReconstructor.getLinkInformationQuadTree();
+		final int nSlices = tripReconstructor.getNumberOfSlices();
+
+		// a passenger trip can only be joinable with a driver trip if it departs less than the time radius plus the
+		// longest trip duration before or after the driver trip. Only the slices within this margin need to be loaded.
+		final int sliceMargin = (int) Math.ceil(
+				(timeRadius + tripReconstructor.getMaxTripDuration()) / tripReconstructor.getSliceDuration() );
+		log.info( "examining "+nSlices+" slices, loading "+sliceMargin+" slices before and after each one" );
+
+		final Map<Id, List<JoinableTrip>> tripsPerPassenger = new HashMap<Id, List<JoinableTrip>>();
+		final TreeMap<Integer, List<CompactTrip>> loadedSlices = new TreeMap<Integer, List<CompactTrip>>();
+
+		final LambdaCounter counter = new LambdaCounter( c -> log.info( "examining trip # "+c ) );
+		for ( int slice = 0; slice < nSlices; slice++ ) {
+			// all drivers which can take passengers of the slices out of the window were examined:
+			// those slices can be recorded and forgotten
+			final Map<Integer, List<CompactTrip>> outdatedSlices = loadedSlices.headMap( slice - sliceMargin );
+			for ( List<CompactTrip> trips : outdatedSlices.values() ) {
+				makeDataBase( trips , tripsPerPassenger , tripReconstructor );
+			}
+			outdatedSlices.clear();
+
+			for ( int s = slice; s <= Math.min( nSlices - 1 , slice + sliceMargin ); s++ ) {
+				if ( !loadedSlices.containsKey( s ) ) loadedSlices.put( s , tripReconstructor.readSlice( s ) );
+			}
+
+			for ( LinkInformation info : linkInformation.values() ) info.clear();
+			for ( List<CompactTrip> trips : loadedSlices.values() ) {
+				for ( CompactTrip trip : trips ) {
+					tripReconstructor.getLinkInformation( trip.getOriginLinkIndex() ).handleDeparture(
+							trip.getId(),
+							trip.getDepartureTime(),
+							trip.getArrivalTime());
+					tripReconstructor.getLinkInformation( trip.getDestinationLinkIndex() ).handleArrival(
+							trip.getId(),
+							trip.getDepartureTime(),
+							trip.getArrivalTime());
 				}
 			}
 
-			// now that all possible passengers were identified, perform some
-			// cleanup
-			joinableTrips.cleanUnacceptedTrips(conditions);
+			final JoinableTripMap sliceMap =
+				getJoinableTripMap(
+						loadedSlices.get( slice ),
+						linkInformation,
+						nThreads,
+						counter,
+						(trip, map) -> {
+							final Id driverTripId = trip.getId();
+							for ( int i = 0; i < trip.getRouteSize(); i++ ) {
+								final int packedLink = trip.getRouteLink( i );
+								final Coord coord =
+									tripReconstructor.getLink(
+											CompactTrip.getLinkIndex( packedLink ) ).getCoord();
+								if ( CompactTrip.isLinkLeave( packedLink ) ) {
+									examinePickUps(map, linkInformation, driverTripId, coord, trip.getRouteTime( i ));
+								}
+								else {
+									examineDropOffs(map, linkInformation, driverTripId, coord, trip.getRouteTime( i ));
+								}
+							}
+						});
+
+			// only the passenger side is needed to create the records: do not keep the driver side
+			for (Map.Entry<Id, List<JoinableTrip>> e : sliceMap.getJoinableTripsPerPassengerTrip().entrySet()) {
+				final List<JoinableTrip> passengerJoinableTrips = tripsPerPassenger.get(e.getKey());
+				if ( passengerJoinableTrips == null ) tripsPerPassenger.put(e.getKey(), e.getValue());
+				else passengerJoinableTrips.addAll(e.getValue());
+			}
+		}
+		counter.printCounter();
+
+		for ( List<CompactTrip> trips : loadedSlices.values() ) {
+			makeDataBase( trips , tripsPerPassenger , tripReconstructor );
+		}
+	}
+
+	/**
+	 * Examines driver trips in parallel.
+	 * Driver trips are split in contiguous chunks, each examined with its own map.
+	 * Merging the maps in the order of the chunks gives the same result as a sequential run.
+	 */
+	private <T> JoinableTripMap getJoinableTripMap(
+			final List<T> trips,
+			final QuadTree<LinkInformation> linkInformation,
+			final int nThreads,
+			final LambdaCounter counter,
+			final BiConsumer<T, JoinableTripMap> tripExaminer) {
+		// entries are sorted lazily: do it now, before several threads access them
+		for ( LinkInformation info : linkInformation.values() ) {
+			info.getDepartures();
+			info.getArrivals();
+		}
+
+		final int chunkSize = Math.max( 1 , trips.size() / ( CHUNKS_PER_THREAD * nThreads ) );
+		final int nChunks = ( trips.size() + chunkSize - 1 ) / chunkSize;
+		final JoinableTripMap[] chunkMaps = new JoinableTripMap[ nChunks ];
+
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try {
+			pool.submit( () -> IntStream.range( 0 , nChunks ).parallel().forEach( chunk -> {
+				final JoinableTripMap chunkMap = new JoinableTripMap();
+				for ( T trip : trips.subList( chunk * chunkSize , Math.min( trips.size() , ( chunk + 1 ) * chunkSize ) ) ) {
+					counter.incCounter();
+					tripExaminer.accept( trip , chunkMap );
+
+					// now that all possible passengers were identified, perform some
+					// cleanup
+					chunkMap.cleanUnacceptedTrips(conditions);
+				}
+				chunkMaps[ chunk ] = chunkMap;
+			} ) ).get();
+		}
+		catch ( InterruptedException | ExecutionException e ) {
+			throw new RuntimeException( e );
+		}
+		finally {
+			pool.shutdown();
 		}
 
+		final JoinableTripMap joinableTrips = new JoinableTripMap();
+		for ( JoinableTripMap chunkMap : chunkMaps ) joinableTrips.addAll( chunkMap );
 		return joinableTrips;
+	}
+
+	/**
+	 * Adds the passages of all passenger trips which can be picked up when the driver leaves a link.
+	 */
+	private void examinePickUps(
+			final JoinableTripMap joinableTrips,
+			final QuadTree<LinkInformation> linkInformation,
+			final Id driverTripId,
+			final Coord currentCoord,
+			final double eventTime) {
+		final Collection<LinkInformation> neighbourInformations = linkInformation.getDisk(
+				currentCoord.getX(),
+				currentCoord.getY(),
+				distanceRadius);
+
+		for (LinkInformation info : neighbourInformations) {
+			final List<LinkInformation.Entry> entries = info.getDepartures();
+
+			// use the fact that entries are sorted by departure time.
+			// Entries departing too early can only be accepted because of their arrival time,
+			// and are thus bounded by the duration of the longest trip.
+			final int first = info.getFirstDepartureIndexFrom(
+					eventTime - Math.max( timeRadius , info.getMaxDepartureTripDuration() ) );
+			final int last = info.getFirstDepartureIndexFrom( eventTime + timeRadius );
+			for ( int i = first; i < last; i++ ) {
+				final LinkInformation.Entry entry = entries.get( i );
+				if ( entry.getTripId().equals(driverTripId) ) continue;
+				if ( (entry.getDepartureTime() - timeRadius < eventTime) &&
+						// arrival time or latest arrival time?
+						(Math.max( entry.getArrivalTime(), entry.getDepartureTime() + timeRadius ) > eventTime) ) {
+					final JoinableTrip currentJoinableTrip = joinableTrips.get(
+							driverTripId,
+							entry.getTripId());
+					currentJoinableTrip.addPassage(
+							Passage.Type.pickUp,
+							CoordUtils.calcEuclideanDistance(currentCoord, info.getCoord()),
+							eventTime - entry.getDepartureTime());
+				}
+			}
+		}
+	}
 
+	/**
+	 * Adds the passages of all passenger trips which can be dropped off when the driver enters a link.
+	 */
+	private void examineDropOffs(
+			final JoinableTripMap joinableTrips,
+			final QuadTree<LinkInformation> linkInformation,
+			final Id driverTripId,
+			final Coord currentCoord,
+			final double eventTime) {
+		final Collection<LinkInformation> neighbourInformations = linkInformation.getDisk(
+				currentCoord.getX(),
+				currentCoord.getY(),
+				distanceRadius);
+
+		for (LinkInformation info : neighbourInformations) {
+			final List<LinkInformation.Entry> entries = info.getArrivals();
+
+			// use the fact that entries are sorted by arrival time.
+			// Entries arriving too late can only be accepted because of their departure time,
+			// and are thus bounded by the duration of the longest trip.
+			final int first = info.getFirstArrivalIndexFrom( eventTime - timeRadius );
+			final int last = info.getFirstArrivalIndexFrom(
+					eventTime + Math.max( timeRadius , info.getMaxArrivalTripDuration() ) );
+			for ( int i = first; i < last; i++ ) {
+				final LinkInformation.Entry entry = entries.get( i );
+				if ( entry.getTripId().equals(driverTripId) ) continue;
+				if ( (entry.getArrivalTime() + timeRadius > eventTime) &&
+						// departure time or sooner departure time ?
+						(Math.min( entry.getDepartureTime(), entry.getArrivalTime() - timeRadius ) < eventTime) ) {
+					final JoinableTrip currentJoinableTrip = joinableTrips.get(
+							driverTripId,
+							entry.getTripId());
+					currentJoinableTrip.addPassage(
+							Passage.Type.dropOff,
+							CoordUtils.calcEuclideanDistance(currentCoord, info.getCoord()),
+							eventTime - entry.getArrivalTime());
+				}
+			}
+		}
 	}
 
 	private void makeDataBase(
@@ -229,6 +446,28 @@ public class JoinableTrips {
 		}
 	}
 
+	private void makeDataBase(
+			final List<CompactTrip> trips,
+			final Map<Id, List<JoinableTrip>> tripsPerPassenger,
+			final StreamingTripReconstructor tripReconstructor) {
+		for (CompactTrip trip : trips) {
+			List<JoinableTrip> identifiedTrips =
+				tripsPerPassenger.remove(trip.getId());
+
+			TripRecord old = tripRecords.put(
+					trip.getId(),
+					new TripRecord(
+						trip,
+						tripReconstructor.getLink( trip.getOriginLinkIndex() ).getId(),
+						tripReconstructor.getLink( trip.getDestinationLinkIndex() ).getId(),
+						identifiedTrips != null ? identifiedTrips : new ArrayList<JoinableTrip>(0)));
+
+			if ( old != null ) {
+				throw new RuntimeException("same trip added twice");
+			}
+		}
+	}
+
 	// /////////////////////////////////////////////////////////////////////////
 	// accessors
 	// /////////////////////////////////////////////////////////////////////////
@@ -294,6 +533,28 @@ public class JoinableTrips {
 			this.joinableTrips = Collections.unmodifiableList(joinableTrips);
 		}
 
+		private TripRecord(
+				final CompactTrip trip,
+				final Id originLinkId,
+				final Id destinationLinkId,
+				final List<JoinableTrip> joinableTrips) {
+			this.tripId = trip.getId();
+			this.agentId = trip.getAgentId();
+			this.mode = trip.getMode();
+
+			this.originLinkId = originLinkId;
+			this.originActivityType = trip.getOriginActivityType();
+			this.departureTime = trip.getDepartureTime();
+
+			this.destinationLinkId = destinationLinkId;
+			this.destinationActivityType = trip.getDestinationActivityType();
+			this.arrivalTime = trip.getArrivalTime();
+
+			this.legNumber = trip.getTripNumber();
+
+			this.joinableTrips = Collections.unmodifiableList(joinableTrips);
+		}
+
 		TripRecord(
 				final Id tripId,
 				final Id agentId,
@@ -651,6 +912,23 @@ public class JoinableTrips {
 			currentlyExaminedTrips = new ArrayList<JoinableTrip>();
 		}
 
+		/**
+		 * Adds the (cleaned) joinable trips of another map, which must not contain any of the driver trips
+		 * of this one. Joinable trips of the other map are added after the ones of this map.
+		 */
+		public void addAll(final JoinableTripMap other) {
+			for (Map.Entry<Id, Map<Id, JoinableTrip>> e : other.joinableTrips.entrySet()) {
+				final Map<Id, JoinableTrip> old = joinableTrips.put(e.getKey(), e.getValue());
+				if ( old != null ) throw new IllegalArgumentException( "driver trip "+e.getKey()+" in both maps" );
+			}
+
+			for (Map.Entry<Id, List<JoinableTrip>> e : other.joinableTripsPerPassengerTrip.entrySet()) {
+				final List<JoinableTrip> passengerJoinableTrips = joinableTripsPerPassengerTrip.get(e.getKey());
+				if ( passengerJoinableTrips == null ) joinableTripsPerPassengerTrip.put(e.getKey(), e.getValue());
+				else passengerJoinableTrips.addAll(e.getValue());
+			}
+		}
+
 		/**
 		 * @return a copy a the map idPassengerTrip-joinableTrips. The "joinable trips"
 		 * are not cleaned yet (not all have both PU and DO)
@@ -659,24 +937,4 @@ public class JoinableTrips {
 			return new HashMap<Id, List<JoinableTrip>>(joinableTripsPerPassengerTrip);
 		}
 	}
-
-	private static class JointTripCounter {
-		private int count = 0;
-		private int next =1;
-		private final int total;
-
-		public JointTripCounter(final int total) {
-			this.total = total;
-		}
-
-		public void logCount() {
-			count++;
-			
-			if ( count == next || count == total ) {
-				log.info("examining trip # "+count+"/"+total);
-				next *= 2;
-			}
-		}
-	}
 }
-
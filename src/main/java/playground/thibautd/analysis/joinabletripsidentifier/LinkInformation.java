@@ -46,9 +46,15 @@ public class LinkInformation {
 	private final List<Entry> arrivals =
 		new ArrayList<Entry>();
 
-	private double lastDepartureTime = Double.NEGATIVE_INFINITY;
+	// longest trip in each list, to bound the time windows to search
+	private double maxDepartureTripDuration = 0;
+	private double maxArrivalTripDuration = 0;
+
+	// greatest sort key in each list: departure time for departures, arrival time for arrivals.
+	// An entry with a smaller key makes the list unsorted. Sorting does not change those maxima.
+	private double maxDepartureTime = Double.NEGATIVE_INFINITY;
 	private boolean departuresAreSorted = true;
-	private double lastArrivalTime = Double.NEGATIVE_INFINITY;
+	private double maxArrivalTime = Double.NEGATIVE_INFINITY;
 	private boolean arrivalsAreSorted = true;
 
 	/**
@@ -64,12 +70,10 @@ public class LinkInformation {
 			final double departureTime,
 			final double arrivalTime) {
 
-		if (departureTime < lastDepartureTime) departuresAreSorted = false;
-		lastDepartureTime = departureTime;
-
+		if (departureTime < maxDepartureTime) departuresAreSorted = false;
+		else maxDepartureTime = departureTime;
 
-		if (arrivalTime < lastArrivalTime) arrivalsAreSorted = false;
-		lastArrivalTime = arrivalTime;
+		maxDepartureTripDuration = Math.max( maxDepartureTripDuration , arrivalTime - departureTime );
 
 		Entry entry = new Entry(tripId, departureTime, arrivalTime);
 		departures.add(entry);
@@ -80,17 +84,31 @@ public class LinkInformation {
 			final double departureTime,
 			final double arrivalTime) {
 
-		if (departureTime < lastDepartureTime) departuresAreSorted = false;
-		lastDepartureTime = departureTime;
+		if (arrivalTime < maxArrivalTime) arrivalsAreSorted = false;
+		else maxArrivalTime = arrivalTime;
 
-
-		if (arrivalTime < lastArrivalTime) arrivalsAreSorted = false;
-		lastArrivalTime = arrivalTime;
+		maxArrivalTripDuration = Math.max( maxArrivalTripDuration , arrivalTime - departureTime );
 
 		Entry entry = new Entry(tripId, departureTime, arrivalTime);
 		arrivals.add(entry);
 	}
 
+	/**
+	 * Forgets all departures and arrivals, so that the instance can be filled again.
+	 */
+	public void clear() {
+		departures.clear();
+		arrivals.clear();
+
+		maxDepartureTripDuration = 0;
+		maxArrivalTripDuration = 0;
+
+		maxDepartureTime = Double.NEGATIVE_INFINITY;
+		departuresAreSorted = true;
+		maxArrivalTime = Double.NEGATIVE_INFINITY;
+		arrivalsAreSorted = true;
+	}
+
 	public Id getLinkId() {
 		return linkId;
 	}
@@ -125,6 +143,52 @@ public class LinkInformation {
 		return Collections.unmodifiableList(arrivals);
 	}
 
+	/**
+	 * @return the index of the first departure with a departure time greater or equal to the given time,
+	 * or the number of departures if there is none.
+	 */
+	public int getFirstDepartureIndexFrom(final double time) {
+		final List<Entry> entries = getDepartures();
+		int low = 0;
+		int high = entries.size();
+		while ( low < high ) {
+			final int mid = (low + high) >>> 1;
+			if ( entries.get( mid ).getDepartureTime() < time ) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first arrival with an arrival time greater or equal to the given time,
+	 * or the number of arrivals if there is none.
+	 */
+	public int getFirstArrivalIndexFrom(final double time) {
+		final List<Entry> entries = getArrivals();
+		int low = 0;
+		int high = entries.size();
+		while ( low < high ) {
+			final int mid = (low + high) >>> 1;
+			if ( entries.get( mid ).getArrivalTime() < time ) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the maximum duration (arrival time minus departure time) of the trips departing from this link
+	 */
+	public double getMaxDepartureTripDuration() {
+		return maxDepartureTripDuration;
+	}
+
+	/**
+	 * @return the maximum duration (arrival time minus departure time) of the trips arriving on this link
+	 */
+	public double getMaxArrivalTripDuration() {
+		return maxArrivalTripDuration;
+	}
+
 	// /////////////////////////////////////////////////////////////////////////
 	// nested class
 	// /////////////////////////////////////////////////////////////////////////
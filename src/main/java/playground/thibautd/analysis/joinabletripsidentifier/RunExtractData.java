@@ -44,6 +44,10 @@ public class RunExtractData {
 	private static final String DIST = "acceptableDistance_.*";
 	private static final String TIME = "acceptableTime_";
 	private static final String DIR = "outputDir";
+	private static final String THREADS = "numberOfThreads";
+	// if set, trips are reconstructed in streaming mode, with time slices of this duration
+	private static final String SLICE = "streamingSliceDuration";
+	private static final String SPILL_DIR = "spillDirectory";
 
 	public static void main(final String[] args) {
 		String configFile = args[0];
@@ -71,16 +75,39 @@ public class RunExtractData {
 			}
 		}
 
+		String nThreadsString = params.get(THREADS);
+		int nThreads = nThreadsString != null ?
+			Integer.parseInt(nThreadsString) :
+			Runtime.getRuntime().availableProcessors();
+
 		EventsManager eventsManager = EventsUtils.createEventsManager();
 		PassengerTracker tracker = new PassengerTracker();
-		TripReconstructor trips = new TripReconstructor( tracker, network);
 		eventsManager.addHandler(tracker);
-		eventsManager.addHandler(trips);
 
-		(new MatsimEventsReader(eventsManager)).readFile(eventFile);
+		JoinableTrips joinableTripData;
+		String sliceDuration = params.get(SLICE);
+		if ( sliceDuration == null ) {
+			TripReconstructor trips = new TripReconstructor( tracker, network);
+			eventsManager.addHandler(trips);
+
+			(new MatsimEventsReader(eventsManager)).readFile(eventFile);
+
+			joinableTripData = new JoinableTrips(conditions, trips, nThreads);
+		}
+		else {
+			String spillDir = params.get(SPILL_DIR);
+			StreamingTripReconstructor trips =
+				new StreamingTripReconstructor(
+						tracker,
+						network,
+						Double.parseDouble(sliceDuration),
+						spillDir != null ? spillDir : outputDir);
+			eventsManager.addHandler(trips);
+
+			(new MatsimEventsReader(eventsManager)).readFile(eventFile);
 
-		JoinableTrips joinableTripData =
-			new JoinableTrips(conditions, trips);
+			joinableTripData = new JoinableTrips(conditions, trips, nThreads);
+		}
 
 		(new JoinableTripsXmlWriter(joinableTripData)).write(outputDir+"trips.xml.gz");
 	}
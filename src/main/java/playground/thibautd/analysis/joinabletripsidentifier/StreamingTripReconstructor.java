@@ -0,0 +1,407 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * StreamingTripReconstructor.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2011 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.analysis.joinabletripsidentifier;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.collections.QuadTree;
+import playground.ivt.utils.PassengerTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Memory-bounded alternative to the {@link TripReconstructor}, for large events files.
+ * <br>
+ * Only the trips currently being performed are kept in memory, with their route as primitive arrays.
+ * Finished trips are written to disk as {@link CompactTrip}s, in one file per time slice
+ * (by departure time), so that {@link JoinableTrips} can examine the trips slice by slice,
+ * only loading the neighbouring slices.
+ * <br>
+ * Only a bounded number of slice files are open at the same time. The least recently written one is closed when
+ * another one has to be opened, and reopened in append mode if needed later.
+ * <br>
+ * {@link #close()} must be called once all events are read, before the slices can be read.
+ *
+ * @author thibautd
+ */
+public class StreamingTripReconstructor implements
+		LinkLeaveEventHandler,
+		LinkEnterEventHandler,
+		PersonDepartureEventHandler,
+		PersonArrivalEventHandler,
+		ActivityEndEventHandler,
+		ActivityStartEventHandler,
+		AutoCloseable {
+	private static final Logger log =
+		Logger.getLogger(StreamingTripReconstructor.class);
+
+	// trips are mostly written in the slice of the current time, but long trips are written in older slices
+	private static final int DEFAULT_MAX_OPEN_SLICES = 16;
+
+	private final Network network;
+	private final PassengerTracker tracker;
+
+	private final Link[] links;
+	private final TObjectIntMap<Id<Link>> linkIndices;
+	private final LinkInformation[] linkInformations;
+	private final QuadTree<LinkInformation> linkInformationsQuadTree;
+
+	private final double sliceDuration;
+	private final File spillDirectory;
+	private final List<File> sliceFiles = new ArrayList<File>();
+	private final TIntArrayList sliceSizes = new TIntArrayList();
+	private final int maxOpenSlices;
+	// in access order, to close the least recently written slice first
+	private final Map<Integer, DataOutputStream> openSliceStreams =
+		new LinkedHashMap<Integer, DataOutputStream>( 16 , 0.75f , true );
+
+	private final Map<Id<Person>, TripBuilder> agentsData = new HashMap<Id<Person>, TripBuilder>();
+	private final TObjectIntMap<Id<Person>> agentTripsCount = new TObjectIntHashMap<Id<Person>>();
+	private long tripCount = 0;
+	private double maxTripDuration = 0;
+
+	private boolean closed = false;
+
+	// /////////////////////////////////////////////////////////////////////////
+	// constructor
+	// /////////////////////////////////////////////////////////////////////////
+	/**
+	 * @param tracker the passenger tracker, to get the driver of vehicles
+	 * @param network the network
+	 * @param sliceDuration the duration of the time slices. Memory usage of the identification of joinable
+	 * trips grows with the number of trips in a slice plus the longest trip duration.
+	 * @param spillDirectory the directory where to write the slice files. They are deleted at the end of the JVM.
+	 */
+	public StreamingTripReconstructor(
+			final PassengerTracker tracker,
+			final Network network,
+			final double sliceDuration,
+			final String spillDirectory ) {
+		this( tracker , network , sliceDuration , spillDirectory , DEFAULT_MAX_OPEN_SLICES );
+	}
+
+	/**
+	 * @param maxOpenSlices the maximum number of slice files open for writing at the same time
+	 */
+	StreamingTripReconstructor(
+			final PassengerTracker tracker,
+			final Network network,
+			final double sliceDuration,
+			final String spillDirectory,
+			final int maxOpenSlices ) {
+		if ( sliceDuration <= 0 ) throw new IllegalArgumentException( "slice duration must be positive, got "+sliceDuration );
+		if ( maxOpenSlices <= 0 ) throw new IllegalArgumentException( "maximum number of open slices must be positive, got "+maxOpenSlices );
+		this.tracker = tracker;
+		this.network = network;
+		this.sliceDuration = sliceDuration;
+		this.spillDirectory = new File( spillDirectory );
+		this.maxOpenSlices = maxOpenSlices;
+
+		final Map<Id, LinkInformation> linkInformationsMap = new HashMap<Id, LinkInformation>();
+		this.linkInformationsQuadTree =
+			TripReconstructor.createLinkInformationQuadTree(
+					network,
+					linkInformationsMap);
+
+		final int nLinks = network.getLinks().size();
+		this.links = new Link[ nLinks ];
+		this.linkInformations = new LinkInformation[ nLinks ];
+		this.linkIndices = new TObjectIntHashMap<Id<Link>>( nLinks , 0.5f , -1 );
+		int i = 0;
+		for ( Link link : network.getLinks().values() ) {
+			links[ i ] = link;
+			linkInformations[ i ] = linkInformationsMap.get( link.getId() );
+			linkIndices.put( link.getId() , i );
+			i++;
+		}
+	}
+
+	// /////////////////////////////////////////////////////////////////////////
+	// getters: for use in trip identification
+	// /////////////////////////////////////////////////////////////////////////
+	public Network getNetwork() {
+		return network;
+	}
+
+	public Link getLink( final int linkIndex ) {
+		return links[ linkIndex ];
+	}
+
+	public LinkInformation getLinkInformation( final int linkIndex ) {
+		return linkInformations[ linkIndex ];
+	}
+
+	/**
+	 * @return a QuadTree of the {@link LinkInformation}s. They are empty: it is the responsibility
+	 * of the user to fill them with the trips it needs.
+	 */
+	public QuadTree<LinkInformation> getLinkInformationQuadTree() {
+		return linkInformationsQuadTree;
+	}
+
+	public double getSliceDuration() {
+		return sliceDuration;
+	}
+
+	public int getNumberOfSlices() {
+		return sliceFiles.size();
+	}
+
+	public int getNumberOfTrips( final int slice ) {
+		return sliceSizes.get( slice );
+	}
+
+	int getNumberOfOpenSlices() {
+		return openSliceStreams.size();
+	}
+
+	/**
+	 * @return the longest duration (arrival time minus departure time) of all trips
+	 */
+	public double getMaxTripDuration() {
+		return maxTripDuration;
+	}
+
+	/**
+	 * @return the trips departing in the given time slice, in the order they were finished
+	 */
+	public List<CompactTrip> readSlice( final int slice ) {
+		if ( !closed ) throw new IllegalStateException( "slices can only be read once the reconstructor is closed" );
+
+		final List<CompactTrip> trips = new ArrayList<CompactTrip>( sliceSizes.get( slice ) );
+		// the file of a slice without trips was never opened, and is empty
+		if ( sliceSizes.get( slice ) == 0 ) return trips;
+
+		// a slice reopened for writing contains several gzip members, read as one stream
+		try ( DataInputStream stream =
+					new DataInputStream(
+							new BufferedInputStream(
+									new GZIPInputStream(
+											new FileInputStream( sliceFiles.get( slice ) ) ) ) ) ) {
+			for ( int i = 0; i < sliceSizes.get( slice ); i++ ) {
+				trips.add( CompactTrip.read( stream ) );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return trips;
+	}
+
+	/**
+	 * Flushes and closes the slice files. No event can be handled after this.
+	 */
+	@Override
+	public void close() {
+		if ( closed ) return;
+		closed = true;
+		if ( !agentsData.isEmpty() ) log.warn( agentsData.size()+" trips were not finished and are ignored" );
+		agentsData.clear();
+
+		try {
+			for ( DataOutputStream stream : openSliceStreams.values() ) stream.close();
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		openSliceStreams.clear();
+		log.info( tripCount+" trips written in "+sliceFiles.size()+" slices of "+sliceDuration+"s" );
+	}
+
+	// /////////////////////////////////////////////////////////////////////////
+	// event handling methods
+	// /////////////////////////////////////////////////////////////////////////
+	@Override
+	public void reset(final int iteration) {
+		agentsData.clear();
+	}
+
+	@Override
+	public void handleEvent(final PersonArrivalEvent event) {
+		if (isPtEvent(event.getPersonId())) return;
+		final TripBuilder data = this.agentsData.get( event.getPersonId() );
+		data.arrivalLinkIndex = getLinkIndex( event.getLinkId() );
+		data.arrivalTime = event.getTime();
+	}
+
+	@Override
+	public void handleEvent(final PersonDepartureEvent event) {
+		if (isPtEvent(event.getPersonId())) return;
+		final TripBuilder data = this.agentsData.get( event.getPersonId() );
+		data.mode = event.getLegMode();
+		data.departureLinkIndex = getLinkIndex( event.getLinkId() );
+		data.departureTime = event.getTime();
+	}
+
+	@Override
+	public void handleEvent(final LinkEnterEvent event) {
+		final Id<Person> driver = tracker.getDriver( event.getVehicleId() );
+		if (isPtEvent( driver )) return;
+		final TripBuilder data = this.agentsData.get( driver );
+		data.routeLinks.add( getLinkIndex( event.getLinkId() ) );
+		data.routeTimes.add( event.getTime() );
+	}
+
+	@Override
+	public void handleEvent(final LinkLeaveEvent event) {
+		final Id<Person> driver = tracker.getDriver( event.getVehicleId() );
+		if (isPtEvent( driver )) return;
+		final TripBuilder data = this.agentsData.get( driver );
+		data.routeLinks.add( ~getLinkIndex( event.getLinkId() ) );
+		data.routeTimes.add( event.getTime() );
+	}
+
+	@Override
+	public void handleEvent(final ActivityStartEvent event) {
+		final TripBuilder data = this.agentsData.remove( event.getPersonId() );
+		// trips without departure or arrival are ignored, as in TripReconstructor
+		if ( data.mode == null || Double.isNaN( data.arrivalTime ) ) return;
+
+		final CompactTrip trip =
+			new CompactTrip(
+					Id.create( tripCount++ , Trip.class ),
+					event.getPersonId(),
+					data.tripNumber,
+					data.mode,
+					data.departureLinkIndex,
+					data.originActivityType,
+					data.departureTime,
+					data.arrivalLinkIndex,
+					event.getActType(),
+					data.arrivalTime,
+					data.routeLinks.toArray(),
+					data.routeTimes.toArray() );
+		maxTripDuration = Math.max( maxTripDuration , trip.getArrivalTime() - trip.getDepartureTime() );
+
+		final int slice = Math.max( 0 , (int) ( trip.getDepartureTime() / sliceDuration ) );
+		try {
+			trip.write( getSliceStream( slice ) );
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		sliceSizes.set( slice , sliceSizes.get( slice ) + 1 );
+	}
+
+	@Override
+	public void handleEvent(final ActivityEndEvent event) {
+		final int tripNumber = agentTripsCount.adjustOrPutValue( event.getPersonId() , 1 , 1 );
+		this.agentsData.put(
+				event.getPersonId(),
+				new TripBuilder( tripNumber , event.getActType() ) );
+	}
+
+	private boolean isPtEvent(final Id id) {
+		return id.toString().matches("pt_.*");
+	}
+
+	private int getLinkIndex( final Id<Link> linkId ) {
+		final int index = linkIndices.get( linkId );
+		if ( index < 0 ) throw new IllegalArgumentException( "link "+linkId+" not in network" );
+		return index;
+	}
+
+	private DataOutputStream getSliceStream( final int slice ) throws IOException {
+		if ( closed ) throw new IllegalStateException( "cannot handle events after close" );
+
+		while ( sliceFiles.size() <= slice ) {
+			final File file = File.createTempFile( "tripsSlice"+sliceFiles.size()+"-" , ".dat.gz" , spillDirectory );
+			file.deleteOnExit();
+			sliceFiles.add( file );
+			sliceSizes.add( 0 );
+		}
+
+		final DataOutputStream open = openSliceStreams.get( slice );
+		if ( open != null ) return open;
+
+		if ( openSliceStreams.size() >= maxOpenSlices ) {
+			final Iterator<DataOutputStream> leastRecent = openSliceStreams.values().iterator();
+			leastRecent.next().close();
+			leastRecent.remove();
+		}
+
+		// appending starts a new gzip member if the slice was already written
+		final DataOutputStream stream =
+			new DataOutputStream(
+					new BufferedOutputStream(
+							new GZIPOutputStream(
+									new FileOutputStream( sliceFiles.get( slice ) , true ) ) ) );
+		openSliceStreams.put( slice , stream );
+		return stream;
+	}
+
+	// /////////////////////////////////////////////////////////////////////////
+	// helper classes
+	// /////////////////////////////////////////////////////////////////////////
+	private static class TripBuilder {
+		private final int tripNumber;
+		private final String originActivityType;
+
+		private String mode = null;
+		private int departureLinkIndex = -1;
+		private double departureTime = Double.NaN;
+
+		private int arrivalLinkIndex = -1;
+		private double arrivalTime = Double.NaN;
+
+		private final TIntArrayList routeLinks = new TIntArrayList();
+		private final TDoubleArrayList routeTimes = new TDoubleArrayList();
+
+		private TripBuilder( final int tripNumber , final String originActivityType ) {
+			this.tripNumber = tripNumber;
+			this.originActivityType = originActivityType;
+		}
+	}
+}
@@ -80,6 +80,21 @@ public class TripReconstructor implements
 		this.tracker = tracker;
 		this.network = network;
 
+		this.linkInformationsQuadTree =
+			createLinkInformationQuadTree(
+					network,
+					linkInformationsMap);
+	}
+
+	/**
+	 * Creates one {@link LinkInformation} per link, placed at the link coordinate.
+	 * @param network the network to get links from
+	 * @param linkInformationsMap a map to fill with the created instances, for easy access
+	 * @return a QuadTree containing all the created instances
+	 */
+	static QuadTree<LinkInformation> createLinkInformationQuadTree(
+			final Network network,
+			final Map<Id, LinkInformation> linkInformationsMap) {
 		double maxX = Double.NEGATIVE_INFINITY;
 		double minX = Double.POSITIVE_INFINITY;
 		double maxY = Double.NEGATIVE_INFINITY;
@@ -104,7 +119,7 @@ public class TripReconstructor implements
 			minY = Math.min(toNode.getY(), minY);
 		}
 
-		this.linkInformationsQuadTree = new QuadTree<LinkInformation>(minX, minY, maxX, maxY);
+		final QuadTree<LinkInformation> linkInformationsQuadTree = new QuadTree<LinkInformation>(minX, minY, maxX, maxY);
 		log.info("   constructing link information QuadTree... DONE");
 		log.info("   minX: "+minX+", minY: "+minY+", maxX: "+maxX+", maxY: "+maxY);
 
@@ -117,14 +132,16 @@ public class TripReconstructor implements
 
 			// add link in the quadtree at th location of both nodes
 			info = new LinkInformation(link.getId(), link.getCoord());
-			//this.linkInformationsQuadTree.put(fromNode.getX(), fromNode.getY(), info);
-			//this.linkInformationsQuadTree.put(toNode.getX(), toNode.getY(), info);
-			this.linkInformationsQuadTree.put(link.getCoord().getX(), link.getCoord().getY(), info);
+			//linkInformationsQuadTree.put(fromNode.getX(), fromNode.getY(), info);
+			//linkInformationsQuadTree.put(toNode.getX(), toNode.getY(), info);
+			linkInformationsQuadTree.put(link.getCoord().getX(), link.getCoord().getY(), info);
 
 			// put the info in a map for easy access
-			this.linkInformationsMap.put(link.getId(), info);
+			linkInformationsMap.put(link.getId(), info);
 		}
 		log.info("   filling QuadTree... DONE");
+
+		return linkInformationsQuadTree;
 	}
 
 	// /////////////////////////////////////////////////////////////////////////
@@ -19,6 +19,7 @@
  * *********************************************************************** */
 package playground.thibautd.hitchiking.qsim;
 
+import gnu.trove.map.TObjectIntMap;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
@@ -60,6 +61,8 @@ public class DriverRouteHandler implements HitchHikingHandler {
 	 */
 	public static final int N_PASSENGERS = 3;
 	private final HitchHikingDriverRoute route;
+	// positions of the drop-off links in the route, to search the passenger queues without scanning the whole list
+	private final TObjectIntMap<Id<Link>> dropOffPositions;
 	private final PassengerQueuesManager queuesManager;
 	private final TripRouter router;
 	private final HitchHikerAgent agent;
@@ -89,6 +92,7 @@ public class DriverRouteHandler implements HitchHikingHandler {
 		this.router = router;
 		this.queuesManager = manager;
 		this.route = route;
+		this.dropOffPositions = PassengerQueuesManager.indexDestinations( route.getDropOffLinksIds() );
 		this.now = now;
 		this.events = events;
 		this.costOfDistance = costOfDistance;
@@ -207,6 +211,7 @@ public class DriverRouteHandler implements HitchHikingHandler {
 					now,
 					route.getPickUpLinkId(),
 					route.getDropOffLinksIds(),
+					dropOffPositions,
 					N_PASSENGERS);
 
 		if (destAndPassengers != null) {
@@ -19,6 +19,8 @@
  * *********************************************************************** */
 package playground.thibautd.hitchiking.qsim;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.core.api.experimental.events.EventsManager;
@@ -28,7 +30,7 @@ import org.matsim.core.mobsim.qsim.interfaces.DepartureHandler;
 import org.matsim.core.mobsim.qsim.interfaces.MobsimEngine;
 import org.matsim.core.utils.collections.Tuple;
 import playground.thibautd.hitchiking.HitchHikingConstants;
-import playground.thibautd.hitchiking.qsim.PassengerQueuesPerLink.Queue;
+import playground.thibautd.hitchiking.qsim.PassengerQueuesPerLink.QueuesPerDestination;
 import playground.thibautd.hitchiking.qsim.events.PassengerEndsWaitingEvent;
 import playground.thibautd.hitchiking.qsim.events.PassengerStartsWaitingEvent;
 
@@ -41,6 +43,8 @@ import java.util.List;
  * @author thibautd
  */
 public class PassengerQueuesManager implements MobsimEngine, DepartureHandler {
+	private static final int NO_POSITION = -1;
+
 	private final PassengerQueuesPerLink queues = new PassengerQueuesPerLink();
 	private final EventsManager events;
 	private InternalInterface internalInterface = null;
@@ -97,25 +101,55 @@ public class PassengerQueuesManager implements MobsimEngine, DepartureHandler {
 			final Id<Link> pickUpLink,
 			final List<Id<Link>> possibleDestinations,
 			final int nPassengers) {
-		for (Id dest : possibleDestinations) {
-			Queue q = queues.getQueuesAtLink( pickUpLink ).getQueueForDestination( dest );
-
-			if (q.size() > 0) {
-				// return agents from the first non-empty queue
-				Collection<MobsimAgent> passengers = q.callAgents( nPassengers );
-
-				for (MobsimAgent p : passengers) {
-					events.processEvent(
-							new PassengerEndsWaitingEvent(
-								now,
-								p.getId(),
-								pickUpLink ) );
-				}
-
-				return new Tuple<Id, Collection<MobsimAgent>>( dest , passengers );
-			}
+		return getPassengersFromFirstNonEmptyQueue(
+				now,
+				pickUpLink,
+				possibleDestinations,
+				indexDestinations( possibleDestinations ),
+				nPassengers );
+	}
+
+	/**
+	 * Same as {@link #getPassengersFromFirstNonEmptyQueue(double, Id, List, int)},
+	 * for callers which can build the position index once and reuse it.
+	 * @param destinationPositions the positions of the possible destinations, as returned by
+	 * {@link #indexDestinations(List)}
+	 */
+	public Tuple<Id, Collection<MobsimAgent>> getPassengersFromFirstNonEmptyQueue(
+			final double now,
+			final Id<Link> pickUpLink,
+			final List<Id<Link>> possibleDestinations,
+			final TObjectIntMap<Id<Link>> destinationPositions,
+			final int nPassengers) {
+		final QueuesPerDestination queuesAtLink = queues.getQueuesAtLink( pickUpLink );
+		final Id dest = queuesAtLink.getFirstNonEmptyDestination( possibleDestinations , destinationPositions );
+
+		if (dest == null) return null;
+
+		// return agents from the first non-empty queue
+		Collection<MobsimAgent> passengers = queuesAtLink.getQueueForDestination( dest ).callAgents( nPassengers );
+
+		for (MobsimAgent p : passengers) {
+			events.processEvent(
+					new PassengerEndsWaitingEvent(
+						now,
+						p.getId(),
+						pickUpLink ) );
+		}
+
+		return new Tuple<Id, Collection<MobsimAgent>>( dest , passengers );
+	}
+
+	/**
+	 * @return a map from destination link to its first position in the list
+	 */
+	public static TObjectIntMap<Id<Link>> indexDestinations(final List<Id<Link>> possibleDestinations) {
+		final TObjectIntMap<Id<Link>> positions =
+			new TObjectIntHashMap<Id<Link>>( possibleDestinations.size() , 0.5f , NO_POSITION );
+		for (int i = 0; i < possibleDestinations.size(); i++) {
+			positions.putIfAbsent( possibleDestinations.get( i ) , i );
 		}
-		return null;
+		return positions;
 	}
 
 	public void arrangePassengersArrivals(
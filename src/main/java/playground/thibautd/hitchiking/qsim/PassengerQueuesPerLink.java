@@ -19,8 +19,10 @@
  * *********************************************************************** */
 package playground.thibautd.hitchiking.qsim;
 
+import gnu.trove.map.TObjectIntMap;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.events.PersonStuckEvent;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.mobsim.framework.MobsimAgent;
@@ -29,9 +31,11 @@ import playground.thibautd.hitchiking.HitchHikingConstants;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author thibautd
@@ -86,22 +90,74 @@ public class PassengerQueuesPerLink {
 	// /////////////////////////////////////////////////////////////////////////
 	public static class QueuesPerDestination {
 		private final Map<Id, Queue> queues = new HashMap<Id, Queue>();
+		// kept up to date by the queues, so that pick-ups do not need to look at all destinations
+		private final Set<Id> nonEmptyDestinations = new HashSet<Id>();
 
 		public synchronized Queue getQueueForDestination(final Id destination) {
 			Queue q = queues.get( destination );
 
 			if (q == null) {
-				q = new Queue();
+				q = new Queue( this , destination );
 				queues.put( destination , q );
 			}
 
 			return q;
 		}
+
+		/**
+		 * @return a copy of the destinations for which at least one agent is waiting
+		 */
+		public synchronized Set<Id> getNonEmptyDestinations() {
+			return new HashSet<Id>( nonEmptyDestinations );
+		}
+
+		/**
+		 * Intersects the destinations with waiting agents with the possible destinations,
+		 * iterating over the smallest of both. Done here rather than by the caller,
+		 * so that the index is not modified while being read.
+		 *
+		 * @param destinationPositions the positions of the possible destinations, as returned by
+		 * {@link PassengerQueuesManager#indexDestinations(List)}
+		 * @return the first possible destination for which at least one agent is waiting, null if none
+		 */
+		synchronized Id getFirstNonEmptyDestination(
+				final List<Id<Link>> possibleDestinations,
+				final TObjectIntMap<Id<Link>> destinationPositions) {
+			if (nonEmptyDestinations.size() < possibleDestinations.size()) {
+				Id dest = null;
+				int bestPosition = Integer.MAX_VALUE;
+				for (Id d : nonEmptyDestinations) {
+					final int position = destinationPositions.get( d );
+					if (position != destinationPositions.getNoEntryValue() && position < bestPosition) {
+						bestPosition = position;
+						dest = d;
+					}
+				}
+				return dest;
+			}
+
+			for (Id d : possibleDestinations) {
+				if (nonEmptyDestinations.contains( d )) return d;
+			}
+			return null;
+		}
+
+		private synchronized void notifyEmptiness(final Id destination, final boolean isEmpty) {
+			if (isEmpty) nonEmptyDestinations.remove( destination );
+			else nonEmptyDestinations.add( destination );
+		}
 	}
 
 	public static class Queue {
+		private final QueuesPerDestination owner;
+		private final Id destination;
 		private final LinkedList<MobsimAgent> queue = new LinkedList<MobsimAgent>();
 
+		private Queue(final QueuesPerDestination owner, final Id destination) {
+			this.owner = owner;
+			this.destination = destination;
+		}
+
 		public int size() {
 			return queue.size();
 		}
@@ -115,10 +171,13 @@ public class PassengerQueuesPerLink {
 				agents.add( queue.removeFirst() );
 			}
 
+			if (queue.isEmpty()) owner.notifyEmptiness( destination , true );
+
 			return agents;
 		}
 
 		public void addWaitingAgent(final MobsimAgent agent) {
+			if (queue.isEmpty()) owner.notifyEmptiness( destination , false );
 			queue.addLast( agent );
 		}
 	}
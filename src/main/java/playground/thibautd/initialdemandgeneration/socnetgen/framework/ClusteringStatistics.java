@@ -0,0 +1,114 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * ClusteringStatistics.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgen.framework;
+
+/**
+ * Exact clustering and degree statistics of a network, as computed by
+ * {@link SnaUtils#calcClusteringStatistics(int, IndexedTies)}.
+ * Egos are identified by their index in the {@link IndexedTies}.
+ *
+ * @author thibautd
+ */
+public final class ClusteringStatistics {
+	private final long nTriangles;
+	private final long nTriples;
+	private final int[] nTrianglesPerEgo;
+	private final int[] degrees;
+
+	ClusteringStatistics(
+			final long nTriangles,
+			final int[] nTrianglesPerEgo,
+			final int[] degrees ) {
+		this.nTriangles = nTriangles;
+		this.nTrianglesPerEgo = nTrianglesPerEgo;
+		this.degrees = degrees;
+
+		long triples = 0;
+		for ( int d : degrees ) triples += nPairs( d );
+		this.nTriples = triples;
+	}
+
+	public long getNTriangles() {
+		return nTriangles;
+	}
+
+	/**
+	 * @return the number of connected triples, that is, of pairs of alters of a same ego
+	 */
+	public long getNTriples() {
+		return nTriples;
+	}
+
+	/**
+	 * @return the proportion of connected triples that are closed, as {@link SnaUtils#calcClusteringCoefficient(org.matsim.contrib.socnetsim.framework.population.SocialNetwork)}
+	 */
+	public double getGlobalClustering() {
+		// every triangle closes three triples
+		return nTriples > 0 ? 3d * nTriangles / nTriples : 0;
+	}
+
+	/**
+	 * @return the proportion of pairs of alters of the ego that are tied together, 0 if the ego has less than two alters
+	 */
+	public double getLocalClustering( final int ego ) {
+		final long pairs = nPairs( degrees[ ego ] );
+		return pairs > 0 ? ((double) nTrianglesPerEgo[ ego ]) / pairs : 0;
+	}
+
+	/**
+	 * @return the average of local clustering over all egos, counting egos with less than two alters as 0
+	 */
+	public double getAverageLocalClustering() {
+		double sum = 0;
+		for ( int ego = 0; ego < degrees.length; ego++ ) sum += getLocalClustering( ego );
+		return degrees.length > 0 ? sum / degrees.length : 0;
+	}
+
+	/**
+	 * @return the number of egos with local clustering in each of nBins bins of equal width between 0 and 1
+	 */
+	public int[] getLocalClusteringDistribution( final int nBins ) {
+		final int[] counts = new int[ nBins ];
+		for ( int ego = 0; ego < degrees.length; ego++ ) {
+			counts[ Math.min( nBins - 1 , (int) ( getLocalClustering( ego ) * nBins ) ) ]++;
+		}
+		return counts;
+	}
+
+	public int getDegree( final int ego ) {
+		return degrees[ ego ];
+	}
+
+	/**
+	 * @return the number of egos having each degree, indexed by degree
+	 */
+	public int[] getDegreeDistribution() {
+		int max = 0;
+		for ( int d : degrees ) max = Math.max( max , d );
+
+		final int[] counts = new int[ max + 1 ];
+		for ( int d : degrees ) counts[ d ]++;
+		return counts;
+	}
+
+	private static long nPairs( final long degree ) {
+		return degree * ( degree - 1 ) / 2;
+	}
+}
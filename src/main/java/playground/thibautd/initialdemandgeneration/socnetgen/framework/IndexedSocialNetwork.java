@@ -0,0 +1,290 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * IndexedSocialNetwork.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgen.framework;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read only, reflective {@link SocialNetwork}, backed by {@link IndexedTies}.
+ * <br>
+ * Sets and maps returned by this class are views, created on demand: no {@link Id} is stored per tie,
+ * which makes this representation an order of magnitude more compact than a
+ * {@link org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl}.
+ * {@link SnaUtils} uses the indexed ties directly when it gets such a network.
+ *
+ * @author thibautd
+ */
+public final class IndexedSocialNetwork implements SocialNetwork {
+	private static final int NO_INDEX = -1;
+
+	private final Id<Person>[] ids;
+	private final TObjectIntMap<Id<Person>> indices;
+	private final IndexedTies ties;
+
+	private final Map<String, String> metadata = new LinkedHashMap<>();
+
+	/**
+	 * @param ids the id of each ego, by index. The array is not copied.
+	 */
+	public IndexedSocialNetwork( final Id<Person>[] ids , final IndexedTies ties ) {
+		if ( ids.length != ties.getNEgos() ) throw new IllegalArgumentException( ids.length+" ids for "+ties.getNEgos()+" egos" );
+		this.ids = ids;
+		this.ties = ties;
+		this.indices = new TObjectIntHashMap<>( ids.length , 0.5f , NO_INDEX );
+		for ( int i = 0; i < ids.length; i++ ) indices.put( ids[ i ] , i );
+	}
+
+	/**
+	 * @return the network itself if it is an {@link IndexedSocialNetwork}, an indexed copy of it otherwise.
+	 * Ties of the copy are reflective, even if the network is not.
+	 */
+	public static IndexedSocialNetwork toIndexed( final SocialNetwork network ) {
+		if ( network instanceof IndexedSocialNetwork ) return (IndexedSocialNetwork) network;
+
+		final List<Id<Person>> ids = new ArrayList<>( network.getEgos() );
+		final TObjectIntMap<Id<Person>> indices = new TObjectIntHashMap<>( ids.size() , 0.5f , NO_INDEX );
+		for ( Id<Person> id : ids ) indices.put( id , indices.size() );
+
+		// alters do not need to be egos in all implementations
+		for ( Id<Person> ego : network.getEgos() ) {
+			for ( Id<Person> alter : network.getAlters( ego ) ) {
+				if ( !indices.containsKey( alter ) ) {
+					indices.put( alter , ids.size() );
+					ids.add( alter );
+				}
+			}
+		}
+
+		// count both directions: duplicates are removed afterwards
+		final int[] degrees = new int[ ids.size() ];
+		for ( Id<Person> ego : network.getEgos() ) {
+			for ( Id<Person> alter : network.getAlters( ego ) ) {
+				degrees[ indices.get( ego ) ]++;
+				degrees[ indices.get( alter ) ]++;
+			}
+		}
+
+		final int[] offsets = new int[ ids.size() + 1 ];
+		for ( int i = 0; i < ids.size(); i++ ) offsets[ i + 1 ] = offsets[ i ] + degrees[ i ];
+
+		final int[] alters = new int[ offsets[ ids.size() ] ];
+		final int[] fill = Arrays.copyOf( offsets , ids.size() );
+		for ( Id<Person> ego : network.getEgos() ) {
+			final int egoIndex = indices.get( ego );
+			for ( Id<Person> alter : network.getAlters( ego ) ) {
+				final int alterIndex = indices.get( alter );
+				alters[ fill[ egoIndex ]++ ] = alterIndex;
+				alters[ fill[ alterIndex ]++ ] = egoIndex;
+			}
+		}
+
+		final IndexedSocialNetwork indexed =
+				new IndexedSocialNetwork(
+						ids.toArray( new Id[ ids.size() ] ),
+						IndexedTies.createFromUnsortedAlters( offsets , alters ) );
+		indexed.getMetadata().putAll( network.getMetadata() );
+		return indexed;
+	}
+
+	public IndexedTies getTies() {
+		return ties;
+	}
+
+	public Id<Person> getId( final int index ) {
+		return ids[ index ];
+	}
+
+	/**
+	 * @return the index of the ego, or a negative value if it is not part of the network
+	 */
+	public int getIndex( final Id<Person> id ) {
+		return indices.get( id );
+	}
+
+	@Override
+	public Set<Id<Person>> getAlters( final Id<Person> ego ) {
+		final int index = indices.get( ego );
+		if ( index == NO_INDEX ) throw new IllegalArgumentException( "unknown ego "+ego );
+		return new Alters( index );
+	}
+
+	@Override
+	public Set<Id<Person>> getEgos() {
+		return new AbstractSet<Id<Person>>() {
+			@Override
+			public Iterator<Id<Person>> iterator() {
+				return new IndexIterator<Id<Person>>( ids.length ) {
+					@Override
+					protected Id<Person> get( final int i ) {
+						return ids[ i ];
+					}
+				};
+			}
+
+			@Override
+			public boolean contains( final Object o ) {
+				return o instanceof Id && indices.containsKey( o );
+			}
+
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+
+	@Override
+	public Map<Id<Person>, Set<Id<Person>>> getMapRepresentation() {
+		return new AbstractMap<Id<Person>, Set<Id<Person>>>() {
+			@Override
+			public Set<Entry<Id<Person>, Set<Id<Person>>>> entrySet() {
+				return new AbstractSet<Entry<Id<Person>, Set<Id<Person>>>>() {
+					@Override
+					public Iterator<Entry<Id<Person>, Set<Id<Person>>>> iterator() {
+						return new IndexIterator<Entry<Id<Person>, Set<Id<Person>>>>( ids.length ) {
+							@Override
+							protected Entry<Id<Person>, Set<Id<Person>>> get( final int i ) {
+								return new SimpleImmutableEntry<>( ids[ i ] , new Alters( i ) );
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return ids.length;
+					}
+				};
+			}
+
+			@Override
+			public Set<Id<Person>> get( final Object key ) {
+				final int index = key instanceof Id ? indices.get( key ) : NO_INDEX;
+				return index == NO_INDEX ? null : new Alters( index );
+			}
+
+			@Override
+			public boolean containsKey( final Object key ) {
+				return key instanceof Id && indices.containsKey( key );
+			}
+		};
+	}
+
+	@Override
+	public boolean isReflective() {
+		return true;
+	}
+
+	@Override
+	public void addEgo( final Id<Person> id ) {
+		throw new UnsupportedOperationException( "read only network" );
+	}
+
+	@Override
+	public void addEgos( final Iterable<? extends Id<Person>> ids ) {
+		throw new UnsupportedOperationException( "read only network" );
+	}
+
+	@Override
+	public void addBidirectionalTie( final Id<Person> id1, final Id<Person> id2 ) {
+		throw new UnsupportedOperationException( "read only network" );
+	}
+
+	@Override
+	public void addMonodirectionalTie( final Id<Person> ego, final Id<Person> alter ) {
+		throw new UnsupportedOperationException( "read only network" );
+	}
+
+	@Override
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	@Override
+	public void addMetadata( final String att, final String value ) {
+		metadata.put( att , value );
+	}
+
+	private class Alters extends AbstractSet<Id<Person>> {
+		private final int ego;
+
+		private Alters( final int ego ) {
+			this.ego = ego;
+		}
+
+		@Override
+		public Iterator<Id<Person>> iterator() {
+			return new IndexIterator<Id<Person>>( ties.getDegree( ego ) ) {
+				@Override
+				protected Id<Person> get( final int i ) {
+					return ids[ ties.getAlter( ego , i ) ];
+				}
+			};
+		}
+
+		@Override
+		public boolean contains( final Object o ) {
+			if ( !( o instanceof Id ) ) return false;
+			final int alter = indices.get( o );
+			return alter != NO_INDEX && ties.isTie( ego , alter );
+		}
+
+		@Override
+		public int size() {
+			return ties.getDegree( ego );
+		}
+	}
+
+	private static abstract class IndexIterator<T> implements Iterator<T> {
+		private final int size;
+		private int next = 0;
+
+		private IndexIterator( final int size ) {
+			this.size = size;
+		}
+
+		protected abstract T get( int i );
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public T next() {
+			if ( !hasNext() ) throw new NoSuchElementException();
+			return get( next++ );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * IndexedTies.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgen.framework;
+
+import java.util.Arrays;
+
+/**
+ * Read only, reflective ties between egos identified by their index, in "compressed sparse row" form:
+ * the alters of ego i are the elements of the alters array between offsets[ i ] (inclusive)
+ * and offsets[ i + 1 ] (exclusive), sorted in increasing order.
+ * <br>
+ * This takes a small fraction of the memory of a {@link org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl},
+ * and is safe to read from several threads.
+ *
+ * @author thibautd
+ */
+public final class IndexedTies {
+	private final int[] offsets;
+	private final int[] alters;
+
+	/**
+	 * The arrays are not copied and must not be modified afterwards.
+	 *
+	 * @param offsets the start of the alters of each ego, followed by the total number of alters
+	 * @param alters the alters of all egos, sorted for each ego. Every tie must be present in both directions.
+	 */
+	public IndexedTies( final int[] offsets , final int[] alters ) {
+		if ( offsets.length == 0 || offsets[ offsets.length - 1 ] != alters.length ) {
+			throw new IllegalArgumentException( "last offset should be the number of alters" );
+		}
+		this.offsets = offsets;
+		this.alters = alters;
+	}
+
+	/**
+	 * Sorts the alters of each ego and removes duplicates.
+	 *
+	 * @param offsets as for the constructor. Modified by this method.
+	 * @param alters as for the constructor, but unsorted and possibly with duplicates. Modified by this method.
+	 */
+	public static IndexedTies createFromUnsortedAlters( final int[] offsets , final int[] alters ) {
+		int size = 0;
+		for ( int ego = 0; ego < offsets.length - 1; ego++ ) {
+			Arrays.sort( alters , offsets[ ego ] , offsets[ ego + 1 ] );
+			final int start = size;
+			for ( int i = offsets[ ego ]; i < offsets[ ego + 1 ]; i++ ) {
+				if ( size == start || alters[ size - 1 ] != alters[ i ] ) alters[ size++ ] = alters[ i ];
+			}
+			offsets[ ego ] = start;
+		}
+		offsets[ offsets.length - 1 ] = size;
+
+		return new IndexedTies( offsets , Arrays.copyOf( alters , size ) );
+	}
+
+	public int getNEgos() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @return the number of (undirected) ties
+	 */
+	public long getNTies() {
+		return alters.length / 2;
+	}
+
+	public int getDegree( final int ego ) {
+		return offsets[ ego + 1 ] - offsets[ ego ];
+	}
+
+	/**
+	 * @return the i-th alter of ego, in increasing order
+	 */
+	public int getAlter( final int ego , final int i ) {
+		return alters[ offsets[ ego ] + i ];
+	}
+
+	public boolean isTie( final int ego , final int alter ) {
+		return Arrays.binarySearch( alters , offsets[ ego ] , offsets[ ego + 1 ] , alter ) >= 0;
+	}
+
+	public double getAverageDegree() {
+		return ((double) alters.length) / getNEgos();
+	}
+}
@@ -24,30 +24,27 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
 import org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl;
-import org.matsim.contrib.socnetsim.utils.CollectionUtils;
-import org.matsim.core.router.priorityqueue.BinaryMinHeap;
-import org.matsim.core.router.priorityqueue.HasIndex;
-import org.matsim.core.router.priorityqueue.MinHeap;
 import org.matsim.core.utils.misc.Counter;
 
-import java.util.ArrayDeque;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Provides methods to produce standard statistics for social networks
@@ -76,6 +73,13 @@ public class SnaUtils {
 		if ( probabilityPrecision < 0 || probabilityPrecision > 1 ) throw new IllegalArgumentException( "illegal probability "+probabilityPrecision );
 		if ( !socialNetwork.isReflective() ) throw new IllegalArgumentException( "cannot estimate clustering on non reflective network" );
 
+		if ( socialNetwork instanceof IndexedSocialNetwork ) {
+			return estimateClusteringCoefficient(
+					randomSeed,
+					precision,
+					probabilityPrecision,
+					((IndexedSocialNetwork) socialNetwork).getTies() );
+		}
 
 		final int k = (int) Math.ceil( 0.5d * Math.pow( precision , -2 ) * Math.log( 2d / (1 - probabilityPrecision) ) );
 
@@ -167,38 +171,169 @@ public class SnaUtils {
 
 	public static double calcClusteringCoefficient(
 			final SocialNetwork socialNetwork) {
-		log.info( "compute clustering coefficient with full enumeration" );
-		final Counter tripleCounter = new Counter( "clustering calculation: look at triple # " );
-		long nTriples = 0;
-		long nTriangles = 0;
-
-		for ( Id<Person> ego : socialNetwork.getEgos() ) {
-			final Set<Id<Person>> alterSet = socialNetwork.getAlters( ego );
-			final Id<Person>[] alters = alterSet.toArray( new Id[ alterSet.size() ] ); 
-
-			for ( int alter1index = 0; alter1index < alters.length; alter1index++ ) {
-				final Set<Id<Person>> altersOfAlter1 = socialNetwork.getAlters( alters[ alter1index ] );
-				for ( int alter2index = alter1index + 1; alter2index < alters.length; alter2index++ ) {
-					// this is a new triple
-					tripleCounter.incCounter();
-					nTriples++;
-
-					if ( altersOfAlter1.contains( alters[ alter2index ] ) ) {
-						nTriangles++;
+		return calcClusteringStatistics( Runtime.getRuntime().availableProcessors() , socialNetwork ).getGlobalClustering();
+	}
+
+	/**
+	 * Counts all triangles of the network, to get exact global and local clustering as well as the degree distribution.
+	 * Egos of the statistics are identified by their index in {@link IndexedSocialNetwork#toIndexed(SocialNetwork)}.
+	 */
+	public static ClusteringStatistics calcClusteringStatistics(
+			final int nThreads,
+			final SocialNetwork socialNetwork ) {
+		if ( !socialNetwork.isReflective() ) throw new IllegalArgumentException( "cannot compute clustering on non reflective network" );
+		return calcClusteringStatistics( nThreads , IndexedSocialNetwork.toIndexed( socialNetwork ).getTies() );
+	}
+
+	/**
+	 * Counts all triangles by intersecting the sorted alters of tied egos, each tie being oriented from the ego
+	 * with lowest degree to the ego with highest degree. This bounds the length of the alters to intersect
+	 * even for high degree egos, and finds every triangle exactly once.
+	 */
+	public static ClusteringStatistics calcClusteringStatistics(
+			final int nThreads,
+			final IndexedTies ties ) {
+		log.info( "compute clustering coefficient by counting triangles using "+nThreads+" threads" );
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try {
+			return calcClusteringStatistics( pool , ties );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static ClusteringStatistics calcClusteringStatistics(
+			final ForkJoinPool pool,
+			final IndexedTies ties ) {
+		final int nEgos = ties.getNEgos();
+
+		final int[] degrees = new int[ nEgos ];
+		for ( int ego = 0; ego < nEgos; ego++ ) degrees[ ego ] = ties.getDegree( ego );
+
+		// oriented ties, kept sorted by index
+		final int[] offsets = new int[ nEgos + 1 ];
+		forEachEgo( pool , nEgos , ego -> {
+			int count = 0;
+			for ( int i = 0; i < degrees[ ego ]; i++ ) {
+				if ( isLowerRanked( degrees , ego , ties.getAlter( ego , i ) ) ) count++;
+			}
+			offsets[ ego + 1 ] = count;
+		} );
+		for ( int ego = 0; ego < nEgos; ego++ ) offsets[ ego + 1 ] += offsets[ ego ];
+
+		final int[] higherAlters = new int[ offsets[ nEgos ] ];
+		forEachEgo( pool , nEgos , ego -> {
+			int next = offsets[ ego ];
+			for ( int i = 0; i < degrees[ ego ]; i++ ) {
+				final int alter = ties.getAlter( ego , i );
+				if ( isLowerRanked( degrees , ego , alter ) ) higherAlters[ next++ ] = alter;
+			}
+		} );
+
+		final AtomicIntegerArray trianglesPerEgo = new AtomicIntegerArray( nEgos );
+		forEachEgo( pool , nEgos , ego -> {
+			for ( int i = offsets[ ego ]; i < offsets[ ego + 1 ]; i++ ) {
+				final int alter = higherAlters[ i ];
+
+				// merge the two sorted lists
+				int egoIndex = offsets[ ego ];
+				int alterIndex = offsets[ alter ];
+				while ( egoIndex < offsets[ ego + 1 ] && alterIndex < offsets[ alter + 1 ] ) {
+					final int egoAlter = higherAlters[ egoIndex ];
+					final int alterAlter = higherAlters[ alterIndex ];
+					if ( egoAlter < alterAlter ) egoIndex++;
+					else if ( egoAlter > alterAlter ) alterIndex++;
+					else {
+						trianglesPerEgo.incrementAndGet( ego );
+						trianglesPerEgo.incrementAndGet( alter );
+						trianglesPerEgo.incrementAndGet( egoAlter );
+						egoIndex++;
+						alterIndex++;
 					}
 				}
 			}
+		} );
+
+		final int[] triangles = new int[ nEgos ];
+		long sumTriangles = 0;
+		for ( int ego = 0; ego < nEgos; ego++ ) {
+			triangles[ ego ] = trianglesPerEgo.get( ego );
+			sumTriangles += triangles[ ego ];
+		}
+
+		// each triangle was counted once per corner
+		return new ClusteringStatistics( sumTriangles / 3 , triangles , degrees );
+	}
+
+	private static boolean isLowerRanked( final int[] degrees , final int ego , final int alter ) {
+		return degrees[ ego ] < degrees[ alter ] || ( degrees[ ego ] == degrees[ alter ] && ego < alter );
+	}
+
+	private static void forEachEgo( final ForkJoinPool pool , final int nEgos , final IntConsumer action ) {
+		try {
+			pool.submit( () -> IntStream.range( 0 , nEgos ).parallel().forEach( action ) ).get();
+		}
+		catch ( InterruptedException | ExecutionException e ) {
+			// avoid wrapping a wrapper exception...
+			if ( e.getCause() instanceof RuntimeException ) throw (RuntimeException) e.getCause();
+			else if ( e.getCause() != null ) throw new RuntimeException( e.getCause() );
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Same as {@link #estimateClusteringCoefficient(long, int, double, double, SocialNetwork)}, but for ties
+	 * given by index. This runs in the calling thread only, so that clustering can be estimated for several
+	 * networks at the same time.
+	 */
+	public static double estimateClusteringCoefficient(
+			final long randomSeed,
+			final double precision,
+			final double probabilityPrecision,
+			final IndexedTies ties ) {
+		if ( probabilityPrecision < 0 || probabilityPrecision > 1 ) throw new IllegalArgumentException( "illegal probability "+probabilityPrecision );
+
+		final int k = (int) Math.ceil( 0.5d * Math.pow( precision , -2 ) * Math.log( 2d / (1 - probabilityPrecision) ) );
+
+		if ( ties.getNTies() < k ) return calcClusteringStatistics( 1 , ties ).getGlobalClustering();
+
+		final long[] cumulatedWeight = new long[ ties.getNEgos() ];
+		long sum = 0;
+		for ( int ego = 0; ego < cumulatedWeight.length; ego++ ) {
+			final long deg = ties.getDegree( ego );
+			sum += deg * (deg - 1) / 2;
+			cumulatedWeight[ ego ] = sum;
+		}
+		if ( sum == 0 ) return 0;
+
+		final Random random = new Random( randomSeed );
+		int nTriangles = 0;
+		for ( int i=0; i < k; i++ ) {
+			final long sampledWeight = (long) (random.nextDouble() * sum);
+			// first ego with cumulated weight strictly over the sampled one: never an ego without wedge
+			int ins = Arrays.binarySearch( cumulatedWeight , sampledWeight );
+			if ( ins >= 0 ) {
+				while ( cumulatedWeight[ ins ] == sampledWeight ) ins++;
+			}
+			final int ego = ins >= 0 ? ins : -ins - 1;
+
+			final int deg = ties.getDegree( ego );
+			final int index1 = random.nextInt( deg );
+			// draw the second alter among the deg - 1 others
+			final int index2 = ( index1 + 1 + random.nextInt( deg - 1 ) ) % deg;
+
+			if ( ties.isTie( ties.getAlter( ego , index1 ) , ties.getAlter( ego , index2 ) ) ) nTriangles++;
 		}
-		tripleCounter.printCounter();
 
-		// note: in Arentze's paper, it is 3 * triangle / triples.
-		// but here, we count every triangle three times.
-		assert nTriples >= 0 : nTriples;
-		assert nTriangles >= 0 : nTriangles;
-		return nTriples > 0 ? (1d * nTriangles) / nTriples : 0;
+		return ((double) nTriangles) / k;
 	}
 
 	public static double calcAveragePersonalNetworkSize(final SocialNetwork socialNetwork) {
+		if ( socialNetwork instanceof IndexedSocialNetwork ) {
+			return ((IndexedSocialNetwork) socialNetwork).getTies().getAverageDegree();
+		}
+
 		int count = 0;
 		long sum = 0;
 		for ( Id ego : socialNetwork.getEgos() ) {
@@ -213,135 +348,246 @@ public class SnaUtils {
 		if ( !sn.isReflective() ) {
 			throw new IllegalArgumentException( "the algorithm is valid only with reflective networks" );
 		}
-		final Map<Id<Person>, Set<Id<Person>>> altersMap = new LinkedHashMap<>( sn.getMapRepresentation() );
-		final Collection< Set<Id<Person>> > components = new ArrayList<>();
-	
-		while ( !altersMap.isEmpty() ) {
-			// DFS implemented as a loop (recursion results in a stackoverflow on
-			// big networks)
-			final Id<Person> seed = CollectionUtils.getElement( 0 , altersMap.keySet() );
-	
-			final Set<Id<Person>> component = new HashSet<>();
-			components.add( component );
-			component.add( seed );
-	
-			final Queue<Id<Person>> stack = Collections.asLifoQueue( new ArrayDeque<Id<Person>>( altersMap.size() ) );
-			stack.add( seed );
-	
-			while ( !stack.isEmpty() ) {
-				final Id<Person> current = stack.remove();
-				final Set<Id<Person>> alters = altersMap.remove( current );
-	
-				for ( Id<Person> alter : alters ) {
-					if ( component.add( alter ) ) {
-						stack.add( alter );
-					}
-				}
-			}
-	
+		final IndexedSocialNetwork indexed = IndexedSocialNetwork.toIndexed( sn );
+		final int nEgos = indexed.getTies().getNEgos();
+		final int[] labels = identifyConnectedComponents( Runtime.getRuntime().availableProcessors() , indexed.getTies() );
+
+		int nComponents = 0;
+		for ( int label : labels ) nComponents = Math.max( nComponents , label + 1 );
+
+		// members of each component, grouped by component, in increasing index order
+		final int[] offsets = new int[ nComponents + 1 ];
+		for ( int label : labels ) offsets[ label + 1 ]++;
+		for ( int c = 0; c < nComponents; c++ ) offsets[ c + 1 ] += offsets[ c ];
+		final int[] members = new int[ nEgos ];
+		final int[] fill = Arrays.copyOf( offsets , nComponents );
+		for ( int ego = 0; ego < nEgos; ego++ ) members[ fill[ labels[ ego ] ]++ ] = ego;
+
+		final Collection< Set<Id<Person>> > components = new ArrayList<>( nComponents );
+		for ( int c = 0; c < nComponents; c++ ) {
+			components.add( new Component( indexed , labels , members , offsets[ c ] , offsets[ c + 1 ] ) );
 		}
-	
 		return components;
 	}
 
+	/**
+	 * Identifies connected components using a concurrent union-find: ties are processed in parallel,
+	 * roots being linked by compare-and-set, always under the root with the lowest index.
+	 *
+	 * @return the component of each ego, components being numbered in the order of their first ego
+	 */
+	public static int[] identifyConnectedComponents(
+			final int nThreads,
+			final IndexedTies ties ) {
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try {
+			return identifyConnectedComponents( pool , ties );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static int[] identifyConnectedComponents(
+			final ForkJoinPool pool,
+			final IndexedTies ties ) {
+		final int nEgos = ties.getNEgos();
+		final AtomicIntegerArray parents = new AtomicIntegerArray( nEgos );
+		for ( int ego = 0; ego < nEgos; ego++ ) parents.set( ego , ego );
+
+		forEachEgo( pool , nEgos , ego -> {
+			for ( int i = 0; i < ties.getDegree( ego ); i++ ) {
+				final int alter = ties.getAlter( ego , i );
+				// reflective ties: consider each once
+				if ( alter > ego ) union( parents , ego , alter );
+			}
+		} );
+
+		// the root of a component is its lowest index, and thus gets labelled before the other members
+		final int[] labels = new int[ nEgos ];
+		int nComponents = 0;
+		for ( int ego = 0; ego < nEgos; ego++ ) {
+			final int root = find( parents , ego );
+			labels[ ego ] = root == ego ? nComponents++ : labels[ root ];
+		}
+		return labels;
+	}
+
+	private static int find( final AtomicIntegerArray parents , final int ego ) {
+		int current = ego;
+		int parent = parents.get( current );
+		while ( parent != current ) {
+			// path halving. Failing is not a problem, as other threads only make paths shorter
+			final int grandParent = parents.get( parent );
+			parents.compareAndSet( current , parent , grandParent );
+			current = grandParent;
+			parent = parents.get( current );
+		}
+		return current;
+	}
+
+	private static void union( final AtomicIntegerArray parents , final int ego , final int alter ) {
+		while ( true ) {
+			final int egoRoot = find( parents , ego );
+			final int alterRoot = find( parents , alter );
+			if ( egoRoot == alterRoot ) return;
+
+			final int low = Math.min( egoRoot , alterRoot );
+			final int high = Math.max( egoRoot , alterRoot );
+			// only succeeds if high is still a root
+			if ( parents.compareAndSet( high , high , low ) ) return;
+		}
+	}
+
+	public static void sampleSocialDistances(
+			final SocialNetwork socialNetwork,
+			final Random random,
+			final int nPairs,
+			final DistanceCallback callback  ) {
+		sampleSocialDistances(
+				Runtime.getRuntime().availableProcessors(),
+				socialNetwork,
+				random,
+				nPairs,
+				callback );
+	}
+
+	/**
+	 * Samples pairs of egos in the biggest connected component, and computes the number of hops between them.
+	 * Distances are computed using a bit-parallel multi-source breadth first search, that explores the network
+	 * from 64 egos at once, each level being computed in parallel.
+	 * The callback is called from the calling thread, in the order pairs were sampled.
+	 */
 	public static void sampleSocialDistances(
+			final int nThreads,
 			final SocialNetwork socialNetwork,
 			final Random random,
 			final int nPairs,
 			final DistanceCallback callback  ) {
+		if ( !socialNetwork.isReflective() ) {
+			throw new IllegalArgumentException( "the algorithm is valid only with reflective networks" );
+		}
+		final IndexedSocialNetwork indexed = IndexedSocialNetwork.toIndexed( socialNetwork );
+
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try {
+			sampleSocialDistances( pool , indexed , random , nPairs , callback );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void sampleSocialDistances(
+			final ForkJoinPool pool,
+			final IndexedSocialNetwork indexed,
+			final Random random,
+			final int nPairs,
+			final DistanceCallback callback  ) {
+		final IndexedTies ties = indexed.getTies();
 
 		log.info( "searching for the biggest connected component..." );
-		PairRandomizer biggestComponent = null;
-		for ( Set<Id<Person>> component : SnaUtils.identifyConnectedComponents( socialNetwork ) ) {
-			if ( biggestComponent == null || biggestComponent.ids.size() < component.size() ) {
-				biggestComponent = new PairRandomizer( random , component );
-			}
+		final int[] labels = identifyConnectedComponents( pool , ties );
+		int nComponents = 0;
+		for ( int label : labels ) nComponents = Math.max( nComponents , label + 1 );
+		final int[] sizes = new int[ nComponents ];
+		for ( int label : labels ) sizes[ label ]++;
+		int biggestLabel = 0;
+		for ( int c = 1; c < nComponents; c++ ) {
+			if ( sizes[ c ] > sizes[ biggestLabel ] ) biggestLabel = c;
 		}
 
-		log.info( "considering only biggest component with size "+ biggestComponent.ids.size() );
-		log.info( "ignoring "+( socialNetwork.getEgos().size() - biggestComponent.ids.size() )+" agents ("+
-				( ( socialNetwork.getEgos().size() - biggestComponent.ids.size() ) * 100d / socialNetwork.getEgos().size() )+"%)" );
+		final int[] biggestMembers = new int[ nComponents > 0 ? sizes[ biggestLabel ] : 0 ];
+		int nMembers = 0;
+		for ( int ego = 0; ego < labels.length; ego++ ) {
+			if ( labels[ ego ] == biggestLabel ) biggestMembers[ nMembers++ ] = ego;
+		}
+		final PairRandomizer biggestComponent = new PairRandomizer( random , biggestMembers );
 
+		log.info( "considering only biggest component with size "+ biggestMembers.length );
+		log.info( "ignoring "+( ties.getNEgos() - biggestMembers.length )+" agents ("+
+				( ( ties.getNEgos() - biggestMembers.length ) * 100d / ties.getNEgos() )+"%)" );
 
-		final Counter counter = new Counter( "sampling pair # " );
+		final int[] egos = new int[ nPairs ];
+		final int[] alters = new int[ nPairs ];
 		for ( int i = 0; i < nPairs; i++ ) {
-			counter.incCounter();
-			final Id<Person> ego = biggestComponent.next();
-			final Id<Person> alter = biggestComponent.next();
+			egos[ i ] = biggestComponent.next();
+			alters[ i ] = biggestComponent.next();
+		}
 
-			callback.notifyDistance(
-					ego, alter ,
-					calcNHops( socialNetwork , ego , alter ) );
+		final int[] distances = new int[ nPairs ];
+		final Counter counter = new Counter( "sampling pair # " );
+		for ( int batchStart = 0; batchStart < nPairs; batchStart += Long.SIZE ) {
+			final int batchSize = Math.min( Long.SIZE , nPairs - batchStart );
+			calcNHops( pool , ties , egos , alters , batchStart , batchSize , distances );
+			for ( int i = 0; i < batchSize; i++ ) counter.incCounter();
 		}
 		counter.printCounter();
-	}
 
-	// "two way dijkstra" directly on the social network.
-	// given the small world property, this should be much faster than standard dijkstra.
-	// this also avoids creating a matsim network to run the standard dijkstra, saving precious memory
-	// it is, in practice, roughly 50 times faster than using MATSim's dijkstra on an equivalent matsim network.
-	// No idea if this comes from the 2-way (it might be, given the small-world property) or simply the implementation...
-	private static int calcNHops( final SocialNetwork network , final Id<Person> ego, final Id<Person> alter ) {
-		// does this implementation really speeds things up? It takes quite a lot of space, as it does not resizes...
-		final MinHeap<TaggedId> queue = new BinaryMinHeap<>( network.getEgos().size() );
-		final TaggedIdPool pool = new TaggedIdPool();
-
-		queue.add( pool.getTaggedId( ego , true , 0 ) , 0 );
-		queue.add( pool.getTaggedId( alter , false , 0 ) , 0 );
-
-		while ( !queue.isEmpty() ) {
-			final TaggedId current = queue.poll();
-
-			final int newDist = current.dist + 1;
-
-			final Set<Id<Person>> currentAlters = network.getAlters( current.id );
-			for ( Id<Person> currentAlter : currentAlters ) {
-				final TaggedId taggedId = pool.getTaggedId( currentAlter , current.fromEgo , newDist );
-
-				// we joined the two trees
-				if ( taggedId.fromEgo == !current.fromEgo ) return newDist + taggedId.dist;
-				if ( taggedId.dist == newDist ) {
-					// it was newly created
-					queue.add( taggedId , taggedId.dist );
-				}
-			}
+		for ( int i = 0; i < nPairs; i++ ) {
+			callback.notifyDistance(
+					indexed.getId( egos[ i ] ),
+					indexed.getId( alters[ i ] ),
+					distances[ i ] );
 		}
-
-		throw new RuntimeException();
 	}
 
-	private static class TaggedIdPool {
-		private int index = 0;
-
-		private final Map<Id<Person>, TaggedId> ids = new HashMap<>();
-
-		public TaggedId getTaggedId( final Id<Person> id , final boolean fromEgo , final int dist ) {
-			TaggedId taggedId = ids.get( id );
-			if ( taggedId == null ) {
-				taggedId = new TaggedId( id , index++, fromEgo, dist );
-				ids.put( id , taggedId );
+	// Multi-source BFS: bit b of the words of an ego is set if the ego was reached from the ego of pair batchStart + b.
+	// A whole level is computed in one pass over the network, with sequential memory access,
+	// which makes it much faster than running one search per pair on big networks.
+	// Levels are computed "bottom up": each ego looks which of its alters were reached at the previous level,
+	// so that no synchronization is needed.
+	private static void calcNHops(
+			final ForkJoinPool pool,
+			final IndexedTies ties,
+			final int[] egos,
+			final int[] alters,
+			final int batchStart,
+			final int batchSize,
+			final int[] distances ) {
+		final int nEgos = ties.getNEgos();
+		final long batchMask = batchSize == Long.SIZE ? -1L : ( 1L << batchSize ) - 1;
+
+		final long[] seen = new long[ nEgos ];
+		long[] frontier = new long[ nEgos ];
+		long[] nextFrontier = new long[ nEgos ];
+
+		long remaining = batchMask;
+		for ( int b = 0; b < batchSize; b++ ) {
+			seen[ egos[ batchStart + b ] ] |= 1L << b;
+			frontier[ egos[ batchStart + b ] ] |= 1L << b;
+			if ( egos[ batchStart + b ] == alters[ batchStart + b ] ) {
+				distances[ batchStart + b ] = 0;
+				remaining &= ~( 1L << b );
 			}
-
-			return taggedId;
 		}
-	}
-	private static class TaggedId implements HasIndex {
-		final Id<Person> id;
-		final int index;
-
-		final boolean fromEgo;
-		final int dist;
 
-		private TaggedId( final Id<Person> id, final int index, final boolean fromEgo, final int dist ) {
-			this.id = id;
-			this.index = index;
-			this.fromEgo = fromEgo;
-			this.dist = dist;
-		}
+		for ( int dist = 1; remaining != 0; dist++ ) {
+			if ( dist > nEgos ) throw new IllegalStateException( "some pairs are not connected" );
+
+			final long[] currentFrontier = frontier;
+			final long[] newFrontier = nextFrontier;
+			forEachEgo( pool , nEgos , ego -> {
+				final long unseen = ~seen[ ego ] & batchMask;
+				long reached = 0;
+				for ( int i = 0; unseen != 0 && i < ties.getDegree( ego ); i++ ) {
+					reached |= currentFrontier[ ties.getAlter( ego , i ) ];
+					if ( ( reached & unseen ) == unseen ) break;
+				}
+				newFrontier[ ego ] = reached & unseen;
+				seen[ ego ] |= newFrontier[ ego ];
+			} );
+
+			for ( int b = 0; b < batchSize; b++ ) {
+				final long bit = 1L << b;
+				if ( ( remaining & bit ) != 0 && ( seen[ alters[ batchStart + b ] ] & bit ) != 0 ) {
+					distances[ batchStart + b ] = dist;
+					remaining &= ~bit;
+				}
+			}
 
-		@Override
-		public int getArrayIndex() {
-			return index;
+			frontier = newFrontier;
+			nextFrontier = currentFrontier;
 		}
 	}
 
@@ -351,22 +597,28 @@ public class SnaUtils {
 	}
 
 	private static class PairRandomizer {
-		private final List<Id<Person>> ids;
+		private final int[] ids;
 		private int index = 0;
 		private int step = 1;
 
 		private PairRandomizer(
 				final Random random,
-				final Collection<Id<Person>> ids ) {
-			this.ids = new ArrayList<>( ids );
-			Collections.shuffle( this.ids , random );
+				final int[] ids ) {
+			this.ids = ids.clone();
+			// Fisher-Yates shuffle
+			for ( int i = this.ids.length - 1; i > 0; i-- ) {
+				final int j = random.nextInt( i + 1 );
+				final int tmp = this.ids[ i ];
+				this.ids[ i ] = this.ids[ j ];
+				this.ids[ j ] = tmp;
+			}
 		}
 
-		public Id<Person> next() {
-			final Id<Person> id = ids.get( index );
+		public int next() {
+			final int id = ids[ index ];
 
 			index += step;
-			if ( index >= ids.size() ) {
+			if ( index >= ids.length ) {
 				index = 0;
 				step++;
 			}
@@ -374,5 +626,59 @@ public class SnaUtils {
 			return id;
 		}
 	}
+
+	/**
+	 * Read only view of the members of a component, stored as a range of an array of ego indices.
+	 */
+	private static class Component extends AbstractSet<Id<Person>> {
+		private final IndexedSocialNetwork network;
+		private final int[] labels;
+		private final int[] members;
+		private final int start;
+		private final int end;
+
+		private Component(
+				final IndexedSocialNetwork network,
+				final int[] labels,
+				final int[] members,
+				final int start,
+				final int end ) {
+			this.network = network;
+			this.labels = labels;
+			this.members = members;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Iterator<Id<Person>> iterator() {
+			return new Iterator<Id<Person>>() {
+				private int next = start;
+
+				@Override
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				@Override
+				public Id<Person> next() {
+					if ( !hasNext() ) throw new NoSuchElementException();
+					return network.getId( members[ next++ ] );
+				}
+			};
+		}
+
+		@Override
+		public boolean contains( final Object o ) {
+			if ( !( o instanceof Id ) ) return false;
+			final int index = network.getIndex( (Id<Person>) o );
+			return index >= 0 && labels[ index ] == labels[ members[ start ] ];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
 }
 
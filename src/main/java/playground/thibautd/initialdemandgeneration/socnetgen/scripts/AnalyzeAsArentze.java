@@ -35,6 +35,7 @@ import playground.ivt.utils.MoreIOUtils;
 import playground.thibautd.initialdemandgeneration.socnetgen.analysis.ComputeSocialDistanceBetweenRandomIndividuals;
 import playground.thibautd.initialdemandgeneration.socnetgen.analysis.IdentifyAndWriteComponents;
 import playground.thibautd.initialdemandgeneration.socnetgen.analysis.WriteDegreeTable;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedSocialNetwork;
 import playground.thibautd.initialdemandgeneration.socnetgen.framework.SnaUtils;
 import playground.thibautd.initialdemandgeneration.socnetgen.framework.SocialPopulation;
 import playground.thibautd.initialdemandgeneration.socnetgen.scripts.RunTRBModel.ArentzeAgent;
@@ -62,7 +63,10 @@ public class AnalyzeAsArentze {
 		new SocialNetworkReader( sc ).readFile( inputSocialNetwork );
 	
 		log.info( "computing clustering" );
-		final SocialNetwork socialNetwork = (SocialNetwork) sc.getScenarioElement( SocialNetwork.ELEMENT_NAME );
+		// index once, rather than in each of the analyses
+		final SocialNetwork socialNetwork =
+				IndexedSocialNetwork.toIndexed(
+						(SocialNetwork) sc.getScenarioElement( SocialNetwork.ELEMENT_NAME ) );
 		final double clustering = SnaUtils.calcClusteringCoefficient( socialNetwork );
 		log.info( "clustering is "+clustering );
 
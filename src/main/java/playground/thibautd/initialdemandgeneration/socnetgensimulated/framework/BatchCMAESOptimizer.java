@@ -0,0 +1,237 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * BatchCMAESOptimizer.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2015 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgensimulated.framework;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Minimal (mu/mu_w, lambda)-CMA-ES, following Hansen's "purecmaes" reference implementation.
+ * <br>
+ * Contrary to the commons-math {@link org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer},
+ * which evaluates the candidates one after the other, all candidates of a generation are passed at once to the
+ * objective function, which is then free to evaluate them concurrently.
+ * <br>
+ * Bounds are handled by evaluating the closest feasible point, and adding the distance to it to the fitness.
+ *
+ * @author thibautd
+ */
+final class BatchCMAESOptimizer {
+	private final int maxEvaluations;
+	private final double stopFitness;
+	private final ConvergenceChecker<PointValuePair> checker;
+	private final RandomGenerator random;
+
+	@FunctionalInterface
+	public interface BatchFunction {
+		/**
+		 * @return the values of the function for each point, in the same order
+		 */
+		double[] values( double[][] points );
+	}
+
+	public BatchCMAESOptimizer(
+			final int maxEvaluations,
+			final double stopFitness,
+			final RandomGenerator random,
+			final ConvergenceChecker<PointValuePair> checker ) {
+		this.maxEvaluations = maxEvaluations;
+		this.stopFitness = stopFitness;
+		this.random = random;
+		this.checker = checker;
+	}
+
+	/**
+	 * @return the best point ever evaluated (repaired to fall within the bounds)
+	 */
+	public PointValuePair minimize(
+			final BatchFunction function,
+			final double[] initialGuess,
+			final double[] initialSigma,
+			final int lambda,
+			final double[] lowerBounds,
+			final double[] upperBounds ) {
+		final int n = initialGuess.length;
+
+		// selection parameters
+		final int mu = lambda / 2;
+		final double[] weights = new double[ mu ];
+		double sumWeights = 0;
+		for ( int i = 0; i < mu; i++ ) {
+			weights[ i ] = Math.log( mu + 0.5 ) - Math.log( i + 1 );
+			sumWeights += weights[ i ];
+		}
+		double sumSquares = 0;
+		for ( int i = 0; i < mu; i++ ) {
+			weights[ i ] /= sumWeights;
+			sumSquares += weights[ i ] * weights[ i ];
+		}
+		final double mueff = 1 / sumSquares;
+
+		// adaptation parameters
+		final double cc = ( 4 + mueff / n ) / ( n + 4 + 2 * mueff / n );
+		final double cs = ( mueff + 2 ) / ( n + mueff + 5 );
+		final double c1 = 2 / ( ( n + 1.3 ) * ( n + 1.3 ) + mueff );
+		final double cmu = Math.min( 1 - c1 , 2 * ( mueff - 2 + 1 / mueff ) / ( ( n + 2 ) * ( n + 2 ) + mueff ) );
+		final double damps = 1 + 2 * Math.max( 0 , Math.sqrt( ( mueff - 1 ) / ( n + 1 ) ) - 1 ) + cs;
+		final double chiN = Math.sqrt( n ) * ( 1 - 1. / ( 4 * n ) + 1. / ( 21 * n * n ) );
+
+		// as in commons-math: global step size is the largest initial sigma, the rest goes to the covariance matrix
+		double sigma = 0;
+		for ( double s : initialSigma ) sigma = Math.max( sigma , s );
+		double[] diagD = new double[ n ];
+		for ( int i = 0; i < n; i++ ) diagD[ i ] = initialSigma[ i ] / sigma;
+
+		double[] xmean = initialGuess.clone();
+		final double[] pc = new double[ n ];
+		final double[] ps = new double[ n ];
+		RealMatrix b = MatrixUtils.createRealIdentityMatrix( n );
+		RealMatrix c = MatrixUtils.createRealDiagonalMatrix( square( diagD ) );
+
+		PointValuePair best = null;
+		PointValuePair previousGenerationBest = null;
+		int nEvaluations = 0;
+		int generation = 0;
+
+		while ( nEvaluations + lambda <= maxEvaluations ) {
+			generation++;
+
+			// sample and evaluate a whole generation
+			final double[][] arz = new double[ lambda ][ n ];
+			final double[][] arx = new double[ lambda ][];
+			final double[][] repaired = new double[ lambda ][];
+			for ( int k = 0; k < lambda; k++ ) {
+				final double[] bdz = new double[ n ];
+				for ( int i = 0; i < n; i++ ) {
+					arz[ k ][ i ] = random.nextGaussian();
+					bdz[ i ] = diagD[ i ] * arz[ k ][ i ];
+				}
+				arx[ k ] = add( xmean , b.operate( bdz ) , sigma );
+				repaired[ k ] = repair( arx[ k ] , lowerBounds , upperBounds );
+			}
+
+			final double[] values = function.values( repaired );
+			nEvaluations += lambda;
+
+			final PointValuePair[] candidates = new PointValuePair[ lambda ];
+			final Integer[] ranking = new Integer[ lambda ];
+			final double[] fitness = new double[ lambda ];
+			for ( int k = 0; k < lambda; k++ ) {
+				fitness[ k ] = values[ k ] + distance( arx[ k ] , repaired[ k ] );
+				candidates[ k ] = new PointValuePair( repaired[ k ] , values[ k ] );
+				ranking[ k ] = k;
+			}
+			Arrays.sort( ranking , Comparator.comparingDouble( k -> fitness[ k ] ) );
+
+			final PointValuePair generationBest = candidates[ ranking[ 0 ] ];
+			if ( best == null || generationBest.getValue() < best.getValue() ) best = generationBest;
+
+			if ( best.getValue() < stopFitness ) break;
+			if ( previousGenerationBest != null &&
+					checker != null &&
+					checker.converged( generation , previousGenerationBest , generationBest ) ) break;
+			previousGenerationBest = generationBest;
+
+			// recombination
+			final double[] xold = xmean;
+			xmean = new double[ n ];
+			final double[] zmean = new double[ n ];
+			for ( int i = 0; i < mu; i++ ) {
+				for ( int d = 0; d < n; d++ ) {
+					xmean[ d ] += weights[ i ] * arx[ ranking[ i ] ][ d ];
+					zmean[ d ] += weights[ i ] * arz[ ranking[ i ] ][ d ];
+				}
+			}
+
+			// cumulation: C^-1/2 * (xmean - xold) / sigma is B * zmean
+			final double[] bzmean = b.operate( zmean );
+			double normPs = 0;
+			for ( int d = 0; d < n; d++ ) {
+				ps[ d ] = ( 1 - cs ) * ps[ d ] + Math.sqrt( cs * ( 2 - cs ) * mueff ) * bzmean[ d ];
+				normPs += ps[ d ] * ps[ d ];
+			}
+			normPs = Math.sqrt( normPs );
+
+			final boolean hsig =
+					normPs / Math.sqrt( 1 - Math.pow( 1 - cs , 2. * nEvaluations / lambda ) ) / chiN <
+							1.4 + 2. / ( n + 1 );
+			for ( int d = 0; d < n; d++ ) {
+				pc[ d ] = ( 1 - cc ) * pc[ d ] +
+						( hsig ? Math.sqrt( cc * ( 2 - cc ) * mueff ) * ( xmean[ d ] - xold[ d ] ) / sigma : 0 );
+			}
+
+			// covariance matrix adaptation
+			final RealMatrix newC = c.scalarMultiply( 1 - c1 - cmu + ( hsig ? 0 : c1 * cc * ( 2 - cc ) ) );
+			for ( int i = 0; i < n; i++ ) {
+				for ( int j = 0; j < n; j++ ) {
+					double rankMu = 0;
+					for ( int k = 0; k < mu; k++ ) {
+						final double[] x = arx[ ranking[ k ] ];
+						rankMu += weights[ k ] * ( x[ i ] - xold[ i ] ) * ( x[ j ] - xold[ j ] );
+					}
+					newC.addToEntry( i , j , c1 * pc[ i ] * pc[ j ] + cmu * rankMu / ( sigma * sigma ) );
+				}
+			}
+			// enforce symmetry against rounding errors
+			c = newC.add( newC.transpose() ).scalarMultiply( 0.5 );
+
+			sigma *= Math.exp( ( cs / damps ) * ( normPs / chiN - 1 ) );
+
+			// decomposition C = B * diag( D^2 ) * B^T
+			final EigenDecomposition decomposition = new EigenDecomposition( c );
+			b = decomposition.getV();
+			diagD = new double[ n ];
+			for ( int i = 0; i < n; i++ ) diagD[ i ] = Math.sqrt( Math.max( decomposition.getRealEigenvalue( i ) , 1E-20 ) );
+		}
+
+		return best;
+	}
+
+	private static double[] square( final double[] v ) {
+		final double[] s = new double[ v.length ];
+		for ( int i = 0; i < v.length; i++ ) s[ i ] = v[ i ] * v[ i ];
+		return s;
+	}
+
+	private static double[] add( final double[] x , final double[] y , final double factor ) {
+		final double[] sum = new double[ x.length ];
+		for ( int i = 0; i < x.length; i++ ) sum[ i ] = x[ i ] + factor * y[ i ];
+		return sum;
+	}
+
+	private static double[] repair( final double[] x , final double[] lower , final double[] upper ) {
+		final double[] repaired = new double[ x.length ];
+		for ( int i = 0; i < x.length; i++ ) repaired[ i ] = Math.min( upper[ i ] , Math.max( lower[ i ] , x[ i ] ) );
+		return repaired;
+	}
+
+	private static double distance( final double[] x , final double[] y ) {
+		double d = 0;
+		for ( int i = 0; i < x.length; i++ ) d += Math.abs( x[ i ] - y[ i ] );
+		return d;
+	}
+}
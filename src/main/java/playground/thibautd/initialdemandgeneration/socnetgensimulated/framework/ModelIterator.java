@@ -36,10 +36,12 @@ import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.log4j.Logger;
 import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedTies;
 import playground.thibautd.initialdemandgeneration.socnetgen.framework.SnaUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author thibautd
@@ -65,6 +67,7 @@ public class ModelIterator {
 	private final double powellMinRelativeChange;
 
 	private final int nThreads;
+	private final boolean concurrentCandidateEvaluation;
 
 	private final List<EvolutionListener> listeners = new ArrayList< >();
 
@@ -77,6 +80,7 @@ public class ModelIterator {
 			@Named( "initialValue" )
 			final Provider<Thresholds> initialValue) {
 		this.nThreads = config.getNThreads();
+		this.concurrentCandidateEvaluation = config.isConcurrentCandidateEvaluation();
 		this.initialValue = initialValue;
 		this.runner = runner;
 		this.targetClustering = config.getTargetClustering();
@@ -108,6 +112,21 @@ public class ModelIterator {
 
 	public SocialNetwork iterateModelToTarget() {
 		final Thresholds initialThresholds = initialValue.get();
+
+		final PointValuePair result =
+			concurrentCandidateEvaluation ?
+				optimizeConcurrently( initialThresholds ) :
+				optimize( initialThresholds );
+
+		final Thresholds bestThresholds = new Thresholds( result.getPoint()[ 0 ] , result.getPoint()[ 1 ] );
+		final SocialNetwork bestSn = generate( runner , bestThresholds );
+
+		log.info( "best social network found for thresholds: "+bestThresholds );
+
+		return bestSn;
+	}
+
+	private PointValuePair optimize( final Thresholds initialThresholds ) {
 		final MultivariateOptimizer optimizer =
 			new CMAESOptimizer(
 					maxIterations,
@@ -122,32 +141,88 @@ public class ModelIterator {
 		final double x = initialThresholds.getPrimaryThreshold();
 		final double y = initialThresholds.getSecondaryReduction();
 
-		final PointValuePair result =
-			optimizer.optimize(
-					GoalType.MINIMIZE,
-					new MaxEval( maxIterations ),
-					new InitialGuess( new double[]{ x , y } ),
-					new ObjectiveFunction( new Function( 1 , runner ) ),
-					new CMAESOptimizer.Sigma( new double[]{ 5 , 500 } ),
-					new CMAESOptimizer.PopulationSize( 7 ),
-					new SimpleBounds(
-						new double[]{ Double.NEGATIVE_INFINITY , 0 }, // lower bounds: constrain secondary reduction to be positive
-						new double[]{ Double.POSITIVE_INFINITY , Double.POSITIVE_INFINITY } ) // upper bounds
-					);
+		return optimizer.optimize(
+				GoalType.MINIMIZE,
+				new MaxEval( maxIterations ),
+				new InitialGuess( new double[]{ x , y } ),
+				new ObjectiveFunction( new Function( 1 , runner ) ),
+				new CMAESOptimizer.Sigma( new double[]{ 5 , 500 } ),
+				new CMAESOptimizer.PopulationSize( 7 ),
+				new SimpleBounds(
+					new double[]{ Double.NEGATIVE_INFINITY , 0 }, // lower bounds: constrain secondary reduction to be positive
+					new double[]{ Double.POSITIVE_INFINITY , Double.POSITIVE_INFINITY } ) // upper bounds
+				);
+	}
 
-		final Thresholds bestThresholds = new Thresholds( result.getPoint()[ 0 ] , result.getPoint()[ 1 ] );
-		final SocialNetwork bestSn = generate( runner , bestThresholds );
+	private PointValuePair optimizeConcurrently( final Thresholds initialThresholds ) {
+		// same settings as the sequential version
+		final BatchCMAESOptimizer optimizer =
+			new BatchCMAESOptimizer(
+					maxIterations,
+					1E-9,
+					new MersenneTwister( 42 ),
+					new Convergence() );
 
-		log.info( "best social network found for thresholds: "+bestThresholds );
+		return optimizer.minimize(
+				this::evaluateConcurrently,
+				new double[]{ initialThresholds.getPrimaryThreshold() , initialThresholds.getSecondaryReduction() },
+				new double[]{ 5 , 500 },
+				7,
+				new double[]{ Double.NEGATIVE_INFINITY , 0 },
+				new double[]{ Double.POSITIVE_INFINITY , Double.POSITIVE_INFINITY } );
+	}
 
-		return bestSn;
+	private double[] evaluateConcurrently( final double[][] points ) {
+		final List<Thresholds> candidates = new ArrayList<>( points.length );
+		for ( double[] point : points ) candidates.add( new Thresholds( point[ 0 ] , point[ 1 ] ) );
+
+		log.info( "evaluate generation of "+candidates.size()+" candidates" );
+		final long start = System.currentTimeMillis();
+
+		// all modifications of the preprocessed data happen here:
+		// candidates then only read it, and can be evaluated at the same time.
+		runner.prepareFor( candidates );
+
+		final AtomicInteger nextCandidate = new AtomicInteger( 0 );
+		final ThreadGroup threads = new ThreadGroup();
+		for ( int i=0; i < Math.min( nThreads , candidates.size() ); i++ ) {
+			threads.add(
+					() -> {
+						for ( int c = nextCandidate.getAndIncrement();
+								c < candidates.size();
+								c = nextCandidate.getAndIncrement() ) {
+							final Thresholds thr = candidates.get( c );
+							final IndexedTies ties = runner.createTies( thr );
+							thr.setResultingAverageDegree( ties.getAverageDegree() );
+							thr.setResultingClustering(
+									SnaUtils.estimateClusteringCoefficient(
+											1900,
+											precisionClustering,
+											0.95,
+											ties ) );
+						}
+					} );
+		}
+		threads.run();
+
+		log.info( "evaluation took "+(System.currentTimeMillis() - start)+" ms" );
+
+		// listeners are not required to be thread safe
+		final double[] fitnesses = new double[ candidates.size() ];
+		for ( int c = 0; c < candidates.size(); c++ ) {
+			fitnesses[ c ] = calcFitness( candidates.get( c ) , 1 );
+			for ( EvolutionListener l : listeners ) l.handleMove( candidates.get( c ) , fitnesses[ c ] );
+		}
+		return fitnesses;
 	}
 
 	private double estimateClustering( final SocialNetwork sn ) {
-		//final double estimate = SnaUtils.estimateClusteringCoefficient( samplingRateClustering , sn );
+		final double estimate = SnaUtils.estimateClusteringCoefficient( 1900 , nThreads , precisionClustering , 0.95 , sn );
 
-		//return Math.abs( targetClustering - estimate ) > 10 * precisionClustering ? estimate : SnaUtils.calcClusteringCoefficient( sn );
-		return SnaUtils.estimateClusteringCoefficient( 1900 , nThreads , precisionClustering , 0.95 , sn );
+		// exact triangle counting is cheap enough to be used close to the target, where precision matters most
+		return Math.abs( targetClustering - estimate ) > 10 * precisionClustering ?
+				estimate :
+				SnaUtils.calcClusteringStatistics( nThreads , sn ).getGlobalClustering();
 	}
 
 	public void addListener( final EvolutionListener l ) {
@@ -162,6 +237,14 @@ public class ModelIterator {
 		return Math.abs( targetDegree -  thresholds.getResultingAverageDegree() );
 	}
 
+	private double calcFitness( final Thresholds thr , final double nDistance ) {
+		// use the "distance n" (distance 1 is manhatan, distance 2 is euclidean distance)
+		return Math.pow(
+				Math.pow( distDegree( thr ) / precisionDegree , nDistance ) +
+					Math.pow( distClustering( thr ) / precisionClustering , nDistance ),
+				1 / nDistance );
+	}
+
 	public interface EvolutionListener {
 		public void handleMove( Thresholds m , double fitness );
 	}
@@ -189,12 +272,7 @@ public class ModelIterator {
 			final Thresholds thr = new Thresholds( args[ 0 ] , args[ 1 ] );
 	 		generate( runner , thr );
 
-			// use the "distance n" (distance 1 is manhatan, distance 2 is euclidean distance)
-			final double fitness =
-					Math.pow(
-						Math.pow( distDegree( thr ) / precisionDegree , nDistance ) +
-							Math.pow( distClustering( thr ) / precisionClustering , nDistance ),
-						1 / nDistance );
+			final double fitness = calcFitness( thr , nDistance );
 
 			for ( EvolutionListener l : listeners ) l.handleMove( thr , fitness );
 
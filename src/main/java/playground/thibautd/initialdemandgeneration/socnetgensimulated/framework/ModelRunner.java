@@ -20,11 +20,27 @@
 package playground.thibautd.initialdemandgeneration.socnetgensimulated.framework;
 
 import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedTies;
+
+import java.util.Collection;
 
 /**
  * @author thibautd
  */
 public interface ModelRunner {
 	SocialNetwork runModel( Thresholds thresholds );
+
+	/**
+	 * Updates all the data needed to create the ties for all the given thresholds,
+	 * so that {@link #createTies(Thresholds)} does not modify the runner anymore for those thresholds.
+	 */
+	void prepareFor( Collection<Thresholds> thresholds );
+
+	/**
+	 * Creates the ties for the given thresholds, in compact form, without creating a {@link SocialNetwork}.
+	 * Egos are indexed as in the {@link IndexedPopulation}.
+	 * Can be called concurrently from several threads, for thresholds passed to {@link #prepareFor(Collection)} before.
+	 */
+	IndexedTies createTies( Thresholds thresholds );
 }
 
@@ -20,6 +20,8 @@
 package playground.thibautd.initialdemandgeneration.socnetgensimulated.framework;
 
 import com.google.inject.Inject;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.set.TIntSet;
@@ -28,18 +30,21 @@ import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
-import org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl;
 import org.matsim.core.gbl.Gbl;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.core.utils.io.UncheckedIOException;
 import org.matsim.core.utils.misc.Counter;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedSocialNetwork;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedTies;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * This runner does a pre-processing for the "primary" ties:
@@ -56,6 +61,8 @@ public class PreprocessedModelRunner implements ModelRunner {
 	private static final Logger log =
 		Logger.getLogger(PreprocessedModelRunner.class);
 
+	private static final int CHUNKS_PER_THREAD = 16;
+
 	private WeightedSocialNetwork preprocess = null;
 	private DoublyWeightedSocialNetwork preprocessFriendsOfFriends = null;
 
@@ -137,14 +144,16 @@ public class PreprocessedModelRunner implements ModelRunner {
 
 		this.preprocess = new WeightedSocialNetwork( maxSizePrimary , lowestStoredPrimary , population.size() );
 
+		// egos are split in chunks with the same number of (ego, alter > ego) pairs,
+		// many more than threads, so that threads finishing early can take over some work.
+		// Each chunk has its own random generator, so that the result does not depend on which thread processes it.
+		final int[] chunkStarts = getBalancedChunkStarts( population.size() , CHUNKS_PER_THREAD * nThreads );
+		final AtomicInteger nextChunk = new AtomicInteger( 0 );
+
 		final Counter counter = new Counter( "consider (primary) pair # " );
 		final ThreadGroup threads = new ThreadGroup();
 
 		for ( int i=0; i < nThreads; i++ ) {
-			final int threadNumber = i;
-			final int startThreadAgents = i * population.size() / nThreads;
-			final int endThreadAgents = i == nThreads ? population.size() : (i + 1) * population.size() / nThreads;
-
 			threads.add(
 					() -> {
 						final TiesWeightDistribution threadDistribution =
@@ -152,11 +161,25 @@ public class PreprocessedModelRunner implements ModelRunner {
 								new TiesWeightDistribution( distributionToFill.getBinWidth() ) :
 								null;
 
-						final Random random = new Random( randomSeed + threadNumber );
+						for ( int chunk = nextChunk.getAndIncrement();
+								chunk < chunkStarts.length - 1;
+								chunk = nextChunk.getAndIncrement() ) {
+							final Random random = new Random( randomSeed + chunk );
+							final int endChunkAgents = chunkStarts[ chunk + 1 ];
+
+							int ego = chunkStarts[ chunk ];
+							int alter = ego + 1;
+							while ( true ) {
+								// jump directly to the next sampled pair, possibly for a further ego
+								long skip = getNumberOfSkippedPairs( random , primarySampleRate );
+								while ( ego < endChunkAgents && skip >= population.size() - alter ) {
+									skip -= population.size() - alter;
+									ego++;
+									alter = ego + 1;
+								}
+								if ( ego >= endChunkAgents ) break;
+								alter += (int) skip;
 
-						for ( int ego = startThreadAgents; ego < endThreadAgents; ego++ ) {
-							for ( int alter=ego + 1; alter < population.size(); alter++ ) {
-								if ( random.nextDouble() > primarySampleRate ) continue;
 								counter.incCounter();
 
 								final double score = utility.getTieUtility( ego , alter );
@@ -171,10 +194,15 @@ public class PreprocessedModelRunner implements ModelRunner {
 								}
 
 								if ( threadDistribution != null ) threadDistribution.addValue( score );
+								alter++;
 							}
 						}
 
-						if ( distributionToFill != null ) distributionToFill.addCounts( threadDistribution );
+						if ( distributionToFill != null ) {
+							synchronized ( distributionToFill ) {
+								distributionToFill.addCounts( threadDistribution );
+							}
+						}
 					} );
 		}
 
@@ -188,85 +216,208 @@ public class PreprocessedModelRunner implements ModelRunner {
 		Gbl.printMemoryUsage();
 	}
 
+	/**
+	 * Draws the number of pairs to skip before the next sampled one, when each pair is sampled independently
+	 * with the given rate. This follows a geometric distribution, which allows to only draw one random number
+	 * per sampled pair, rather than one per pair.
+	 */
+	static long getNumberOfSkippedPairs( final Random random , final double sampleRate ) {
+		if ( sampleRate <= 0 ) return Long.MAX_VALUE;
+		if ( sampleRate >= 1 ) return 0;
+		// 1 - nextDouble() is in ]0,1]: avoids log(0)
+		return (long) Math.floor( Math.log( 1 - random.nextDouble() ) / Math.log( 1 - sampleRate ) );
+	}
+
+	/**
+	 * Splits the egos in contiguous chunks with (roughly) the same number of pairs (ego, alter), with alter > ego.
+	 *
+	 * @return the starts of the chunks, followed by the population size.
+	 */
+	static int[] getBalancedChunkStarts( final int populationSize , final int nChunks ) {
+		final long totalPairs = (long) populationSize * (populationSize - 1) / 2;
+
+		final TIntList chunkStarts = new TIntArrayList( nChunks + 1 );
+		chunkStarts.add( 0 );
+		long pairs = 0;
+		for ( int ego = 0; ego < populationSize - 1; ego++ ) {
+			pairs += populationSize - 1 - ego;
+			if ( pairs >= chunkStarts.size() * totalPairs / nChunks ) chunkStarts.add( ego + 1 );
+		}
+		chunkStarts.add( populationSize );
+
+		return chunkStarts.toArray();
+	}
+
 	@Override
-	public SocialNetwork runModel( final Thresholds thresholds ) {
-		if ( thresholds.getPrimaryThreshold() < lowestStoredPrimary ) {
-			this.lowestStoredPrimary = thresholds.getPrimaryThreshold() - 1;
+	public void prepareFor( final Collection<Thresholds> thresholds ) {
+		// preprocessing for the lowest thresholds is valid for all the others
+		double primaryThreshold = Double.POSITIVE_INFINITY;
+		double secondaryThreshold = Double.POSITIVE_INFINITY;
+		for ( Thresholds t : thresholds ) {
+			primaryThreshold = Math.min( primaryThreshold , t.getPrimaryThreshold() );
+			secondaryThreshold = Math.min( secondaryThreshold , t.getSecondaryThreshold() );
+		}
+
+		if ( primaryThreshold < lowestStoredPrimary ) {
+			this.lowestStoredPrimary = primaryThreshold - 1;
 			updatePrimaryPreprocess( null );
 		}
 
-		if ( thresholds.getPrimaryThreshold() < this.lowestKnownPrimaryThreshold ||
-				thresholds.getSecondaryThreshold() < lowestStoredSecondary ) {
+		if ( primaryThreshold < this.lowestKnownPrimaryThreshold ||
+				secondaryThreshold < lowestStoredSecondary ) {
 			// store new friends of friends
-			this.lowestStoredSecondary = Math.min( lowestStoredSecondary , thresholds.getSecondaryThreshold() - 1 );
-			updateSecondaryPreprocess( thresholds.getPrimaryThreshold() );
-			this.lowestKnownPrimaryThreshold = thresholds.getPrimaryThreshold();
+			this.lowestStoredSecondary = Math.min( lowestStoredSecondary , secondaryThreshold - 1 );
+			updateSecondaryPreprocess( primaryThreshold );
+			this.lowestKnownPrimaryThreshold = primaryThreshold;
 		}
+	}
+
+	@Override
+	public IndexedTies createTies( final Thresholds thresholds ) {
+		// meant to be called for several thresholds at the same time: no need for more threads
+		return createTies( thresholds , 1 );
+	}
+
+	@Override
+	public SocialNetwork runModel( final Thresholds thresholds ) {
+		prepareFor( Collections.singleton( thresholds ) );
 
-		final Map<Id<Person>, Set<Id<Person>>> sn = new ConcurrentHashMap< >();
 		log.info( "create ties using preprocessed data" );
 		Gbl.printMemoryUsage();
 
-		final Counter counter = new Counter( "consider ego # " );
-		final ThreadGroup threads = new ThreadGroup();
-
-		for ( int i=0; i < nThreads; i++ ) {
-			final int startThreadAgents = i * population.size() / nThreads;
-			final int endThreadAgents = (i + 1) * population.size() / nThreads;
+		final Id<Person>[] ids = new Id[ population.size() ];
+		for ( int i = 0; i < ids.length; i++ ) ids[ i ] = population.getId( i );
+		final SocialNetwork net = new IndexedSocialNetwork( ids , createTies( thresholds , nThreads ) );
 
-			threads.add(
-					() -> {
-						final TIntSet friendsOfFriends = new TIntHashSet();
-						for ( int ego = startThreadAgents; ego < endThreadAgents; ego++ ) {
-							counter.incCounter();
-							sn.put(
-								population.getId( ego ),
-								preprocess.getAltersOverWeight(
-									ego,
-									thresholds.getPrimaryThreshold(),
-									population ) );
-
-							if ( log.isTraceEnabled() ) {
-								log.trace( "ego "+population.getId( ego )+": add primary alters "+sn.get( population.getId( ego ) ) );
-							}
+		Gbl.printMemoryUsage();
+		return net;
+	}
 
-							friendsOfFriends.clear();
-							preprocessFriendsOfFriends.fillWithAltersOverWeights(
-								friendsOfFriends,
+	/**
+	 * Creates the ties in compressed sparse row form. Each thread handles a contiguous range of egos:
+	 * <ol>
+	 * <li> each thread stores the alters of its egos in its own buffer, and counts how many times each agent
+	 * appears as an alter in this buffer </li>
+	 * <li> prefix sums over egos, then threads, give each thread its own slots in the alters of every ego.
+	 * The ties of the buffers can then be copied in both directions without synchronization </li>
+	 * <li> alters of each ego are sorted, ties found from both sides are merged, and the result is compacted</li>
+	 * </ol>
+	 * The result does not depend on the number of threads.
+	 */
+	private IndexedTies createTies( final Thresholds thresholds , final int nThreads ) {
+		final int n = population.size();
+		final int[] chunkStarts = new int[ nThreads + 1 ];
+		for ( int t = 0; t <= nThreads; t++ ) chunkStarts[ t ] = (int) ( (long) t * n / nThreads );
+
+		final int[] outDegrees = new int[ n ];
+		final int[][] buffers = new int[ nThreads ][];
+		// first, number of times each agent is an alter in the buffer of the thread, then next free slot for it
+		final int[][] threadSlots = new int[ nThreads ][];
+
+		runPerThread(
+				nThreads,
+				thread -> {
+					final TIntArrayList buffer = new TIntArrayList();
+					final int[] counts = new int[ n ];
+					final TIntSet alters = new TIntHashSet();
+					for ( int ego = chunkStarts[ thread ]; ego < chunkStarts[ thread + 1 ]; ego++ ) {
+						alters.clear();
+						preprocess.fillWithAltersOverWeight( alters , ego , thresholds.getPrimaryThreshold() );
+						preprocessFriendsOfFriends.fillWithAltersOverWeights(
+								alters,
 								ego,
 								thresholds.getPrimaryThreshold(),
 								thresholds.getSecondaryThreshold() );
 
-							if ( log.isTraceEnabled() ) {
-								log.trace( "ego "+population.getId( ego )+": add secondary alters "+friendsOfFriends );
-							}
+						if ( log.isTraceEnabled() ) {
+							log.trace( "ego "+population.getId( ego )+": add alters "+alters );
+						}
 
-							// sampling already done
-							final Set<Id<Person>> newAlters = sn.get( population.getId( ego ) );
-							for ( int fof : friendsOfFriends.toArray() ) {
-								newAlters.add( population.getId( fof ) );
-							}
+						outDegrees[ ego ] = alters.size();
+						alters.forEach( alter -> {
+							buffer.add( alter );
+							counts[ alter ]++;
+							return true;
+						} );
+					}
+					buffers[ thread ] = buffer.toArray();
+					threadSlots[ thread ] = counts;
+				} );
+
+		// slots of an ego: its own alters first, then ties from other egos, thread by thread
+		final int[] offsets = new int[ n + 1 ];
+		for ( int ego = 0; ego < n; ego++ ) {
+			int position = offsets[ ego ] + outDegrees[ ego ];
+			for ( int t = 0; t < nThreads; t++ ) {
+				final int count = threadSlots[ t ][ ego ];
+				threadSlots[ t ][ ego ] = position;
+				position += count;
+			}
+			offsets[ ego + 1 ] = position;
+		}
 
+		final int[] allAlters = new int[ offsets[ n ] ];
+		runPerThread(
+				nThreads,
+				thread -> {
+					final int[] buffer = buffers[ thread ];
+					final int[] slots = threadSlots[ thread ];
+					int i = 0;
+					for ( int ego = chunkStarts[ thread ]; ego < chunkStarts[ thread + 1 ]; ego++ ) {
+						for ( int k = 0; k < outDegrees[ ego ]; k++ ) {
+							final int alter = buffer[ i++ ];
+							allAlters[ offsets[ ego ] + k ] = alter;
+							allAlters[ slots[ alter ]++ ] = ego;
 						}
-					} );
-		}
+					}
+					buffers[ thread ] = null;
+					threadSlots[ thread ] = null;
+				} );
+
+		// sort and remove duplicates, at the start of the slots of each ego
+		final int[] degrees = outDegrees;
+		runPerThread(
+				nThreads,
+				thread -> {
+					for ( int ego = chunkStarts[ thread ]; ego < chunkStarts[ thread + 1 ]; ego++ ) {
+						Arrays.sort( allAlters , offsets[ ego ] , offsets[ ego + 1 ] );
+						int size = 0;
+						for ( int i = offsets[ ego ]; i < offsets[ ego + 1 ]; i++ ) {
+							if ( size == 0 || allAlters[ offsets[ ego ] + size - 1 ] != allAlters[ i ] ) {
+								allAlters[ offsets[ ego ] + size++ ] = allAlters[ i ];
+							}
+						}
+						degrees[ ego ] = size;
+					}
+				} );
+
+		final int[] compactOffsets = new int[ n + 1 ];
+		for ( int ego = 0; ego < n; ego++ ) compactOffsets[ ego + 1 ] = compactOffsets[ ego ] + degrees[ ego ];
+
+		final int[] compactAlters = new int[ compactOffsets[ n ] ];
+		runPerThread(
+				nThreads,
+				thread -> {
+					for ( int ego = chunkStarts[ thread ]; ego < chunkStarts[ thread + 1 ]; ego++ ) {
+						System.arraycopy( allAlters , offsets[ ego ] , compactAlters , compactOffsets[ ego ] , degrees[ ego ] );
+					}
+				} );
+
+		return new IndexedTies( compactOffsets , compactAlters );
+	}
 
-		threads.run();
-		counter.printCounter();
+	private static void runPerThread( final int nThreads , final IntConsumer task ) {
+		if ( nThreads == 1 ) {
+			task.accept( 0 );
+			return;
+		}
 
-		Gbl.printMemoryUsage();
-		// TODO: check if not possible in loop
-		log.info( "fill in network with identified ties" );
-		final SocialNetwork net = new SocialNetworkImpl( true );
-		for ( int i = 0; i < population.size(); i++ ) net.addEgo( population.getId( i ) );
-
-		for ( Map.Entry<Id<Person>, Set<Id<Person>>> e : sn.entrySet() ) {
-			for ( Id<Person> alter : e.getValue() ) {
-				if ( log.isTraceEnabled() ) log.trace( "add bidirectional tie "+e.getKey()+" -> "+alter );
-				net.addBidirectionalTie( e.getKey(), alter );
-			}
+		final ThreadGroup threads = new ThreadGroup();
+		for ( int i = 0; i < nThreads; i++ ) {
+			final int thread = i;
+			threads.add( () -> task.accept( thread ) );
 		}
-		return net;
+		threads.run();
 	}
 
 	private void updateSecondaryPreprocess(
@@ -47,6 +47,8 @@ public class SocialNetworkGenerationConfigGroup extends ReflectiveConfigGroup {
 
 	private int nThreads = 4;
 
+	private boolean concurrentCandidateEvaluation = false;
+
 	public SocialNetworkGenerationConfigGroup( ) {
 		super(GROUP_NAME);
 	}
@@ -170,5 +172,19 @@ public class SocialNetworkGenerationConfigGroup extends ReflectiveConfigGroup {
 	public void setNThreads(int nThreads) {
 		this.nThreads = nThreads;
 	}
-}
 
+	@StringGetter( "concurrentCandidateEvaluation" )
+	public boolean isConcurrentCandidateEvaluation() {
+		return concurrentCandidateEvaluation;
+	}
+
+	/**
+	 * If true, all candidates of a generation of the calibration are evaluated at the same time,
+	 * only computing the statistics needed for calibration. Otherwise, candidates are evaluated one after the other,
+	 * each creating a full social network.
+	 */
+	@StringSetter( "concurrentCandidateEvaluation" )
+	public void setConcurrentCandidateEvaluation( boolean concurrentCandidateEvaluation ) {
+		this.concurrentCandidateEvaluation = concurrentCandidateEvaluation;
+	}
+}
@@ -80,7 +80,7 @@ public class NegotiatingAgents<P extends Proposition> implements Iterable<Negoti
 				+" with social network with "+socialNetwork.getEgos().size() );
 	}
 
-	public NegotiationAgent<P> getRandomAgent() {
+	public synchronized NegotiationAgent<P> getRandomAgent() {
 		// repeat sampling without replacement as often as necessary.
 		// ensures "fairness" in the number of times each agent is called, not only on average
 		currentIndex++;
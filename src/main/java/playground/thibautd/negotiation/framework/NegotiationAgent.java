@@ -18,12 +18,17 @@
  * *********************************************************************** */
 package playground.thibautd.negotiation.framework;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Identifiable;
 import org.matsim.api.core.v01.population.Person;
 import playground.ivt.utils.ConcurrentStopWatch;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 /**
  * @author thibautd
@@ -43,6 +48,10 @@ public class NegotiationAgent<P extends Proposition> implements Identifiable<Per
 	private double currentBestUtilAlone = Double.NEGATIVE_INFINITY;
 	private P currentBestPropAlone;
 
+	// incremented after each change of the state, to detect conflicts when planning in parallel.
+	// Only modified while holding the commit lock, but read without it.
+	private volatile int version = 0;
+
 	NegotiationAgent( final Id<Person> id,
 			final NegotiatingAgents<P> negotiatingAgents,
 			final ConcurrentStopWatch<StopWatchMeasurement> stopwatch ) {
@@ -63,27 +72,70 @@ public class NegotiationAgent<P extends Proposition> implements Identifiable<Per
 	}
 
 	private void notifyAccepted( P proposition ) {
-		if ( currentBestProp != null ) {
-			currentBestProp.getGroup().stream()
+		// local copy: the field is reset when this agent itself is notified, and other members of the group would not be
+		final P previousProp = currentBestProp;
+		if ( previousProp != null ) {
+			previousProp.getGroup().stream()
 					.map( Person::getId )
 					.map( negotiatingAgents::get )
-					.forEach( a -> a.notifyBreakAgreement( currentBestProp ) );
+					.forEach( a -> a.notifyBreakAgreement( previousProp ) );
 		}
 		this.currentBestUtil = utility.utility( this , proposition );
 		this.currentBestProp = proposition;
+		version++;
 	}
 
 	private void notifyBreakAgreement( P proposition ) {
 		if ( currentBestProp == proposition ) {
 			currentBestProp = currentBestPropAlone;
 			currentBestUtil = currentBestUtilAlone;
+			version++;
 		}
 	}
 
 	public boolean planActivity() {
-		boolean found = false;
+		stopwatch.startMeasurement( StopWatchMeasurement.total );
+		final Attempt<P> attempt = evaluateAlternatives();
+		commit( attempt );
+		stopwatch.endMeasurement( StopWatchMeasurement.total );
 
+		return attempt.found;
+	}
+
+	/**
+	 * Thread safe version of {@link #planActivity()}, for agents which plan at the same time.
+	 * Alternatives are evaluated without locking, remembering the state of all agents which were asked for acceptance.
+	 * The result is then committed while holding the lock, if none of those agents changed in between.
+	 * Otherwise, the alternatives are evaluated again.
+	 *
+	 * @param commitLock the lock, shared by all agents, under which results are committed.
+	 * @param conflictCallback called each time alternatives have to be evaluated again
+	 */
+	public boolean planActivity( final Lock commitLock , final Runnable conflictCallback ) {
 		stopwatch.startMeasurement( StopWatchMeasurement.total );
+		while ( true ) {
+			final Attempt<P> attempt = evaluateAlternatives();
+
+			commitLock.lock();
+			try {
+				if ( attempt.isUpToDate() ) {
+					commit( attempt );
+					stopwatch.endMeasurement( StopWatchMeasurement.total );
+					return attempt.found;
+				}
+			}
+			finally {
+				commitLock.unlock();
+			}
+			conflictCallback.run();
+		}
+	}
+
+	/**
+	 * Evaluates the alternatives without modifying the state of any agent.
+	 */
+	private Attempt<P> evaluateAlternatives() {
+		final Attempt<P> attempt = new Attempt<>( this );
 
 		stopwatch.startMeasurement( StopWatchMeasurement.generateAlternatives );
 		final Collection<P> alternatives = alternativesGenerator.generateAlternatives( this );
@@ -96,39 +148,47 @@ public class NegotiationAgent<P extends Proposition> implements Identifiable<Per
 			final double u = utility.utility( this , proposition );
 			stopwatch.endMeasurement( StopWatchMeasurement.utility );
 
-			if ( proposition.getProposed().isEmpty() && u > currentBestUtilAlone ) {
-				currentBestPropAlone = proposition;
-				currentBestUtilAlone = u;
+			if ( proposition.getProposed().isEmpty() && u > attempt.bestUtilAlone ) {
+				attempt.bestPropAlone = proposition;
+				attempt.bestUtilAlone = u;
 			}
 
-			if ( u < currentBestUtil ) continue;
+			if ( u < attempt.bestUtil ) continue;
 
 			stopwatch.startMeasurement( StopWatchMeasurement.askAcceptance );
 			if ( !proposition.getProposed().stream()
 					.map( Person::getId )
 					.map( negotiatingAgents::get )
+					.peek( attempt::read )
 					.allMatch( a -> a.accept( proposition ) ) ) {
 				stopwatch.endMeasurement( StopWatchMeasurement.askAcceptance );
 				continue;
 			}
 			stopwatch.endMeasurement( StopWatchMeasurement.askAcceptance );
 
-			found = true;
-			currentBestUtil = u;
-			currentBestProp = proposition;
+			attempt.found = true;
+			attempt.bestUtil = u;
+			attempt.bestProp = proposition;
 		}
 
+		return attempt;
+	}
+
+	private void commit( final Attempt<P> attempt ) {
+		if ( attempt.bestPropAlone != currentBestPropAlone ) version++;
+		currentBestPropAlone = attempt.bestPropAlone;
+		currentBestUtilAlone = attempt.bestUtilAlone;
+
 		stopwatch.startMeasurement( StopWatchMeasurement.notifyResult );
-		if ( found ) {
-			currentBestProp.getGroup().stream()
+		if ( attempt.found ) {
+			// the proposer is part of the group, and is notified as the others:
+			// this breaks its previous agreement, which must still be its current best proposition at this point
+			attempt.bestProp.getGroup().stream()
 					.map( Person::getId )
 					.map( negotiatingAgents::get )
-					.forEach( a -> a.notifyAccepted( currentBestProp ) );
+					.forEach( a -> a.notifyAccepted( attempt.bestProp ) );
 		}
 		stopwatch.endMeasurement( StopWatchMeasurement.notifyResult );
-		stopwatch.endMeasurement( StopWatchMeasurement.total );
-
-		return found;
 	}
 
 	public P getBestProposition() {
@@ -143,5 +203,39 @@ public class NegotiationAgent<P extends Proposition> implements Identifiable<Per
 	public Id<Person> getId() {
 		return id;
 	}
-}
 
+	/**
+	 * The result of the evaluation of the alternatives, with the versions of the agents it depends on.
+	 */
+	private static class Attempt<P extends Proposition> {
+		private final List<NegotiationAgent<P>> readAgents = new ArrayList<>();
+		private final TIntList readVersions = new TIntArrayList();
+
+		private boolean found = false;
+		private double bestUtil;
+		private P bestProp;
+		private double bestUtilAlone;
+		private P bestPropAlone;
+
+		private Attempt( final NegotiationAgent<P> agent ) {
+			// version read before the state, so that a modification in between is detected
+			read( agent );
+			this.bestUtil = agent.currentBestUtil;
+			this.bestProp = agent.currentBestProp;
+			this.bestUtilAlone = agent.currentBestUtilAlone;
+			this.bestPropAlone = agent.currentBestPropAlone;
+		}
+
+		private void read( final NegotiationAgent<P> agent ) {
+			readAgents.add( agent );
+			readVersions.add( agent.version );
+		}
+
+		private boolean isUpToDate() {
+			for ( int i = 0; i < readAgents.size(); i++ ) {
+				if ( readAgents.get( i ).version != readVersions.get( i ) ) return false;
+			}
+			return true;
+		}
+	}
+}
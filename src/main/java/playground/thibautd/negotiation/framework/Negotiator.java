@@ -25,7 +25,13 @@ import org.apache.log4j.Logger;
 import playground.ivt.utils.ConcurrentStopWatch;
 import playground.thibautd.utils.LambdaCounter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 /**
@@ -54,6 +60,7 @@ public class Negotiator<P extends Proposition> {
 	public void negotiate(
 			final Consumer<NegotiationAgent<P>> acceptedPropositionCallback ) {
 		final AtomicDouble currentSuccessFraction = new AtomicDouble( 1 );
+		final AtomicLong conflicts = new AtomicLong( 0 );
 
 		final double populationSize = agents.getAllAgents().size();
 		final LambdaCounter counter =
@@ -66,16 +73,21 @@ public class Negotiator<P extends Proposition> {
 								.mapToDouble( NegotiationAgent::getBestUtility )
 								.average()
 								.getAsDouble() );
+					if ( configGroup.getNumberOfThreads() > 1 ) log.info( "Conflicts between parallel rounds "+conflicts );
 					if ( logStopwatch ) stopwatch.printStats( TimeUnit.MILLISECONDS );
 				} );
 
-		while ( currentSuccessFraction.get() > configGroup.getImprovingFractionThreshold() &&
-				counter.getCounter() / populationSize <= configGroup.getMaxRoundsPerAgent() ) {
-			counter.incCounter();
-			final NegotiationAgent<P> agent = agents.getRandomAgent();
-			final boolean success = agent.planActivity();
+		if ( configGroup.getNumberOfThreads() > 1 ) {
+			negotiateInParallel( currentSuccessFraction , conflicts , counter );
+		}
+		else {
+			while ( isRunning( currentSuccessFraction , counter , populationSize ) ) {
+				counter.incCounter();
+				final NegotiationAgent<P> agent = agents.getRandomAgent();
+				final boolean success = agent.planActivity();
 
-			currentSuccessFraction.set( updateSuccess( currentSuccessFraction.get() , success ) );
+				currentSuccessFraction.set( updateSuccess( currentSuccessFraction.get() , success ) );
+			}
 		}
 		counter.printCounter();
 
@@ -84,6 +96,60 @@ public class Negotiator<P extends Proposition> {
 		}
 	}
 
+	/**
+	 * Each thread performs rounds as in the sequential case, but agents evaluate their alternatives at the same time.
+	 * Results are committed one at a time, and rounds based on an outdated state of the agents are performed again
+	 * (see {@link NegotiationAgent#planActivity(Lock, Runnable)}).
+	 * Rounds that had to be performed again only count once, so that statistics are comparable with the sequential case.
+	 */
+	private void negotiateInParallel(
+			final AtomicDouble currentSuccessFraction,
+			final AtomicLong conflicts,
+			final LambdaCounter counter ) {
+		final double populationSize = agents.getAllAgents().size();
+		final Lock commitLock = new ReentrantLock();
+
+		final List<Thread> threads = new ArrayList<>();
+		final List<Throwable> exceptions = Collections.synchronizedList( new ArrayList<>() );
+		for ( int i = 0; i < configGroup.getNumberOfThreads(); i++ ) {
+			final Thread thread = new Thread( () -> {
+				while ( isRunning( currentSuccessFraction , counter , populationSize ) ) {
+					counter.incCounter();
+					final NegotiationAgent<P> agent = agents.getRandomAgent();
+					final boolean success = agent.planActivity( commitLock , conflicts::incrementAndGet );
+
+					double old;
+					do {
+						old = currentSuccessFraction.get();
+					} while ( !currentSuccessFraction.compareAndSet( old , updateSuccess( old , success ) ) );
+				}
+			} , "Negotiator."+i );
+			thread.setUncaughtExceptionHandler( ( t , e ) -> {
+				log.error( "exception in thread "+t.getName() , e );
+				exceptions.add( e );
+			} );
+			threads.add( thread );
+			thread.start();
+		}
+
+		try {
+			for ( Thread thread : threads ) thread.join();
+		}
+		catch ( InterruptedException e ) {
+			throw new RuntimeException( e );
+		}
+
+		if ( !exceptions.isEmpty() ) throw new RuntimeException( "exception while negotiating" , exceptions.get( 0 ) );
+	}
+
+	private boolean isRunning(
+			final AtomicDouble currentSuccessFraction,
+			final LambdaCounter counter,
+			final double populationSize ) {
+		return currentSuccessFraction.get() > configGroup.getImprovingFractionThreshold() &&
+				counter.getCounter() / populationSize <= configGroup.getMaxRoundsPerAgent();
+	}
+
 	private double updateSuccess( final double currentSuccessFraction, final boolean success ) {
 		final double old = (configGroup.getRollingAverageWindow() - 1) * currentSuccessFraction;
 		final double curr = success ? 1 : 0;
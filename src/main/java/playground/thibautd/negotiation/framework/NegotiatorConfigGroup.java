@@ -30,6 +30,7 @@ public class NegotiatorConfigGroup extends ReflectiveConfigGroup {
 	private double improvingFractionThreshold = 0.01;
 	private double maxRoundsPerAgent = 100;
 	private boolean logStopwatch = false;
+	private int numberOfThreads = 1;
 
 	public NegotiatorConfigGroup() {
 		super( GROUP_NAME );
@@ -76,4 +77,18 @@ public class NegotiatorConfigGroup extends ReflectiveConfigGroup {
 	public void setMaxRoundsPerAgent( final double maxRoundsPerAgent ) {
 		this.maxRoundsPerAgent = maxRoundsPerAgent;
 	}
+
+	@StringGetter("numberOfThreads")
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * With more than one thread, agents evaluate their alternatives in parallel. The result is not reproducible anymore.
+	 */
+	@StringSetter("numberOfThreads")
+	public void setNumberOfThreads( final int numberOfThreads ) {
+		if ( numberOfThreads < 1 ) throw new IllegalArgumentException( "number of threads must be strictly positive, got "+numberOfThreads );
+		this.numberOfThreads = numberOfThreads;
+	}
 }
@@ -135,16 +135,17 @@ public class LocationAlternativesGenerator implements AlternativesGenerator<Loca
 			final Collection<Person> alters ) {
 		log.trace( "    sample locations" );
 		final Coord home = locations.getHomeLocation( ego.getId() ).getCoord();
-		final Collection<ActivityFacility> close =
-				facilities.getBall(
+		final List<ActivityFacility> close =
+				facilities.getUnsortedBall(
 						home,
-						configGroup.getMaxOutOfHomeRadius_km() * 1000 );
+						configGroup.getMaxOutOfHomeRadius_km() * 1000,
+						f -> true );
 
 		// always select the same "awareness set"
-		// assumes the VP tree returns elements in ball in deterministic order (it should)
+		// the VP tree returns elements in ball in deterministic traversal order
 		final List<ActivityFacility> subsample = RandomUtils.sublist_withSideEffect(
 				new Random( seeds.getSeed( ego )),
-				(List<ActivityFacility>) close,
+				close,
 				//new ArrayList<>( close ),
 				configGroup.getnOutOfHomeAlternatives() );
 
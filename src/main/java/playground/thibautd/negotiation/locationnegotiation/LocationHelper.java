@@ -43,6 +43,13 @@ public class LocationHelper {
 	}
 
 	public ActivityFacility getHomeLocation( final Person person ) {
+		// custom attributes are not thread safe, and agents might negotiate in parallel
+		synchronized ( person.getCustomAttributes() ) {
+			return getHomeLocationUnsynchronized( person );
+		}
+	}
+
+	private ActivityFacility getHomeLocationUnsynchronized( final Person person ) {
 		// use custom attributes instead of customizable, to avoid writing this to file.
 		// could be replaced by a map if needed.
 		ActivityFacility facility = (ActivityFacility) person.getCustomAttributes().get( "home location" );
@@ -99,10 +99,15 @@ public class LocationUtility implements PropositionUtility<LocationProposition>
 
 	// TODO: make facilities actually implement attributable!
 	private Attributable asAttr( final Customizable facility ) {
-		if ( !facility.getCustomAttributes().containsKey( "attributes" ) ) {
-			facility.getCustomAttributes().put( "attributes" , new Attributes() );
+		final Attributes attributes;
+		// custom attributes are not thread safe, and agents might negotiate in parallel
+		synchronized ( facility.getCustomAttributes() ) {
+			if ( !facility.getCustomAttributes().containsKey( "attributes" ) ) {
+				facility.getCustomAttributes().put( "attributes" , new Attributes() );
+			}
+			attributes = (Attributes) facility.getCustomAttributes().get( "attributes" );
 		}
-		return () -> (Attributes) facility.getCustomAttributes().get( "attributes" );
+		return () -> attributes;
 	}
 
 	private double getTravelDistance( final Person ego, final ActivityFacility location ) {
@@ -39,12 +39,17 @@ public class RandomSeedHelper {
 			};
 
 	public long getSeed( final Attributable person ) {
-		Long seed = (Long) person.getAttributes().getAttribute( "seed" );
-		if ( seed != null ) return seed;
+		// attributes are not thread safe, and the seed must be drawn only once even if agents negotiate in parallel
+		synchronized ( person.getAttributes() ) {
+			Long seed = (Long) person.getAttributes().getAttribute( "seed" );
+			if ( seed != null ) return seed;
 
-		seed = random.nextLong();
-		person.getAttributes().putAttribute( "seed" , seed );
-		return seed;
+			synchronized ( random ) {
+				seed = random.nextLong();
+			}
+			person.getAttributes().putAttribute( "seed" , seed );
+			return seed;
+		}
 	}
 
 	public long getSeed( final Attributable o1 ,final Attributable o2 ) {
@@ -32,6 +32,9 @@ public class PseudoSimConfigGroup extends ReflectiveConfigGroup {
 	private int nPSimIters = 5;
 	private int period = 3;
 	private int nThreads = 1;
+	private boolean deterministicEventOrdering = false;
+	private double travelTimeTableBinSize = -1;
+	private boolean fastForwardNetworkRoutes = false;
 
 	private int writeEventsAndPlansIntervalInMobsim = 10;
 	private int writeEventsAndPlansIntervalInPSim = 10;
@@ -80,6 +83,48 @@ public class PseudoSimConfigGroup extends ReflectiveConfigGroup {
 		this.nThreads = nThreads;
 	}
 
+	@StringGetter( "deterministicEventOrdering" )
+	public boolean isDeterministicEventOrdering() {
+		return deterministicEventOrdering;
+	}
+
+	/**
+	 * If true, the events of the multi-threaded pseudo-simulation engine are produced in an order that does
+	 * not depend on the number of threads, at the cost of handling the end of legs in the main thread.
+	 */
+	@StringSetter( "deterministicEventOrdering" )
+	public void setDeterministicEventOrdering(final boolean deterministicEventOrdering) {
+		this.deterministicEventOrdering = deterministicEventOrdering;
+	}
+
+	@StringGetter( "travelTimeTableBinSize" )
+	public double getTravelTimeTableBinSize() {
+		return travelTimeTableBinSize;
+	}
+
+	/**
+	 * If positive, the pseudo-simulation engine takes a snapshot of the travel times at the start of the simulation,
+	 * with bins of the given size (in seconds), instead of querying the travel time for each link traversal.
+	 */
+	@StringSetter( "travelTimeTableBinSize" )
+	public void setTravelTimeTableBinSize(final double travelTimeTableBinSize) {
+		this.travelTimeTableBinSize = travelTimeTableBinSize;
+	}
+
+	@StringGetter( "fastForwardNetworkRoutes" )
+	public boolean isFastForwardNetworkRoutes() {
+		return fastForwardNetworkRoutes;
+	}
+
+	/**
+	 * If true, the pseudo-simulation engine computes the link enter times of plain plan based agents with a network route
+	 * in one go at departure, instead of link per link. Vehicles are still moved, and link events emitted, at those times.
+	 */
+	@StringSetter( "fastForwardNetworkRoutes" )
+	public void setFastForwardNetworkRoutes(final boolean fastForwardNetworkRoutes) {
+		this.fastForwardNetworkRoutes = fastForwardNetworkRoutes;
+	}
+
 	@StringGetter( "writeEventsAndPlansIntervalInMobsim" )
 	public int getWriteEventsAndPlansIntervalInMobsim() {
 		return writeEventsAndPlansIntervalInMobsim;
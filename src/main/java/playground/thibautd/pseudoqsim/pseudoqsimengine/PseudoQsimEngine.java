@@ -22,6 +22,7 @@ package playground.thibautd.pseudoqsim.pseudoqsimengine;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
 import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.LinkLeaveEvent;
 import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
@@ -29,31 +30,38 @@ import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
 import org.matsim.api.core.v01.events.PersonStuckEvent;
 import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
 import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.contrib.socnetsim.qsim.QVehicleProvider;
 import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.gbl.MatsimRandom;
 import org.matsim.core.mobsim.framework.DriverAgent;
 import org.matsim.core.mobsim.framework.HasPerson;
 import org.matsim.core.mobsim.framework.MobsimAgent;
 import org.matsim.core.mobsim.framework.MobsimDriverAgent;
+import org.matsim.core.mobsim.framework.PlanAgent;
 import org.matsim.core.mobsim.qsim.InternalInterface;
 import org.matsim.core.mobsim.qsim.QSim;
+import org.matsim.core.mobsim.qsim.agents.PersonDriverAgentImpl;
 import org.matsim.core.mobsim.qsim.interfaces.DepartureHandler;
 import org.matsim.core.mobsim.qsim.interfaces.MobsimEngine;
 import org.matsim.core.mobsim.qsim.pt.TransitDriverAgent;
 import org.matsim.core.mobsim.qsim.qnetsimengine.QVehicle;
+import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import playground.thibautd.pseudoqsim.PseudoSimConfigGroup;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Queue;
-import java.util.Random;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Consumer;
 
 /**
  * An engine aimed at replacing the QnetsimEngine for a "PSim" like behavior.
@@ -64,17 +72,47 @@ import java.util.concurrent.PriorityBlockingQueue;
  * on special agents, such as is the case for ride sharing.
  *
  * It does NOT allow to reuse special QLink implementations, for obvious reasons
+ * <br>
+ * Each thread keeps its vehicles in a {@link TimeBucketQueue}. A vehicle is handled
+ * by the thread in which it departs if the departure happens during the processing of
+ * a previous leg, and by a thread chosen from its Id otherwise, so that the assignment is reproducible
+ * and threads never write in the queues of other threads.
+ * Time steps where no vehicle needs to be handled do not wake up the threads.
+ * <br>
+ * With deterministic event ordering, threads do not write to the events manager nor modify the state of agents
+ * outside of the vehicles they handle: they buffer the events of each time step, and the end of legs as well as the stops of
+ * transit vehicles are left to the main thread, which processes everything by vehicle Id. The resulting events are then
+ * independent of the number of threads and of their scheduling. The price is that vehicles departing at the end of a leg
+ * or leaving a transit stop are only handled in the next time step.
+ * <br>
+ * If a travel time table bin size is configured, the travel times are copied to a {@link TravelTimeTable} at the start
+ * of the simulation. Travel times depending on the person or the vehicle are then not supported.
+ * <br>
+ * With fast forwarding of network routes, the link enter times of plain plan based agents with a network route
+ * are computed at departure, in one pass over the route. The vehicle is then scheduled in the time wheel at each of
+ * those times, where it moves to the next link without computing any travel time, so that the link events are emitted
+ * at the time step they happen, as for other vehicles, and the events stream stays sorted by time.
+ * Transit drivers and other special agents, which might need to do something on links, are still handled link per link.
  * @author thibautd
  */
 public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 	private static final Logger log =
 		Logger.getLogger(PseudoQsimEngine.class);
 
+	// horizon of the time wheel, in seconds. Arrivals further in the future go to an overflow heap.
+	private static final int WHEEL_SIZE = 4096;
+	// end of the travel time table if the simulation has no end time
+	private static final double DEFAULT_TABLE_END_TIME = 30 * 3600;
+
 	private final Collection<String> transportModes;
 	private final TravelTime travelTimeCalculator;
 	private final Network network;
 
 	private final QVehicleProvider vehicleProvider;
+	private final boolean deterministicEventOrdering;
+	private final double travelTimeTableBinSize;
+	private final boolean fastForwardNetworkRoutes;
+	private TravelTimeTable travelTimeTable = null;
 
 	private InternalInterface internalInterface = null;
 
@@ -86,7 +124,8 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 
 	private Throwable crashCause = null;
 
-	private final Random random;
+	// runnable executed by the current thread, if it is one of the engine's threads
+	private final ThreadLocal<TripHandlingRunnable> currentRunnable = new ThreadLocal<>();
 
 	public PseudoQsimEngine(
 			final int nThreads,
@@ -94,7 +133,20 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 			final TravelTime travelTimeCalculator,
 			final Network network,
 			final QVehicleProvider vehicles) {
+		this( createConfigGroup( nThreads ) , transportModes , travelTimeCalculator , network , vehicles );
+	}
+
+	public PseudoQsimEngine(
+			final PseudoSimConfigGroup configGroup,
+			final Collection<String> transportModes,
+			final TravelTime travelTimeCalculator,
+			final Network network,
+			final QVehicleProvider vehicles) {
+		final int nThreads = configGroup.getNThreads();
 		this.vehicleProvider = vehicles;
+		this.deterministicEventOrdering = configGroup.isDeterministicEventOrdering();
+		this.travelTimeTableBinSize = configGroup.getTravelTimeTableBinSize();
+		this.fastForwardNetworkRoutes = configGroup.isFastForwardNetworkRoutes();
 		this.transportModes = transportModes;
 		this.travelTimeCalculator = travelTimeCalculator;
 		this.network = network;
@@ -134,17 +186,29 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 					exceptionHandler );
 			this.threads[ i ].start();
 		}
+	}
 
-		this.random = MatsimRandom.getLocalInstance();
+	private static PseudoSimConfigGroup createConfigGroup( final int nThreads ) {
+		final PseudoSimConfigGroup group = new PseudoSimConfigGroup();
+		group.setNThreads( nThreads );
+		return group;
 	}
 
 	@Override
 	public void doSimStep(final double time) {
-		for ( TripHandlingRunnable r : runnables ) r.setTime( time );
+		// threads are waiting at the start barrier: safe to look at their queues.
+		boolean needsProcessing = false;
+		for ( TripHandlingRunnable r : runnables ) {
+			r.setTime( time );
+			// do not short-circuit: all queues need to be skipped to the current time
+			needsProcessing |= !r.arrivalQueue.skipUntil( time );
+		}
+		if ( !needsProcessing ) return;
 
 		try {
 			startBarrier.await();
 			endBarrier.await();
+			if ( deterministicEventOrdering ) flushStepOutputs( time );
 		}
 		catch (Exception e) {
 			if ( crashCause != null ) {
@@ -219,20 +283,115 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 						vehicleId, 
 						agent.getMode(), 1.0) );
 
-			chooseRunnable().addArrivalEvent(
-					// do not travel on first link
-					// calcArrival(
-					new InternalArrivalEvent(
-						now,
-						linkId,
-						vehicle) );
+			final FastForwardedLegEvent fastForwardedLeg =
+					fastForwardNetworkRoutes ?
+						createFastForwardedLeg( now , linkId , vehicle ) :
+						null;
+
+			if ( fastForwardedLeg != null ) {
+				chooseRunnable( vehicle ).addFastForwardedLeg( fastForwardedLeg );
+			}
+			else {
+				chooseRunnable( vehicle ).addArrivalEvent(
+						// do not travel on first link
+						// calcArrival(
+						new InternalArrivalEvent(
+							now,
+							linkId,
+							vehicle) );
+			}
 		}
 
 		return true;
 	}
 
-	private TripHandlingRunnable chooseRunnable() {
-		return runnables[ random.nextInt( runnables.length ) ];
+	/**
+	 * @return null if the leg cannot be fast forwarded
+	 */
+	private FastForwardedLegEvent createFastForwardedLeg(
+			final double now,
+			final Id<Link> departureLinkId,
+			final QVehicle vehicle) {
+		final MobsimDriverAgent agent = vehicle.getDriver();
+		// subclasses and wrappers might want to do something on the way
+		if ( agent.getClass() != PersonDriverAgentImpl.class ) return null;
+
+		final PlanElement pe = ((PlanAgent) agent).getCurrentPlanElement();
+		if ( !( pe instanceof Leg ) || !( ((Leg) pe).getRoute() instanceof NetworkRoute ) ) return null;
+		final NetworkRoute route = (NetworkRoute) ((Leg) pe).getRoute();
+		if ( !route.getStartLinkId().equals( departureLinkId ) ) return null;
+		// nothing to gain
+		if ( route.getLinkIds().isEmpty() && route.getEndLinkId().equals( departureLinkId ) ) return null;
+
+		final int nLinks = route.getLinkIds().size() + 1;
+		final Id<Link>[] linkIds = new Id[ nLinks ];
+		final double[] enterTimes = new double[ nLinks ];
+
+		for ( int i = 0; i < nLinks; i++ ) {
+			linkIds[ i ] = i < nLinks - 1 ? route.getLinkIds().get( i ) : route.getEndLinkId();
+		}
+		// resolved once for the whole route, so that the table is then read directly
+		final int[] tableIndices = travelTimeTable != null ? getTableIndices( linkIds ) : null;
+
+		// same times as when moving link per link: vehicles are handled at the first time step after their arrival
+		double time = now;
+		for ( int i = 0; i < nLinks; i++ ) {
+			enterTimes[ i ] = time;
+			final double travelTime =
+					tableIndices != null ?
+						travelTimeTable.getLinkTravelTime( tableIndices[ i ] , time ) :
+						calcTravelTime( time , linkIds[ i ] , vehicle );
+			time = Math.ceil( time + travelTime );
+		}
+
+		return new FastForwardedLegEvent(
+				time,
+				departureLinkId,
+				linkIds,
+				enterTimes,
+				vehicle );
+	}
+
+	private int[] getTableIndices( final Id<Link>[] linkIds ) {
+		final int[] indices = new int[ linkIds.length ];
+		for ( int i = 0; i < linkIds.length; i++ ) indices[ i ] = travelTimeTable.getLinkIndex( linkIds[ i ] );
+		return indices;
+	}
+
+	private TripHandlingRunnable chooseRunnable( final QVehicle vehicle ) {
+		// departures during the processing of an arrival stay in the same thread:
+		// the queue is not thread safe.
+		final TripHandlingRunnable current = currentRunnable.get();
+		if ( current != null ) return current;
+		return runnables[ Math.floorMod( vehicle.getId().toString().hashCode() , runnables.length ) ];
+	}
+
+	private void flushStepOutputs( final double time ) {
+		final List<StepOutput> outputs = new ArrayList<>();
+		for ( TripHandlingRunnable r : runnables ) {
+			outputs.addAll( r.stepOutputs );
+			r.stepOutputs.clear();
+		}
+		// stable sort: the handlings of one vehicle remain in order
+		outputs.sort( Comparator.comparing( o -> o.event.vehicle.getId() ) );
+
+		final EventsManager eventsManager = internalInterface.getMobsim().getEventsManager();
+		for ( StepOutput output : outputs ) {
+			final MobsimDriverAgent arrivedAgent;
+			if ( output.handledByMainThread ) {
+				arrivedAgent = output.runnable.moveVehicle( output.event , eventsManager::processEvent );
+			}
+			else {
+				output.events.forEach( eventsManager::processEvent );
+				arrivedAgent = output.arrivedAgent;
+			}
+			if ( arrivedAgent != null ) endLeg( arrivedAgent , time );
+		}
+	}
+
+	private void endLeg( final MobsimDriverAgent agent , final double time ) {
+		agent.endLegAndComputeNextState( time );
+		internalInterface.arrangeNextAgentState( agent );
 	}
 
 	public QVehicle getVehicle(final Id id) {
@@ -241,26 +400,44 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 
 	private InternalArrivalEvent calcArrival(
 			final double now,
-			final Id linkId,
+			final Id<Link> linkId,
+			final QVehicle vehicle) {
+		return new InternalArrivalEvent(
+				now + calcTravelTime( now , linkId , vehicle ),
+				linkId,
+				vehicle);
+	}
+
+	private double calcTravelTime(
+			final double now,
+			final Id<Link> linkId,
 			final QVehicle vehicle) {
+		if ( travelTimeTable != null ) return travelTimeTable.getLinkTravelTime( linkId , now );
+
 		final Person person =
 			vehicle.getDriver() instanceof HasPerson ?
 					((HasPerson) vehicle.getDriver()).getPerson() :
 					null;
-		final double travelTime =
-			travelTimeCalculator.getLinkTravelTime(
+		return travelTimeCalculator.getLinkTravelTime(
 					network.getLinks().get( linkId ),
 					now,
 					person,
 					vehicle.getVehicle() );
-		return new InternalArrivalEvent(
-				now + travelTime,
-				linkId,
-				vehicle);
 	}
 
 	@Override
-	public void onPrepareSim() {}
+	public void onPrepareSim() {
+		if ( travelTimeTableBinSize <= 0 ) return;
+
+		final double endTime = ((QSim) internalInterface.getMobsim()).getScenario().getConfig().qsim().getEndTime();
+		log.info( "create travel time table with bins of "+travelTimeTableBinSize+" seconds" );
+		this.travelTimeTable =
+				new TravelTimeTable(
+						network,
+						travelTimeCalculator,
+						travelTimeTableBinSize,
+						endTime > 0 && !Double.isInfinite( endTime ) ? endTime : DEFAULT_TABLE_END_TIME );
+	}
 	
 	@Override
 	public void afterSim() {
@@ -290,10 +467,26 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 			throw new RuntimeException();
 		}
 
+		final List<InternalArrivalEvent> remaining = new ArrayList<>();
 		for ( TripHandlingRunnable r : runnables ) {
 			assert r.isFinished : r.isRunning;
 			if ( log.isTraceEnabled() ) log.trace( "clean runnable "+r );
-			r.afterSim();
+			r.arrivalQueue.forEach( remaining::add );
+		}
+		// do not depend on the assignment of vehicles to threads
+		remaining.sort( Comparator.comparing( e -> e.vehicle.getId() ) );
+
+		final QSim qSim = (QSim) internalInterface.getMobsim();
+		for ( InternalArrivalEvent event : remaining ) {
+			final QVehicle veh = event.vehicle;
+			qSim.getEventsManager().processEvent(
+					new PersonStuckEvent(
+						qSim.getSimTimer().getTimeOfDay(),
+						veh.getDriver().getId(),
+						veh.getDriver().getCurrentLinkId(),
+						veh.getDriver().getMode()));
+			qSim.getAgentCounter().incLost();
+			qSim.getAgentCounter().decLiving();
 		}
 	}
 
@@ -302,7 +495,7 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 		this.internalInterface = internalInterface;
 	}
 
-	private static class InternalArrivalEvent implements Comparable<InternalArrivalEvent> {
+	private static class InternalArrivalEvent {
 		private final double time;
 		private final Id linkId;
 		private final QVehicle vehicle;
@@ -315,15 +508,59 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 			this.linkId = linkId;
 			this.vehicle = vehicle;
 		}
+	}
 
-		@Override
-		public int compareTo(final InternalArrivalEvent o) {
-			return Double.compare( time , o.time );
+	private static class FastForwardedLegEvent extends InternalArrivalEvent {
+		private final Id<Link> departureLinkId;
+		private final Id<Link>[] linkIds;
+		private final double[] enterTimes;
+		// index of the next link to enter
+		private int nextLink = 0;
+
+		public FastForwardedLegEvent(
+				final double arrivalTime,
+				final Id<Link> departureLinkId,
+				final Id<Link>[] linkIds,
+				final double[] enterTimes,
+				final QVehicle vehicle) {
+			super( arrivalTime , linkIds[ linkIds.length - 1 ] , vehicle );
+			this.departureLinkId = departureLinkId;
+			this.linkIds = linkIds;
+			this.enterTimes = enterTimes;
+		}
+
+		private boolean hasNextLink() {
+			return nextLink < linkIds.length;
+		}
+
+		/**
+		 * @return the time at which the vehicle has to be handled next: when it enters its next link,
+		 * or when it arrives if it is on its last link.
+		 */
+		private double getNextTime() {
+			return hasNextLink() ? enterTimes[ nextLink ] : super.time;
+		}
+	}
+
+	// what a thread did with one vehicle during one time step, in deterministic mode
+	private static class StepOutput {
+		private final TripHandlingRunnable runnable;
+		private final InternalArrivalEvent event;
+		private final List<Event> events = new ArrayList<>( 2 );
+		private MobsimDriverAgent arrivedAgent = null;
+		private boolean handledByMainThread = false;
+
+		public StepOutput(
+				final TripHandlingRunnable runnable,
+				final InternalArrivalEvent event) {
+			this.runnable = runnable;
+			this.event = event;
 		}
 	}
 
 	private class TripHandlingRunnable implements Runnable {
-		private final Queue<InternalArrivalEvent> arrivalQueue = new PriorityBlockingQueue<InternalArrivalEvent>();
+		private final TimeBucketQueue<InternalArrivalEvent> arrivalQueue = new TimeBucketQueue<>( WHEEL_SIZE );
+		private final List<StepOutput> stepOutputs = new ArrayList<>();
 
 		private boolean isRunning = true;
 		private boolean isFinished = false;
@@ -341,7 +578,11 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 		}
 
 		public void addArrivalEvent(final InternalArrivalEvent event) {
-			arrivalQueue.add( event );
+			arrivalQueue.add( event.time , event );
+		}
+
+		public void addFastForwardedLeg(final FastForwardedLegEvent event) {
+			arrivalQueue.add( event.getNextTime() , event );
 		}
 
 		public void setTime( double time ) {
@@ -352,22 +593,9 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 			isRunning = false;
 		}
 
-		public void afterSim() {
-			for (InternalArrivalEvent event : arrivalQueue) {
-				final QVehicle veh = event.vehicle;
-				((QSim) internalInterface.getMobsim()).getEventsManager().processEvent(
-						new PersonStuckEvent(
-							internalInterface.getMobsim().getSimTimer().getTimeOfDay(),
-							veh.getDriver().getId(),
-							veh.getDriver().getCurrentLinkId(),
-							veh.getDriver().getMode()));
-				((QSim) internalInterface.getMobsim()).getAgentCounter().incLost();
-				((QSim) internalInterface.getMobsim()).getAgentCounter().decLiving();
-			}
-		}
-
 		@Override
 		public void run() {
+			currentRunnable.set( this );
 			try {
 				while ( isRunning ) {
 					if (log.isTraceEnabled()) log.trace( this+" starts waiting for start" );
@@ -375,10 +603,7 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 					if (log.isTraceEnabled()) log.trace( this+" ends waiting for start" );
 					assert !Double.isNaN( time );
 					// TODO: handle transit drivers their own way.
-					while ( !arrivalQueue.isEmpty() &&
-							arrivalQueue.peek().time <= time ) {
-						handleEvent( arrivalQueue.poll() );
-					}
+					arrivalQueue.processUntil( time , this::handleEvent );
 					if (log.isTraceEnabled()) log.trace( this+" starts waiting for end" );
 					endBarrier.await();
 					if (log.isTraceEnabled()) log.trace( this+" ends waiting for end" );
@@ -401,10 +626,40 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 		}
 
 		private final void handleEvent(final InternalArrivalEvent event) {
+			if ( !deterministicEventOrdering ) {
+				final MobsimDriverAgent arrivedAgent =
+					moveVehicle(
+							event,
+							internalInterface.getMobsim().getEventsManager()::processEvent );
+				if ( arrivedAgent != null ) endLeg( arrivedAgent , time );
+				return;
+			}
+
+			final StepOutput output = new StepOutput( this , event );
+			stepOutputs.add( output );
+
+			if ( event.vehicle.getDriver() instanceof TransitDriverAgent ) {
+				// stops modify the state of passengers, which might be handled by other threads
+				output.handledByMainThread = true;
+				return;
+			}
+
+			output.arrivedAgent = moveVehicle( event , output.events::add );
+		}
+
+		/**
+		 * @return the driver if it arrived, null otherwise
+		 */
+		private MobsimDriverAgent moveVehicle(
+				final InternalArrivalEvent event,
+				final Consumer<Event> events) {
 			final MobsimDriverAgent agent = event.vehicle.getDriver();
 
-			final EventsManager eventsManager =
-				 internalInterface.getMobsim().getEventsManager();
+			if ( event instanceof FastForwardedLegEvent && ((FastForwardedLegEvent) event).hasNextLink() ) {
+				moveToNextLink( (FastForwardedLegEvent) event , agent , events );
+				addFastForwardedLeg( (FastForwardedLegEvent) event );
+				return null;
+			}
 
 			if ( agent instanceof TransitDriverAgent ) {
 				final TransitDriverAgent transitDriver = (TransitDriverAgent) agent;
@@ -413,12 +668,12 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 				if ((stop != null) && (stop.getLinkId().equals( event.linkId ) ) ) {
 					final double delay = handleTransitStop( transitDriver , stop , time );
 					if ( delay > 0 ) {
-						arrivalQueue.add(
+						addArrivalEvent(
 								new InternalArrivalEvent(
 									time + delay,
 									event.linkId,
 									event.vehicle) );
-						return;
+						return null;
 					}
 				}
 			}
@@ -426,7 +681,7 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 			final Id nextLinkId = agent.chooseNextLinkId();
 
 			if ( !agent.isWantingToArriveOnCurrentLink() ) {
-				eventsManager.processEvent(
+				events.accept(
 					new LinkLeaveEvent(
 						time,
 						event.vehicle.getId(),
@@ -434,38 +689,69 @@ public class PseudoQsimEngine implements MobsimEngine, DepartureHandler {
 
 				agent.notifyMoveOverNode( nextLinkId );
 
-				eventsManager.processEvent(
+				events.accept(
 					new LinkEnterEvent(
 						time,
 						event.vehicle.getId(),
 						nextLinkId ) );
 
-				arrivalQueue.add(
+				addArrivalEvent(
 						calcArrival(
 							time,
 							nextLinkId,
 							event.vehicle) );
+				return null;
 			}
-			else {
-				eventsManager.processEvent(
-						new VehicleLeavesTrafficEvent(
-							time,
-							agent.getId(),
-							event.linkId,
-							event.vehicle.getId(),
-							TransportMode.car,
-							1) );
-				eventsManager.processEvent(
-						new PersonLeavesVehicleEvent(
-							time,
-							agent.getId(),
-							event.vehicle.getId()));
-				// reset vehicles driver
-				event.vehicle.setDriver(null);
 
-				agent.endLegAndComputeNextState( time );
-				internalInterface.arrangeNextAgentState( agent );
-			}
+			events.accept(
+					new VehicleLeavesTrafficEvent(
+						time,
+						agent.getId(),
+						event.linkId,
+						event.vehicle.getId(),
+						TransportMode.car,
+						1) );
+			events.accept(
+					new PersonLeavesVehicleEvent(
+						time,
+						agent.getId(),
+						event.vehicle.getId()));
+			// reset vehicles driver
+			event.vehicle.setDriver(null);
+
+			return agent;
+		}
+
+		/**
+		 * Moves a fast forwarded vehicle over the node at the end of its current link.
+		 * This is called at the link enter time computed at departure.
+		 */
+		private void moveToNextLink(
+				final FastForwardedLegEvent event,
+				final MobsimDriverAgent agent,
+				final Consumer<Event> events) {
+			final Id<Link> currentLinkId =
+					event.nextLink == 0 ?
+						event.departureLinkId :
+						event.linkIds[ event.nextLink - 1 ];
+			final Id<Link> nextLinkId = agent.chooseNextLinkId();
+			assert nextLinkId.equals( event.linkIds[ event.nextLink ] ) : nextLinkId+" != "+event.linkIds[ event.nextLink ];
+
+			events.accept(
+				new LinkLeaveEvent(
+					time,
+					event.vehicle.getId(),
+					currentLinkId ) );
+
+			agent.notifyMoveOverNode( nextLinkId );
+
+			events.accept(
+				new LinkEnterEvent(
+					time,
+					event.vehicle.getId(),
+					nextLinkId ) );
+
+			event.nextLink++;
 		}
 	}
 
@@ -75,8 +75,8 @@ public class QSimWithPseudoEngineFactory implements MobsimFactory {
 		final PseudoQsimEngine pseudoEngine =
 			new PseudoQsimEngine(
 					pSimConf != null ?
-						pSimConf.getNThreads() :
-						1,
+						pSimConf :
+						new PseudoSimConfigGroup(),
 					sc.getConfig().qsim().getMainModes(),
 					travelTime,
 					sc.getNetwork(),
@@ -0,0 +1,184 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TimeBucketQueue.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.pseudoqsim.pseudoqsimengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * A calendar queue ("time wheel") with buckets of one time step (one second by default).
+ * Elements are put in the bucket of the first time step at which they are due,
+ * and are processed bucket by bucket, in insertion order within a bucket.
+ * Elements too far in the future are kept in an overflow heap, and moved to the wheel when it turns.
+ * <br>
+ * This is not thread safe.
+ *
+ * @author thibautd
+ */
+public class TimeBucketQueue<T> {
+	private final double bucketWidth;
+	private final List<T>[] wheel;
+	private final int mask;
+	private int wheelSize = 0;
+
+	private final PriorityQueue<OverflowEntry<T>> overflow = new PriorityQueue<>();
+	private long overflowSequence = 0;
+
+	// first slot not yet processed. While processing, slot currently processed.
+	// Elements due before are put in this slot.
+	private long currentSlot = 0;
+
+	/**
+	 * @param nBuckets the number of buckets (that is, the horizon in seconds) of the wheel. Rounded up to a power of two.
+	 */
+	public TimeBucketQueue( final int nBuckets ) {
+		this( nBuckets , 1 );
+	}
+
+	/**
+	 * @param nBuckets the number of buckets of the wheel. Rounded up to a power of two.
+	 * @param bucketWidth the duration of a bucket, which should be the time step size of the simulation:
+	 * elements are due at the first multiple of the width at or after their time.
+	 */
+	public TimeBucketQueue( final int nBuckets , final double bucketWidth ) {
+		if ( bucketWidth <= 0 ) throw new IllegalArgumentException( "bucket width must be positive, got "+bucketWidth );
+		this.bucketWidth = bucketWidth;
+		final int size = Integer.highestOneBit( Math.max( 1 , nBuckets - 1 ) ) << 1;
+		this.wheel = new List[ size ];
+		for ( int i = 0; i < size; i++ ) wheel[ i ] = new ArrayList<>();
+		this.mask = size - 1;
+	}
+
+	public void add( final double time , final T element ) {
+		final long slot = Math.max( (long) Math.ceil( time / bucketWidth ) , currentSlot );
+
+		if ( slot - currentSlot < wheel.length ) {
+			wheel[ (int) ( slot & mask ) ].add( element );
+			wheelSize++;
+		}
+		else {
+			overflow.add( new OverflowEntry<>( slot , overflowSequence++ , element ) );
+		}
+	}
+
+	public boolean isEmpty() {
+		return wheelSize == 0 && overflow.isEmpty();
+	}
+
+	public int size() {
+		return wheelSize + overflow.size();
+	}
+
+	/**
+	 * If no element is due at or before the given time, marks all time steps until then as processed,
+	 * so that the next call does not need to look at them again.
+	 *
+	 * @return true if nothing was due (and the time steps were skipped), false otherwise
+	 */
+	public boolean skipUntil( final double time ) {
+		final long lastSlot = (long) Math.floor( time / bucketWidth );
+
+		if ( wheelSize > 0 ) {
+			final long last = Math.min( lastSlot , currentSlot + wheel.length - 1 );
+			for ( ; currentSlot <= last; currentSlot++ ) {
+				if ( !wheel[ (int) ( currentSlot & mask ) ].isEmpty() ) {
+					// the wheel turned: elements now within the horizon must be in it before anything else is added
+					fillFromOverflow();
+					return false;
+				}
+			}
+			fillFromOverflow();
+		}
+
+		if ( !overflow.isEmpty() && overflow.peek().slot <= lastSlot ) return false;
+
+		if ( currentSlot <= lastSlot ) {
+			// wheel is empty
+			currentSlot = lastSlot + 1;
+			fillFromOverflow();
+		}
+		return true;
+	}
+
+	/**
+	 * Passes all elements due at or before the given time to the handler, in order of due time step and of insertion.
+	 * Elements added by the handler that are due before the time are also processed.
+	 */
+	public void processUntil( final double time , final Consumer<T> handler ) {
+		final long lastSlot = (long) Math.floor( time / bucketWidth );
+
+		while ( currentSlot <= lastSlot ) {
+			if ( wheelSize == 0 ) {
+				// jump over empty slots
+				if ( overflow.isEmpty() || overflow.peek().slot > lastSlot ) {
+					currentSlot = lastSlot + 1;
+					fillFromOverflow();
+					return;
+				}
+				currentSlot = overflow.peek().slot;
+				fillFromOverflow();
+			}
+
+			final List<T> bucket = wheel[ (int) ( currentSlot & mask ) ];
+			// handler might add elements in the current bucket: do not use an iterator
+			for ( int i = 0; i < bucket.size(); i++ ) {
+				handler.accept( bucket.get( i ) );
+			}
+			wheelSize -= bucket.size();
+			bucket.clear();
+
+			currentSlot++;
+			fillFromOverflow();
+		}
+	}
+
+	private void fillFromOverflow() {
+		while ( !overflow.isEmpty() && overflow.peek().slot < currentSlot + wheel.length ) {
+			final OverflowEntry<T> entry = overflow.poll();
+			wheel[ (int) ( entry.slot & mask ) ].add( entry.element );
+			wheelSize++;
+		}
+	}
+
+	public void forEach( final Consumer<T> consumer ) {
+		for ( List<T> bucket : wheel ) bucket.forEach( consumer );
+		for ( OverflowEntry<T> e : overflow ) consumer.accept( e.element );
+	}
+
+	private static class OverflowEntry<T> implements Comparable<OverflowEntry<T>> {
+		private final long slot;
+		private final long sequence;
+		private final T element;
+
+		private OverflowEntry( final long slot , final long sequence , final T element ) {
+			this.slot = slot;
+			this.sequence = sequence;
+			this.element = element;
+		}
+
+		@Override
+		public int compareTo( final OverflowEntry<T> o ) {
+			final int c = Long.compare( slot , o.slot );
+			return c != 0 ? c : Long.compare( sequence , o.sequence );
+		}
+	}
+}
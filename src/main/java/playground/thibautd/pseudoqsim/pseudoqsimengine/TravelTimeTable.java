@@ -0,0 +1,102 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TravelTimeTable.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.pseudoqsim.pseudoqsimengine;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.stream.IntStream;
+
+/**
+ * A snapshot of a {@link TravelTime}, stored as one dense array indexed by link and time bin.
+ * Travel times are sampled at the start of each bin, without person nor vehicle.
+ * Times after the end of the table get the travel time of the last bin.
+ * With bins aligned on the ones of a {@link org.matsim.core.trafficmonitoring.TravelTimeCalculator},
+ * the travel times are the same as the ones of the calculator.
+ * <br>
+ * Link ids of this version of MATSim do not provide a dense index: callers resolve the row of a link once,
+ * with {@link #getLinkIndex(Id)}, and then query travel times by index. The table is limited to {@link #MAX_SIZE} entries.
+ *
+ * @author thibautd
+ */
+class TravelTimeTable {
+	// some VMs reserve header words in arrays
+	static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private final TObjectIntMap<Id<Link>> linkIndices;
+	private final double binSize;
+	private final int nBins;
+	private final double[] travelTimes;
+
+	public TravelTimeTable(
+			final Network network,
+			final TravelTime travelTime,
+			final double binSize,
+			final double endTime ) {
+		if ( binSize <= 0 ) throw new IllegalArgumentException( "bin size must be positive, got "+binSize );
+		this.binSize = binSize;
+		this.nBins = Math.max( 1 , (int) Math.ceil( endTime / binSize ) );
+
+		final Link[] links = network.getLinks().values().toArray( new Link[ 0 ] );
+		if ( (long) links.length * nBins > MAX_SIZE ) {
+			throw new IllegalArgumentException( "travel time table for "+links.length+" links and "+nBins+" bins is too large: use larger bins" );
+		}
+		this.linkIndices = new TObjectIntHashMap<>( links.length , 0.5f , -1 );
+		for ( int i = 0; i < links.length; i++ ) linkIndices.put( links[ i ].getId() , i );
+
+		this.travelTimes = new double[ links.length * nBins ];
+		// the engine already queries the travel time from several threads
+		IntStream.range( 0 , links.length ).parallel().forEach( i -> {
+			for ( int bin = 0; bin < nBins; bin++ ) {
+				travelTimes[ i * nBins + bin ] =
+						travelTime.getLinkTravelTime(
+								links[ i ],
+								bin * binSize,
+								null,
+								null );
+			}
+		} );
+	}
+
+	/**
+	 * @return the row of the link in the table, to pass to {@link #getLinkTravelTime(int, double)}
+	 */
+	public int getLinkIndex( final Id<Link> linkId ) {
+		final int index = linkIndices.get( linkId );
+		if ( index < 0 ) throw new IllegalArgumentException( "unknown link "+linkId );
+		return index;
+	}
+
+	public double getLinkTravelTime( final int linkIndex , final double time ) {
+		final int bin = Math.max( 0 , Math.min( nBins - 1 , (int) ( time / binSize ) ) );
+		return travelTimes[ linkIndex * nBins + bin ];
+	}
+
+	/**
+	 * Convenience method for single queries. Resolve the index once with {@link #getLinkIndex(Id)} for repeated ones.
+	 */
+	public double getLinkTravelTime( final Id<Link> linkId , final double time ) {
+		return getLinkTravelTime( getLinkIndex( linkId ) , time );
+	}
+}
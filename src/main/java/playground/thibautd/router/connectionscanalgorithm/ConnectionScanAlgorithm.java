@@ -18,11 +18,543 @@
  * *********************************************************************** */
 package playground.thibautd.router.connectionscanalgorithm;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.router.TransitRouterConfig;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Simple implementation, without the various optimisations presented in "connection scan accelerated"
+ * <br>
+ * Journeys minimize arrival time. Transfers are only possible through the footpaths of {@link ConnectionScanData},
+ * which are assumed to be transitively closed.
+ * <br>
+ * Instances are thread safe: the {@link ConnectionScanData} is only read, and the query state is kept in per thread
+ * scratch arrays, that are reset in constant time by versioning. One instance should thus be shared by all routing threads.
  *
  * @author thibautd
  */
 public class ConnectionScanAlgorithm {
-}
+	private static final int NONE = -1;
+
+	private final ConnectionScanData data;
+	private final TransitSchedule schedule;
+	private final TransitRouterConfig config;
+
+	private final TransitStopFacility[] stops;
+
+	private final ThreadLocal<QueryState> states;
+
+	public ConnectionScanAlgorithm(
+			final ConnectionScanData data,
+			final TransitSchedule schedule,
+			final TransitRouterConfig config ) {
+		this.data = data;
+		this.schedule = schedule;
+		this.config = config;
+
+		final StopFacilityIndexer indexer = data.getStopFacilityIndexer();
+		this.stops = new TransitStopFacility[ indexer.size() ];
+		for ( int i = 0; i < stops.length; i++ ) {
+			stops[ i ] = schedule.getFacilities().get( indexer.getId( i ) );
+		}
+
+		this.states = ThreadLocal.withInitial( () -> new QueryState( stops.length , data.getTrips().size() ) );
+	}
+
+	/**
+	 * @return the legs of the journey arriving the earliest at destination,
+	 * or a direct walk if no transit journey arrives earlier than walking.
+	 */
+	public List<Leg> calcEarliestArrivalRoute(
+			final Coord fromCoord,
+			final Coord toCoord,
+			final double departureTime ) {
+		final QueryState state = states.get();
+		final double directWalkTime = getWalkTime( fromCoord , toCoord );
+
+		locateAccessAndEgressStops( state , fromCoord , toCoord );
+		final int target = scan( state , departureTime , departureTime + directWalkTime );
+		state.clearEgressTimes();
+
+		if ( target == NONE ) return createDirectWalkLegList( directWalkTime );
+
+		return createJourney( state , fromCoord , toCoord , departureTime , target , false ).getLegs();
+	}
+
+	/**
+	 * One-to-many earliest arrival query: the timetable is scanned only once for all destinations, until no destination
+	 * can be reached faster than by walking directly.
+	 * Journeys are the same as the ones of {@link #calcEarliestArrivalRoute(Coord, Coord, double)}, up to the choice
+	 * between journeys arriving at exactly the same time.
+	 *
+	 * @return the legs of the journey arriving the earliest at each destination, in the order of the destinations.
+	 */
+	public List<List<Leg>> calcEarliestArrivalRoutes(
+			final Coord fromCoord,
+			final List<Coord> toCoords,
+			final double departureTime ) {
+		final QueryState state = states.get();
+
+		double maxDirectWalkTime = 0;
+		for ( Coord toCoord : toCoords ) maxDirectWalkTime = Math.max( maxDirectWalkTime , getWalkTime( fromCoord , toCoord ) );
+
+		// no egress stop: the scan does not look for a particular target, and only stops at the bound
+		locateAccessStops( state , fromCoord );
+		scan( state , departureTime , departureTime + maxDirectWalkTime );
+
+		final List<List<Leg>> routes = new ArrayList<>( toCoords.size() );
+		for ( Coord toCoord : toCoords ) {
+			final double directWalkTime = getWalkTime( fromCoord , toCoord );
+
+			double bestArrival = departureTime + directWalkTime;
+			int target = NONE;
+			for ( TransitStopFacility stop : getNearestStops( toCoord ) ) {
+				final int index = data.getStopFacilityIndexer().getIndex( stop.getId() );
+				// access stops are not valid targets: the journey would not use transit at all
+				if ( !state.isReachedByTransit( index ) ) continue;
+
+				final double arrival = state.getArrivalTime( index ) + getWalkTime( stop.getCoord() , toCoord );
+				if ( arrival < bestArrival ) {
+					bestArrival = arrival;
+					target = index;
+				}
+			}
+
+			routes.add(
+					target == NONE ?
+							createDirectWalkLegList( directWalkTime ) :
+							createJourney( state , fromCoord , toCoord , departureTime , target , false ).getLegs() );
+		}
+
+		return routes;
+	}
+
+	/**
+	 * Profile query: computes all Pareto-optimal journeys (later departure, earlier arrival) departing within
+	 * the given time window. This is done by running one earliest arrival scan per departure opportunity at the access stops,
+	 * from the latest to the earliest. Journeys dominated by the direct walk are not returned.
+	 *
+	 * @return the Pareto set, sorted by increasing departure time
+	 */
+	public List<Journey> calcProfileRoutes(
+			final Coord fromCoord,
+			final Coord toCoord,
+			final double earliestDepartureTime,
+			final double latestDepartureTime ) {
+		final QueryState state = states.get();
+		final double directWalkTime = getWalkTime( fromCoord , toCoord );
+		locateAccessAndEgressStops( state , fromCoord , toCoord );
+
+		final double[] departureTimes = getDepartureOpportunities( state , earliestDepartureTime , latestDepartureTime );
+
+		final List<Journey> journeys = new ArrayList<>();
+		double bestArrival = Double.POSITIVE_INFINITY;
+		for ( int i = departureTimes.length - 1; i >= 0; i-- ) {
+			final double departureTime = departureTimes[ i ];
+			final double bound = Math.min( bestArrival , departureTime + directWalkTime );
+			final int target = scan( state , departureTime , bound );
+
+			if ( target == NONE ) continue;
+
+			final Journey journey = createJourney( state , fromCoord , toCoord , departureTime , target , true );
+			// the scan only returns journeys strictly better than the bound
+			assert journey.getArrivalTime() < bestArrival;
+			bestArrival = journey.getArrivalTime();
+			journeys.add( journey );
+		}
+		state.clearEgressTimes();
+
+		Collections.reverse( journeys );
+		return journeys;
+	}
+
+	private double[] getDepartureOpportunities(
+			final QueryState state,
+			final double earliestDepartureTime,
+			final double latestDepartureTime ) {
+		final ContigousConnections connections = data.getConnections();
+
+		double maxAccessTime = 0;
+		for ( int i = 0; i < state.accessTimes.size(); i++ ) maxAccessTime = Math.max( maxAccessTime , state.accessTimes.get( i ) );
+
+		final TDoubleArrayList departureTimes = new TDoubleArrayList();
+		for ( int c = connections.getFirstConnectionDepartingAfter( earliestDepartureTime );
+				c < connections.size() && connections.getDepartureTime( c ) <= latestDepartureTime + maxAccessTime;
+				c++ ) {
+			final int accessIndex = state.accessStops.indexOf( connections.getOriginId( c ) );
+			if ( accessIndex < 0 ) continue;
+
+			final double departureTime = connections.getDepartureTime( c ) - state.accessTimes.get( accessIndex );
+			if ( departureTime >= earliestDepartureTime && departureTime <= latestDepartureTime ) {
+				departureTimes.add( departureTime );
+			}
+		}
+
+		final double[] array = departureTimes.toArray();
+		Arrays.sort( array );
+
+		// remove duplicates
+		int nUnique = 0;
+		for ( int i = 0; i < array.length; i++ ) {
+			if ( nUnique == 0 || array[ nUnique - 1 ] != array[ i ] ) array[ nUnique++ ] = array[ i ];
+		}
+		return Arrays.copyOf( array, nUnique );
+	}
+
+	private void locateAccessAndEgressStops( final QueryState state , final Coord fromCoord , final Coord toCoord ) {
+		locateAccessStops( state , fromCoord );
+
+		state.egressStops.resetQuick();
+		for ( TransitStopFacility stop : getNearestStops( toCoord ) ) {
+			final int index = data.getStopFacilityIndexer().getIndex( stop.getId() );
+			state.egressStops.add( index );
+			state.egressTimes[ index ] = getWalkTime( stop.getCoord() , toCoord );
+		}
+	}
+
+	private void locateAccessStops( final QueryState state , final Coord fromCoord ) {
+		state.accessStops.resetQuick();
+		state.accessTimes.resetQuick();
+		for ( TransitStopFacility stop : getNearestStops( fromCoord ) ) {
+			state.accessStops.add( data.getStopFacilityIndexer().getIndex( stop.getId() ) );
+			state.accessTimes.add( getWalkTime( fromCoord , stop.getCoord() ) );
+		}
+	}
+
+	private Collection<TransitStopFacility> getNearestStops( final Coord coord ) {
+		Collection<TransitStopFacility> nearestStops =
+				data.getStopsQuadTree().getDisk(
+						coord.getX(),
+						coord.getY(),
+						config.getSearchRadius() );
+		if ( nearestStops.size() < 2 ) {
+			// also enlarge search area if only one stop found, maybe a second one is near the border of the search area
+			final TransitStopFacility nearestStop = data.getStopsQuadTree().getClosest( coord.getX() , coord.getY() );
+			final double distance = CoordUtils.calcEuclideanDistance( coord , nearestStop.getCoord() );
+			nearestStops = data.getStopsQuadTree().getDisk( coord.getX() , coord.getY() , distance + config.getExtensionRadius() );
+		}
+		return nearestStops;
+	}
+
+	/**
+	 * @return the egress stop of the earliest arriving journey, if it arrives strictly before the bound, or NONE
+	 */
+	private int scan( final QueryState state , final double departureTime , final double arrivalTimeBound ) {
+		state.reset();
+
+		double bestTargetArrival = arrivalTimeBound;
+		int bestTarget = NONE;
+
+		for ( int i = 0; i < state.accessStops.size(); i++ ) {
+			final int stop = state.accessStops.get( i );
+			final double arrival = departureTime + state.accessTimes.get( i );
+			if ( arrival < state.getArrivalTime( stop ) ) state.setAccess( stop , arrival );
+		}
+
+		final ContigousConnections connections = data.getConnections();
+		for ( int c = connections.getFirstConnectionDepartingAfter( departureTime ); c < connections.size(); c++ ) {
+			final double connectionDeparture = connections.getDepartureTime( c );
+			// no journey using this connection can improve the best one
+			if ( connectionDeparture >= bestTargetArrival ) break;
+
+			final int trip = connections.getTripId( c );
+			int enterConnection = state.getTripEnterConnection( trip );
+			if ( enterConnection == NONE ) {
+				if ( state.getArrivalTime( connections.getOriginId( c ) ) > connectionDeparture ) continue;
+				enterConnection = c;
+				state.setTripEnterConnection( trip , c );
+			}
+
+			final int destination = connections.getDestinationId( c );
+			final double arrival = connections.getArrivalTime( c );
+			if ( arrival >= state.getArrivalTime( destination ) ) continue;
+
+			state.setReachedByTrip( destination , arrival , enterConnection , c );
 
+			if ( arrival + state.egressTimes[ destination ] < bestTargetArrival ) {
+				bestTargetArrival = arrival + state.egressTimes[ destination ];
+				bestTarget = destination;
+			}
+
+			final List<Footpaths.Footpath> footpaths = data.getFootpaths().getFootpaths( destination );
+			if ( footpaths == null ) continue;
+			for ( int f = 0; f < footpaths.size(); f++ ) {
+				final Footpaths.Footpath footpath = footpaths.get( f );
+				final int walkDestination = footpath.getDestinationStation();
+				if ( walkDestination == destination ) continue;
+
+				final double walkArrival = arrival + getTransferTime( footpath );
+				if ( walkArrival >= state.getArrivalTime( walkDestination ) ) continue;
+
+				state.setReachedByFootpath( walkDestination , walkArrival , destination );
+
+				if ( walkArrival + state.egressTimes[ walkDestination ] < bestTargetArrival ) {
+					bestTargetArrival = walkArrival + state.egressTimes[ walkDestination ];
+					bestTarget = walkDestination;
+				}
+			}
+		}
+
+		return bestTarget;
+	}
+
+	private Journey createJourney(
+			final QueryState state,
+			final Coord fromCoord,
+			final Coord toCoord,
+			final double queryDepartureTime,
+			final int target,
+			final boolean departAsLateAsPossible ) {
+		final ContigousConnections connections = data.getConnections();
+
+		// backtrack the journey pointers. Segments are either a trip (enter and exit connection), or a footpath
+		final TIntArrayList enterConnections = state.enterConnectionsBuffer;
+		final TIntArrayList exitConnections = state.exitConnectionsBuffer;
+		final TIntArrayList walkDestinations = state.walkDestinationsBuffer;
+		enterConnections.resetQuick();
+		exitConnections.resetQuick();
+		walkDestinations.resetQuick();
+		int stop = target;
+		while ( true ) {
+			if ( state.stopExitConnections[ stop ] != NONE ) {
+				enterConnections.add( state.stopEnterConnections[ stop ] );
+				exitConnections.add( state.stopExitConnections[ stop ] );
+				walkDestinations.add( NONE );
+				stop = connections.getOriginId( state.stopEnterConnections[ stop ] );
+			}
+			else if ( state.stopFootpathOrigins[ stop ] != NONE ) {
+				enterConnections.add( NONE );
+				exitConnections.add( NONE );
+				walkDestinations.add( stop );
+				stop = state.stopFootpathOrigins[ stop ];
+			}
+			else break;
+		}
+		final int accessStop = stop;
+		final int firstSegment = exitConnections.size() - 1;
+
+		final List<Leg> legs = new ArrayList<>();
+
+		final double accessTime = getWalkTime( fromCoord , stops[ accessStop ].getCoord() );
+		final Leg accessLeg = PopulationUtils.createLeg( TransportMode.transit_walk );
+		accessLeg.setTravelTime( accessTime );
+		legs.add( accessLeg );
+
+		// access stops do not get footpaths relaxed, so the first segment is always a trip
+		final double departureTime =
+				departAsLateAsPossible && firstSegment >= 0 ?
+						connections.getDepartureTime( enterConnections.get( firstSegment ) ) - accessTime :
+						queryDepartureTime;
+		double time = departureTime + accessTime;
+		int currentStop = accessStop;
+		for ( int i = firstSegment; i >= 0; i-- ) {
+			final int exit = exitConnections.get( i );
+			if ( exit != NONE ) {
+				final int trip = connections.getTripId( exit );
+				final TransitLine line = schedule.getTransitLines().get( data.getTrips().getLineId( trip ) );
+				final TransitRoute route = line.getRoutes().get( data.getTrips().getRouteId( trip ) );
+				final int egressStop = connections.getDestinationId( exit );
+
+				final Leg leg = PopulationUtils.createLeg( TransportMode.pt );
+				final ExperimentalTransitRoute ptRoute =
+						new ExperimentalTransitRoute(
+								stops[ currentStop ],
+								line,
+								route,
+								stops[ egressStop ] );
+				final double arrivalTime = connections.getArrivalTime( exit );
+				ptRoute.setTravelTime( arrivalTime - time );
+				leg.setRoute( ptRoute );
+				leg.setTravelTime( arrivalTime - time );
+				legs.add( leg );
+
+				time = arrivalTime;
+				currentStop = egressStop;
+			}
+			else {
+				final int walkDestination = walkDestinations.get( i );
+				final double walkTime = getWalkTime( stops[ currentStop ].getCoord() , stops[ walkDestination ].getCoord() );
+
+				final Leg leg = PopulationUtils.createLeg( TransportMode.transit_walk );
+				final Route walkRoute =
+						RouteUtils.createGenericRouteImpl(
+								stops[ currentStop ].getLinkId(),
+								stops[ walkDestination ].getLinkId() );
+				walkRoute.setTravelTime( walkTime );
+				leg.setRoute( walkRoute );
+				leg.setTravelTime( walkTime );
+				legs.add( leg );
+
+				time += walkTime;
+				currentStop = walkDestination;
+			}
+		}
+
+		final double egressTime = getWalkTime( stops[ currentStop ].getCoord() , toCoord );
+		final Leg egressLeg = PopulationUtils.createLeg( TransportMode.transit_walk );
+		egressLeg.setTravelTime( egressTime );
+		legs.add( egressLeg );
+
+		return new Journey( departureTime , time + egressTime , legs );
+	}
+
+	private List<Leg> createDirectWalkLegList( final double walkTime ) {
+		final Leg leg = PopulationUtils.createLeg( TransportMode.transit_walk );
+		leg.setTravelTime( walkTime );
+		final Route walkRoute = RouteUtils.createGenericRouteImpl( null , null );
+		walkRoute.setTravelTime( walkTime );
+		leg.setRoute( walkRoute );
+		return Collections.singletonList( leg );
+	}
+
+	private double getTransferTime( final Footpaths.Footpath footpath ) {
+		return footpath.getWalkDistance() / config.getBeelineWalkSpeed() + config.getAdditionalTransferTime();
+	}
+
+	private double getWalkTime( final Coord from , final Coord to ) {
+		return CoordUtils.calcEuclideanDistance( from , to ) / config.getBeelineWalkSpeed();
+	}
+
+	public static class Journey {
+		private final double departureTime, arrivalTime;
+		private final List<Leg> legs;
+
+		public Journey( final double departureTime, final double arrivalTime, final List<Leg> legs ) {
+			this.departureTime = departureTime;
+			this.arrivalTime = arrivalTime;
+			this.legs = legs;
+		}
+
+		public double getDepartureTime() {
+			return departureTime;
+		}
+
+		public double getArrivalTime() {
+			return arrivalTime;
+		}
+
+		public List<Leg> getLegs() {
+			return legs;
+		}
+	}
+
+	/**
+	 * Per thread scratch data. Values are only valid if their stamp is the one of the current scan,
+	 * which allows to reset the state in constant time.
+	 */
+	private static class QueryState {
+		private int currentScan = 0;
+
+		private final int[] stopStamps;
+		private final double[] stopArrivalTimes;
+		// journey pointers: a stop is either reached by a trip (enter and exit connection),
+		// by a footpath (origin stop of the footpath), or is an access stop (none)
+		private final int[] stopEnterConnections;
+		private final int[] stopExitConnections;
+		private final int[] stopFootpathOrigins;
+
+		private final int[] tripStamps;
+		private final int[] tripEnterConnections;
+
+		private final double[] egressTimes;
+
+		private final TIntArrayList accessStops = new TIntArrayList();
+		private final TDoubleArrayList accessTimes = new TDoubleArrayList();
+		private final TIntArrayList egressStops = new TIntArrayList();
+
+		private final TIntArrayList enterConnectionsBuffer = new TIntArrayList();
+		private final TIntArrayList exitConnectionsBuffer = new TIntArrayList();
+		private final TIntArrayList walkDestinationsBuffer = new TIntArrayList();
+
+		private QueryState( final int nStops , final int nTrips ) {
+			this.stopStamps = new int[ nStops ];
+			this.stopArrivalTimes = new double[ nStops ];
+			this.stopEnterConnections = new int[ nStops ];
+			this.stopExitConnections = new int[ nStops ];
+			this.stopFootpathOrigins = new int[ nStops ];
+
+			this.tripStamps = new int[ nTrips ];
+			this.tripEnterConnections = new int[ nTrips ];
+
+			this.egressTimes = new double[ nStops ];
+			Arrays.fill( egressTimes , Double.POSITIVE_INFINITY );
+		}
+
+		private void reset() {
+			currentScan++;
+			if ( currentScan == Integer.MAX_VALUE ) {
+				// stamps would overflow: really reset
+				Arrays.fill( stopStamps , 0 );
+				Arrays.fill( tripStamps , 0 );
+				currentScan = 1;
+			}
+		}
+
+		private double getArrivalTime( final int stop ) {
+			return stopStamps[ stop ] == currentScan ? stopArrivalTimes[ stop ] : Double.POSITIVE_INFINITY;
+		}
+
+		private boolean isReachedByTransit( final int stop ) {
+			return stopStamps[ stop ] == currentScan &&
+					( stopExitConnections[ stop ] != NONE || stopFootpathOrigins[ stop ] != NONE );
+		}
+
+		private void setAccess( final int stop , final double arrival ) {
+			setStop( stop , arrival , NONE , NONE , NONE );
+		}
+
+		private void setReachedByTrip( final int stop , final double arrival , final int enterConnection , final int exitConnection ) {
+			setStop( stop , arrival , enterConnection , exitConnection , NONE );
+		}
+
+		private void setReachedByFootpath( final int stop , final double arrival , final int footpathOrigin ) {
+			setStop( stop , arrival , NONE , NONE , footpathOrigin );
+		}
+
+		private void setStop(
+				final int stop,
+				final double arrival,
+				final int enterConnection,
+				final int exitConnection,
+				final int footpathOrigin ) {
+			stopStamps[ stop ] = currentScan;
+			stopArrivalTimes[ stop ] = arrival;
+			stopEnterConnections[ stop ] = enterConnection;
+			stopExitConnections[ stop ] = exitConnection;
+			stopFootpathOrigins[ stop ] = footpathOrigin;
+		}
+
+		private int getTripEnterConnection( final int trip ) {
+			return tripStamps[ trip ] == currentScan ? tripEnterConnections[ trip ] : NONE;
+		}
+
+		private void setTripEnterConnection( final int trip , final int connection ) {
+			tripStamps[ trip ] = currentScan;
+			tripEnterConnections[ trip ] = connection;
+		}
+
+		private void clearEgressTimes() {
+			for ( int i = 0; i < egressStops.size(); i++ ) {
+				egressTimes[ egressStops.get( i ) ] = Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.router.connectionscanalgorithm;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+/**
+ * Allows to choose the transit router implementation from the config file,
+ * when the {@link ConnectionScanTransitRouterModule} is installed.
+ *
+ * @author thibautd
+ */
+public class ConnectionScanConfigGroup extends ReflectiveConfigGroup {
+	public static final String GROUP_NAME = "connectionScan";
+
+	public enum TransitRouterType { standard, aStarLandmarks, connectionScan; }
+
+	private TransitRouterType transitRouterType = TransitRouterType.standard;
+	private String cacheFile = null;
+
+	public ConnectionScanConfigGroup( ) {
+		super( GROUP_NAME );
+	}
+
+	@StringGetter( "transitRouterType" )
+	public TransitRouterType getTransitRouterType() {
+		return transitRouterType;
+	}
+
+	@StringSetter( "transitRouterType" )
+	public void setTransitRouterType( final TransitRouterType transitRouterType ) {
+		this.transitRouterType = transitRouterType;
+	}
+
+	/**
+	 * @return the file in which preprocessed connection scan data is cached between runs, or null for no caching.
+	 */
+	@StringGetter( "cacheFile" )
+	public String getCacheFile() {
+		return cacheFile;
+	}
+
+	@StringSetter( "cacheFile" )
+	public void setCacheFile( final String cacheFile ) {
+		this.cacheFile = cacheFile;
+	}
+}
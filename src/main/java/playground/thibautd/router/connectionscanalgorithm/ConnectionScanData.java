@@ -18,10 +18,10 @@
  * *********************************************************************** */
 package playground.thibautd.router.connectionscanalgorithm;
 
-import org.matsim.api.core.v01.Id;
 import org.matsim.contrib.socnetsim.utils.QuadTreeRebuilder;
 import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.misc.Time;
 import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
@@ -29,10 +29,7 @@ import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * @author thibautd
@@ -41,11 +38,20 @@ public class ConnectionScanData {
 	private final ContigousConnections connections;
 	private final Footpaths footpaths;
 	private final StopFacilityIndexer indexer;
-
-	public ConnectionScanData(ContigousConnections connections, Footpaths footpaths, StopFacilityIndexer indexer) {
+	private final TripIndexer trips;
+	private final QuadTree<TransitStopFacility> stopsQuadTree;
+
+	public ConnectionScanData(
+			final ContigousConnections connections,
+			final Footpaths footpaths,
+			final StopFacilityIndexer indexer,
+			final TripIndexer trips,
+			final QuadTree<TransitStopFacility> stopsQuadTree ) {
 		this.connections = connections;
 		this.footpaths = footpaths;
 		this.indexer = indexer;
+		this.trips = trips;
+		this.stopsQuadTree = stopsQuadTree;
 	}
 
 	public ContigousConnections getConnections() {
@@ -56,51 +62,70 @@ public class ConnectionScanData {
 		return footpaths;
 	}
 
+	public StopFacilityIndexer getStopFacilityIndexer() {
+		return indexer;
+	}
+
+	public TripIndexer getTrips() {
+		return trips;
+	}
+
+	public QuadTree<TransitStopFacility> getStopsQuadTree() {
+		return stopsQuadTree;
+	}
+
 	public static ConnectionScanData createData(
 			final TransitSchedule schedule,
 			final double maxBeelineWalkConnectionDistance ) {
 		final StopFacilityIndexer stopNumericalIds = new StopFacilityIndexer( schedule );
+		final TripIndexer trips = new TripIndexer( countTrips( schedule ) );
 		final ContigousConnections connections =
 				createConnections(
 						stopNumericalIds,
+						trips,
 						schedule);
+		final QuadTree<TransitStopFacility> quadTree = createQuadTree( schedule );
 		final Footpaths footpaths =
 				createFootpaths(
 						stopNumericalIds,
+						quadTree,
 						schedule,
 						maxBeelineWalkConnectionDistance );
 
-		return new ConnectionScanData( connections , footpaths, stopNumericalIds);
+		return new ConnectionScanData( connections , footpaths, stopNumericalIds, trips, quadTree );
 	}
 
-	private static Footpaths createFootpaths(
-			final StopFacilityIndexer stopNumericalIds,
-			final TransitSchedule schedule,
-			final double maxBeelineWalkConnectionDistance) {
-		final QuadTreeRebuilder<Id<TransitStopFacility>> quadTreeRebuilder = new QuadTreeRebuilder<>();
+	static QuadTree<TransitStopFacility> createQuadTree( final TransitSchedule schedule ) {
+		final QuadTreeRebuilder<TransitStopFacility> quadTreeRebuilder = new QuadTreeRebuilder<>();
 
 		for ( TransitStopFacility s : schedule.getFacilities().values() ) {
-			quadTreeRebuilder.put( s.getCoord() , s.getId() );
+			quadTreeRebuilder.put( s.getCoord() , s );
 		}
 
-		final QuadTree<Id<TransitStopFacility>> quadTree = quadTreeRebuilder.getQuadTree();
+		return quadTreeRebuilder.getQuadTree();
+	}
 
+	private static Footpaths createFootpaths(
+			final StopFacilityIndexer stopNumericalIds,
+			final QuadTree<TransitStopFacility> quadTree,
+			final TransitSchedule schedule,
+			final double maxBeelineWalkConnectionDistance) {
 		final Footpaths footpaths = new Footpaths();
 		for ( TransitStopFacility s : schedule.getFacilities().values() ) {
-			final Collection<Id<TransitStopFacility>> close = quadTree.getDisk( s.getCoord().getX() , s.getCoord().getY() , maxBeelineWalkConnectionDistance );
+			final Collection<TransitStopFacility> close = quadTree.getDisk( s.getCoord().getX() , s.getCoord().getY() , maxBeelineWalkConnectionDistance );
 
 			if ( !close.isEmpty() ) {
 				final int id = stopNumericalIds.getIndex( s.getId() );
-				for ( Id<TransitStopFacility> other : close ) {
+				for ( TransitStopFacility other : close ) {
 					final double distance =
 							CoordUtils.calcEuclideanDistance(
-									schedule.getFacilities().get( s.getId() ).getCoord(),
-									schedule.getFacilities().get( other ).getCoord() );
+									s.getCoord(),
+									other.getCoord() );
 					footpaths.addFootpath(
 							id,
 							new Footpaths.Footpath(
 									id,
-									stopNumericalIds.getIndex( other ),
+									stopNumericalIds.getIndex( other.getId() ),
 									distance ));
 				}
 			}
@@ -108,52 +133,119 @@ public class ConnectionScanData {
 		return footpaths;
 	}
 
+	private static int countTrips( final TransitSchedule schedule ) {
+		int count = 0;
+		for ( TransitLine line : schedule.getTransitLines().values() ) {
+			for ( TransitRoute route : line.getRoutes().values() ) {
+				count += route.getDepartures().size();
+			}
+		}
+		return count;
+	}
+
+	private static int countConnections( final TransitSchedule schedule ) {
+		int count = 0;
+		for ( TransitLine line : schedule.getTransitLines().values() ) {
+			for ( TransitRoute route : line.getRoutes().values() ) {
+				count += route.getDepartures().size() * Math.max( 0 , route.getStops().size() - 1 );
+			}
+		}
+		return count;
+	}
+
 	private static ContigousConnections createConnections(
 			final StopFacilityIndexer stopNumericalIds,
+			final TripIndexer trips,
 			final TransitSchedule schedule) {
-		final List<Connection> connections = new ArrayList<>();
-		int tripId = 0;
+		// fill primitive arrays rather than a list of Connection objects, to keep the heap footprint low
+		final int nConnections = countConnections( schedule );
+		final int[] origins = new int[ nConnections ];
+		final int[] destinations = new int[ nConnections ];
+		final int[] tripIds = new int[ nConnections ];
+		final double[] departureTimes = new double[ nConnections ];
+		final double[] arrivalTimes = new double[ nConnections ];
+
+		int c = 0;
 		for ( TransitLine line : schedule.getTransitLines().values() ) {
 			for ( TransitRoute route : line.getRoutes().values() ) {
 				for ( Departure departure : route.getDepartures().values() ) {
+					final int tripId = trips.addTrip( line.getId() , route.getId() );
 					// create connection
 					final double lineDeparture = departure.getDepartureTime();
-					double departureTime = departure.getDepartureTime();
+					double departureTime = Time.UNDEFINED_TIME;
 					TransitRouteStop lastStop = null;
 					for ( TransitRouteStop stop : route.getStops() ) {
 						if ( lastStop != null ) {
-							connections.add(
-									new Connection(
-											tripId,
-											departureTime,
-											stop.getArrivalOffset() + lineDeparture,
-											lastStop.getStopFacility().getId(),
-											stop.getStopFacility().getId() ) );
-							departureTime = lineDeparture + stop.getDepartureOffset();
+							origins[ c ] = stopNumericalIds.getIndex( lastStop.getStopFacility().getId() );
+							destinations[ c ] = stopNumericalIds.getIndex( stop.getStopFacility().getId() );
+							tripIds[ c ] = tripId;
+							departureTimes[ c ] = departureTime;
+							arrivalTimes[ c ] = lineDeparture + getArrivalOffset( stop );
+							c++;
 						}
+						departureTime = lineDeparture + getDepartureOffset( stop );
 						lastStop = stop;
 					}
-					tripId++;
 				}
 			}
 		}
 
-		Collections.sort( connections );
+		// stable sort: connections of a trip departing at the same time (zero dwell time) stay in trip order
+		final int[] order = sortByDepartureTime( departureTimes );
 
-		final ContigousConnections container = new ContigousConnections( connections.size() );
+		final ContigousConnections container = new ContigousConnections( nConnections );
 
-		int i=0;
-		for ( Connection c : connections ) {
+		for ( int i = 0; i < nConnections; i++ ) {
+			final int connection = order[ i ];
 			container.setConnection(
-					i++,
-					stopNumericalIds.getIndex( c.getDepartureStation() ),
-					stopNumericalIds.getIndex( c.getArrivalStation() ),
-					tripId,
-					c.getDepartureTime(),
-					c.getArrivalTime() );
+					i,
+					origins[ connection ],
+					destinations[ connection ],
+					tripIds[ connection ],
+					departureTimes[ connection ],
+					arrivalTimes[ connection ] );
 		}
 
 		return container;
 	}
-}
 
+	/**
+	 * bottom-up merge sort of indices, which is stable, contrary to primitive sorts of the JDK
+	 */
+	private static int[] sortByDepartureTime( final double[] departureTimes ) {
+		int[] order = new int[ departureTimes.length ];
+		for ( int i = 0; i < order.length; i++ ) order[ i ] = i;
+
+		int[] buffer = new int[ order.length ];
+		for ( int width = 1; width < order.length; width *= 2 ) {
+			for ( int low = 0; low < order.length; low += 2 * width ) {
+				final int middle = Math.min( low + width , order.length );
+				final int high = Math.min( low + 2 * width , order.length );
+
+				int left = low;
+				int right = middle;
+				for ( int k = low; k < high; k++ ) {
+					if ( left < middle && ( right >= high || departureTimes[ order[ left ] ] <= departureTimes[ order[ right ] ] ) ) {
+						buffer[ k ] = order[ left++ ];
+					}
+					else {
+						buffer[ k ] = order[ right++ ];
+					}
+				}
+			}
+			final int[] tmp = order;
+			order = buffer;
+			buffer = tmp;
+		}
+
+		return order;
+	}
+
+	private static double getArrivalOffset( final TransitRouteStop stop ) {
+		return stop.getArrivalOffset() != Time.UNDEFINED_TIME ? stop.getArrivalOffset() : stop.getDepartureOffset();
+	}
+
+	private static double getDepartureOffset( final TransitRouteStop stop ) {
+		return stop.getDepartureOffset() != Time.UNDEFINED_TIME ? stop.getDepartureOffset() : stop.getArrivalOffset();
+	}
+}
@@ -0,0 +1,325 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.router.connectionscanalgorithm;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary cache for {@link ConnectionScanData}, to avoid the costly preprocessing of the schedule at each start.
+ * <br>
+ * The file contains a header (format version, checksum of the schedule file, footpath distance, byte order),
+ * the stop and trip id mappings, the footpaths, and finally a raw copy of the {@link ContigousConnections} buffer,
+ * which is memory mapped when reading. The cache is considered invalid (and overwritten) if any element of the header
+ * does not match, or if the file is truncated or inconsistent with the sizes in its header.
+ * <br>
+ * As the file is mapped as a whole, its size is limited to 2GB.
+ * The file is written next to the cache and then renamed, so that processes reading (or having mapped)
+ * the previous version never see a partially written file.
+ *
+ * @author thibautd
+ */
+public class ConnectionScanDataCache {
+	private static final Logger log = Logger.getLogger( ConnectionScanDataCache.class );
+
+	// "CSAD"
+	private static final int MAGIC_NUMBER = 0x43534144;
+	// increment each time the format (or the layout of ContigousConnections) changes
+	private static final int FORMAT_VERSION = 2;
+
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 8;
+
+	public static ConnectionScanData loadOrCreate(
+			final String cacheFile,
+			final URL scheduleFile,
+			final TransitSchedule schedule,
+			final double maxBeelineWalkConnectionDistance ) {
+		final long checksum = calcChecksum( scheduleFile );
+
+		if ( new File( cacheFile ).exists() ) {
+			final ConnectionScanData data = read( cacheFile , checksum , maxBeelineWalkConnectionDistance , schedule );
+			if ( data != null ) return data;
+		}
+
+		log.info( "create connection scan data" );
+		final ConnectionScanData data = ConnectionScanData.createData( schedule , maxBeelineWalkConnectionDistance );
+		write( cacheFile , checksum , maxBeelineWalkConnectionDistance , data );
+		return data;
+	}
+
+	public static long calcChecksum( final URL file ) {
+		final CRC32 crc = new CRC32();
+		final byte[] buffer = new byte[ 64 * 1024 ];
+		try ( InputStream stream = file.openStream() ) {
+			for ( int n = stream.read( buffer ); n >= 0; n = stream.read( buffer ) ) {
+				crc.update( buffer , 0 , n );
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return crc.getValue();
+	}
+
+	public static void write(
+			final String cacheFile,
+			final long scheduleChecksum,
+			final double maxBeelineWalkConnectionDistance,
+			final ConnectionScanData data ) {
+		log.info( "write connection scan data to "+cacheFile );
+		final Path target = Paths.get( cacheFile ).toAbsolutePath();
+		Path tmp = null;
+		try {
+			// same directory, so that the move is a simple rename
+			tmp = Files.createTempFile( target.getParent() , target.getFileName().toString() , ".tmp" );
+			writeData( tmp , scheduleChecksum , maxBeelineWalkConnectionDistance , data );
+			Files.move( tmp , target , StandardCopyOption.ATOMIC_MOVE , StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( IOException e ) {
+			deleteQuietly( tmp );
+			throw new UncheckedIOException( e );
+		}
+		catch ( RuntimeException e ) {
+			deleteQuietly( tmp );
+			throw e;
+		}
+	}
+
+	private static void writeData(
+			final Path path,
+			final long scheduleChecksum,
+			final double maxBeelineWalkConnectionDistance,
+			final ConnectionScanData data ) throws IOException {
+		final StopFacilityIndexer stops = data.getStopFacilityIndexer();
+		final TripIndexer trips = data.getTrips();
+		final ContigousConnections connections = data.getConnections();
+
+		try ( RandomAccessFile file = new RandomAccessFile( path.toFile() , "rw" ) ) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream metadata = new DataOutputStream( bytes );
+			for ( int i = 0; i < stops.size(); i++ ) {
+				writeString( metadata , stops.getId( i ).toString() );
+			}
+			for ( int i = 0; i < trips.size(); i++ ) {
+				writeString( metadata , trips.getLineId( i ).toString() );
+				writeString( metadata , trips.getRouteId( i ).toString() );
+			}
+			int nFootpaths = 0;
+			for ( int i = 0; i < stops.size(); i++ ) {
+				final List<Footpaths.Footpath> footpaths = data.getFootpaths().getFootpaths( i );
+				if ( footpaths == null ) continue;
+				for ( Footpaths.Footpath footpath : footpaths ) {
+					metadata.writeInt( footpath.getOriginStation() );
+					metadata.writeInt( footpath.getDestinationStation() );
+					metadata.writeDouble( footpath.getWalkDistance() );
+					nFootpaths++;
+				}
+			}
+			metadata.flush();
+
+			// align connections on 8 bytes
+			final long connectionsOffset = ( ( HEADER_SIZE + bytes.size() + 7 ) / 8 ) * 8;
+
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.BIG_ENDIAN );
+			header.putInt( MAGIC_NUMBER );
+			header.putInt( FORMAT_VERSION );
+			header.putInt( connections.getByteOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1 );
+			header.putLong( scheduleChecksum );
+			header.putDouble( maxBeelineWalkConnectionDistance );
+			header.putInt( stops.size() );
+			header.putInt( trips.size() );
+			header.putInt( nFootpaths );
+			header.putInt( connections.size() );
+			header.putLong( connectionsOffset );
+			header.flip();
+
+			final FileChannel channel = file.getChannel();
+			writeFully( channel , header );
+			writeFully( channel , ByteBuffer.wrap( bytes.toByteArray() ) );
+			channel.position( connectionsOffset );
+			writeFully( channel , connections.getRawData() );
+		}
+	}
+
+	private static void deleteQuietly( final Path tmp ) {
+		if ( tmp == null ) return;
+		try {
+			Files.deleteIfExists( tmp );
+		}
+		catch ( IOException e ) {
+			log.warn( "could not delete temporary file "+tmp , e );
+		}
+	}
+
+	/**
+	 * @return the data, or null if the cache is not valid for the given parameters
+	 */
+	public static ConnectionScanData read(
+			final String cacheFile,
+			final long scheduleChecksum,
+			final double maxBeelineWalkConnectionDistance,
+			final TransitSchedule schedule ) {
+		try ( RandomAccessFile file = new RandomAccessFile( cacheFile , "r" ) ) {
+			final FileChannel channel = file.getChannel();
+			if ( channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE ) {
+				log.warn( "invalid size for connection scan cache "+cacheFile+": "+channel.size() );
+				return null;
+			}
+
+			// the mapping remains valid after the channel is closed
+			final MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY , 0 , channel.size() );
+			mapped.order( ByteOrder.BIG_ENDIAN );
+
+			if ( mapped.getInt() != MAGIC_NUMBER ) {
+				log.warn( cacheFile+" is not a connection scan cache" );
+				return null;
+			}
+			final int version = mapped.getInt();
+			if ( version != FORMAT_VERSION ) {
+				log.info( "connection scan cache "+cacheFile+" has version "+version+", expected "+FORMAT_VERSION );
+				return null;
+			}
+			final ByteOrder order = mapped.getInt() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			if ( order != ByteOrder.nativeOrder() ) {
+				log.info( "connection scan cache "+cacheFile+" was written on a platform with a different byte order" );
+				return null;
+			}
+			if ( mapped.getLong() != scheduleChecksum ) {
+				log.info( "connection scan cache "+cacheFile+" was created for another schedule file" );
+				return null;
+			}
+			if ( mapped.getDouble() != maxBeelineWalkConnectionDistance ) {
+				log.info( "connection scan cache "+cacheFile+" was created for another footpath distance" );
+				return null;
+			}
+
+			final int nStops = mapped.getInt();
+			final int nTrips = mapped.getInt();
+			final int nFootpaths = mapped.getInt();
+			final int nConnections = mapped.getInt();
+			final long connectionsOffset = mapped.getLong();
+
+			// each string takes at least its length, each footpath two ints and a double
+			final long minMetadataSize = 4L * nStops + 8L * nTrips + 16L * nFootpaths;
+			if ( nStops < 0 || nTrips < 0 || nFootpaths < 0 || nConnections < 0 ||
+					connectionsOffset < HEADER_SIZE + minMetadataSize ||
+					connectionsOffset + (long) nConnections * ContigousConnections.LENGTH > channel.size() ) {
+				log.warn( "connection scan cache "+cacheFile+" is truncated or inconsistent with its header" );
+				return null;
+			}
+			// metadata must not overlap connections
+			mapped.limit( (int) connectionsOffset );
+
+			log.info( "read connection scan data from "+cacheFile );
+			final Id<TransitStopFacility>[] stopIds = new Id[ nStops ];
+			for ( int i = 0; i < nStops; i++ ) {
+				final String id = readString( mapped );
+				if ( id == null ) return logCorrupted( cacheFile );
+				stopIds[ i ] = Id.create( id , TransitStopFacility.class );
+			}
+
+			final Id<TransitLine>[] lineIds = new Id[ nTrips ];
+			final Id<TransitRoute>[] routeIds = new Id[ nTrips ];
+			for ( int i = 0; i < nTrips; i++ ) {
+				final String lineId = readString( mapped );
+				final String routeId = readString( mapped );
+				if ( lineId == null || routeId == null ) return logCorrupted( cacheFile );
+				lineIds[ i ] = Id.create( lineId , TransitLine.class );
+				routeIds[ i ] = Id.create( routeId , TransitRoute.class );
+			}
+
+			if ( mapped.remaining() < 16L * nFootpaths ) return logCorrupted( cacheFile );
+			final Footpaths footpaths = new Footpaths();
+			for ( int i = 0; i < nFootpaths; i++ ) {
+				final int origin = mapped.getInt();
+				final int destination = mapped.getInt();
+				final double distance = mapped.getDouble();
+				if ( origin < 0 || origin >= nStops || destination < 0 || destination >= nStops ) {
+					return logCorrupted( cacheFile );
+				}
+				footpaths.addFootpath( origin , new Footpaths.Footpath( origin , destination , distance ) );
+			}
+
+			mapped.limit( (int) connectionsOffset + nConnections * ContigousConnections.LENGTH );
+			mapped.position( (int) connectionsOffset );
+			final ByteBuffer connections = mapped.slice().order( ByteOrder.nativeOrder() );
+
+			return new ConnectionScanData(
+					new ContigousConnections( connections ),
+					footpaths,
+					new StopFacilityIndexer( stopIds ),
+					new TripIndexer( lineIds , routeIds ),
+					ConnectionScanData.createQuadTree( schedule ) );
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static ConnectionScanData logCorrupted( final String cacheFile ) {
+		log.warn( "connection scan cache "+cacheFile+" is corrupted" );
+		return null;
+	}
+
+	private static void writeFully( final FileChannel channel , final ByteBuffer buffer ) throws IOException {
+		while ( buffer.hasRemaining() ) channel.write( buffer );
+	}
+
+	private static void writeString( final DataOutputStream stream , final String string ) throws IOException {
+		final byte[] bytes = string.getBytes( StandardCharsets.UTF_8 );
+		stream.writeInt( bytes.length );
+		stream.write( bytes );
+	}
+
+	/**
+	 * @return null if the buffer does not contain a valid string at its position
+	 */
+	private static String readString( final ByteBuffer buffer ) {
+		if ( buffer.remaining() < 4 ) return null;
+		final int length = buffer.getInt();
+		if ( length < 0 || length > buffer.remaining() ) return null;
+		final byte[] bytes = new byte[ length ];
+		buffer.get( bytes );
+		return new String( bytes , StandardCharsets.UTF_8 );
+	}
+}
@@ -0,0 +1,61 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.router.connectionscanalgorithm;
+
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.facilities.Facility;
+import org.matsim.pt.router.TransitRouter;
+import org.matsim.pt.router.TransitRouterConfig;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+
+import java.util.List;
+
+/**
+ * {@link TransitRouter} returning the earliest arrival journey, as computed by the {@link ConnectionScanAlgorithm}.
+ * Contrary to the standard transit router, the criterion is the arrival time, not the disutility of travel.
+ *
+ * @author thibautd
+ */
+public class ConnectionScanTransitRouter implements TransitRouter {
+	private final ConnectionScanAlgorithm algorithm;
+
+	public ConnectionScanTransitRouter(
+			final ConnectionScanData data,
+			final TransitSchedule schedule,
+			final TransitRouterConfig config ) {
+		this( new ConnectionScanAlgorithm( data , schedule , config ) );
+	}
+
+	public ConnectionScanTransitRouter( final ConnectionScanAlgorithm algorithm ) {
+		this.algorithm = algorithm;
+	}
+
+	@Override
+	public List<Leg> calcRoute(
+			final Facility<?> fromFacility,
+			final Facility<?> toFacility,
+			final double departureTime,
+			final Person person ) {
+		return algorithm.calcEarliestArrivalRoute(
+				fromFacility.getCoord(),
+				toFacility.getCoord(),
+				departureTime );
+	}
+}
@@ -0,0 +1,183 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.router.connectionscanalgorithm;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.pt.router.TransitRouter;
+import org.matsim.pt.router.TransitRouterConfig;
+import playground.thibautd.router.transitastarlandmarks.TransitRouterAStar;
+import playground.thibautd.router.transitastarlandmarks.TransitRouterAStarConfigGroup;
+
+/**
+ * Binds the {@link TransitRouter} implementation defined in the {@link ConnectionScanConfigGroup}.
+ * Should be added as an overriding module, in order to replace the default binding.
+ *
+ * @author thibautd
+ */
+public class ConnectionScanTransitRouterModule extends AbstractModule {
+	@Override
+	public void install() {
+		final ConnectionScanConfigGroup group =
+				ConfigUtils.addOrGetModule(
+						getConfig(),
+						ConnectionScanConfigGroup.GROUP_NAME,
+						ConnectionScanConfigGroup.class );
+
+		switch ( group.getTransitRouterType() ) {
+			case standard:
+				// keep default binding
+				break;
+			case aStarLandmarks:
+				bind( TransitRouterAStar.PreprocessedData.class ).toProvider( AStarPreprocessedDataProvider.class ).in( Scopes.SINGLETON );
+				bind( TransitRouter.class ).toProvider( TransitRouterAStarProvider.class );
+				break;
+			case connectionScan:
+				bind( ConnectionScanData.class ).toProvider( ConnectionScanDataProvider.class ).in( Scopes.SINGLETON );
+				bind( ConnectionScanAlgorithm.class ).toProvider( ConnectionScanAlgorithmProvider.class ).in( Scopes.SINGLETON );
+				bind( TransitRouter.class ).toProvider( ConnectionScanTransitRouterProvider.class );
+				break;
+			default:
+				throw new RuntimeException( "unknown transit router type "+group.getTransitRouterType() );
+		}
+	}
+
+	private static class AStarPreprocessedDataProvider implements Provider<TransitRouterAStar.PreprocessedData> {
+		private final Scenario scenario;
+
+		@Inject
+		public AStarPreprocessedDataProvider( final Scenario scenario ) {
+			this.scenario = scenario;
+		}
+
+		@Override
+		public TransitRouterAStar.PreprocessedData get() {
+			return new TransitRouterAStar.PreprocessedData(
+					getAStarConfig( scenario.getConfig() ),
+					new TransitRouterConfig( scenario.getConfig() ),
+					scenario.getTransitSchedule() );
+		}
+	}
+
+	private static class TransitRouterAStarProvider implements Provider<TransitRouter> {
+		private final Scenario scenario;
+		private final TransitRouterAStar.PreprocessedData data;
+
+		@Inject
+		public TransitRouterAStarProvider(
+				final Scenario scenario,
+				final TransitRouterAStar.PreprocessedData data ) {
+			this.scenario = scenario;
+			this.data = data;
+		}
+
+		@Override
+		public TransitRouter get() {
+			// the transit network and landmarks are shared, as the connection scan data
+			return new TransitRouterAStar(
+					getAStarConfig( scenario.getConfig() ),
+					new TransitRouterConfig( scenario.getConfig() ),
+					scenario.getTransitSchedule(),
+					data );
+		}
+	}
+
+	private static TransitRouterAStarConfigGroup getAStarConfig( final Config config ) {
+		return ConfigUtils.addOrGetModule(
+				config,
+				TransitRouterAStarConfigGroup.GROUP_NAME,
+				TransitRouterAStarConfigGroup.class );
+	}
+
+	private static class ConnectionScanDataProvider implements Provider<ConnectionScanData> {
+		private final Scenario scenario;
+
+		@Inject
+		public ConnectionScanDataProvider( final Scenario scenario ) {
+			this.scenario = scenario;
+		}
+
+		@Override
+		public ConnectionScanData get() {
+			final Config config = scenario.getConfig();
+			final double maxWalkDistance = new TransitRouterConfig( config ).getBeelineWalkConnectionDistance();
+			final String cacheFile =
+					ConfigUtils.addOrGetModule(
+							config,
+							ConnectionScanConfigGroup.GROUP_NAME,
+							ConnectionScanConfigGroup.class ).getCacheFile();
+
+			if ( cacheFile == null ) {
+				return ConnectionScanData.createData(
+						scenario.getTransitSchedule(),
+						maxWalkDistance );
+			}
+
+			return ConnectionScanDataCache.loadOrCreate(
+					cacheFile,
+					ConfigGroup.getInputFileURL(
+							config.getContext(),
+							config.transit().getTransitScheduleFile() ),
+					scenario.getTransitSchedule(),
+					maxWalkDistance );
+		}
+	}
+
+	private static class ConnectionScanAlgorithmProvider implements Provider<ConnectionScanAlgorithm> {
+		private final Scenario scenario;
+		private final ConnectionScanData data;
+
+		@Inject
+		public ConnectionScanAlgorithmProvider(
+				final Scenario scenario,
+				final ConnectionScanData data ) {
+			this.scenario = scenario;
+			this.data = data;
+		}
+
+		@Override
+		public ConnectionScanAlgorithm get() {
+			return new ConnectionScanAlgorithm(
+					data,
+					scenario.getTransitSchedule(),
+					new TransitRouterConfig( scenario.getConfig() ) );
+		}
+	}
+
+	private static class ConnectionScanTransitRouterProvider implements Provider<TransitRouter> {
+		private final ConnectionScanAlgorithm algorithm;
+
+		@Inject
+		public ConnectionScanTransitRouterProvider( final ConnectionScanAlgorithm algorithm ) {
+			this.algorithm = algorithm;
+		}
+
+		@Override
+		public TransitRouter get() {
+			// the algorithm is thread safe: all routers share it, and thus the timetable data
+			return new ConnectionScanTransitRouter( algorithm );
+		}
+	}
+}
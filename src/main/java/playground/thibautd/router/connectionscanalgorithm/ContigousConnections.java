@@ -28,16 +28,21 @@ public class ContigousConnections {
 	// idea frombhttp://stackoverflow.com/a/9632711
 	// plan: first implement ByteBuffer version, then extract interface, implement naive version, and check comparative perf
 
+	// The buffer only contains static data: per query state is kept by the algorithm,
+	// so that one instance can be shared by several threads.
+	// doubles come first and the length is padded, so that values are aligned and two connections fit in a cache line.
+
 	// OFFSETS
 	private static final int ARRIVALTIME_OFFSET = 0;
-	private static final int ORIGINID_OFFSET = ARRIVALTIME_OFFSET + 8;
+	private static final int DEPARTURETIME_OFFSET = ARRIVALTIME_OFFSET + 8;
+	private static final int ORIGINID_OFFSET = DEPARTURETIME_OFFSET + 8;
 	private static final int DESTINATIONID_OFFSET = ORIGINID_OFFSET + 4;
 	private static final int TRIPID_OFFSET = DESTINATIONID_OFFSET + 4;
-	private static final int DEPARTURETIME_OFFSET = TRIPID_OFFSET + 4;
-	private static final int EARLIESTARRIVAL_OFFSET = DEPARTURETIME_OFFSET + 8;
-	private static final int LENGTH = EARLIESTARRIVAL_OFFSET + 8;
+	private static final int PADDING = 4;
+	static final int LENGTH = TRIPID_OFFSET + 4 + PADDING;
 
 	private final ByteBuffer buffer;
+	private final int nConnections;
 
 	public ContigousConnections(final int nConnections) {
 		this( ByteBuffer.allocateDirect( nConnections * LENGTH ).order( ByteOrder.nativeOrder() ) );
@@ -45,6 +50,43 @@ public class ContigousConnections {
 
 	ContigousConnections( final ByteBuffer buffer ) {
 		this.buffer = buffer;
+		this.nConnections = buffer.capacity() / LENGTH;
+	}
+
+	public int size() {
+		return nConnections;
+	}
+
+	/**
+	 * @return a view on the raw connection data, for serialization. The byte order is not kept.
+	 */
+	ByteBuffer getRawData() {
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.clear();
+		return duplicate;
+	}
+
+	ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	/**
+	 * Assumes connections are sorted by departure time.
+	 *
+	 * @return the index of the first connection departing at or after the given time,
+	 * or {@link #size()} if there is no such connection
+	 */
+	public int getFirstConnectionDepartingAfter( final double time ) {
+		int low = 0;
+		int high = nConnections;
+
+		while ( low < high ) {
+			final int middle = (low + high) >>> 1;
+			if ( getDepartureTime( middle ) < time ) low = middle + 1;
+			else high = middle;
+		}
+
+		return low;
 	}
 
 	private static int pointer( int index ) {
@@ -105,12 +147,4 @@ public class ContigousConnections {
 	public void setArrivalTime( final int connection , final double arrivalTime) {
 		buffer.putDouble( pointer( connection ) + ARRIVALTIME_OFFSET , arrivalTime );
 	}
-
-	public double getEarliestArrival( final int connection ) {
-		return buffer.getDouble( pointer( connection ) + EARLIESTARRIVAL_OFFSET );
-	}
-
-	public void setEarliestArrival( final int connection , final double arrivalTime) {
-		buffer.putDouble( pointer( connection ) + EARLIESTARRIVAL_OFFSET , arrivalTime );
-	}
 }
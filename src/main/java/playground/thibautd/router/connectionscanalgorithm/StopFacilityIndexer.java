@@ -17,18 +17,22 @@ public class StopFacilityIndexer {
 	final Id<TransitStopFacility>[] indexToId;
 
 	public StopFacilityIndexer(TransitSchedule schedule) {
+		this( sortedIds( schedule ) );
+	}
+
+	StopFacilityIndexer( final Id<TransitStopFacility>[] indexToId ) {
+		this.indexToId = indexToId;
+		for ( int i = 0; i < indexToId.length; i++ ) {
+			idToIndex.put( indexToId[ i ] , i );
+		}
+	}
+
+	private static Id<TransitStopFacility>[] sortedIds( final TransitSchedule schedule ) {
 		final Set<Id<TransitStopFacility>> set = new TreeSet<>();
 		for ( Id<TransitStopFacility> stop : schedule.getFacilities().keySet() ) {
 			set.add( stop );
 		}
-
-		int i = 0;
-		indexToId = new Id[ set.size() ];
-		for ( Id<TransitStopFacility> id : set ) {
-			idToIndex.put( id , i );
-			indexToId[ i ] = id;
-			i++;
-		}
+		return set.toArray( new Id[ set.size() ] );
 	}
 
 	public Id<TransitStopFacility> getId( int index ) {
@@ -38,4 +42,8 @@ public class StopFacilityIndexer {
 	public int getIndex( Id<TransitStopFacility> id ) {
 		return idToIndex.get( id );
 	}
+
+	public int size() {
+		return indexToId.length;
+	}
 }
@@ -19,51 +19,45 @@
 package playground.thibautd.router.connectionscanalgorithm;
 
 import org.matsim.api.core.v01.Id;
-import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
 
 /**
+ * Maps the numerical trip ids used in {@link ContigousConnections} to the transit line and route they belong to.
+ *
  * @author thibautd
  */
-public class Connection implements Comparable<Connection> {
-	private final int tripId;
-	private final double departureTime, arrivalTime;
-	private final Id<TransitStopFacility> departureStation, arrivalStation;
-
-	public Connection(
-			final int tripId,
-			final double departureTime,
-			final double arrivalTime,
-			final Id<TransitStopFacility> departureStation,
-			final Id<TransitStopFacility> arrivalStation) {
-		this.tripId = tripId;
-		this.departureTime = departureTime;
-		this.arrivalTime = arrivalTime;
-		this.departureStation = departureStation;
-		this.arrivalStation = arrivalStation;
-	}
-
-	public int getTripId() {
-		return tripId;
+public class TripIndexer {
+	final Id<TransitLine>[] lineIds;
+	final Id<TransitRoute>[] routeIds;
+	private int nTrips = 0;
+
+	public TripIndexer( final int capacity ) {
+		this.lineIds = new Id[ capacity ];
+		this.routeIds = new Id[ capacity ];
 	}
 
-	public double getDepartureTime() {
-		return departureTime;
+	TripIndexer( final Id<TransitLine>[] lineIds , final Id<TransitRoute>[] routeIds ) {
+		this.lineIds = lineIds;
+		this.routeIds = routeIds;
+		this.nTrips = lineIds.length;
 	}
 
-	public double getArrivalTime() {
-		return arrivalTime;
+	public int addTrip( final Id<TransitLine> line , final Id<TransitRoute> route ) {
+		lineIds[ nTrips ] = line;
+		routeIds[ nTrips ] = route;
+		return nTrips++;
 	}
 
-	public Id<TransitStopFacility> getDepartureStation() {
-		return departureStation;
+	public Id<TransitLine> getLineId( final int trip ) {
+		return lineIds[ trip ];
 	}
 
-	public Id<TransitStopFacility> getArrivalStation() {
-		return arrivalStation;
+	public Id<TransitRoute> getRouteId( final int trip ) {
+		return routeIds[ trip ];
 	}
 
-	@Override
-	public int compareTo(Connection o) {
-		return Double.compare( departureTime , o.departureTime );
+	public int size() {
+		return nTrips;
 	}
 }
@@ -18,8 +18,11 @@
  * *********************************************************************** */
 package playground.thibautd.router.transitastarlandmarks;
 
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
@@ -28,21 +31,28 @@ import org.matsim.core.router.StageActivityTypesImpl;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.misc.Counter;
+import org.matsim.core.utils.misc.Time;
 import org.matsim.pt.PtConstants;
 import org.matsim.pt.router.FakeFacility;
+import org.matsim.pt.router.TransitRouter;
 import org.matsim.pt.router.TransitRouterConfig;
 import org.matsim.pt.router.TransitRouterImpl;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import playground.ivt.utils.ConcurrentStopWatch;
+import playground.thibautd.router.connectionscanalgorithm.ConnectionScanData;
+import playground.thibautd.router.connectionscanalgorithm.ConnectionScanTransitRouter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Compares performance of transit routing with and without A Star.
+ * Compares performance of transit routing with and without A Star, and with the connection scan algorithm.
  * <br>
  * Improvement seems to depend on the transit schedule. For C. Dobler's full Switzerland (very heavyweight, lots of transfer links),
  * A Star performs worse. For P. Bösch full Switzerland (somehow much lighter), A Star is 25% faster.
@@ -68,38 +78,55 @@ import java.util.concurrent.TimeUnit;
  *     <li>overdo 1.25, 16 pie slice landmarks:  8% faster</li>
  * </ul>
  *
+ * <br>
+ * Latency percentiles are reported for each router, as well as the number of queries for which the travel time differs
+ * from the one of the classic router. Note that the connection scan router minimizes arrival time, while the other
+ * two minimize disutility: it is expected to sometimes be faster, but never slower.
+ * Travel times of A Star and connection scan are also compared query by query, and queries for which connection scan
+ * is slower than A Star are logged as errors.
+ *
  * @author thibautd
  */
 public class RunPerformanceComparison {
+	private static final Logger log = Logger.getLogger( RunPerformanceComparison.class );
 
 	private static final int N_TRIES = 1000;
-	private enum Algo { classic, AStar; }
+	private static final double TRAVEL_TIME_TOLERANCE = 1E-6;
+	private static final int MAX_LOGGED_MISMATCHES = 20;
+	private enum Algo { classic, AStar, connectionScan; }
 
 	public static void main( final String... args ) {
 		final Config config = ConfigUtils.loadConfig( args[ 0 ] );
 		final Scenario sc = ScenarioUtils.loadScenario( config );
 
-		final TransitRouterAStar testee = new TransitRouterAStar( config , sc.getTransitSchedule() );
-		final TransitRouterImpl reference = new TransitRouterImpl( new TransitRouterConfig( config ) , sc.getTransitSchedule() );
+		final TransitRouterConfig transitRouterConfig = new TransitRouterConfig( config );
+		final Map<Algo, TransitRouter> routers = new EnumMap<>( Algo.class );
+		routers.put( Algo.classic , new TransitRouterImpl( transitRouterConfig , sc.getTransitSchedule() ) );
+		routers.put( Algo.AStar , new TransitRouterAStar( config , sc.getTransitSchedule() ) );
+		routers.put(
+				Algo.connectionScan,
+				new ConnectionScanTransitRouter(
+						ConnectionScanData.createData(
+								sc.getTransitSchedule(),
+								transitRouterConfig.getBeelineWalkConnectionDistance() ),
+						sc.getTransitSchedule(),
+						transitRouterConfig ) );
 
-		final ConcurrentStopWatch<Algo> stopWatch = new ConcurrentStopWatch<>( Algo.class );
+		final Measurements measurements = new Measurements( routers );
 
 		if ( config.plans().getInputFile() == null ) {
-			measureForRandomODs( sc, testee, reference, stopWatch );
+			measureForRandomODs( sc, measurements );
 		}
 		else {
-			measureForPopulation( sc, testee, reference, stopWatch );
+			measureForPopulation( sc, measurements );
 		}
 
-		stopWatch.printStats( TimeUnit.MILLISECONDS );
-		stopWatch.printStats( TimeUnit.SECONDS );
+		measurements.printStats();
 	}
 
 	private static void measureForPopulation(
 			final Scenario sc,
-			final TransitRouterAStar testee,
-			final TransitRouterImpl reference,
-			final ConcurrentStopWatch<Algo> stopWatch ) {
+			final Measurements measurements ) {
 		final StageActivityTypes stages = new StageActivityTypesImpl( PtConstants.TRANSIT_ACTIVITY_TYPE );
 		final List<TripStructureUtils.Trip> trips = new ArrayList<>();
 
@@ -122,21 +149,17 @@ public class RunPerformanceComparison {
 
 			counter.incCounter();
 
-			stopWatch.startMeasurement( Algo.AStar );
-			testee.calcRoute( new FakeFacility(trip.getOriginActivity().getCoord()), new FakeFacility(trip.getDestinationActivity().getCoord()), trip.getOriginActivity().getEndTime(), null );
-			stopWatch.endMeasurement( Algo.AStar );
-
-			stopWatch.startMeasurement( Algo.classic );
-			reference.calcRoute( new FakeFacility(trip.getOriginActivity().getCoord()), new FakeFacility(trip.getDestinationActivity().getCoord()), trip.getOriginActivity().getEndTime(), null );
-			stopWatch.endMeasurement( Algo.classic );
+			measurements.measure(
+					trip.getOriginActivity().getCoord(),
+					trip.getDestinationActivity().getCoord(),
+					trip.getOriginActivity().getEndTime() );
 		}
 		counter.printCounter();
 	}
 
-	private static void measureForRandomODs( Scenario sc,
-			TransitRouterAStar testee,
-			TransitRouterImpl reference,
-			ConcurrentStopWatch<Algo> stopWatch ) {
+	private static void measureForRandomODs(
+			final Scenario sc,
+			final Measurements measurements ) {
 		final List<Id<TransitStopFacility>> facilityIds = new ArrayList<>( sc.getTransitSchedule().getFacilities().keySet() );
 		Collections.sort( facilityIds );
 
@@ -157,14 +180,129 @@ public class RunPerformanceComparison {
 
 			counter.incCounter();
 
-			stopWatch.startMeasurement( Algo.AStar );
-			testee.calcRoute( new FakeFacility(orign.getCoord()), new FakeFacility(destination.getCoord()), time, null );
-			stopWatch.endMeasurement( Algo.AStar );
-
-			stopWatch.startMeasurement( Algo.classic );
-			reference.calcRoute( new FakeFacility(orign.getCoord()), new FakeFacility(destination.getCoord()), time, null );
-			stopWatch.endMeasurement( Algo.classic );
+			measurements.measure( orign.getCoord() , destination.getCoord() , time );
 		}
 		counter.printCounter();
 	}
+
+	private static double calcTravelTime( final List<Leg> trip ) {
+		if ( trip == null ) return Double.NaN;
+		double tt = 0;
+		for ( Leg l : trip ) tt += l.getTravelTime();
+		return tt;
+	}
+
+	private static class Measurements {
+		private final Map<Algo, TransitRouter> routers;
+		private final ConcurrentStopWatch<Algo> stopWatch = new ConcurrentStopWatch<>( Algo.class );
+
+		private final long[][] latenciesNanos = new long[ Algo.values().length ][ N_TRIES ];
+		private final int[] nFaster = new int[ Algo.values().length ];
+		private final int[] nSlower = new int[ Algo.values().length ];
+		private final int[] nNoRoute = new int[ Algo.values().length ];
+		private int nMeasurements = 0;
+
+		private int nSameAStarConnectionScan = 0;
+		private int nConnectionScanFasterThanAStar = 0;
+		private int nConnectionScanSlowerThanAStar = 0;
+
+		private Measurements( final Map<Algo, TransitRouter> routers ) {
+			this.routers = routers;
+		}
+
+		public void measure( final Coord origin , final Coord destination , final double time ) {
+			double referenceTravelTime = Double.NaN;
+			final double[] travelTimes = new double[ Algo.values().length ];
+			Arrays.fill( travelTimes , Double.NaN );
+			for ( Map.Entry<Algo, TransitRouter> e : routers.entrySet() ) {
+				final Algo algo = e.getKey();
+
+				stopWatch.startMeasurement( algo );
+				final long start = System.nanoTime();
+				final List<Leg> trip = e.getValue().calcRoute( new FakeFacility( origin ), new FakeFacility( destination ), time, null );
+				latenciesNanos[ algo.ordinal() ][ nMeasurements ] = System.nanoTime() - start;
+				stopWatch.endMeasurement( algo );
+
+				final double travelTime = calcTravelTime( trip );
+				travelTimes[ algo.ordinal() ] = travelTime;
+				// classic comes first in the enum map
+				if ( algo == Algo.classic ) referenceTravelTime = travelTime;
+
+				if ( Double.isNaN( travelTime ) ) nNoRoute[ algo.ordinal() ]++;
+				else if ( travelTime < referenceTravelTime - TRAVEL_TIME_TOLERANCE ) nFaster[ algo.ordinal() ]++;
+				else if ( travelTime > referenceTravelTime + TRAVEL_TIME_TOLERANCE ) nSlower[ algo.ordinal() ]++;
+			}
+			nMeasurements++;
+
+			compareAStarAndConnectionScan(
+					origin,
+					destination,
+					time,
+					travelTimes[ Algo.AStar.ordinal() ],
+					travelTimes[ Algo.connectionScan.ordinal() ] );
+		}
+
+		private void compareAStarAndConnectionScan(
+				final Coord origin,
+				final Coord destination,
+				final double time,
+				final double aStarTravelTime,
+				final double connectionScanTravelTime ) {
+			if ( Double.isNaN( aStarTravelTime ) || Double.isNaN( connectionScanTravelTime ) ) return;
+
+			if ( Math.abs( aStarTravelTime - connectionScanTravelTime ) <= TRAVEL_TIME_TOLERANCE ) {
+				nSameAStarConnectionScan++;
+			}
+			else if ( connectionScanTravelTime < aStarTravelTime ) {
+				nConnectionScanFasterThanAStar++;
+			}
+			else {
+				// earliest arrival should never be later than the arrival of any other route
+				if ( nConnectionScanSlowerThanAStar++ < MAX_LOGGED_MISMATCHES ) {
+					log.error( "connection scan slower than A Star from "+origin+" to "+destination+" at "+Time.writeTime( time )+
+							": "+connectionScanTravelTime+" vs "+aStarTravelTime );
+				}
+			}
+		}
+
+		public void printStats() {
+			stopWatch.printStats( TimeUnit.MILLISECONDS );
+			stopWatch.printStats( TimeUnit.SECONDS );
+
+			for ( Algo algo : routers.keySet() ) {
+				final long[] latencies = Arrays.copyOf( latenciesNanos[ algo.ordinal() ] , nMeasurements );
+				Arrays.sort( latencies );
+
+				log.info( "Latencies for "+algo+" (in MICROSECONDS):"
+						+" p50="+toMicros( percentile( latencies , 0.5 ) )
+						+" p90="+toMicros( percentile( latencies , 0.9 ) )
+						+" p99="+toMicros( percentile( latencies , 0.99 ) )
+						+" max="+toMicros( percentile( latencies , 1 ) ) );
+
+				if ( algo == Algo.classic ) continue;
+				log.info( "Travel times for "+algo+" compared to "+Algo.classic+" for "+nMeasurements+" queries:"
+						+" faster="+nFaster[ algo.ordinal() ]
+						+" slower="+nSlower[ algo.ordinal() ]
+						+" no route="+nNoRoute[ algo.ordinal() ] );
+			}
+
+			log.info( "Travel times for "+Algo.connectionScan+" compared to "+Algo.AStar+":"
+					+" same="+nSameAStarConnectionScan
+					+" faster="+nConnectionScanFasterThanAStar
+					+" slower="+nConnectionScanSlowerThanAStar );
+			if ( nConnectionScanSlowerThanAStar > 0 ) {
+				log.error( nConnectionScanSlowerThanAStar+" queries where "+Algo.connectionScan+" is slower than "+Algo.AStar+": check the implementations!" );
+			}
+		}
+
+		private static long percentile( final long[] sorted , final double p ) {
+			if ( sorted.length == 0 ) return 0;
+			final int index = (int) Math.ceil( p * sorted.length ) - 1;
+			return sorted[ Math.max( 0 , index ) ];
+		}
+
+		private static long toMicros( final long nanos ) {
+			return TimeUnit.NANOSECONDS.toMicros( nanos );
+		}
+	}
 }
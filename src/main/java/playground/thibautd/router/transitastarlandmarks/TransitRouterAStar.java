@@ -80,30 +80,63 @@ public class TransitRouterAStar implements TransitRouter {
 			final TransitRouterAStarConfigGroup astarConfig,
 			final TransitRouterConfig config,
 			final TransitSchedule schedule) {
+		this( astarConfig , config , schedule , new PreprocessedData( astarConfig , config , schedule ) );
+	}
+
+	/**
+	 * @param preprocessedData the transit network and landmarks, which can be shared by all routers for the same schedule
+	 */
+    public TransitRouterAStar(
+			final TransitRouterAStarConfigGroup astarConfig,
+			final TransitRouterConfig config,
+			final TransitSchedule schedule,
+			final PreprocessedData preprocessedData) {
         this.preparedTransitSchedule = new PreparedTransitSchedule(schedule);
         this.config = config;
         this.travelDisutility =
 				new TransitDisutilityWithMinimum(
 						config,
 						preparedTransitSchedule);
-        this.transitNetwork = TransitRouterNetwork.createFromSchedule(schedule, config.getBeelineWalkConnectionDistance());
-		final PreProcessLandmarks preprocess =
-				new PreProcessLandmarks(
-						travelDisutility,
-						createLandmarker( astarConfig ),
-						astarConfig.getNLandmarks() );
-
-		preprocess.run( transitNetwork );
+        this.transitNetwork = preprocessedData.transitNetwork;
         this.dijkstra = new MultiNodeAStarLandmarks(
 				astarConfig.getInitiallyActiveLandmarks(),
 				astarConfig.getOverdoFactor(),
 				this.transitNetwork,
-				preprocess,
+				preprocessedData.landmarks,
 				this.travelDisutility,
 				this.travelDisutility );
     }
 
-	private Landmarker createLandmarker( TransitRouterAStarConfigGroup astarConfig ) {
+	/**
+	 * The transit network and the landmark preprocessing, which are costly to compute.
+	 * Both are only read by the routers once created, and can thus be shared between threads.
+	 */
+	public static class PreprocessedData {
+		private final TransitRouterNetwork transitNetwork;
+		private final PreProcessLandmarks landmarks;
+
+		public PreprocessedData(
+				final TransitRouterAStarConfigGroup astarConfig,
+				final TransitRouterConfig config,
+				final TransitSchedule schedule) {
+			final TransitDisutilityWithMinimum travelDisutility =
+					new TransitDisutilityWithMinimum(
+							config,
+							new PreparedTransitSchedule( schedule ) );
+			this.transitNetwork = TransitRouterNetwork.createFromSchedule(schedule, config.getBeelineWalkConnectionDistance());
+			this.landmarks =
+					new PreProcessLandmarks(
+							travelDisutility,
+							createLandmarker( astarConfig , travelDisutility ),
+							astarConfig.getNLandmarks() );
+			// data is computed for all nodes here: later accesses are read only
+			landmarks.run( transitNetwork );
+		}
+	}
+
+	private static Landmarker createLandmarker(
+			final TransitRouterAStarConfigGroup astarConfig,
+			final TransitDisutilityWithMinimum travelDisutility ) {
 		switch ( astarConfig.getLandmarkComputation() ) {
 			case degree:
 				return new DegreeBasedLandmarker();
@@ -20,6 +20,7 @@ package playground.thibautd.scripts;
 
 import org.apache.log4j.Logger;
 import org.matsim.core.utils.io.IOUtils;
+import playground.thibautd.utils.spatialcollections.ImplicitKDTree;
 import playground.thibautd.utils.spatialcollections.KDTree;
 import playground.thibautd.utils.spatialcollections.SpatialCollectionUtils;
 
@@ -40,7 +41,7 @@ public class BenchmarkKDTreeNearestNeighbor {
 	public static void main( final String... args ) {
 		//try ( final BufferedWriter writer = IOUtils.getBufferedWriter( args[ 0 ] ) ) {
 		try ( final BufferedWriter writer = IOUtils.getBufferedWriter( "times.dat" ) ) {
-			writer.write( "size\tdimension\tnQueries\texact_time_ms\tdistance_exact\tappr_time_ms\tdistance_appr" );
+			writer.write( "size\tdimension\tnQueries\texact_time_ms\tdistance_exact\tappr_time_ms\tdistance_appr\timplicit_time_ms\tdistance_implicit" );
 
 			for ( int size=100; size < 1E8; size *= 10  ) {
 				log.info( "look at size "+size );
@@ -74,6 +75,12 @@ public class BenchmarkKDTreeNearestNeighbor {
 						d -> d );
 		qt.add( points );
 
+		final ImplicitKDTree<double[]> implicit =
+				new ImplicitKDTree<>(
+						dim,
+						d -> d,
+						points );
+
 		for ( int i=0; i < 100; i++ ) {
 			final Collection<double[]> searched = new ArrayList<>(  );
 			for ( int q=0; q < N_QUERIES; q++ ) {
@@ -95,9 +102,15 @@ public class BenchmarkKDTreeNearestNeighbor {
 					.average()
 					.getAsDouble();
 			final long end = System.currentTimeMillis();
+			final double distImplicit = searched.stream()
+					.mapToDouble( p -> SpatialCollectionUtils.euclidean( p , implicit.getClosest( p ) ) )
+					.average()
+					.getAsDouble();
+			final long endImplicit = System.currentTimeMillis();
 
 			writer.newLine();
-			writer.write( size+"\t"+dim+"\t"+N_QUERIES+"\t"+(mid - start)+"\t"+distExact+"\t"+(end - mid)+"\t"+distAppr );
+			writer.write( size+"\t"+dim+"\t"+N_QUERIES+"\t"+(mid - start)+"\t"+distExact+"\t"+(end - mid)+"\t"+distAppr+
+					"\t"+(endImplicit - end)+"\t"+distImplicit );
 		}
 	}
 }
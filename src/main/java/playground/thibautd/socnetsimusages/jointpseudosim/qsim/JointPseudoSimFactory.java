@@ -94,8 +94,8 @@ public class JointPseudoSimFactory implements MobsimFactory {
 		final PseudoQsimEngine pseudoEngine =
 			new PseudoQsimEngine(
 					pSimConf != null ?
-						pSimConf.getNThreads() :
-						1,
+						pSimConf :
+						new PseudoSimConfigGroup(),
 					conf.getMainModes(),
 					travelTime,
 					sc.getNetwork(),
@@ -0,0 +1,436 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.utils.spatialcollections;
+
+import org.matsim.core.gbl.MatsimRandom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * A KD-Tree built once from a set of points, stored without any node object.
+ * The tree is perfectly balanced and complete, and stored in "Eytzinger" (breadth first) order:
+ * the children of node i are the nodes 2i+1 and 2i+2. Coordinates are stored in one flat array, and values in a parallel
+ * array, so that queries only walk through arrays, and allocate nothing besides the returned collections.
+ * <br>
+ * Contrary to {@link KDTree}, distances are always euclidean.
+ * Removal only marks the element as removed. The tree is rebuilt when more than half of the elements are removed.
+ * Queries are thread safe, as long as no element is removed concurrently.
+ *
+ * @author thibautd
+ */
+public class ImplicitKDTree<T> implements SpatialTree<double[],T> {
+	private final Random random = MatsimRandom.getLocalInstance();
+
+	private final int nDimensions;
+	private final SpatialCollectionUtils.Coordinate<T> coordinate;
+
+	// node i has coordinates in [ i * nDimensions , (i + 1) * nDimensions [
+	private double[] coords = new double[ 0 ];
+	private Object[] values = new Object[ 0 ];
+	private boolean[] removed = new boolean[ 0 ];
+	private int nNodes = 0;
+	private int size = 0;
+
+	/**
+	 * Creates an empty tree. It has to be filled with one single call to {@link #add(Collection)}
+	 * @param nDimensions the number of dimensions of the space
+	 * @param coord function returning the coordinate of an element. Only called when building the tree.
+	 */
+	public ImplicitKDTree( final int nDimensions , final SpatialCollectionUtils.Coordinate<T> coord ) {
+		this.nDimensions = nDimensions;
+		this.coordinate = coord;
+	}
+
+	public ImplicitKDTree(
+			final int nDimensions,
+			final SpatialCollectionUtils.Coordinate<T> coord,
+			final Collection<? extends T> points ) {
+		this( nDimensions , coord );
+		add( points );
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public T getAny() {
+		if ( size == 0 ) return null;
+
+		// at least half of the nodes are valid: expected number of tries is at most 2
+		while ( true ) {
+			final int i = random.nextInt( nNodes );
+			if ( !removed[ i ] ) return value( i );
+		}
+	}
+
+	@Override
+	public Collection<T> getAll() {
+		final List<T> all = new ArrayList<>( size );
+		for ( int i = 0; i < nNodes; i++ ) {
+			if ( !removed[ i ] ) all.add( value( i ) );
+		}
+		return all;
+	}
+
+	/**
+	 * Builds the tree. Can only be called once.
+	 */
+	@Override
+	public void add( final Collection<? extends T> toAdd ) {
+		if ( nNodes > 0 ) throw new IllegalStateException( "tree can only be built once" );
+
+		final Object[] pointValues = toAdd.toArray();
+		final double[] pointCoords = new double[ pointValues.length * nDimensions ];
+
+		for ( int i = 0; i < pointValues.length; i++ ) {
+			final double[] c = coordinate.getCoord( (T) pointValues[ i ] );
+			if ( c.length != nDimensions ) throw new IllegalArgumentException( "wrong dimensionality" );
+			System.arraycopy( c , 0 , pointCoords , i * nDimensions , nDimensions );
+		}
+
+		build( pointValues , pointCoords , pointValues.length );
+	}
+
+	private void build( final Object[] pointValues , final double[] pointCoords , final int n ) {
+		final int[] order = new int[ n ];
+		for ( int i = 0; i < n; i++ ) order[ i ] = i;
+
+		this.coords = new double[ n * nDimensions ];
+		this.values = new Object[ n ];
+		this.removed = new boolean[ n ];
+		this.nNodes = n;
+		this.size = n;
+
+		buildSubtree( order , pointValues , pointCoords , 0 , 0 , n , 0 );
+	}
+
+	private void buildSubtree(
+			final int[] order,
+			final Object[] pointValues,
+			final double[] pointCoords,
+			final int position,
+			final int from,
+			final int to,
+			final int depth ) {
+		if ( from >= to ) return;
+
+		final int dimension = depth % nDimensions;
+		final int median = from + leftSubtreeSize( to - from );
+		select( order , pointCoords , from , to , median , dimension );
+
+		final int point = order[ median ];
+		System.arraycopy( pointCoords , point * nDimensions , coords , position * nDimensions , nDimensions );
+		values[ position ] = pointValues[ point ];
+
+		buildSubtree( order , pointValues , pointCoords , 2 * position + 1 , from , median , depth + 1 );
+		buildSubtree( order , pointValues , pointCoords , 2 * position + 2 , median + 1 , to , depth + 1 );
+	}
+
+	/**
+	 * @return the size of the left subtree of a complete binary tree with n nodes
+	 */
+	static int leftSubtreeSize( final int n ) {
+		if ( n <= 1 ) return 0;
+		// number of levels minus one
+		final int height = 31 - Integer.numberOfLeadingZeros( n );
+		final int lastLevelCapacity = 1 << height;
+		final int lastLevel = n - ( lastLevelCapacity - 1 );
+		final int halfLastLevel = lastLevelCapacity / 2;
+
+		return ( halfLastLevel - 1 ) + Math.min( lastLevel , halfLastLevel );
+	}
+
+	/**
+	 * Quick select with three-way partitioning, robust to many equal coordinates (typically, points on a grid).
+	 * After the call, elements before k have a coordinate lower or equal to k, and elements after higher or equal.
+	 */
+	private void select(
+			final int[] order,
+			final double[] pointCoords,
+			int from,
+			int to,
+			final int k,
+			final int dimension ) {
+		while ( to - from > 1 ) {
+			final double pivot = pointCoords[ order[ from + ( to - from ) / 2 ] * nDimensions + dimension ];
+
+			int lower = from;
+			int i = from;
+			int higher = to;
+			while ( i < higher ) {
+				final double v = pointCoords[ order[ i ] * nDimensions + dimension ];
+				if ( v < pivot ) swap( order , lower++ , i++ );
+				else if ( v > pivot ) swap( order , i , --higher );
+				else i++;
+			}
+
+			if ( k < lower ) to = lower;
+			else if ( k >= higher ) from = higher;
+			else return;
+		}
+	}
+
+	private static void swap( final int[] order , final int i , final int j ) {
+		final int tmp = order[ i ];
+		order[ i ] = order[ j ];
+		order[ j ] = tmp;
+	}
+
+	@Override
+	public boolean remove( final T value ) {
+		final int position = find( 0 , 0 , coordinate.getCoord( value ) , value );
+		if ( position < 0 ) return false;
+
+		removed[ position ] = true;
+		values[ position ] = null;
+		size--;
+
+		if ( size < nNodes / 2 ) rebuild();
+		return true;
+	}
+
+	/**
+	 * Rebuilds the tree with only the non-removed elements.
+	 */
+	public void rebuild() {
+		final Object[] pointValues = new Object[ size ];
+		final double[] pointCoords = new double[ size * nDimensions ];
+
+		int j = 0;
+		for ( int i = 0; i < nNodes; i++ ) {
+			if ( removed[ i ] ) continue;
+			pointValues[ j ] = values[ i ];
+			System.arraycopy( coords , i * nDimensions , pointCoords , j * nDimensions , nDimensions );
+			j++;
+		}
+
+		build( pointValues , pointCoords , size );
+	}
+
+	@Override
+	public boolean contains( final T value ) {
+		return find( 0 , 0 , coordinate.getCoord( value ) , value ) >= 0;
+	}
+
+	private int find( final int position , final int depth , final double[] coord , final T value ) {
+		if ( position >= nNodes ) return -1;
+		if ( !removed[ position ] && values[ position ].equals( value ) ) return position;
+
+		final int dimension = depth % nDimensions;
+		final double split = coords[ position * nDimensions + dimension ];
+
+		// equal coordinates might end on both sides
+		if ( coord[ dimension ] <= split ) {
+			final int left = find( 2 * position + 1 , depth + 1 , coord , value );
+			if ( left >= 0 ) return left;
+		}
+		if ( coord[ dimension ] >= split ) {
+			return find( 2 * position + 2 , depth + 1 , coord , value );
+		}
+		return -1;
+	}
+
+	@Override
+	public T getClosest( final double[] coord ) {
+		return getClosest( coord , t -> true );
+	}
+
+	@Override
+	public T getClosest( final double[] coord , final Predicate<T> predicate ) {
+		if ( coord.length != nDimensions ) throw new IllegalArgumentException( "wrong dimensionality" );
+		final int closest = closest( 0 , 0 , coord , predicate , -1 , Double.POSITIVE_INFINITY );
+		return closest < 0 ? null : value( closest );
+	}
+
+	/**
+	 * @return the position of the closest valid element, or the current best if none in the subtree is closer
+	 */
+	private int closest(
+			final int position,
+			final int depth,
+			final double[] coord,
+			final Predicate<T> predicate,
+			int best,
+			double bestSquaredDistance ) {
+		if ( position >= nNodes ) return best;
+
+		final int dimension = depth % nDimensions;
+		final double diff = coord[ dimension ] - coords[ position * nDimensions + dimension ];
+
+		// first look on our side of the plane: good chances to get a tight bound
+		final int nearBest =
+				closest(
+						diff < 0 ? 2 * position + 1 : 2 * position + 2,
+						depth + 1,
+						coord,
+						predicate,
+						best,
+						bestSquaredDistance );
+		if ( nearBest != best ) {
+			best = nearBest;
+			bestSquaredDistance = squaredDistance( best , coord );
+		}
+
+		if ( !removed[ position ] ) {
+			final double squaredDistance = squaredDistance( position , coord );
+			if ( squaredDistance < bestSquaredDistance && predicate.test( value( position ) ) ) {
+				best = position;
+				bestSquaredDistance = squaredDistance;
+			}
+		}
+
+		// only look on the other side if the plane is closer than the best point
+		if ( diff * diff < bestSquaredDistance ) {
+			best = closest(
+					diff < 0 ? 2 * position + 2 : 2 * position + 1,
+					depth + 1,
+					coord,
+					predicate,
+					best,
+					bestSquaredDistance );
+		}
+
+		return best;
+	}
+
+	@Override
+	public List<T> getKClosest(
+			final double[] coord,
+			final int k,
+			final Predicate<T> predicate ) {
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.kClosest( k );
+		collect( 0 , 0 , coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	@Override
+	public List<T> getBall(
+			final double[] coord,
+			final double maxDist,
+			final Predicate<T> predicate ) {
+		// squared distances
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.ball( maxDist * maxDist );
+		collect( 0 , 0 , coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	private void collect(
+			final int position,
+			final int depth,
+			final double[] coord,
+			final Predicate<T> predicate,
+			final NeighbourhoodCollector<T> collector ) {
+		if ( position >= nNodes ) return;
+
+		final int dimension = depth % nDimensions;
+		final double diff = coord[ dimension ] - coords[ position * nDimensions + dimension ];
+
+		collect( diff < 0 ? 2 * position + 1 : 2 * position + 2 , depth + 1 , coord , predicate , collector );
+
+		if ( !removed[ position ] ) {
+			final double squaredDistance = squaredDistance( position , coord );
+			if ( squaredDistance < collector.getBound() && predicate.test( value( position ) ) ) {
+				collector.offer( value( position ) , squaredDistance );
+			}
+		}
+
+		if ( diff * diff < collector.getBound() ) {
+			collect( diff < 0 ? 2 * position + 2 : 2 * position + 1 , depth + 1 , coord , predicate , collector );
+		}
+	}
+
+	public Collection<T> getBox(
+			final double[] lowers ,
+			final double[] uppers ) {
+		return getBox( lowers , uppers , (e) -> true );
+	}
+
+	public Collection<T> getBox(
+			final double[] lowers ,
+			final double[] uppers ,
+			final Predicate<T> predicate ) {
+		if ( lowers.length != nDimensions || uppers.length != nDimensions ) {
+			throw new IllegalArgumentException( "uncompatible dimensionalities" );
+		}
+		for ( int i = 0; i < nDimensions; i++ ) {
+			if ( lowers[ i ] > uppers[ i ] ) {
+				throw new IllegalArgumentException( "invalid bounding box low="+Arrays.toString( lowers )+", high="+Arrays.toString( uppers ) );
+			}
+		}
+
+		final Collection<T> result = new ArrayList<>();
+		box( 0 , 0 , lowers , uppers , predicate , result );
+		return result;
+	}
+
+	private void box(
+			final int position,
+			final int depth,
+			final double[] lowers,
+			final double[] uppers,
+			final Predicate<T> predicate,
+			final Collection<T> result ) {
+		if ( position >= nNodes ) return;
+
+		if ( !removed[ position ] && isInBox( position , lowers , uppers ) && predicate.test( value( position ) ) ) {
+			result.add( value( position ) );
+		}
+
+		final int dimension = depth % nDimensions;
+		final double split = coords[ position * nDimensions + dimension ];
+		// left contains values lower or equal to split, right values higher or equal
+		if ( lowers[ dimension ] <= split ) box( 2 * position + 1 , depth + 1 , lowers , uppers , predicate , result );
+		if ( uppers[ dimension ] >= split ) box( 2 * position + 2 , depth + 1 , lowers , uppers , predicate , result );
+	}
+
+	private boolean isInBox( final int position , final double[] lowers , final double[] uppers ) {
+		final int offset = position * nDimensions;
+		for ( int i = 0; i < nDimensions; i++ ) {
+			final double c = coords[ offset + i ];
+			if ( c < lowers[ i ] || c > uppers[ i ] ) return false;
+		}
+		return true;
+	}
+
+	private double squaredDistance( final int position , final double[] coord ) {
+		final int offset = position * nDimensions;
+		double d = 0;
+		for ( int i = 0; i < nDimensions; i++ ) {
+			final double diff = coords[ offset + i ] - coord[ i ];
+			d += diff * diff;
+		}
+		return d;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private T value( final int position ) {
+		return (T) values[ position ];
+	}
+}
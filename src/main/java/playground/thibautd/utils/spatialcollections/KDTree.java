@@ -226,6 +226,59 @@ public class KDTree<T> implements SpatialTree<double[],T> {
 		return getClosestEuclidean( coord , predicate );
 	}
 
+	@Override
+	public List<T> getKClosest(
+			final double[] coord,
+			final int k,
+			final Predicate<T> predicate ) {
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.kClosest( k );
+		collect( coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	@Override
+	public List<T> getBall(
+			final double[] coord,
+			final double maxDist,
+			final Predicate<T> predicate ) {
+		// work with squared euclidean distances
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.ball( maxDist * maxDist );
+		collect( coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	private void collect(
+			final double[] coord,
+			final Predicate<T> predicate,
+			final NeighbourhoodCollector<T> collector ) {
+		// the tree is not necessarily balanced: do not use recursion
+		final Queue<SearchFrame<T>> stack = Collections.asLifoQueue( new ArrayDeque<>() );
+		stack.add( new SearchFrame<>( root , 0 ) );
+
+		while ( !stack.isEmpty() ) {
+			final SearchFrame<T> frame = stack.poll();
+			final Node<T> current = frame.node;
+
+			// the cutting plane on the way to this node is further than the bound
+			if ( frame.squaredDistanceToPlane >= collector.getBound() ) continue;
+			if ( current == null || current.value == null ) continue;
+
+			final double squaredDistance = SpatialCollectionUtils.squaredEuclidean( coord , current.coordinate );
+			if ( squaredDistance < collector.getBound() && predicate.test( current.value ) ) {
+				collector.offer( current.value , squaredDistance );
+			}
+
+			// left contains strictly lower values, right higher or equal
+			final double diff = coord[ current.dimension ] - current.coordinate[ current.dimension ];
+			final Node<T> near = diff < 0 ? current.left : current.right;
+			final Node<T> far = diff < 0 ? current.right : current.left;
+
+			// near side on top of the stack, to tighten the bound as fast as possible
+			stack.add( new SearchFrame<>( far , diff * diff ) );
+			stack.add( new SearchFrame<>( near , 0 ) );
+		}
+	}
+
 	private Node<T> findMin( final Node<T> start, final int dimension ) {
 		final Queue<Node<T>> stack = Collections.asLifoQueue( new ArrayDeque<>() );
 
@@ -542,6 +595,16 @@ public class KDTree<T> implements SpatialTree<double[],T> {
 		return coord[ dim ] < of[ dim ];
 	}
 
+	private static class SearchFrame<T> {
+		final Node<T> node;
+		final double squaredDistanceToPlane;
+
+		public SearchFrame( final Node<T> node, final double squaredDistanceToPlane ) {
+			this.node = node;
+			this.squaredDistanceToPlane = squaredDistanceToPlane;
+		}
+	}
+
 	private static class AddFrame<T> {
 		Node<T> node;
 		List<T> toAdd;
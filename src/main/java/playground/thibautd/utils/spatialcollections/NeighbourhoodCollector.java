@@ -0,0 +1,147 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.utils.spatialcollections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the k closest elements offered to it, within a maximum distance. Used to implement both k-nearest neighbours
+ * and ball queries with the same tree traversals: the traversals only need to prune the parts of the tree that cannot
+ * contain elements closer than {@link #getBound()}.
+ * <br>
+ * Elements are kept in a max-heap on distance, stored in parallel arrays.
+ * The "distance" does not need to be a metric: kd-trees use squared euclidean distances.
+ *
+ * @author thibautd
+ */
+final class NeighbourhoodCollector<T> {
+	private final int k;
+	private final double maxDistance;
+
+	private double[] distances;
+	private Object[] values;
+	private int size = 0;
+
+	public NeighbourhoodCollector( final int k , final double maxDistance ) {
+		if ( k < 0 ) throw new IllegalArgumentException( "negative number of neighbours "+k );
+		this.k = k;
+		this.maxDistance = maxDistance;
+
+		final int capacity = Math.min( k , 16 );
+		this.distances = new double[ capacity ];
+		this.values = new Object[ capacity ];
+	}
+
+	public static <T> NeighbourhoodCollector<T> kClosest( final int k ) {
+		return new NeighbourhoodCollector<>( k , Double.POSITIVE_INFINITY );
+	}
+
+	public static <T> NeighbourhoodCollector<T> ball( final double maxDistance ) {
+		return new NeighbourhoodCollector<>( Integer.MAX_VALUE , maxDistance );
+	}
+
+	/**
+	 * @return the distance under which an element needs to be to be accepted.
+	 */
+	public double getBound() {
+		if ( k == 0 ) return Double.NEGATIVE_INFINITY;
+		return size < k ? maxDistance : distances[ 0 ];
+	}
+
+	/**
+	 * adds the element if its distance is strictly lower than the bound.
+	 */
+	public void offer( final T value , final double distance ) {
+		if ( !( distance < getBound() ) ) return;
+
+		if ( size < k ) {
+			if ( size == distances.length ) {
+				final int capacity = (int) Math.min( k , Math.max( 16L , 2L * size ) );
+				distances = Arrays.copyOf( distances , capacity );
+				values = Arrays.copyOf( values , capacity );
+			}
+			distances[ size ] = distance;
+			values[ size ] = value;
+			siftUp( size++ );
+		}
+		else {
+			distances[ 0 ] = distance;
+			values[ 0 ] = value;
+			siftDown( 0 , size );
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the collected elements, by increasing distance. Empties the collector.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public List<T> pollSortedValues() {
+		// heap sort: the maximum goes at the end
+		for ( int end = size - 1; end > 0; end-- ) {
+			swap( 0 , end );
+			siftDown( 0 , end );
+		}
+
+		final List<T> sorted = new ArrayList<>( size );
+		for ( int i = 0; i < size; i++ ) sorted.add( (T) values[ i ] );
+
+		size = 0;
+		Arrays.fill( values , null );
+		return sorted;
+	}
+
+	private void siftUp( int i ) {
+		while ( i > 0 ) {
+			final int parent = ( i - 1 ) / 2;
+			if ( distances[ parent ] >= distances[ i ] ) return;
+			swap( parent , i );
+			i = parent;
+		}
+	}
+
+	private void siftDown( int i , final int end ) {
+		while ( true ) {
+			final int left = 2 * i + 1;
+			if ( left >= end ) return;
+
+			final int right = left + 1;
+			final int largest = right < end && distances[ right ] > distances[ left ] ? right : left;
+			if ( distances[ i ] >= distances[ largest ] ) return;
+
+			swap( i , largest );
+			i = largest;
+		}
+	}
+
+	private void swap( final int i , final int j ) {
+		final double d = distances[ i ];
+		distances[ i ] = distances[ j ];
+		distances[ j ] = d;
+
+		final Object v = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = v;
+	}
+}
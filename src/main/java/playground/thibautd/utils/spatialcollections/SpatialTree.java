@@ -19,6 +19,7 @@
 package playground.thibautd.utils.spatialcollections;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
 /**
@@ -42,4 +43,32 @@ public interface SpatialTree<C, T> {
 	T getClosest(
 			C coord,
 			Predicate<T> predicate );
+
+	/**
+	 * @return the k elements closest to the coordinate (less if there are not enough elements), by increasing distance
+	 */
+	default List<T> getKClosest(
+			C coord,
+			int k ) {
+		return getKClosest( coord , k , t -> true );
+	}
+
+	List<T> getKClosest(
+			C coord,
+			int k,
+			Predicate<T> predicate );
+
+	/**
+	 * @return all elements strictly closer than maxDist to the coordinate, by increasing distance
+	 */
+	default List<T> getBall(
+			C coord,
+			double maxDist ) {
+		return getBall( coord , maxDist , t -> true );
+	}
+
+	List<T> getBall(
+			C coord,
+			double maxDist,
+			Predicate<T> predicate );
 }
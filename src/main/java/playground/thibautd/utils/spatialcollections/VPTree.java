@@ -343,13 +343,39 @@ public class VPTree<C,T> implements SpatialTree<C, T> {
 		return closest;
 	}
 
-	public Collection<T> getBall(
+	@Override
+	public List<T> getKClosest(
 			final C coord,
-			final double maxDist ) {
+			final int k,
+			final Predicate<T> predicate ) {
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.kClosest( k );
+		collect( coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	@Override
+	public List<T> getBall(
+			final C coord,
+			final double maxDist,
+			final Predicate<T> predicate ) {
+		final NeighbourhoodCollector<T> collector = NeighbourhoodCollector.ball( maxDist );
+		collect( coord , predicate , collector );
+		return collector.pollSortedValues();
+	}
+
+	/**
+	 * Same elements as {@link #getBall(Object, double, Predicate)}, in traversal order instead of by increasing distance.
+	 * The order is deterministic for a given tree. Close subtrees fully inside the ball are added without computing
+	 * any distance, which makes it much faster for large balls when the order does not matter.
+	 */
+	public List<T> getUnsortedBall(
+			final C coord,
+			final double maxDist,
+			final Predicate<T> predicate ) {
 		final Queue<Node<C,T>> stack = Collections.asLifoQueue( new ArrayDeque<>( 1 + (int) Math.log( 1 + size() )) );
 		stack.add( root );
 
-		final Collection<T> ball = new ArrayList<>();
+		final List<T> ball = new ArrayList<>();
 
 		while( !stack.isEmpty() ) {
 			final Node<C,T> current = stack.poll();
@@ -362,20 +388,22 @@ public class VPTree<C,T> implements SpatialTree<C, T> {
 
 			final double distToVp = metric.calcDistance( coord , current.coordinate );
 
-			// check if all subtree in ball
-			if ( distToVp  + current.cuttoffDistance < maxDist ) {
-				ball.addAll( getAll( current ) );
-				continue;
-			}
-
 			// check if current VP in ball
 			if ( current.value != null &&
-					distToVp < maxDist ) {
+					distToVp < maxDist &&
+					predicate.test( current.value ) ) {
 				ball.add( current.value );
 			}
 
-			// test intersection of disc with the children
+			// points of the close subtree are at most at cutoff distance from the VP: check if all in ball
 			if ( current.close != null &&
+					distToVp + current.cuttoffDistance < maxDist ) {
+				for ( T t : getAll( current.close ) ) {
+					if ( predicate.test( t ) ) ball.add( t );
+				}
+			}
+			// test intersection of disc with the children
+			else if ( current.close != null &&
 					distToVp - maxDist <= current.cuttoffDistance ) {
 				stack.add( current.close );
 			}
@@ -388,6 +416,53 @@ public class VPTree<C,T> implements SpatialTree<C, T> {
 		return ball;
 	}
 
+	private void collect(
+			final C coord,
+			final Predicate<T> predicate,
+			final NeighbourhoodCollector<T> collector ) {
+		final Queue<SearchFrame<C,T>> stack = Collections.asLifoQueue( new ArrayDeque<>( 1 + (int) Math.log( 1 + size() )) );
+		stack.add( new SearchFrame<>( root , 0 ) );
+
+		while( !stack.isEmpty() ) {
+			final SearchFrame<C,T> frame = stack.poll();
+			final Node<C,T> current = frame.node;
+
+			// no point of the subtree can be closer than the bound
+			if ( frame.minDistance >= collector.getBound() ) continue;
+			if ( current.value == null &&
+					current.close == null &&
+					current.far == null ) {
+				continue;
+			}
+
+			final double distToVp = metric.calcDistance( coord , current.coordinate );
+
+			if ( current.value != null &&
+					distToVp < collector.getBound() &&
+					predicate.test( current.value ) ) {
+				collector.offer( current.value , distToVp );
+			}
+
+			// triangle inequality gives a lower bound on the distance to the points of the children
+			final SearchFrame<C,T> close =
+					current.close == null ? null :
+							new SearchFrame<>( current.close , Math.max( 0 , distToVp - current.cuttoffDistance ) );
+			final SearchFrame<C,T> far =
+					current.far == null ? null :
+							new SearchFrame<>( current.far , Math.max( 0 , current.cuttoffDistance - distToVp ) );
+
+			// explore the side of the query point first, to tighten the bound as fast as possible
+			if ( distToVp <= current.cuttoffDistance ) {
+				if ( far != null ) stack.add( far );
+				if ( close != null ) stack.add( close );
+			}
+			else {
+				if ( close != null ) stack.add( close );
+				if ( far != null ) stack.add( far );
+			}
+		}
+	}
+
 	public Collection<T> getBallsIntersection(
 			final Collection<C> coords,
 			final double maxDist,
@@ -504,6 +579,16 @@ public class VPTree<C,T> implements SpatialTree<C, T> {
 		}
 	}
 
+	private static class SearchFrame<C,T> {
+		final Node<C,T> node;
+		final double minDistance;
+
+		public SearchFrame( final Node<C,T> node, final double minDistance ) {
+			this.node = node;
+			this.minDistance = minDistance;
+		}
+	}
+
 	private static class AddFrame<C,T> {
 		Node<C,T> node;
 		List<T> toAdd;
@@ -70,6 +70,133 @@ public class BikeSharingEngineTest {
 		test( 2 , 2 , 1 , 2 , false );
 	}
 
+	@Test
+	public void testArrivalsAreHandledAtFirstTimeStepAfterArrivalTime() throws Exception {
+		final BikeSharingFacilities facilities = new BikeSharingFacilities();
+		final BikeSharingFacility departureFacility = createFacility( facilities , "departure" , 2 , 2 );
+		final BikeSharingFacility arrivalFacility = createFacility( facilities , "arrival" , 2 , 0 );
+
+		final BikeSharingManager manager =
+			new BikeSharingManagerImpl(
+					new BikeSharingConfigGroup(),
+					facilities );
+		// time steps of half a second
+		final BikeSharingEngine engine =
+			new BikeSharingEngine(
+					manager, EventsUtils.createEventsManager(), 0.5 );
+		final InternalInterface internalInterface = new DummyInternalInterface();
+		engine.onPrepareSim();
+		engine.setInternalInterface( internalInterface );
+
+		final LegAgent agent = new LegAgent( "tintin" , createLeg( departureFacility , arrivalFacility , 10.25 ) );
+		engine.handleDeparture( 0 , agent , departureFacility.getLinkId() );
+
+		internalInterface.getMobsim().getSimTimer().setTime( 10 );
+		engine.doSimStep( 10 );
+		Assert.assertEquals(
+				"agent arrived too early",
+				departureFacility.getLinkId(),
+				agent.getCurrentLinkId() );
+
+		internalInterface.getMobsim().getSimTimer().setTime( 10.5 );
+		engine.doSimStep( 10.5 );
+		Assert.assertEquals(
+				"agent should arrive at the first time step after its arrival time",
+				arrivalFacility.getLinkId(),
+				agent.getCurrentLinkId() );
+		Assert.assertEquals(
+				"unexpected number of bikes in arrival station",
+				1,
+				manager.getFacilities().get( arrivalFacility.getId() ).getNumberOfBikes() );
+	}
+
+	@Test
+	public void testSimultaneousArrivalsAreHandledByDecreasingId() throws Exception {
+		final BikeSharingFacilities facilities = new BikeSharingFacilities();
+		final BikeSharingFacility departureFacility = createFacility( facilities , "departure" , 3 , 3 );
+		// only one free slot
+		final BikeSharingFacility arrivalFacility = createFacility( facilities , "arrival" , 3 , 2 );
+
+		final BikeSharingManager manager =
+			new BikeSharingManagerImpl(
+					new BikeSharingConfigGroup(),
+					facilities );
+		final BikeSharingEngine engine =
+			new BikeSharingEngine(
+					manager, EventsUtils.createEventsManager());
+		final InternalInterface internalInterface = new DummyInternalInterface();
+		engine.onPrepareSim();
+		engine.setInternalInterface( internalInterface );
+
+		// same time step, but "haddock" arrives earlier
+		final LegAgent tintin = new LegAgent( "tintin" , createLeg( departureFacility , arrivalFacility , 10 ) );
+		final LegAgent milou = new LegAgent( "milou" , createLeg( departureFacility , arrivalFacility , 10 ) );
+		final LegAgent haddock = new LegAgent( "haddock" , createLeg( departureFacility , arrivalFacility , 9.5 ) );
+		engine.handleDeparture( 0 , milou , departureFacility.getLinkId() );
+		engine.handleDeparture( 0 , tintin , departureFacility.getLinkId() );
+		engine.handleDeparture( 0 , haddock , departureFacility.getLinkId() );
+
+		internalInterface.getMobsim().getSimTimer().setTime( 10 );
+		engine.doSimStep( 10 );
+
+		Assert.assertEquals(
+				"earliest agent should get the free slot",
+				arrivalFacility.getLinkId(),
+				haddock.getCurrentLinkId() );
+		Assert.assertEquals(
+				"agents should wait",
+				departureFacility.getLinkId(),
+				tintin.getCurrentLinkId() );
+		Assert.assertEquals(
+				"agents should wait",
+				departureFacility.getLinkId(),
+				milou.getCurrentLinkId() );
+
+		// free a slot: the agent with the larger Id arrives first
+		final LegAgent tournesol = new LegAgent( "tournesol" , createLeg( arrivalFacility , departureFacility , 10 ) );
+		engine.handleDeparture( 10 , tournesol , arrivalFacility.getLinkId() );
+		Assert.assertEquals(
+				"agent with the larger Id should get the freed slot",
+				arrivalFacility.getLinkId(),
+				tintin.getCurrentLinkId() );
+		Assert.assertEquals(
+				"agent with the smaller Id should still wait",
+				departureFacility.getLinkId(),
+				milou.getCurrentLinkId() );
+	}
+
+	private static BikeSharingFacility createFacility(
+			final BikeSharingFacilities facilities,
+			final String id,
+			final int capacity,
+			final int initialNBikes ) {
+		final BikeSharingFacility facility =
+			facilities.getFactory().createBikeSharingFacility(
+					Id.create( id , BikeSharingFacility.class),
+					new Coord((double) 0, (double) 0),
+					Id.create( id+"_link" , Link.class),
+					capacity,
+					initialNBikes );
+		facilities.addFacility( facility );
+		return facility;
+	}
+
+	private static Leg createLeg(
+			final BikeSharingFacility departureFacility,
+			final BikeSharingFacility arrivalFacility,
+			final double travelTime ) {
+		final Leg leg = PopulationUtils.createLeg(BikeSharingConstants.MODE);
+		final BikeSharingRoute route =
+			new BikeSharingRoute(
+					departureFacility,
+					arrivalFacility );
+		leg.setRoute( route );
+
+		leg.setTravelTime( travelTime );
+		route.setTravelTime( travelTime );
+		return leg;
+	}
+
 	private static void test(
 			final int initialNBikes,
 			final int capacity,
@@ -228,10 +355,16 @@ public class BikeSharingEngineTest {
 	}
 
 	private static class LegAgent implements MobsimAgent, PlanAgent {
+		private final Id<Person> id;
 		private final Leg leg;
 		private Id<Link> linkId;
 
 		public LegAgent(final Leg leg) {
+			this( "tintin" , leg );
+		}
+
+		public LegAgent(final String id, final Leg leg) {
+			this.id = Id.create( id , Person.class);
 			this.leg = leg;
 			this.linkId = leg.getRoute().getStartLinkId();
 		}
@@ -248,7 +381,7 @@ public class BikeSharingEngineTest {
 
 		@Override
 		public Id<Person> getId() {
-			return Id.create( "tintin" , Person.class);
+			return id;
 		}
 
 		@Override
@@ -0,0 +1,132 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2014 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package eu.eunoiaproject.bikesharing.framework.qsim;
+
+import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingConfigGroup;
+import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacilities;
+import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacility;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class BikeSharingManagerImplTest {
+	private static final Id<BikeSharingFacility> FACILITY_A = Id.create( "a" , BikeSharingFacility.class );
+	private static final Id<BikeSharingFacility> FACILITY_B = Id.create( "b" , BikeSharingFacility.class );
+
+	@Test
+	public void testListenersNotifiedAtEachChangeWithoutCoalescing() {
+		final BikeSharingManager manager = createManager( false );
+
+		final RecordingListener synchronous = new RecordingListener();
+		final RecordingListener normal = new RecordingListener();
+		manager.addSynchronousListener( synchronous );
+		manager.addListener( normal );
+
+		changeFacilities( manager );
+
+		final List<Id> expected = Arrays.<Id>asList( FACILITY_A , FACILITY_A , FACILITY_B , FACILITY_A );
+		Assert.assertEquals( "unexpected synchronous notifications" , expected , synchronous.notified );
+		Assert.assertEquals( "unexpected notifications" , expected , normal.notified );
+
+		manager.notifyPendingChanges();
+		Assert.assertEquals( "unexpected notifications after flush" , expected , normal.notified );
+	}
+
+	@Test
+	public void testListenersNotifiedOncePerFacilityWithCoalescing() {
+		final BikeSharingManager manager = createManager( true );
+
+		final RecordingListener synchronous = new RecordingListener();
+		final RecordingListener normal = new RecordingListener();
+		manager.addSynchronousListener( synchronous );
+		manager.addListener( normal );
+
+		changeFacilities( manager );
+
+		Assert.assertEquals(
+				"unexpected synchronous notifications",
+				Arrays.<Id>asList( FACILITY_A , FACILITY_A , FACILITY_B , FACILITY_A ),
+				synchronous.notified );
+		Assert.assertTrue( "unexpected notifications before flush" , normal.notified.isEmpty() );
+
+		manager.notifyPendingChanges();
+		Assert.assertEquals(
+				"unexpected notifications after flush",
+				Arrays.<Id>asList( FACILITY_A , FACILITY_B ),
+				normal.notified );
+		Assert.assertEquals(
+				"unexpected state at notification",
+				Arrays.asList( 1 , 1 ),
+				normal.nBikes );
+
+		manager.notifyPendingChanges();
+		Assert.assertEquals( "unexpected notifications after second flush" , 2 , normal.notified.size() );
+	}
+
+	private static void changeFacilities( final BikeSharingManager manager ) {
+		manager.takeBike( FACILITY_A );
+		manager.putBike( FACILITY_A );
+		manager.takeBike( FACILITY_B );
+		manager.takeBike( FACILITY_A );
+	}
+
+	private static BikeSharingManager createManager( final boolean coalesce ) {
+		final BikeSharingFacilities facilities = new BikeSharingFacilities();
+
+		facilities.addFacility(
+				facilities.getFactory().createBikeSharingFacility(
+						FACILITY_A,
+						new Coord( 0 , 0 ),
+						Id.create( "link_a" , Link.class ),
+						4,
+						2 ) );
+		facilities.addFacility(
+				facilities.getFactory().createBikeSharingFacility(
+						FACILITY_B,
+						new Coord( 10 , 10 ),
+						Id.create( "link_b" , Link.class ),
+						4,
+						2 ) );
+
+		final BikeSharingConfigGroup config = new BikeSharingConfigGroup();
+		config.setCoalesceListenerNotifications( coalesce );
+
+		return new BikeSharingManagerImpl( config , facilities );
+	}
+
+	private static class RecordingListener implements BikeSharingManagerListener {
+		private final List<Id> notified = new ArrayList<>();
+		private final List<Integer> nBikes = new ArrayList<>();
+
+		@Override
+		public void handleChange( final StatefulBikeSharingFacility facilityInNewState ) {
+			notified.add( facilityInNewState.getId() );
+			nBikes.add( facilityInNewState.getNumberOfBikes() );
+		}
+	}
+}
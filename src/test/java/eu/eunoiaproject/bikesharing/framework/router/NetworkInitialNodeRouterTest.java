@@ -0,0 +1,181 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * NetworkInitialNodeRouterTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2014 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package eu.eunoiaproject.bikesharing.framework.router;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.NetworkRoutingModule;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.costcalculators.FreespeedTravelTimeAndDisutility;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.scoring.functions.ScoringParameters;
+import org.matsim.pt.router.TransitRouterNetwork.TransitRouterNetworkNode;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class NetworkInitialNodeRouterTest {
+	private static final int GRID_SIZE = 5;
+
+	@Test
+	public void testAccessRoutesAreTheSameAsPerNodeRoutes() {
+		final Fixture f = new Fixture();
+
+		for ( TransitStopFacility origin : f.facilities ) {
+			assertSameRoutes(
+					f.perNodeRouter.calcAccessRoutes( f.nodes , origin , 3600 , null ),
+					f.treeRouter.calcAccessRoutes( f.nodes , origin , 3600 , null ) );
+		}
+	}
+
+	@Test
+	public void testEgressRoutesAreTheSameAsPerNodeRoutes() {
+		final Fixture f = new Fixture();
+
+		for ( TransitStopFacility destination : f.facilities ) {
+			assertSameRoutes(
+					f.perNodeRouter.calcEgressRoutes( f.nodes , destination , 3600 , null ),
+					f.treeRouter.calcEgressRoutes( f.nodes , destination , 3600 , null ) );
+		}
+	}
+
+	private static void assertSameRoutes(
+			final Collection<InitialNodeWithSubTrip> expectedRoutes,
+			final Collection<InitialNodeWithSubTrip> actualRoutes ) {
+		// both routers return routes in the order of the nodes
+		final List<InitialNodeWithSubTrip> expected = new ArrayList<>( expectedRoutes );
+		final List<InitialNodeWithSubTrip> actual = new ArrayList<>( actualRoutes );
+		Assert.assertEquals( "unexpected number of routes" , expected.size() , actual.size() );
+
+		for ( int i = 0; i < expected.size(); i++ ) {
+			final InitialNodeWithSubTrip e = expected.get( i );
+			final InitialNodeWithSubTrip a = actual.get( i );
+
+			Assert.assertSame( "unexpected node" , e.getNode() , a.getNode() );
+			Assert.assertEquals( "unexpected cost" , e.initialCost , a.initialCost , 1E-9 );
+			Assert.assertEquals( "unexpected arrival time" , e.initialTime , a.initialTime , 1E-9 );
+
+			Assert.assertEquals( "unexpected trip length" , 1 , a.getSubtrip().size() );
+			final NetworkRoute expectedRoute = (NetworkRoute) ((Leg) e.getSubtrip().get( 0 )).getRoute();
+			final NetworkRoute actualRoute = (NetworkRoute) ((Leg) a.getSubtrip().get( 0 )).getRoute();
+			Assert.assertEquals( "unexpected start link" , expectedRoute.getStartLinkId() , actualRoute.getStartLinkId() );
+			Assert.assertEquals( "unexpected links" , expectedRoute.getLinkIds() , actualRoute.getLinkIds() );
+			Assert.assertEquals( "unexpected end link" , expectedRoute.getEndLinkId() , actualRoute.getEndLinkId() );
+			Assert.assertEquals( "unexpected distance" , expectedRoute.getDistance() , actualRoute.getDistance() , 1E-9 );
+		}
+	}
+
+	private static class Fixture {
+		final List<TransitStopFacility> facilities = new ArrayList<>();
+		final List<TransitRouterNetworkNode> nodes = new ArrayList<>();
+		final InitialNodeRouter perNodeRouter;
+		final InitialNodeRouter treeRouter;
+
+		Fixture() {
+			final Config config = ConfigUtils.createConfig();
+			final Scenario scenario = ScenarioUtils.createScenario( config );
+			final Network network = scenario.getNetwork();
+
+			// grid with irregular lengths, so that there are no ties between paths.
+			// Free speed of 1 m/s and integer lengths give integer travel times.
+			final Random random = new Random( 42 );
+			final Node[][] grid = new Node[ GRID_SIZE ][ GRID_SIZE ];
+			for ( int x = 0; x < GRID_SIZE; x++ ) {
+				for ( int y = 0; y < GRID_SIZE; y++ ) {
+					grid[ x ][ y ] = network.getFactory().createNode( Id.create( x+"-"+y , Node.class ) , new Coord( 100d * x , 100d * y ) );
+					network.addNode( grid[ x ][ y ] );
+				}
+			}
+			for ( int x = 0; x < GRID_SIZE; x++ ) {
+				for ( int y = 0; y < GRID_SIZE; y++ ) {
+					if ( x > 0 ) addLinks( network , random , grid[ x - 1 ][ y ] , grid[ x ][ y ] );
+					if ( y > 0 ) addLinks( network , random , grid[ x ][ y - 1 ] , grid[ x ][ y ] );
+				}
+			}
+
+			final TransitScheduleFactory factory = scenario.getTransitSchedule().getFactory();
+			int i = 0;
+			for ( Link link : network.getLinks().values() ) {
+				if ( i++ % 7 != 0 ) continue;
+				final TransitStopFacility facility =
+						factory.createTransitStopFacility(
+								Id.create( link.getId().toString() , TransitStopFacility.class ),
+								link.getToNode().getCoord(),
+								false );
+				facility.setLinkId( link.getId() );
+				facilities.add( facility );
+				nodes.add(
+						new TransitRouterNetworkNode(
+								Id.create( link.getId().toString() , Node.class ),
+								factory.createTransitRouteStop( facility , 0 , 0 ),
+								null,
+								null ) );
+			}
+
+			final FreespeedTravelTimeAndDisutility tt = new FreespeedTravelTimeAndDisutility( config.planCalcScore() );
+			final RoutingModule delegate =
+					new NetworkRoutingModule(
+							TransportMode.car,
+							scenario.getPopulation().getFactory(),
+							network,
+							new DijkstraFactory().createPathCalculator( network , tt , tt ) );
+			final ScoringParameters scoringParams =
+					new ScoringParameters.Builder( config.planCalcScore(), config.planCalcScore().getScoringParameters( null ), config.scenario() ).build();
+
+			perNodeRouter = new InitialNodeRouter( delegate , 1000 , 1 , scoringParams );
+			treeRouter = new NetworkInitialNodeRouter( TransportMode.car , delegate , network , tt , tt , 1000 , scoringParams );
+		}
+
+		private static void addLinks( final Network network , final Random random , final Node n1 , final Node n2 ) {
+			for ( Node[] ends : new Node[][]{ { n1 , n2 } , { n2 , n1 } } ) {
+				final Link link =
+						network.getFactory().createLink(
+								Id.create( ends[ 0 ].getId()+"_"+ends[ 1 ].getId() , Link.class ),
+								ends[ 0 ],
+								ends[ 1 ] );
+				link.setLength( 100 + random.nextInt( 1000 ) );
+				link.setFreespeed( 1 );
+				link.setCapacity( 1000 );
+				link.setAllowedModes( Collections.singleton( TransportMode.car ) );
+				network.addLink( link );
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * StationIndexTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2014 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package eu.eunoiaproject.bikesharing.framework.router;
+
+import eu.eunoiaproject.bikesharing.framework.BikeSharingConstants;
+import eu.eunoiaproject.bikesharing.framework.router.BikeSharingRoutingModule.StationIndex;
+import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacilities;
+import eu.eunoiaproject.bikesharing.framework.scenario.BikeSharingFacility;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.EmptyStageActivityTypes;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.facilities.Facility;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class StationIndexTest {
+	// stations every 100 meters on the x axis, from 0 to 1000
+	private static final int N_STATIONS = 11;
+	private static final double SEARCH_RADIUS = 500;
+
+	@Test
+	public void testStationsWithinRadiusAreChosenUniformly() {
+		final BikeSharingFacilities facilities = createFacilities();
+		final BikeSharingRoutingModule module = createModule( new StationIndex( facilities , SEARCH_RADIUS , false ) );
+
+		// direct distance of 1000: stations are searched within 1000 / 3 of origin and destination
+		final Facility origin = createLocation( facilities , "origin" , 0 );
+		final Facility destination = createLocation( facilities , "destination" , 1000 );
+
+		final int nDraws = 4000;
+		final Map<String, Integer> startCounts = new HashMap<>();
+		final Map<String, Integer> endCounts = new HashMap<>();
+		for ( int i = 0; i < nDraws; i++ ) {
+			final List<? extends PlanElement> trip = module.calcRoute( origin , destination , 0 , null );
+			startCounts.merge( getStation( trip , 1 ) , 1 , Integer::sum );
+			endCounts.merge( getStation( trip , 3 ) , 1 , Integer::sum );
+		}
+
+		assertUniform( startCounts , nDraws , "0" , "1" , "2" , "3" );
+		assertUniform( endCounts , nDraws , "7" , "8" , "9" , "10" );
+	}
+
+	@Test
+	public void testSearchIsLimitedByConfiguredRadius() {
+		final BikeSharingFacilities facilities = createFacilities();
+		final BikeSharingRoutingModule module = createModule( new StationIndex( facilities , SEARCH_RADIUS , false ) );
+
+		// the direct distance would allow stations up to 3000 meters away, but the index only knows the ones within 500 meters
+		final Facility origin = createLocation( facilities , "origin" , 0 );
+		final Facility destination = createLocation( facilities , "destination" , 9000 );
+
+		final int nDraws = 6000;
+		final Map<String, Integer> startCounts = new HashMap<>();
+		for ( int i = 0; i < nDraws; i++ ) {
+			startCounts.merge( getStation( module.calcRoute( origin , destination , 0 , null ) , 1 ) , 1 , Integer::sum );
+		}
+
+		assertUniform( startCounts , nDraws , "0" , "1" , "2" , "3" , "4" , "5" );
+	}
+
+	@Test
+	public void testClosestStationIsUsedIfNoneWithinRadius() {
+		final BikeSharingFacilities facilities = createFacilities();
+		final BikeSharingRoutingModule module = createModule( new StationIndex( facilities , SEARCH_RADIUS , false ) );
+
+		final Facility origin = createLocation( facilities , "origin" , 0 );
+		final Facility destination = createLocation( facilities , "destination" , 5000 );
+
+		for ( int i = 0; i < 100; i++ ) {
+			Assert.assertEquals(
+					"unexpected fallback station",
+					"10",
+					getStation( module.calcRoute( origin , destination , 0 , null ) , 3 ) );
+		}
+	}
+
+	@Test
+	public void testCachedLocationsAreBounded() {
+		final BikeSharingFacilities facilities = createFacilities();
+		final int maxCachedLocations = 1024;
+		// avoid locations exactly on the border of the search disk
+		final double radius = 555.5;
+		final StationIndex index = new StationIndex( facilities , radius , false , maxCachedLocations );
+
+		for ( int i = 0; i < 100000; i++ ) {
+			final Coord coord = new Coord( i % 1000 , i / 1000 );
+			Assert.assertEquals(
+					"unexpected number of stations around "+coord,
+					getNumberOfStationsWithin( coord , radius ),
+					index.getCandidates( coord ).getNumberOfStationsWithin( radius ) );
+		}
+
+		Assert.assertTrue(
+				"too many cached locations: "+index.getNumberOfCachedLocations(),
+				index.getNumberOfCachedLocations() <= maxCachedLocations );
+	}
+
+	private static int getNumberOfStationsWithin( final Coord coord , final double radius ) {
+		int n = 0;
+		for ( int i = 0; i < N_STATIONS; i++ ) {
+			if ( Math.hypot( coord.getX() - 100 * i , coord.getY() ) <= radius ) n++;
+		}
+		return n;
+	}
+
+	private static void assertUniform(
+			final Map<String, Integer> counts,
+			final int nDraws,
+			final String... expectedStations ) {
+		Assert.assertEquals(
+				"unexpected chosen stations "+counts,
+				expectedStations.length,
+				counts.size() );
+
+		final double expectedCount = ((double) nDraws) / expectedStations.length;
+		for ( String station : expectedStations ) {
+			final Integer count = counts.get( station );
+			Assert.assertNotNull( "station "+station+" never chosen in "+counts , count );
+			Assert.assertEquals(
+					"unexpected number of choices of station "+station+" in "+counts,
+					expectedCount,
+					count,
+					0.15 * expectedCount );
+		}
+	}
+
+	private static String getStation( final List<? extends PlanElement> trip , final int index ) {
+		final Activity interaction = (Activity) trip.get( index );
+		Assert.assertEquals( BikeSharingConstants.INTERACTION_TYPE , interaction.getType() );
+		return interaction.getFacilityId().toString();
+	}
+
+	private static BikeSharingFacilities createFacilities() {
+		final BikeSharingFacilities facilities = new BikeSharingFacilities();
+		for ( int i = 0; i < N_STATIONS; i++ ) {
+			facilities.addFacility(
+					facilities.getFactory().createBikeSharingFacility(
+							Id.create( i , BikeSharingFacility.class ),
+							new Coord( 100 * i , 0 ),
+							Id.create( i , Link.class ),
+							10,
+							5 ) );
+		}
+		return facilities;
+	}
+
+	private static Facility createLocation(
+			final BikeSharingFacilities facilities,
+			final String id,
+			final double x ) {
+		// not added to the facilities
+		return facilities.getFactory().createBikeSharingFacility(
+				Id.create( id , BikeSharingFacility.class ),
+				new Coord( x , 0 ),
+				Id.create( id , Link.class ),
+				0,
+				0 );
+	}
+
+	private static BikeSharingRoutingModule createModule( final StationIndex index ) {
+		return new BikeSharingRoutingModule(
+				new Random( 42 ),
+				index,
+				new TeleportingRoutingModule( TransportMode.walk ),
+				new TeleportingRoutingModule( TransportMode.bike ) );
+	}
+
+	private static class TeleportingRoutingModule implements RoutingModule {
+		private final String mode;
+
+		private TeleportingRoutingModule( final String mode ) {
+			this.mode = mode;
+		}
+
+		@Override
+		public List<? extends PlanElement> calcRoute(
+				final Facility fromFacility,
+				final Facility toFacility,
+				final double departureTime,
+				final Person person ) {
+			final Leg leg = PopulationUtils.createLeg( mode );
+			leg.setDepartureTime( departureTime );
+			leg.setTravelTime( 0 );
+			leg.setRoute( RouteUtils.createGenericRouteImpl( fromFacility.getLinkId() , toFacility.getLinkId() ) );
+			return Collections.singletonList( leg );
+		}
+
+		@Override
+		public StageActivityTypes getStageActivityTypes() {
+			return EmptyStageActivityTypes.INSTANCE;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * BoundedStripedLongMapTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author thibautd
+ */
+public class BoundedStripedLongMapTest {
+	@Test
+	public void testGetPut() {
+		final BoundedStripedLongMap<String> map = new BoundedStripedLongMap<>( -1 , 4 );
+
+		for ( long k = 0; k < 1000; k++ ) map.put( k * 31 , "v"+k );
+		map.put( 0 , "replaced" );
+
+		Assert.assertEquals( "unexpected size" , 1000 , map.size() );
+		Assert.assertEquals( "unexpected value" , "replaced" , map.get( 0 ) );
+		Assert.assertEquals( "unexpected value" , "v999" , map.get( 999 * 31 ) );
+		Assert.assertNull( "unexpected value for absent key" , map.get( 1 ) );
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		final int maxSize = 100;
+		final BoundedStripedLongMap<Long> map = new BoundedStripedLongMap<>( maxSize , 4 );
+
+		for ( long k = 0; k < 10000; k++ ) {
+			map.put( k , k );
+			Assert.assertTrue( "too many elements: "+map.size() , map.size() <= maxSize );
+		}
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		// only one stripe, so that eviction order is exact
+		final int maxSize = 100;
+		final BoundedStripedLongMap<Long> map = new BoundedStripedLongMap<>( maxSize , 1 );
+
+		for ( long k = 0; k < maxSize; k++ ) map.put( k , k );
+		// access the oldest entries, so that they become the most recently used
+		for ( long k = 0; k < 10; k++ ) Assert.assertEquals( "unexpected value" , (Long) k , map.get( k ) );
+
+		// exceed the cap
+		map.put( maxSize , (long) maxSize );
+		Assert.assertTrue( "no eviction at cap" , map.size() <= maxSize );
+
+		for ( long k = 0; k < 10; k++ ) {
+			Assert.assertNotNull( "recently used entry "+k+" was evicted" , map.get( k ) );
+		}
+		Assert.assertNotNull( "inserted entry was evicted" , map.get( maxSize ) );
+		Assert.assertNull( "least recently used entry was not evicted" , map.get( 10 ) );
+	}
+
+	@Test
+	public void testForEachEntry() {
+		final BoundedStripedLongMap<Long> map = new BoundedStripedLongMap<>( -1 , 8 );
+		for ( long k = 0; k < 500; k++ ) map.put( k , 2 * k );
+
+		final long[] sum = { 0 };
+		map.forEachEntry( ( k , v ) -> {
+			Assert.assertEquals( "unexpected value for "+k , 2 * k , (long) v );
+			sum[ 0 ] += k;
+			return true;
+		} );
+		Assert.assertEquals( "not all entries visited" , 499 * 500 / 2 , sum[ 0 ] );
+	}
+}
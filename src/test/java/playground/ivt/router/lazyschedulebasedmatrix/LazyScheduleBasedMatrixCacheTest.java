@@ -0,0 +1,137 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * LazyScheduleBasedMatrixCacheTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.Collections;
+
+/**
+ * @author thibautd
+ */
+public class LazyScheduleBasedMatrixCacheTest {
+	private static final double CELL_SIZE = 100;
+	private static final double BIN_DURATION = 900;
+
+	@Rule
+	public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void testReadTripsAreNotEvicted() {
+		final Network network = createNetwork();
+
+		final String file = utils.getOutputDirectory()+"/cache.dat.gz";
+		final int nTrips = 100;
+		writeTrips( file , nTrips );
+
+		final LazyScheduleBasedMatrixRoutingModule.Cache cache = createCache( network , nTrips );
+		cache.read( file );
+
+		Assert.assertEquals(
+				"unexpected number of cached trips",
+				nTrips,
+				cache.size() );
+
+		// as many lazily computed trips as the bound: the lazy store evicts, but not the read one
+		cacheLazyTrips( cache , nTrips );
+		for ( int i = 0; i < nTrips; i++ ) {
+			Assert.assertNotNull(
+					"read trip "+i+" was evicted",
+					cache.uncache( coord( i % 10 , i / 10 ) , coord( 0 , 0 ) , i * BIN_DURATION ) );
+		}
+	}
+
+	@Test
+	public void testWrittenCacheStaysWithinBound() {
+		final Network network = createNetwork();
+		final int maxCachedTrips = 30;
+
+		final String file = utils.getOutputDirectory()+"/cache.dat.gz";
+		writeTrips( file , 100 );
+
+		// several runs, each starting from the cache of the previous one
+		for ( int run = 0; run < 3; run++ ) {
+			final LazyScheduleBasedMatrixRoutingModule.Cache cache = createCache( network , maxCachedTrips );
+			cache.read( file );
+			Assert.assertTrue(
+					"too many trips read in run "+run+": "+cache.size(),
+					cache.size() <= maxCachedTrips );
+
+			cacheLazyTrips( cache , 100 );
+			cache.write( file );
+
+			final LazyScheduleBasedMatrixRoutingModule.Cache unbounded = createCache( network , -1 );
+			unbounded.read( file );
+			Assert.assertEquals(
+					"unexpected number of trips written in run "+run,
+					maxCachedTrips,
+					unbounded.size() );
+		}
+	}
+
+	private static Network createNetwork() {
+		final Network network = NetworkUtils.createNetwork();
+		network.addNode( network.getFactory().createNode( Id.create( 1 , Node.class ) , new Coord( 0 , 0 ) ) );
+		network.addNode( network.getFactory().createNode( Id.create( 2 , Node.class ) , new Coord( 999 , 999 ) ) );
+		return network;
+	}
+
+	private static LazyScheduleBasedMatrixRoutingModule.Cache createCache( final Network network , final int maxCachedTrips ) {
+		return new LazyScheduleBasedMatrixRoutingModule.Cache(
+				network,
+				new RouteFactories(),
+				BIN_DURATION,
+				CELL_SIZE,
+				maxCachedTrips );
+	}
+
+	/**
+	 * writes trips from all cells of the 10x10 network to cell (0,0), trip i in time slot i
+	 */
+	private static void writeTrips( final String file , final int nTrips ) {
+		try ( CachedTripsWriter writer = new CachedTripsWriter( file , CELL_SIZE , BIN_DURATION ) ) {
+			for ( int i = 0; i < nTrips; i++ ) {
+				writer.write( i % 10 , i / 10 , 0 , 0 , i , Collections.emptyList() );
+			}
+		}
+	}
+
+	/**
+	 * caches trips as the routing module would, from cell (0,0) to all cells, in other time slots than the written ones
+	 */
+	private static void cacheLazyTrips( final LazyScheduleBasedMatrixRoutingModule.Cache cache , final int nTrips ) {
+		for ( int i = 0; i < nTrips; i++ ) {
+			cache.cache( coord( 0 , 0 ) , coord( i % 10 , i / 10 ) , ( 1000 + i ) * BIN_DURATION , Collections.emptyList() );
+		}
+	}
+
+	private static Coord coord( final int cellX , final int cellY ) {
+		return new Coord( ( cellX + 0.5 ) * CELL_SIZE , ( cellY + 0.5 ) * CELL_SIZE );
+	}
+}
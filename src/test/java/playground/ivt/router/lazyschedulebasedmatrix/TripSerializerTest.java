@@ -0,0 +1,141 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TripSerializerTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.ivt.router.lazyschedulebasedmatrix;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class TripSerializerTest {
+	@Test
+	public void testRoundTrip() throws IOException {
+		final List<List<? extends PlanElement>> trips = new ArrayList<>();
+		for ( int i = 0; i < 3; i++ ) trips.add( createTrip( i ) );
+		trips.add( new ArrayList<PlanElement>() );
+
+		// strings are shared between trips: all have to go through the same serializer
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+			final TripSerializer serializer = new TripSerializer();
+			for ( List<? extends PlanElement> trip : trips ) serializer.writeTrip( out , trip );
+		}
+
+		final RouteFactories routeFactories =
+				ScenarioUtils.createScenario( ConfigUtils.createConfig() ).getPopulation().getFactory().getRouteFactories();
+		try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) {
+			final TripSerializer serializer = new TripSerializer();
+			for ( List<? extends PlanElement> expected : trips ) {
+				assertSameTrip( expected , serializer.readTrip( in , routeFactories ) );
+			}
+			Assert.assertEquals( "unread bytes remain" , -1 , in.read() );
+		}
+	}
+
+	private static List<PlanElement> createTrip( final int i ) {
+		final Id<Link> start = Id.createLinkId( "start" );
+		final Id<Link> end = Id.createLinkId( "end-"+i );
+
+		final Leg access = PopulationUtils.createLeg( TransportMode.transit_walk );
+		access.setDepartureTime( 3600 + i );
+		access.setTravelTime( 120 );
+		access.setRoute( RouteUtils.createGenericRouteImpl( start , start ) );
+		access.getRoute().setTravelTime( 120 );
+		access.getRoute().setDistance( 100 );
+
+		final Activity interaction = PopulationUtils.createActivityFromCoordAndLinkId( "pt interaction" , new Coord( i , 2 * i ) , start );
+		interaction.setMaximumDuration( 0 );
+
+		final Leg networkLeg = PopulationUtils.createLeg( TransportMode.car );
+		networkLeg.setDepartureTime( 3720 + i );
+		networkLeg.setTravelTime( 600 );
+		final Route route =
+				RouteUtils.createLinkNetworkRouteImpl(
+						start,
+						Arrays.asList( Id.createLinkId( "a" ) , Id.createLinkId( "b-"+i ) ),
+						end );
+		route.setTravelTime( 600 );
+		route.setDistance( 1234.5 );
+		networkLeg.setRoute( route );
+
+		final Leg noRoute = PopulationUtils.createLeg( TransportMode.walk );
+		noRoute.setTravelTime( 10 );
+
+		return Arrays.asList( access , interaction , networkLeg , noRoute );
+	}
+
+	private static void assertSameTrip(
+			final List<? extends PlanElement> expected,
+			final List<? extends PlanElement> actual ) {
+		Assert.assertEquals( "unexpected trip size" , expected.size() , actual.size() );
+
+		for ( int i = 0; i < expected.size(); i++ ) {
+			if ( expected.get( i ) instanceof Activity ) {
+				final Activity e = (Activity) expected.get( i );
+				final Activity a = (Activity) actual.get( i );
+				Assert.assertEquals( "unexpected type" , e.getType() , a.getType() );
+				Assert.assertEquals( "unexpected coord" , e.getCoord() , a.getCoord() );
+				Assert.assertEquals( "unexpected link" , e.getLinkId() , a.getLinkId() );
+				Assert.assertEquals( "unexpected duration" , e.getMaximumDuration() , a.getMaximumDuration() , 0 );
+			}
+			else {
+				final Leg e = (Leg) expected.get( i );
+				final Leg a = (Leg) actual.get( i );
+				Assert.assertEquals( "unexpected mode" , e.getMode() , a.getMode() );
+				Assert.assertEquals( "unexpected departure" , e.getDepartureTime() , a.getDepartureTime() , 0 );
+				Assert.assertEquals( "unexpected travel time" , e.getTravelTime() , a.getTravelTime() , 0 );
+
+				if ( e.getRoute() == null ) {
+					Assert.assertNull( "unexpected route" , a.getRoute() );
+					continue;
+				}
+				Assert.assertEquals( "unexpected route class" , e.getRoute().getClass() , a.getRoute().getClass() );
+				Assert.assertEquals( "unexpected start link" , e.getRoute().getStartLinkId() , a.getRoute().getStartLinkId() );
+				Assert.assertEquals( "unexpected end link" , e.getRoute().getEndLinkId() , a.getRoute().getEndLinkId() );
+				Assert.assertEquals( "unexpected route travel time" , e.getRoute().getTravelTime() , a.getRoute().getTravelTime() , 0 );
+				Assert.assertEquals( "unexpected distance" , e.getRoute().getDistance() , a.getRoute().getDistance() , 0 );
+				Assert.assertEquals( "unexpected description" , e.getRoute().getRouteDescription() , a.getRoute().getRouteDescription() );
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * LinkInformationTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2012 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.analysis.joinabletripsidentifier;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author thibautd
+ */
+public class LinkInformationTest {
+	private static final int N_TRIPS = 200;
+	private static final int N_QUERIES = 100;
+	private static final int QUERY_PERIOD = 20;
+
+	@Test
+	public void testDeparturesAndArrivalsAreSortedIndependently() {
+		final LinkInformation info = new LinkInformation( Id.createLinkId( "link" ) , new Coord( 0 , 0 ) );
+
+		info.handleDeparture( Id.create( "a" , Trip.class ) , 10 , 20 );
+		info.handleArrival( Id.create( "b" , Trip.class ) , 5 , 15 );
+		info.handleDeparture( Id.create( "c" , Trip.class ) , 7 , 30 );
+		info.handleArrival( Id.create( "d" , Trip.class ) , 12 , 14 );
+
+		assertDepartureTimes( info , 7 , 10 );
+		assertArrivalTimes( info , 14 , 15 );
+		assertEquals( "unexpected index of departures from 8" , 1 , info.getFirstDepartureIndexFrom( 8 ) );
+		assertEquals( "unexpected index of arrivals from 14.5" , 1 , info.getFirstArrivalIndexFrom( 14.5 ) );
+	}
+
+	@Test
+	public void testEntriesAddedAfterSortingAreSorted() {
+		final LinkInformation info = new LinkInformation( Id.createLinkId( "link" ) , new Coord( 0 , 0 ) );
+
+		info.handleDeparture( Id.create( "a" , Trip.class ) , 10 , 20 );
+		info.handleDeparture( Id.create( "b" , Trip.class ) , 5 , 20 );
+		assertDepartureTimes( info , 5 , 10 );
+
+		// after the last added departure, but before the last one in the list
+		info.handleDeparture( Id.create( "c" , Trip.class ) , 7 , 20 );
+		assertDepartureTimes( info , 5 , 7 , 10 );
+	}
+
+	@Test
+	public void testIndexedSearchGivesSameResultAsExhaustiveScan() {
+		final Random random = new Random( 20120412 );
+		final LinkInformation info = new LinkInformation( Id.createLinkId( "link" ) , new Coord( 0 , 0 ) );
+
+		final List<Id<Trip>> departureIds = new ArrayList<>();
+		final List<Double> departureTimes = new ArrayList<>();
+		final List<Id<Trip>> arrivalIds = new ArrayList<>();
+		final List<Double> arrivalTimes = new ArrayList<>();
+
+		// departures and arrivals roughly in time order, as when reading events,
+		// but interleaved, slightly out of order and with trips of various durations
+		double now = 0;
+		for ( int i = 0; i < N_TRIPS; i++ ) {
+			// search while entries are still added, as lists are sorted lazily
+			if ( i % QUERY_PERIOD == 0 ) {
+				assertSameAsExhaustiveScan( random , info , now , departureIds , departureTimes , arrivalIds , arrivalTimes );
+			}
+
+			now += random.nextDouble() * 60;
+			final double time = now - random.nextDouble() * 120;
+			final Id<Trip> tripId = Id.create( i , Trip.class );
+			final double duration = random.nextDouble() * 3600;
+			if ( random.nextBoolean() ) {
+				info.handleDeparture( tripId , time , time + duration );
+				departureIds.add( tripId );
+				departureTimes.add( time );
+			}
+			else {
+				info.handleArrival( tripId , time - duration , time );
+				arrivalIds.add( tripId );
+				arrivalTimes.add( time );
+			}
+		}
+
+		assertSameAsExhaustiveScan( random , info , now , departureIds , departureTimes , arrivalIds , arrivalTimes );
+	}
+
+	private static void assertSameAsExhaustiveScan(
+			final Random random,
+			final LinkInformation info,
+			final double now,
+			final List<Id<Trip>> departureIds,
+			final List<Double> departureTimes,
+			final List<Id<Trip>> arrivalIds,
+			final List<Double> arrivalTimes ) {
+		for ( int i = 0; i < N_QUERIES; i++ ) {
+			final double from = random.nextDouble() * now;
+			final double to = from + random.nextDouble() * 600;
+
+			final Set<Id> expectedDepartures = new HashSet<>();
+			for ( int j = 0; j < departureIds.size(); j++ ) {
+				if ( departureTimes.get( j ) >= from && departureTimes.get( j ) < to ) expectedDepartures.add( departureIds.get( j ) );
+			}
+			final Set<Id> indexedDepartures = new HashSet<>();
+			for ( int j = info.getFirstDepartureIndexFrom( from ); j < info.getFirstDepartureIndexFrom( to ); j++ ) {
+				indexedDepartures.add( info.getDepartures().get( j ).getTripId() );
+			}
+			assertEquals( "unexpected departures in ["+from+", "+to+"[" , expectedDepartures , indexedDepartures );
+
+			final Set<Id> expectedArrivals = new HashSet<>();
+			for ( int j = 0; j < arrivalIds.size(); j++ ) {
+				if ( arrivalTimes.get( j ) >= from && arrivalTimes.get( j ) < to ) expectedArrivals.add( arrivalIds.get( j ) );
+			}
+			final Set<Id> indexedArrivals = new HashSet<>();
+			for ( int j = info.getFirstArrivalIndexFrom( from ); j < info.getFirstArrivalIndexFrom( to ); j++ ) {
+				indexedArrivals.add( info.getArrivals().get( j ).getTripId() );
+			}
+			assertEquals( "unexpected arrivals in ["+from+", "+to+"[" , expectedArrivals , indexedArrivals );
+		}
+	}
+
+	private static void assertDepartureTimes( final LinkInformation info , final double... expected ) {
+		assertEquals( "unexpected number of departures" , expected.length , info.getDepartures().size() );
+		for ( int i = 0; i < expected.length; i++ ) {
+			assertEquals( "unexpected departure "+i , expected[ i ] , info.getDepartures().get( i ).getDepartureTime() , 0 );
+		}
+	}
+
+	private static void assertArrivalTimes( final LinkInformation info , final double... expected ) {
+		assertEquals( "unexpected number of arrivals" , expected.length , info.getArrivals().size() );
+		for ( int i = 0; i < expected.length; i++ ) {
+			assertEquals( "unexpected arrival "+i , expected[ i ] , info.getArrivals().get( i ).getArrivalTime() , 0 );
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * StreamingTripReconstructorTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2012 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.analysis.joinabletripsidentifier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+import playground.ivt.utils.PassengerTracker;
+import playground.thibautd.analysis.joinabletripsidentifier.JoinableTrips.JoinableTrip;
+import playground.thibautd.analysis.joinabletripsidentifier.JoinableTrips.TripRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author thibautd
+ */
+public class StreamingTripReconstructorTest {
+	private static final int N_LINKS = 10;
+
+	@Rule public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void testSameJoinableTripsAsInMemory() {
+		// short slices, so that joinable trips are found across slices
+		testSameJoinableTripsAsInMemory( 600 , 16 );
+	}
+
+	@Test
+	public void testManySlicesWithFewOpenFiles() {
+		// trips are written in the slice of their departure when they end: slices are closed and reopened
+		testSameJoinableTripsAsInMemory( 60 , 2 );
+	}
+
+	private void testSameJoinableTripsAsInMemory( final double sliceDuration , final int maxOpenSlices ) {
+		final Network network = createNetwork();
+		final List<Event> events = createEvents( new Random( 20161018 ) );
+		final List<AcceptabilityCondition> conditions =
+				Arrays.asList(
+						new AcceptabilityCondition( 150 , 300 ),
+						new AcceptabilityCondition( 50 , 60 ) );
+
+		final PassengerTracker tracker = new PassengerTracker();
+		final TripReconstructor inMemory = new TripReconstructor( tracker , network );
+		final EventsManager inMemoryEvents = EventsUtils.createEventsManager();
+		inMemoryEvents.addHandler( tracker );
+		inMemoryEvents.addHandler( inMemory );
+		for ( Event e : events ) inMemoryEvents.processEvent( e );
+
+		final PassengerTracker streamingTracker = new PassengerTracker();
+		final StreamingTripReconstructor streaming =
+				new StreamingTripReconstructor(
+						streamingTracker,
+						network,
+						sliceDuration,
+						utils.getOutputDirectory(),
+						maxOpenSlices );
+		final EventsManager streamingEvents = EventsUtils.createEventsManager();
+		streamingEvents.addHandler( streamingTracker );
+		streamingEvents.addHandler( streaming );
+		for ( Event e : events ) {
+			streamingEvents.processEvent( e );
+			assertTrue( "too many open slices" , streaming.getNumberOfOpenSlices() <= maxOpenSlices );
+		}
+
+		final Map<String, Map<String, Map<AcceptabilityCondition, TripInfo>>> expected = getJoinableTrips( new JoinableTrips( conditions , inMemory , 2 ) );
+		final Map<String, Map<String, Map<AcceptabilityCondition, TripInfo>>> actual = getJoinableTrips( new JoinableTrips( conditions , streaming , 2 ) );
+
+		assertTrue( "no slicing, test is useless" , streaming.getNumberOfSlices() > 1 );
+		assertTrue( "all slices fit in open files, test is useless" , streaming.getNumberOfSlices() > maxOpenSlices );
+		assertTrue( "no joinable trip, test is useless" , expected.values().stream().anyMatch( s -> !s.isEmpty() ) );
+		assertEquals( "unexpected joinable trips" , expected , actual );
+	}
+
+	/**
+	 * trip ids differ between the two reconstructors: identify trips by agent and leg number
+	 */
+	private static Map<String, Map<String, Map<AcceptabilityCondition, TripInfo>>> getJoinableTrips( final JoinableTrips joinableTrips ) {
+		final Map<Id, String> names = new HashMap<>();
+		for ( TripRecord record : joinableTrips.getTripRecords().values() ) {
+			names.put( record.getId() , record.getAgentId()+"-"+record.getLegNumber() );
+		}
+
+		final Map<String, Map<String, Map<AcceptabilityCondition, TripInfo>>> joinable = new HashMap<>();
+		for ( TripRecord record : joinableTrips.getTripRecords().values() ) {
+			final Map<String, Map<AcceptabilityCondition, TripInfo>> drivers = new HashMap<>();
+			for ( JoinableTrip trip : record.getJoinableTrips() ) {
+				drivers.put( names.get( trip.getTripId() ) , trip.getFullfilledConditionsInfo() );
+			}
+			joinable.put( names.get( record.getId() ) , drivers );
+		}
+		return joinable;
+	}
+
+	private static Network createNetwork() {
+		final Network network = NetworkUtils.createNetwork();
+
+		Node from = NetworkUtils.createAndAddNode( network , Id.create( 0 , Node.class ) , new Coord( 0 , 0 ) );
+		for ( int i = 0; i < N_LINKS; i++ ) {
+			final Node to = NetworkUtils.createAndAddNode( network , Id.create( i + 1 , Node.class ) , new Coord( 100 * ( i + 1 ) , 0 ) );
+			NetworkUtils.createAndAddLink( network , Id.create( i , Link.class ) , from , to , 100 , 10 , 1000 , 1 );
+			from = to;
+		}
+
+		return network;
+	}
+
+	private static List<Event> createEvents( final Random random ) {
+		final List<Event> events = new ArrayList<>();
+
+		for ( int p = 0; p < 100; p++ ) {
+			final Id<Person> person = Id.createPersonId( p );
+			final Id<Vehicle> vehicle = Id.create( p , Vehicle.class );
+
+			final int home = random.nextInt( N_LINKS - 1 );
+			final int work = home + 1 + random.nextInt( N_LINKS - 1 - home );
+
+			double time = random.nextDouble() * 4 * 3600;
+			time = addTrip( events , person , vehicle , time , home , work , "h" , "w" );
+			addTrip( events , person , vehicle , time + random.nextDouble() * 3600 , work , home , "w" , "h" );
+		}
+
+		return events;
+	}
+
+	private static double addTrip(
+			final List<Event> events,
+			final Id<Person> person,
+			final Id<Vehicle> vehicle,
+			final double departureTime,
+			final int origin,
+			final int destination,
+			final String originType,
+			final String destinationType ) {
+		final Id<Link> originLink = Id.create( origin , Link.class );
+		final Id<Link> destinationLink = Id.create( destination , Link.class );
+
+		double time = departureTime;
+		events.add( new ActivityEndEvent( time , person , originLink , null , originType ) );
+		events.add( new PersonDepartureEvent( time , person , originLink , "car" ) );
+		events.add( new VehicleEntersTrafficEvent( time , person , originLink , vehicle , "car" , 1.0 ) );
+
+		final int step = destination > origin ? 1 : -1;
+		for ( int l = origin; l != destination; l += step ) {
+			time += 10;
+			events.add( new LinkLeaveEvent( time , vehicle , Id.create( l , Link.class ) ) );
+			events.add( new LinkEnterEvent( time , vehicle , Id.create( l + step , Link.class ) ) );
+		}
+
+		events.add( new VehicleLeavesTrafficEvent( time , person , destinationLink , vehicle , "car" , 1.0 ) );
+		events.add( new PersonArrivalEvent( time , person , destinationLink , "car" ) );
+		events.add( new ActivityStartEvent( time , person , destinationLink , null , destinationType ) );
+
+		return time;
+	}
+}
@@ -0,0 +1,255 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * PassengerQueuesManagerTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2012 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.hitchiking.qsim;
+
+import gnu.trove.map.TObjectIntMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.core.utils.collections.Tuple;
+import org.matsim.facilities.Facility;
+import playground.thibautd.hitchiking.HitchHikingConstants;
+import playground.thibautd.hitchiking.qsim.PassengerQueuesPerLink.QueuesPerDestination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @author thibautd
+ */
+public class PassengerQueuesManagerTest {
+	private static final Id<Link> PICK_UP = Id.create( "pickUp" , Link.class );
+
+	@Test
+	public void testNonEmptyDestinationsFollowAddsAndRemoves() {
+		final QueuesPerDestination queues = new PassengerQueuesPerLink().getQueuesAtLink( PICK_UP );
+		final Id<Link> a = Id.create( "a" , Link.class );
+		final Id<Link> b = Id.create( "b" , Link.class );
+
+		Assert.assertTrue( "no destination expected" , queues.getNonEmptyDestinations().isEmpty() );
+
+		queues.getQueueForDestination( a ).addWaitingAgent( new Passenger( "1" , a ) );
+		queues.getQueueForDestination( a ).addWaitingAgent( new Passenger( "2" , a ) );
+		queues.getQueueForDestination( b ).addWaitingAgent( new Passenger( "3" , b ) );
+		Assert.assertEquals( "unexpected destinations" , new HashSet<Id>( Arrays.asList( a , b ) ) , queues.getNonEmptyDestinations() );
+
+		// the returned set is a snapshot
+		final Collection<Id> snapshot = queues.getNonEmptyDestinations();
+		Assert.assertEquals( "unexpected number of called agents" , 1 , queues.getQueueForDestination( b ).callAgents( 3 ).size() );
+		Assert.assertEquals( "unexpected destinations" , Collections.singleton( a ) , queues.getNonEmptyDestinations() );
+		Assert.assertEquals( "snapshot should not change" , 2 , snapshot.size() );
+
+		// queue still non empty after calling part of the agents
+		Assert.assertEquals( "unexpected number of called agents" , 1 , queues.getQueueForDestination( a ).callAgents( 1 ).size() );
+		Assert.assertEquals( "unexpected destinations" , Collections.singleton( a ) , queues.getNonEmptyDestinations() );
+
+		Assert.assertEquals( "unexpected number of called agents" , 1 , queues.getQueueForDestination( a ).callAgents( 1 ).size() );
+		Assert.assertTrue( "no destination expected" , queues.getNonEmptyDestinations().isEmpty() );
+
+		// calling from an empty queue does not make it non empty
+		Assert.assertTrue( "no agent expected" , queues.getQueueForDestination( a ).callAgents( 1 ).isEmpty() );
+		Assert.assertTrue( "no destination expected" , queues.getNonEmptyDestinations().isEmpty() );
+
+		queues.getQueueForDestination( b ).addWaitingAgent( new Passenger( "4" , b ) );
+		Assert.assertEquals( "unexpected destinations" , Collections.singleton( b ) , queues.getNonEmptyDestinations() );
+	}
+
+	@Test
+	public void testIndexKeepsFirstPositionOfDestinations() {
+		final List<Id<Link>> destinations = createLinks( "a" , "b" , "a" , "c" );
+		final TObjectIntMap<Id<Link>> positions = PassengerQueuesManager.indexDestinations( destinations );
+
+		Assert.assertEquals( "unexpected number of indexed destinations" , 3 , positions.size() );
+		Assert.assertEquals( "unexpected position of a" , 0 , positions.get( Id.create( "a" , Link.class ) ) );
+		Assert.assertEquals( "unexpected position of b" , 1 , positions.get( Id.create( "b" , Link.class ) ) );
+		Assert.assertEquals( "unexpected position of c" , 3 , positions.get( Id.create( "c" , Link.class ) ) );
+		Assert.assertEquals( "unexpected position of unknown destination" , positions.getNoEntryValue() , positions.get( Id.create( "d" , Link.class ) ) );
+	}
+
+	@Test
+	public void testFirstNonEmptyQueueWithFewNonEmptyQueues() {
+		// more possible destinations than non-empty queues: the non-empty queues are searched in the position map
+		testFirstNonEmptyQueue( createLinks( "a" , "b" , "c" , "d" , "e" , "f" ) , "d" , "e" );
+	}
+
+	@Test
+	public void testFirstNonEmptyQueueWithManyNonEmptyQueues() {
+		// less possible destinations than non-empty queues: the possible destinations are scanned in order
+		testFirstNonEmptyQueue( createLinks( "e" , "d" ) , "e" , "d" );
+	}
+
+	private static void testFirstNonEmptyQueue(
+			final List<Id<Link>> possibleDestinations,
+			final String expectedFirst,
+			final String expectedSecond ) {
+		final PassengerQueuesManager manager = new PassengerQueuesManager( EventsUtils.createEventsManager() );
+
+		// passengers towards d, e and x
+		final List<MobsimAgent> passengers = new ArrayList<MobsimAgent>();
+		for ( String dest : new String[]{ "x" , "e" , "d" , "e" } ) {
+			final MobsimAgent passenger = new Passenger( ""+passengers.size() , Id.create( dest , Link.class ) );
+			passengers.add( passenger );
+			Assert.assertTrue( "passenger not handled" , manager.handleDeparture( 0 , passenger , PICK_UP ) );
+		}
+
+		final TObjectIntMap<Id<Link>> positions = PassengerQueuesManager.indexDestinations( possibleDestinations );
+
+		// destinations are searched in the order of the list
+		final Id<Link> first = Id.create( expectedFirst , Link.class );
+		final Id<Link> second = Id.create( expectedSecond , Link.class );
+
+		final Tuple<Id, Collection<MobsimAgent>> firstPickUp =
+			manager.getPassengersFromFirstNonEmptyQueue( 10 , PICK_UP , possibleDestinations , positions , 3 );
+		Assert.assertNotNull( "no passengers found" , firstPickUp );
+		Assert.assertEquals( "unexpected destination" , first , firstPickUp.getFirst() );
+		Assert.assertEquals( "unexpected passengers" , getPassengersTowards( passengers , first ) , firstPickUp.getSecond() );
+
+		final Tuple<Id, Collection<MobsimAgent>> secondPickUp =
+			manager.getPassengersFromFirstNonEmptyQueue( 20 , PICK_UP , possibleDestinations , positions , 3 );
+		Assert.assertNotNull( "no passengers found" , secondPickUp );
+		Assert.assertEquals( "unexpected destination" , second , secondPickUp.getFirst() );
+		Assert.assertEquals( "unexpected passengers" , getPassengersTowards( passengers , second ) , secondPickUp.getSecond() );
+
+		// only passengers towards x are left
+		Assert.assertNull(
+				"unexpected passengers",
+				manager.getPassengersFromFirstNonEmptyQueue( 30 , PICK_UP , possibleDestinations , positions , 3 ) );
+		Assert.assertNull(
+				"unexpected passengers at other link",
+				manager.getPassengersFromFirstNonEmptyQueue(
+					30,
+					Id.create( "other" , Link.class ),
+					createLinks( "x" ),
+					3 ) );
+		Assert.assertEquals(
+				"unexpected passengers towards x",
+				getPassengersTowards( passengers , Id.create( "x" , Link.class ) ),
+				manager.getPassengersFromFirstNonEmptyQueue( 30 , PICK_UP , createLinks( "x" ) , 3 ).getSecond() );
+	}
+
+	private static List<MobsimAgent> getPassengersTowards(
+			final List<MobsimAgent> passengers,
+			final Id<Link> destination ) {
+		final List<MobsimAgent> towards = new ArrayList<MobsimAgent>();
+		for ( MobsimAgent p : passengers ) {
+			if ( p.getDestinationLinkId().equals( destination ) ) towards.add( p );
+		}
+		return towards;
+	}
+
+	private static List<Id<Link>> createLinks( final String... ids ) {
+		final List<Id<Link>> links = new ArrayList<Id<Link>>();
+		for ( String id : ids ) links.add( Id.create( id , Link.class ) );
+		return links;
+	}
+
+	private static class Passenger implements MobsimAgent {
+		private final Id<Person> id;
+		private final Id<Link> destination;
+
+		public Passenger( final String id , final Id<Link> destination ) {
+			this.id = Id.create( id , Person.class );
+			this.destination = destination;
+		}
+
+		@Override
+		public Id<Link> getCurrentLinkId() {
+			return PICK_UP;
+		}
+
+		@Override
+		public Id<Link> getDestinationLinkId() {
+			return destination;
+		}
+
+		@Override
+		public Id<Person> getId() {
+			return id;
+		}
+
+		@Override
+		public State getState() {
+			return State.LEG;
+		}
+
+		@Override
+		public double getActivityEndTime() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void endActivityAndComputeNextState(double now) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void endLegAndComputeNextState(double now) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setStateToAbort(double now) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Double getExpectedTravelTime() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Double getExpectedTravelDistance() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getMode() {
+			return HitchHikingConstants.PASSENGER_MODE;
+		}
+
+		@Override
+		public void notifyArrivalOnLinkByNonNetworkMode(Id<Link> linkId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Facility<? extends Facility<?>> getCurrentFacility() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Facility<? extends Facility<?>> getDestinationFacility() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return "passenger "+id+" to "+destination;
+		}
+	}
+}
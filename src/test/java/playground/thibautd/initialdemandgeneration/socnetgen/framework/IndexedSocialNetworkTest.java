@@ -0,0 +1,102 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * IndexedSocialNetworkTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgen.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author thibautd
+ */
+public class IndexedSocialNetworkTest {
+	@Test
+	public void testSameAsMapBasedNetwork() {
+		final int n = 200;
+		final Random random = new Random( 20 );
+
+		final Id<Person>[] ids = new Id[ n ];
+		for ( int i = 0; i < n; i++ ) ids[ i ] = Id.createPersonId( "person-"+i );
+
+		final LockedSocialNetwork expected = new LockedSocialNetwork( false );
+		for ( Id<Person> id : ids ) expected.addEgo( id );
+
+		// each tie is added twice, from both sides, to mimic the input of the preprocessed runner
+		final Set<Long> ties = new HashSet<>();
+		for ( int ego = 0; ego < n; ego++ ) {
+			for ( int i = 0; i < 5; i++ ) {
+				final int alter = ( ego + 1 + random.nextInt( 10 ) ) % n;
+				expected.addTie( ids[ ego ] , ids[ alter ] );
+				ties.add( (long) Math.min( ego , alter ) * n + Math.max( ego , alter ) );
+			}
+		}
+
+		final int[] degrees = new int[ n ];
+		for ( long tie : ties ) {
+			degrees[ (int) ( tie / n ) ]++;
+			degrees[ (int) ( tie % n ) ]++;
+		}
+		final int[] offsets = new int[ n + 1 ];
+		for ( int i = 0; i < n; i++ ) offsets[ i + 1 ] = offsets[ i ] + degrees[ i ];
+		final int[] alters = new int[ offsets[ n ] ];
+		final int[] fill = offsets.clone();
+		for ( long tie : ties ) {
+			final int ego = (int) ( tie / n );
+			final int alter = (int) ( tie % n );
+			alters[ fill[ ego ]++ ] = alter;
+			alters[ fill[ alter ]++ ] = ego;
+		}
+		for ( int i = 0; i < n; i++ ) Arrays.sort( alters , offsets[ i ] , offsets[ i + 1 ] );
+
+		final IndexedSocialNetwork network = new IndexedSocialNetwork( ids , new IndexedTies( offsets , alters ) );
+
+		Assert.assertEquals( "unexpected egos" , expected.getEgos() , network.getEgos() );
+		for ( Id<Person> ego : expected.getEgos() ) {
+			Assert.assertEquals( "unexpected alters of "+ego , expected.getAlters( ego ) , network.getAlters( ego ) );
+			Assert.assertEquals( "unexpected alters of "+ego , network.getAlters( ego ) , expected.getAlters( ego ) );
+		}
+
+		int nEntries = 0;
+		for ( Map.Entry<Id<Person>, Set<Id<Person>>> e : network.getMapRepresentation().entrySet() ) {
+			nEntries++;
+			Assert.assertEquals( "unexpected map entry for "+e.getKey() , expected.getAlters( e.getKey() ) , e.getValue() );
+		}
+		Assert.assertEquals( "unexpected number of map entries" , n , nEntries );
+
+		Assert.assertEquals(
+				"unexpected clustering",
+				SnaUtils.calcClusteringCoefficient( expected ),
+				SnaUtils.calcClusteringCoefficient( network ),
+				MatsimTestUtils.EPSILON );
+		Assert.assertEquals(
+				"unexpected average degree",
+				SnaUtils.calcAveragePersonalNetworkSize( expected ),
+				SnaUtils.calcAveragePersonalNetworkSize( network ),
+				MatsimTestUtils.EPSILON );
+	}
+}
@@ -25,6 +25,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+import org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl;
 import org.matsim.testcases.MatsimTestUtils;
 
 import java.util.ArrayList;
@@ -181,6 +183,65 @@ public class SnaUtilsClusteringTest {
 		}
 	}
 
+	@Test
+	public void testClusteringStatistics() {
+		for ( Fixture f : fixtures ) {
+			for ( int nThreads : new int[]{ 1 , 3 } ) {
+				final IndexedSocialNetwork indexed = IndexedSocialNetwork.toIndexed( f.socialNetwork );
+				final ClusteringStatistics statistics = SnaUtils.calcClusteringStatistics( nThreads , indexed );
+
+				Assert.assertEquals(
+						"unexpected clustering index with "+nThreads+" threads",
+						f.clusteringIndex,
+						statistics.getGlobalClustering(),
+						MatsimTestUtils.EPSILON);
+
+				int nEgos = 0;
+				final int[] degreeDistribution = statistics.getDegreeDistribution();
+				for ( int degree = 0; degree < degreeDistribution.length; degree++ ) {
+					nEgos += degreeDistribution[ degree ];
+				}
+				Assert.assertEquals(
+						"unexpected number of egos in degree distribution",
+						f.socialNetwork.getEgos().size(),
+						nEgos );
+
+				for ( int ego = 0; ego < indexed.getTies().getNEgos(); ego++ ) {
+					Assert.assertEquals(
+							"unexpected local clustering for ego "+indexed.getId( ego ),
+							calcLocalClustering( indexed , indexed.getId( ego ) ),
+							statistics.getLocalClustering( ego ),
+							MatsimTestUtils.EPSILON);
+				}
+			}
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNonReflectiveNetworkIsRejected() {
+		final SocialNetwork socialNetwork = new SocialNetworkImpl( false );
+		final Id<Person> ego = Id.createPersonId( "ego" );
+		final Id<Person> alter = Id.createPersonId( "alter" );
+		socialNetwork.addEgo( ego );
+		socialNetwork.addEgo( alter );
+		socialNetwork.addMonodirectionalTie( ego , alter );
+
+		SnaUtils.calcClusteringCoefficient( socialNetwork );
+	}
+
+	private static double calcLocalClustering( final IndexedSocialNetwork net , final Id<Person> ego ) {
+		final List<Id<Person>> alters = new ArrayList<>( net.getAlters( ego ) );
+		int nPairs = 0;
+		int nClosed = 0;
+		for ( int i = 0; i < alters.size(); i++ ) {
+			for ( int j = i + 1; j < alters.size(); j++ ) {
+				nPairs++;
+				if ( net.getAlters( alters.get( i ) ).contains( alters.get( j ) ) ) nClosed++;
+			}
+		}
+		return nPairs > 0 ? ((double) nClosed) / nPairs : 0;
+	}
+
 	@Test
 	public void testAvgNetworkSize() {
 		for ( Fixture f : fixtures ) {
@@ -0,0 +1,108 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * SnaUtilsConnectivityTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgen.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author thibautd
+ */
+public class SnaUtilsConnectivityTest {
+	// 1 -- 2 -- 3 -- 4 -- 5    6 -- 7    8
+	//                               \    /
+	//                                 9
+	private static LockedSocialNetwork createNetwork() {
+		final LockedSocialNetwork net = new LockedSocialNetwork( false );
+
+		for ( int i = 1; i <= 9; i++ ) net.addEgo( id( i ) );
+
+		net.addTie( id( 1 ) , id( 2 ) );
+		net.addTie( id( 2 ) , id( 3 ) );
+		net.addTie( id( 3 ) , id( 4 ) );
+		net.addTie( id( 4 ) , id( 5 ) );
+
+		net.addTie( id( 6 ) , id( 7 ) );
+		net.addTie( id( 6 ) , id( 9 ) );
+		net.addTie( id( 7 ) , id( 9 ) );
+
+		return net;
+	}
+
+	private static Id<Person> id( final int i ) {
+		return Id.create( i , Person.class );
+	}
+
+	@Test
+	public void testComponents() {
+		final Collection<Set<Id<Person>>> components = SnaUtils.identifyConnectedComponents( createNetwork() );
+
+		Assert.assertEquals(
+				"unexpected number of components",
+				3,
+				components.size() );
+
+		final List<Set<Id<Person>>> list = new ArrayList<>( components );
+		Assert.assertEquals( "unexpected first component size" , 5 , list.get( 0 ).size() );
+		Assert.assertEquals( "unexpected second component size" , 3 , list.get( 1 ).size() );
+		Assert.assertEquals( "unexpected third component size" , 1 , list.get( 2 ).size() );
+
+		Assert.assertTrue( "missing member" , list.get( 0 ).contains( id( 4 ) ) );
+		Assert.assertFalse( "unexpected member" , list.get( 0 ).contains( id( 7 ) ) );
+		Assert.assertTrue( "missing member" , list.get( 1 ).contains( id( 9 ) ) );
+		Assert.assertTrue( "missing member" , list.get( 2 ).contains( id( 8 ) ) );
+	}
+
+	@Test
+	public void testDistances() {
+		for ( int nThreads : new int[]{ 1 , 3 } ) {
+			final List<Double> distances = new ArrayList<>();
+			SnaUtils.sampleSocialDistances(
+					nThreads,
+					createNetwork(),
+					new Random( 123 ),
+					100,
+					( ego , alter , distance ) -> {
+						final int egoNr = Integer.parseInt( ego.toString() );
+						final int alterNr = Integer.parseInt( alter.toString() );
+						Assert.assertTrue( "pair out of biggest component" , egoNr <= 5 && alterNr <= 5 );
+						Assert.assertEquals(
+								"unexpected distance between "+ego+" and "+alter,
+								Math.abs( egoNr - alterNr ),
+								distance,
+								0 );
+						distances.add( distance );
+					} );
+
+			Assert.assertEquals(
+					"unexpected number of sampled pairs",
+					100,
+					distances.size() );
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * BatchCMAESOptimizerTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2015 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.initialdemandgeneration.socnetgensimulated.framework;
+
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * @author thibautd
+ */
+public class BatchCMAESOptimizerTest {
+	@Test
+	public void testQuadratic() {
+		final BatchCMAESOptimizer optimizer =
+				new BatchCMAESOptimizer(
+						2000,
+						1E-9,
+						new MersenneTwister( 42 ),
+						null );
+
+		final PointValuePair result =
+				optimizer.minimize(
+						points -> Arrays.stream( points )
+								.mapToDouble( p -> Math.pow( p[ 0 ] - 30 , 2 ) / 25 + Math.pow( p[ 1 ] - 1200 , 2 ) / 250000 )
+								.toArray(),
+						new double[]{ 0 , 100 },
+						new double[]{ 5 , 500 },
+						7,
+						new double[]{ Double.NEGATIVE_INFINITY , 0 },
+						new double[]{ Double.POSITIVE_INFINITY , Double.POSITIVE_INFINITY } );
+
+		Assert.assertEquals( "unexpected first coordinate" , 30 , result.getPoint()[ 0 ] , 1E-2 );
+		Assert.assertEquals( "unexpected second coordinate" , 1200 , result.getPoint()[ 1 ] , 1 );
+	}
+
+	@Test
+	public void testBounds() {
+		final BatchCMAESOptimizer optimizer =
+				new BatchCMAESOptimizer(
+						2000,
+						1E-9,
+						new MersenneTwister( 42 ),
+						null );
+
+		final PointValuePair result =
+				optimizer.minimize(
+						points -> Arrays.stream( points )
+								.mapToDouble( p -> Math.pow( p[ 0 ] - 3 , 2 ) + Math.pow( p[ 1 ] + 5 , 2 ) )
+								.toArray(),
+						new double[]{ 0 , 100 },
+						new double[]{ 5 , 500 },
+						7,
+						new double[]{ Double.NEGATIVE_INFINITY , 0 },
+						new double[]{ Double.POSITIVE_INFINITY , Double.POSITIVE_INFINITY } );
+
+		Assert.assertEquals( "unexpected first coordinate" , 3 , result.getPoint()[ 0 ] , 1E-2 );
+		Assert.assertEquals( "second coordinate should be on the bound" , 0 , result.getPoint()[ 1 ] , 1E-9 );
+	}
+}
@@ -27,11 +27,13 @@ import org.junit.Test;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+import playground.thibautd.initialdemandgeneration.socnetgen.framework.IndexedTies;
 import playground.thibautd.initialdemandgeneration.socnetgensimulated.framework.TieUtility.DeterministicPart;
 import playground.thibautd.initialdemandgeneration.socnetgensimulated.framework.TieUtility.NoErrorTerm;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -125,7 +127,70 @@ public class PreprocessedRunnerTest {
 
 	}
 
+	@Test
+	public void testBalancedChunks() {
+		final int populationSize = 1000;
+		final int nChunks = 10;
+		final int[] starts = PreprocessedModelRunner.getBalancedChunkStarts( populationSize , nChunks );
+
+		Assert.assertEquals( "unexpected first ego" , 0 , starts[ 0 ] );
+		Assert.assertEquals( "unexpected end" , populationSize , starts[ starts.length - 1 ] );
+
+		final long maxPairs = (long) populationSize * (populationSize - 1) / 2 / nChunks + populationSize;
+		for ( int i = 0; i < starts.length - 1; i++ ) {
+			Assert.assertTrue( "chunks not increasing" , starts[ i ] < starts[ i + 1 ] );
+
+			long pairs = 0;
+			for ( int ego = starts[ i ]; ego < starts[ i + 1 ]; ego++ ) pairs += populationSize - 1 - ego;
+			Assert.assertTrue( "unbalanced chunk "+i+": "+pairs+" pairs" , pairs <= maxPairs );
+		}
+	}
+
+	@Test
+	public void testGeometricSkipping() {
+		final Random random = new Random( 123 );
+		final double rate = 0.1;
+
+		long sampled = 0;
+		long pairs = 0;
+		while ( pairs < 1000000 ) {
+			pairs += PreprocessedModelRunner.getNumberOfSkippedPairs( random , rate ) + 1;
+			sampled++;
+		}
+
+		Assert.assertEquals( "unexpected sampling rate" , rate , (double) sampled / pairs , 0.005 );
+		Assert.assertEquals( "should sample all pairs" , 0 , PreprocessedModelRunner.getNumberOfSkippedPairs( random , 1 ) );
+	}
+
+	@Test
+	public void testTiesAsNetwork() {
+		final ModelRunner runner = createRunner();
+
+		for ( double[] thresholds : new double[][]{ { 2 , 0 } , { 1 , 0 } , { 1 , 1 } } ) {
+			final Thresholds thr = new Thresholds( thresholds[ 0 ] , thresholds[ 1 ] );
+			runner.prepareFor( Collections.singleton( thr ) );
+			final IndexedTies ties = runner.createTies( thr );
+			final SocialNetwork network = runner.runModel( thr );
+
+			for ( int ego = 0; ego < ties.getNEgos(); ego++ ) {
+				final Set<Id<Person>> alters = new HashSet<>();
+				for ( int i = 0; i < ties.getDegree( ego ); i++ ) alters.add( Id.createPersonId( ties.getAlter( ego , i ) ) );
+
+				Assert.assertEquals(
+						"unexpected alters for ego "+ego+" with "+thr,
+						network.getAlters( Id.createPersonId( ego ) ),
+						alters );
+			}
+		}
+	}
+
 	private SocialNetwork run( final double primary , final double secondaryReduction ) {
+		final Thresholds thr = new Thresholds( primary , secondaryReduction );
+		log.info( "generate network with "+thr );
+		return createRunner().runModel( thr );
+	}
+
+	private PreprocessedModelRunner createRunner() {
 		final PreprocessedModelRunnerConfigGroup config = new PreprocessedModelRunnerConfigGroup();
 		config.setPrimarySampleRate( 1 );
 		config.setSecondarySampleRate( 1 );
@@ -158,17 +223,12 @@ public class PreprocessedRunnerTest {
 				new NoErrorTerm(),
 				false );
 
-		final ModelRunner runner =
-			new PreprocessedModelRunner(
-					new SocialNetworkGenerationConfigGroup(),
-					config,
-					population,
-					utility,
-					null );
-
-		final Thresholds thr = new Thresholds( primary , secondaryReduction );
-		log.info( "generate network with "+thr );
-		return runner.runModel( thr );
+		return new PreprocessedModelRunner(
+				new SocialNetworkGenerationConfigGroup(),
+				config,
+				population,
+				utility,
+				null );
 	}
 
 	private static Set<Id<Person>> idSet( int... ids ) {
@@ -20,21 +20,32 @@
 package playground.thibautd.mobsim.pseudoqsimengine;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.config.Config;
+import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.PrepareForSimUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.population.algorithms.PersonPrepareForSim;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.population.routes.RouteUtils;
 import org.matsim.core.router.DijkstraFactory;
@@ -98,15 +109,185 @@ public class PSeudoQSimCompareEventsTest {
 		testEventsSimilarToQsim( true , 15 );
 	}
 
+	@Test
+	public void testEventsSimilarToQsimWithTravelTimeTable() {
+		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
+		conf.setNThreads( 4 );
+		// default bin size of the travel time calculator: should give exactly the same travel times
+		conf.setTravelTimeTableBinSize( 900 );
+		testEventsSimilarToQsim( false , conf );
+	}
+
+	@Test
+	public void testEventsSimilarToQsimWithFastForward() {
+		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
+		conf.setNThreads( 4 );
+		conf.setFastForwardNetworkRoutes( true );
+		testEventsSimilarToQsim( true , conf );
+	}
+
+	@Test
+	public void testFastForwardKeepsEventsInTimeOrder() {
+		final Scenario scenario = createTestScenario( false );
+		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
+		conf.setNThreads( 4 );
+		scenario.getConfig().addModule( conf );
+		final TravelTimeCalculator travelTime =
+			new TravelTimeCalculator(
+					scenario.getNetwork(),
+					scenario.getConfig().travelTimeCalculator());
+
+		PrepareForSimUtils.createDefaultPrepareForSim( scenario ).run();
+		new PersonPrepareForSim(
+				new PlanRouter(
+						createTripRouter( travelTime , scenario ) ),
+				scenario ).run( scenario.getPopulation() );
+
+		final Map<Id<Vehicle>, List<Event>> linkByLinkEvents = new HashMap<>();
+		simulateLinkEvents( scenario , travelTime , linkByLinkEvents );
+		conf.setFastForwardNetworkRoutes( true );
+		final Map<Id<Vehicle>, List<Event>> fastForwardedEvents = new HashMap<>();
+		final List<Event> allEvents = simulateLinkEvents( scenario , travelTime , fastForwardedEvents );
+
+		for ( int i = 1; i < allEvents.size(); i++ ) {
+			Assert.assertTrue(
+					"events not sorted by time: "+allEvents.get( i - 1 )+" before "+allEvents.get( i ),
+					allEvents.get( i - 1 ).getTime() <= allEvents.get( i ).getTime() );
+		}
+
+		Assert.assertFalse( "no events" , linkByLinkEvents.isEmpty() );
+		Assert.assertEquals(
+				"vehicles differ with fast forward",
+				linkByLinkEvents.keySet(),
+				fastForwardedEvents.keySet() );
+
+		for ( Map.Entry<Id<Vehicle>, List<Event>> e : fastForwardedEvents.entrySet() ) {
+			final List<Event> events = e.getValue();
+			final List<Event> expected = linkByLinkEvents.get( e.getKey() );
+			Assert.assertEquals(
+					"unexpected number of link events for vehicle "+e.getKey(),
+					expected.size(),
+					events.size() );
+			for ( int i = 0; i < events.size(); i++ ) {
+				Assert.assertEquals(
+						"unexpected event type for vehicle "+e.getKey(),
+						expected.get( i ).getEventType(),
+						events.get( i ).getEventType() );
+				Assert.assertEquals(
+						"unexpected link for vehicle "+e.getKey(),
+						getLinkId( expected.get( i ) ),
+						getLinkId( events.get( i ) ) );
+			}
+		}
+	}
+
+	private static Id<Link> getLinkId( final Event event ) {
+		return event instanceof LinkEnterEvent ?
+				((LinkEnterEvent) event).getLinkId() :
+				((LinkLeaveEvent) event).getLinkId();
+	}
+
+	/**
+	 * @return all events, in the order they were emitted
+	 */
+	private List<Event> simulateLinkEvents(
+			final Scenario scenario,
+			final TravelTimeCalculator travelTime,
+			final Map<Id<Vehicle>, List<Event>> events ) {
+		final List<Event> allEvents = new ArrayList<>();
+		final EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler(
+				new BasicEventHandler() {
+					@Override
+					public void reset(int iteration) {}
+
+					@Override
+					public synchronized void handleEvent(final Event event) {
+						allEvents.add( event );
+						if ( event instanceof LinkEnterEvent ) {
+							events.computeIfAbsent( ((LinkEnterEvent) event).getVehicleId() , k -> new ArrayList<>() ).add( event );
+						}
+						if ( event instanceof LinkLeaveEvent ) {
+							events.computeIfAbsent( ((LinkLeaveEvent) event).getVehicleId() , k -> new ArrayList<>() ).add( event );
+						}
+					}
+				} );
+
+		new QSimWithPseudoEngineFactory(
+				travelTime.getLinkTravelTimes() ).createMobsim(
+					scenario,
+					eventsManager ).run();
+
+		return allEvents;
+	}
+
+	@Test
+	public void testDeterministicEventOrderingDoesNotDependOnThreads() {
+		final Scenario scenario = createTestScenario( true );
+		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
+		conf.setDeterministicEventOrdering( true );
+		scenario.getConfig().addModule( conf );
+		final TravelTimeCalculator travelTime =
+			new TravelTimeCalculator(
+					scenario.getNetwork(),
+					scenario.getConfig().travelTimeCalculator());
+
+		PrepareForSimUtils.createDefaultPrepareForSim( scenario ).run();
+		new PersonPrepareForSim(
+				new PlanRouter(
+						createTripRouter( travelTime , scenario ) ),
+				scenario ).run( scenario.getPopulation() );
+
+		conf.setNThreads( 1 );
+		final List<String> sequentialEvents = simulate( scenario , travelTime );
+		conf.setNThreads( 7 );
+		final List<String> parallelEvents = simulate( scenario , travelTime );
+
+		Assert.assertFalse( "no events" , sequentialEvents.isEmpty() );
+		Assert.assertEquals(
+				"events differ with number of threads",
+				sequentialEvents,
+				parallelEvents );
+	}
+
+	private List<String> simulate(
+			final Scenario scenario,
+			final TravelTimeCalculator travelTime ) {
+		final List<String> events = new ArrayList<String>();
+		final EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler(
+				new BasicEventHandler() {
+					@Override
+					public void reset(int iteration) {}
+
+					@Override
+					public void handleEvent(final Event event) {
+						events.add( event.toString() );
+					}
+				} );
+
+		new QSimWithPseudoEngineFactory(
+				travelTime.getLinkTravelTimes() ).createMobsim(
+					scenario,
+					eventsManager ).run();
+
+		return events;
+	}
 
 	private void testEventsSimilarToQsim(
 			final boolean useTransit,
 			final int nThreads) {
+		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
+		conf.setNThreads( nThreads );
+		testEventsSimilarToQsim( useTransit , conf );
+	}
+
+	private void testEventsSimilarToQsim(
+			final boolean useTransit,
+			final PseudoSimConfigGroup conf) {
 		utils.getOutputDirectory(); // intended side effect: delete content
 		final Scenario scenario = createTestScenario( useTransit );
 
-		final PseudoSimConfigGroup conf = new PseudoSimConfigGroup();
-		conf.setNThreads( nThreads );
 		scenario.getConfig().addModule( conf );
 		final TravelTimeCalculator travelTime =
 			new TravelTimeCalculator(
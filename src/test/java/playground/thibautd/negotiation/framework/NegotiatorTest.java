@@ -0,0 +1,287 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * NegotiatorTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2016 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.negotiation.framework;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.socnetsim.framework.population.SocialNetwork;
+import org.matsim.contrib.socnetsim.framework.population.SocialNetworkImpl;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import playground.ivt.utils.ConcurrentStopWatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Agents negotiate to do an activity in pairs, with a symmetric utility which is different for all pairs.
+ * There is then one single stable outcome, where the pair with the highest utility is formed first,
+ * then the pair with the highest utility among remaining agents, and so on.
+ *
+ * @author thibautd
+ */
+public class NegotiatorTest {
+	private static final int N_AGENTS = 40;
+	// utility of pairs is between 1 and 2
+	private static final double ALONE_UTILITY = 0.5;
+
+	@Test
+	public void testSequentialNegotiationReachesStableOutcome() {
+		testNegotiation( 1 );
+	}
+
+	@Test
+	public void testParallelNegotiationReachesSameOutcomeAsSequential() {
+		// many times, to have a chance to get conflicts
+		for ( int i = 0; i < 20; i++ ) testNegotiation( 8 );
+	}
+
+	@Test
+	public void testConflictingCommitIsEvaluatedAgain() {
+		final double[][] pairUtilities = {
+				// agent 0 prefers 1 to 2, but 1 and 2 prefer each other
+				{ 0 , 1.5 , 1.1 },
+				{ 1.5 , 0 , 1.9 },
+				{ 1.1 , 1.9 , 0 } };
+		final Fixture fixture = new Fixture( pairUtilities );
+		final NegotiationAgent<PairProposition> agent0 = fixture.agents.get( Id.createPersonId( 0 ) );
+		final NegotiationAgent<PairProposition> agent1 = fixture.agents.get( Id.createPersonId( 1 ) );
+		final NegotiationAgent<PairProposition> agent2 = fixture.agents.get( Id.createPersonId( 2 ) );
+
+		final Lock commitLock = new ReentrantLock();
+		final AtomicInteger conflicts = new AtomicInteger( 0 );
+
+		// while agent 0 evaluates its proposition to agent 2, after agent 1 accepted its proposition,
+		// agent 2 plans and commits its agreement with agent 1, as if in another thread
+		final AtomicBoolean interleaved = new AtomicBoolean( false );
+		fixture.utility.evaluationListener = ( agent , proposition ) -> {
+			if ( agent == agent0 &&
+					proposition.getProposed().stream().anyMatch( p -> p.getId().equals( agent2.getId() ) ) &&
+					interleaved.compareAndSet( false , true ) ) {
+				agent2.planActivity( commitLock , () -> Assert.fail( "unexpected conflict for agent 2" ) );
+			}
+		};
+
+		agent0.planActivity( commitLock , conflicts::incrementAndGet );
+
+		Assert.assertTrue( "agent 2 did not plan in between" , interleaved.get() );
+		Assert.assertEquals( "unexpected number of conflicts" , 1 , conflicts.get() );
+
+		Assert.assertNotNull( "agent 1 alone" , agent1.getBestProposition() );
+		Assert.assertSame(
+				"agents 1 and 2 should agree",
+				agent1.getBestProposition(),
+				agent2.getBestProposition() );
+		Assert.assertEquals(
+				"unexpected partner of agent 1",
+				agent2.getId(),
+				getPartner( agent1.getId() , agent1.getBestProposition() ) );
+		Assert.assertTrue(
+				"agent 0 should be alone",
+				agent0.getBestProposition().getProposed().isEmpty() );
+		Assert.assertEquals(
+				"unexpected utility of agent 0",
+				ALONE_UTILITY,
+				agent0.getBestUtility(),
+				1E-9 );
+	}
+
+	private static void testNegotiation( final int nThreads ) {
+		final Fixture fixture = new Fixture( createPairUtilities( 20160301 ) );
+
+		final NegotiatorConfigGroup config = new NegotiatorConfigGroup();
+		config.setNumberOfThreads( nThreads );
+		// only stop when no agent can improve anymore
+		config.setMaxRoundsPerAgent( 1000 );
+
+		final Map<Id<Person>, PairProposition> accepted = new HashMap<>();
+		final Negotiator<PairProposition> negotiator =
+				new Negotiator<>( config , fixture.agents , fixture.stopwatch );
+		negotiator.negotiate( a -> accepted.put( a.getId() , a.getBestProposition() ) );
+
+		Assert.assertEquals( "unexpected number of agents" , N_AGENTS , accepted.size() );
+
+		for ( NegotiationAgent<PairProposition> agent : fixture.agents ) {
+			final PairProposition proposition = agent.getBestProposition();
+			Assert.assertNotNull( "agent "+agent.getId()+" alone" , proposition );
+
+			// a lost conflict would leave agents with different views of the agreement
+			for ( Person member : proposition.getGroup() ) {
+				Assert.assertSame(
+						"agent "+member.getId()+" does not agree with agent "+agent.getId(),
+						proposition,
+						fixture.agents.get( member.getId() ).getBestProposition() );
+			}
+			Assert.assertEquals(
+					"unexpected utility of agent "+agent.getId(),
+					fixture.utility.utility( agent , proposition ),
+					agent.getBestUtility(),
+					1E-9 );
+
+			Assert.assertEquals(
+					"unexpected partner of agent "+agent.getId(),
+					fixture.expectedPartners.get( agent.getId() ),
+					getPartner( agent.getId() , proposition ) );
+		}
+	}
+
+	private static Id<Person> getPartner( final Id<Person> agent , final PairProposition proposition ) {
+		for ( Person p : proposition.getGroup() ) {
+			if ( !p.getId().equals( agent ) ) return p.getId();
+		}
+		return null;
+	}
+
+	private static class Fixture {
+		final ConcurrentStopWatch<StopWatchMeasurement> stopwatch = new ConcurrentStopWatch<>( StopWatchMeasurement.class );
+		final PairUtility utility;
+		final NegotiatingAgents<PairProposition> agents;
+		final Map<Id<Person>, Id<Person>> expectedPartners = new HashMap<>();
+
+		Fixture( final double[][] pairUtilities ) {
+			final int nAgents = pairUtilities.length;
+			final Population population = ScenarioUtils.createScenario( ConfigUtils.createConfig() ).getPopulation();
+			final SocialNetwork socialNetwork = new SocialNetworkImpl( true );
+			final List<Person> persons = new ArrayList<>();
+			for ( int i = 0; i < nAgents; i++ ) {
+				final Person person = population.getFactory().createPerson( Id.createPersonId( i ) );
+				population.addPerson( person );
+				socialNetwork.addEgo( person.getId() );
+				persons.add( person );
+			}
+
+			this.utility = new PairUtility( pairUtilities );
+			this.agents =
+					new NegotiatingAgents<>(
+							socialNetwork,
+							population,
+							stopwatch,
+							utility,
+							new PairAlternatives( persons ) );
+
+			// greedy matching: the only one where no pair of agents would both prefer to be together
+			final boolean[] matched = new boolean[ nAgents ];
+			for ( int n = 0; n < nAgents / 2; n++ ) {
+				int bestI = -1;
+				int bestJ = -1;
+				for ( int i = 0; i < nAgents; i++ ) {
+					for ( int j = 0; j < i; j++ ) {
+						if ( matched[ i ] || matched[ j ] ) continue;
+						if ( bestI < 0 || pairUtilities[ i ][ j ] > pairUtilities[ bestI ][ bestJ ] ) {
+							bestI = i;
+							bestJ = j;
+						}
+					}
+				}
+				matched[ bestI ] = matched[ bestJ ] = true;
+				expectedPartners.put( Id.createPersonId( bestI ) , Id.createPersonId( bestJ ) );
+				expectedPartners.put( Id.createPersonId( bestJ ) , Id.createPersonId( bestI ) );
+			}
+		}
+	}
+
+	private static double[][] createPairUtilities( final long seed ) {
+		final Random random = new Random( seed );
+		final double[][] pairUtilities = new double[ N_AGENTS ][ N_AGENTS ];
+		for ( int i = 0; i < N_AGENTS; i++ ) {
+			for ( int j = 0; j < i; j++ ) {
+				pairUtilities[ i ][ j ] = pairUtilities[ j ][ i ] = 1 + random.nextDouble();
+			}
+		}
+		return pairUtilities;
+	}
+
+	private static class PairProposition implements Proposition {
+		private final Person proposer;
+		private final Collection<Person> proposed;
+
+		PairProposition( final Person proposer , final Collection<Person> proposed ) {
+			this.proposer = proposer;
+			this.proposed = proposed;
+		}
+
+		@Override
+		public Person getProposer() {
+			return proposer;
+		}
+
+		@Override
+		public Collection<Person> getProposed() {
+			return proposed;
+		}
+	}
+
+	private static class PairAlternatives implements AlternativesGenerator<PairProposition> {
+		private final List<Person> persons;
+
+		PairAlternatives( final List<Person> persons ) {
+			this.persons = persons;
+		}
+
+		@Override
+		public Collection<PairProposition> generateAlternatives( final NegotiationAgent<PairProposition> agent ) {
+			final Person proposer = persons.get( index( agent.getId() ) );
+
+			final List<PairProposition> alternatives = new ArrayList<>( persons.size() );
+			alternatives.add( new PairProposition( proposer , Collections.emptyList() ) );
+			for ( Person p : persons ) {
+				if ( p != proposer ) alternatives.add( new PairProposition( proposer , Collections.singleton( p ) ) );
+			}
+			return alternatives;
+		}
+	}
+
+	private static class PairUtility implements PropositionUtility<PairProposition> {
+		private final double[][] pairUtilities;
+		private BiConsumer<NegotiationAgent<PairProposition>, PairProposition> evaluationListener = ( a , p ) -> {};
+
+		PairUtility( final double[][] pairUtilities ) {
+			this.pairUtilities = pairUtilities;
+		}
+
+		@Override
+		public double utility( final NegotiationAgent<PairProposition> agent , final PairProposition proposition ) {
+			if ( proposition == null ) return 0;
+			evaluationListener.accept( agent , proposition );
+			// let other threads commit while alternatives are evaluated, so that some rounds conflict, even with few cores
+			Thread.yield();
+			if ( proposition.getProposed().isEmpty() ) return ALONE_UTILITY;
+			final Id<Person> partner = getPartner( agent.getId() , proposition );
+			return pairUtilities[ index( agent.getId() ) ][ index( partner ) ];
+		}
+	}
+
+	private static int index( final Id<Person> id ) {
+		return Integer.parseInt( id.toString() );
+	}
+}
@@ -0,0 +1,232 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TimeBucketQueueTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.pseudoqsim.pseudoqsimengine;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class TimeBucketQueueTest {
+	@Test
+	public void testElementsAreProcessedByTimeStep() {
+		final TimeBucketQueue<Double> queue = new TimeBucketQueue<>( 64 );
+
+		final Random random = new Random( 123 );
+		final List<Double> times = new ArrayList<>();
+		for ( int i = 0; i < 1000; i++ ) {
+			final double time = random.nextDouble() * 50;
+			times.add( time );
+			queue.add( time , time );
+		}
+		Assert.assertEquals( "unexpected size" , times.size() , queue.size() );
+
+		final List<Double> processed = new ArrayList<>();
+		queue.processUntil( 50 , processed::add );
+
+		Assert.assertTrue( "queue should be empty" , queue.isEmpty() );
+		// stable sort: same order as the queue if it respects time steps and insertion order
+		times.sort( Comparator.comparingDouble( Math::ceil ) );
+		Assert.assertEquals( "unexpected processing order" , times , processed );
+	}
+
+	@Test
+	public void testElementsOfSameTimeStepAreProcessedInInsertionOrder() {
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 );
+
+		// all due at time step 11
+		queue.add( 10.7 , "a" );
+		queue.add( 11 , "b" );
+		queue.add( 10.1 , "c" );
+		// due at time step 10
+		queue.add( 10 , "first" );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 10.5 , processed::add );
+		Assert.assertEquals( "unexpected elements due at 10" , Collections.singletonList( "first" ) , processed );
+
+		processed.clear();
+		queue.processUntil( 11 , processed::add );
+		Assert.assertEquals( "unexpected elements due at 11" , Arrays.asList( "a" , "b" , "c" ) , processed );
+	}
+
+	@Test
+	public void testSubSecondBuckets() {
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 , 0.5 );
+
+		queue.add( 10.25 , "a" );
+		queue.add( 10.5 , "b" );
+		queue.add( 10.75 , "c" );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 10 , processed::add );
+		Assert.assertTrue( "unexpected elements at 10: "+processed , processed.isEmpty() );
+
+		Assert.assertFalse( "elements due at 10.5" , queue.skipUntil( 10.5 ) );
+		queue.processUntil( 10.5 , processed::add );
+		Assert.assertEquals( "unexpected elements at 10.5" , Arrays.asList( "a" , "b" ) , processed );
+
+		processed.clear();
+		queue.processUntil( 11 , processed::add );
+		Assert.assertEquals( "unexpected elements at 11" , Collections.singletonList( "c" ) , processed );
+		Assert.assertTrue( "queue should be empty" , queue.isEmpty() );
+	}
+
+	@Test
+	public void testElementsDueInThePastAreProcessedAtNextStep() {
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 );
+		queue.processUntil( 100 , e -> Assert.fail( "unexpected element "+e ) );
+
+		queue.add( 3 , "late" );
+		queue.add( 101 , "on time" );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 101 , processed::add );
+		Assert.assertEquals( "unexpected processed elements" , Arrays.asList( "late" , "on time" ) , processed );
+	}
+
+	@Test
+	public void testElementsAddedByHandlerAreProcessed() {
+		final TimeBucketQueue<Integer> queue = new TimeBucketQueue<>( 16 );
+		queue.add( 5 , 0 );
+
+		final List<Integer> processed = new ArrayList<>();
+		queue.processUntil( 10 , i -> {
+			processed.add( i );
+			// one due now, the other in the next time step
+			if ( i < 3 ) queue.add( 5 , 10 + i );
+			if ( i < 3 ) queue.add( 6 , i + 1 );
+		} );
+
+		Assert.assertEquals( "unexpected processed elements" , Arrays.asList( 0 , 10 , 1 , 11 , 2 , 12 , 3 ) , processed );
+		Assert.assertTrue( "queue should be empty" , queue.isEmpty() );
+	}
+
+	@Test
+	public void testFarFutureElementsAreProcessedAtTheirTime() {
+		// horizon of 16 seconds
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 );
+
+		queue.add( 100000 , "very far" );
+		queue.add( 1000 , "far" );
+		queue.add( 5 , "close" );
+		queue.add( 1000 , "far too" );
+		Assert.assertEquals( "unexpected size" , 4 , queue.size() );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 999 , processed::add );
+		Assert.assertEquals( "unexpected elements until 999" , Collections.singletonList( "close" ) , processed );
+
+		// added directly in the wheel, after the overflow elements of the same time step
+		queue.add( 1000 , "far last" );
+
+		processed.clear();
+		queue.processUntil( 1000 , processed::add );
+		Assert.assertEquals( "unexpected elements at 1000" , Arrays.asList( "far" , "far too" , "far last" ) , processed );
+
+		processed.clear();
+		queue.processUntil( 99999 , processed::add );
+		Assert.assertTrue( "unexpected elements until 99999: "+processed , processed.isEmpty() );
+		Assert.assertEquals( "unexpected size" , 1 , queue.size() );
+
+		queue.processUntil( 100000 , processed::add );
+		Assert.assertEquals( "unexpected elements at 100000" , Collections.singletonList( "very far" ) , processed );
+		Assert.assertTrue( "queue should be empty" , queue.isEmpty() );
+	}
+
+	@Test
+	public void testSkipUntil() {
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 );
+		queue.add( 10 , "wheel" );
+		queue.add( 100 , "overflow" );
+
+		Assert.assertTrue( "nothing due at 9" , queue.skipUntil( 9 ) );
+		Assert.assertFalse( "element due at 10" , queue.skipUntil( 10 ) );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 10 , processed::add );
+		Assert.assertEquals( "unexpected elements at 10" , Collections.singletonList( "wheel" ) , processed );
+
+		Assert.assertTrue( "nothing due at 99" , queue.skipUntil( 99 ) );
+		Assert.assertFalse( "element due at 100" , queue.skipUntil( 100 ) );
+		Assert.assertEquals( "skipping should not remove elements" , 1 , queue.size() );
+
+		processed.clear();
+		queue.processUntil( 100 , processed::add );
+		Assert.assertEquals( "unexpected elements at 100" , Collections.singletonList( "overflow" ) , processed );
+	}
+
+	@Test
+	public void testSkipUntilKeepsInsertionOrderOfOverflowElements() {
+		final TimeBucketQueue<String> queue = new TimeBucketQueue<>( 16 );
+		queue.add( 10 , "wheel" );
+		// out of the horizon when added, within the horizon once the wheel turned to 10
+		queue.add( 20 , "overflow" );
+
+		Assert.assertFalse( "element due at 10" , queue.skipUntil( 10 ) );
+		queue.add( 20 , "wheel after skip" );
+
+		final List<String> processed = new ArrayList<>();
+		queue.processUntil( 20 , processed::add );
+		Assert.assertEquals( "unexpected order" , Arrays.asList( "wheel" , "overflow" , "wheel after skip" ) , processed );
+	}
+
+	@Test
+	public void testWrapAroundGivesSameOrderAsSorting() {
+		final Random random = new Random( 42 );
+		final TimeBucketQueue<double[]> queue = new TimeBucketQueue<>( 32 );
+
+		// elements are (due time, insertion rank)
+		final List<double[]> expected = new ArrayList<>();
+		final List<double[]> processed = new ArrayList<>();
+		int rank = 0;
+		for ( int step = 0; step < 2000; step++ ) {
+			for ( int i = random.nextInt( 3 ); i > 0; i-- ) {
+				// mostly in the horizon of the wheel, sometimes far beyond
+				final double due = step + ( random.nextInt( 10 ) == 0 ? random.nextDouble() * 500 : random.nextDouble() * 40 );
+				final double[] element = { due , rank++ };
+				expected.add( element );
+				queue.add( due , element );
+			}
+
+			if ( random.nextBoolean() && queue.skipUntil( step ) ) continue;
+			final int now = step;
+			queue.processUntil( now , e -> {
+				Assert.assertTrue( "element "+Arrays.toString( e )+" processed too early at "+now , Math.ceil( e[ 0 ] ) <= now );
+				processed.add( e );
+			} );
+		}
+		queue.processUntil( 1E6 , processed::add );
+
+		expected.sort( Comparator.<double[]>comparingDouble( e -> Math.ceil( e[ 0 ] ) ).thenComparingDouble( e -> e[ 1 ] ) );
+		Assert.assertEquals( "unexpected number of processed elements" , expected.size() , processed.size() );
+		for ( int i = 0; i < expected.size(); i++ ) {
+			Assert.assertSame( "unexpected element at position "+i , expected.get( i ) , processed.get( i ) );
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TravelTimeTableTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.pseudoqsim.pseudoqsimengine;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * @author thibautd
+ */
+public class TravelTimeTableTest {
+	private static final int N_LINKS = 5;
+	private static final double BIN_SIZE = 900;
+	private static final double END_TIME = 4 * 3600;
+
+	// different for each link and bin
+	private static final TravelTime TRAVEL_TIME =
+			( link , time , person , vehicle ) ->
+				1000 * Integer.parseInt( link.getId().toString() ) + Math.floor( time / BIN_SIZE );
+
+	@Test
+	public void testIndexedQueriesGiveSameTravelTimesAsIdQueries() {
+		final Network network = createNetwork();
+		final TravelTimeTable table = new TravelTimeTable( network , TRAVEL_TIME , BIN_SIZE , END_TIME );
+
+		for ( Link link : network.getLinks().values() ) {
+			final int index = table.getLinkIndex( link.getId() );
+			for ( double time = 0; time < END_TIME; time += 100 ) {
+				Assert.assertEquals(
+						"unexpected indexed travel time of link "+link.getId()+" at "+time,
+						TRAVEL_TIME.getLinkTravelTime( link , time , null , null ),
+						table.getLinkTravelTime( index , time ),
+						0 );
+				Assert.assertEquals(
+						"indexed and id based travel times differ for link "+link.getId()+" at "+time,
+						table.getLinkTravelTime( link.getId() , time ),
+						table.getLinkTravelTime( index , time ),
+						0 );
+			}
+		}
+	}
+
+	@Test
+	public void testTimesOutOfTableGetFirstOrLastBin() {
+		final Network network = createNetwork();
+		final TravelTimeTable table = new TravelTimeTable( network , TRAVEL_TIME , BIN_SIZE , END_TIME );
+		final Link link = network.getLinks().get( Id.createLinkId( 2 ) );
+		final int index = table.getLinkIndex( link.getId() );
+
+		Assert.assertEquals(
+				"unexpected travel time before start",
+				TRAVEL_TIME.getLinkTravelTime( link , 0 , null , null ),
+				table.getLinkTravelTime( index , -10 ),
+				0 );
+		Assert.assertEquals(
+				"unexpected travel time after end",
+				TRAVEL_TIME.getLinkTravelTime( link , END_TIME - 1 , null , null ),
+				table.getLinkTravelTime( index , 2 * END_TIME ),
+				0 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnknownLinkIsRejected() {
+		final TravelTimeTable table = new TravelTimeTable( createNetwork() , TRAVEL_TIME , BIN_SIZE , END_TIME );
+		table.getLinkIndex( Id.createLinkId( "unknown" ) );
+	}
+
+	private static Network createNetwork() {
+		final Network network = NetworkUtils.createNetwork();
+
+		Node from = NetworkUtils.createAndAddNode( network , Id.create( 0 , Node.class ) , new Coord( 0 , 0 ) );
+		for ( int i = 0; i < N_LINKS; i++ ) {
+			final Node to = NetworkUtils.createAndAddNode( network , Id.create( i + 1 , Node.class ) , new Coord( 100 * ( i + 1 ) , 0 ) );
+			NetworkUtils.createAndAddLink( network , Id.create( i , Link.class ) , from , to , 100 , 10 , 1000 , 1 );
+			from = to;
+		}
+
+		return network;
+	}
+}
@@ -0,0 +1,329 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.router.connectionscanalgorithm;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.router.TransitRouterConfig;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author thibautd
+ */
+public class ConnectionScanAlgorithmTest {
+	@Rule
+	public final MatsimTestUtils utils = new MatsimTestUtils();
+
+	private static final Coord A = new Coord( 0 , 0 );
+	private static final Coord B = new Coord( 10000 , 0 );
+	private static final Coord C = new Coord( 10000 , 10000 );
+
+	@Test
+	public void testEarliestArrivalUsesTransfer() {
+		final Fixture f = new Fixture();
+
+		final List<Leg> legs = f.algorithm.calcEarliestArrivalRoute( A , C , 7 * 3600 + 50 * 60 );
+
+		Assert.assertEquals( "unexpected number of legs "+legs , 4 , legs.size() );
+		Assert.assertEquals( TransportMode.transit_walk , legs.get( 0 ).getMode() );
+		Assert.assertEquals( TransportMode.pt , legs.get( 1 ).getMode() );
+		Assert.assertEquals( TransportMode.pt , legs.get( 2 ).getMode() );
+		Assert.assertEquals( TransportMode.transit_walk , legs.get( 3 ).getMode() );
+
+		Assert.assertEquals(
+				"unexpected first line",
+				Id.create( "fast" , TransitLine.class ),
+				((ExperimentalTransitRoute) legs.get( 1 ).getRoute()).getLineId() );
+		Assert.assertEquals(
+				"unexpected second line",
+				Id.create( "feeder" , TransitLine.class ),
+				((ExperimentalTransitRoute) legs.get( 2 ).getRoute()).getLineId() );
+
+		Assert.assertEquals(
+				"unexpected travel time",
+				40 * 60,
+				calcTravelTime( legs ),
+				1E-9 );
+	}
+
+	@Test
+	public void testOneToManyGivesSameTravelTimesAsOneToOne() {
+		final Fixture f = new Fixture();
+
+		final List<Coord> destinations = Arrays.asList( B , C , new Coord( 50 , 0 ) );
+		for ( double departureTime : new double[]{ 7 * 3600 + 50 * 60 , 8 * 3600 + 5 * 60 , 9 * 3600 } ) {
+			final List<List<Leg>> routes = f.algorithm.calcEarliestArrivalRoutes( A , destinations , departureTime );
+
+			Assert.assertEquals( "unexpected number of routes" , destinations.size() , routes.size() );
+			for ( int i = 0; i < destinations.size(); i++ ) {
+				final List<Leg> expected = f.algorithm.calcEarliestArrivalRoute( A , destinations.get( i ) , departureTime );
+				Assert.assertEquals(
+						"unexpected number of legs to "+destinations.get( i )+" at "+departureTime,
+						expected.size(),
+						routes.get( i ).size() );
+				Assert.assertEquals(
+						"unexpected travel time to "+destinations.get( i )+" at "+departureTime,
+						calcTravelTime( expected ),
+						calcTravelTime( routes.get( i ) ),
+						1E-9 );
+			}
+		}
+	}
+
+	@Test
+	public void testProfileReturnsParetoSet() {
+		final Fixture f = new Fixture();
+
+		final List<ConnectionScanAlgorithm.Journey> journeys =
+				f.algorithm.calcProfileRoutes( A , C , 7 * 3600 , 8 * 3600 + 10 * 60 );
+
+		Assert.assertEquals( "unexpected number of journeys" , 2 , journeys.size() );
+
+		Assert.assertEquals( 8 * 3600 , journeys.get( 0 ).getDepartureTime() , 1E-9 );
+		Assert.assertEquals( 8 * 3600 + 30 * 60 , journeys.get( 0 ).getArrivalTime() , 1E-9 );
+
+		Assert.assertEquals( 8 * 3600 + 5 * 60 , journeys.get( 1 ).getDepartureTime() , 1E-9 );
+		Assert.assertEquals( 9 * 3600 , journeys.get( 1 ).getArrivalTime() , 1E-9 );
+		Assert.assertEquals( "unexpected number of legs" , 3 , journeys.get( 1 ).getLegs().size() );
+	}
+
+	@Test
+	public void testConcurrentQueriesOnSharedInstance() throws Exception {
+		final Fixture f = new Fixture();
+
+		final Thread[] threads = new Thread[ 4 ];
+		final Throwable[] errors = new Throwable[ threads.length ];
+		for ( int t = 0; t < threads.length; t++ ) {
+			final int threadIndex = t;
+			threads[ t ] = new Thread( () -> {
+				try {
+					for ( int i = 0; i < 1000; i++ ) {
+						// alternate between queries with different results, to detect interference
+						if ( i % 2 == threadIndex % 2 ) {
+							Assert.assertEquals( 40 * 60 , calcTravelTime( f.algorithm.calcEarliestArrivalRoute( A , C , 7 * 3600 + 50 * 60 ) ) , 1E-9 );
+						}
+						else {
+							Assert.assertEquals( 55 * 60 , calcTravelTime( f.algorithm.calcEarliestArrivalRoute( A , C , 8 * 3600 + 5 * 60 ) ) , 1E-9 );
+						}
+					}
+				}
+				catch ( Throwable e ) {
+					errors[ threadIndex ] = e;
+				}
+			} );
+			threads[ t ].start();
+		}
+
+		for ( int t = 0; t < threads.length; t++ ) {
+			threads[ t ].join();
+			if ( errors[ t ] != null ) throw new AssertionError( "error in thread "+t , errors[ t ] );
+		}
+	}
+
+	@Test
+	public void testCachedDataGivesSameRoutes() {
+		final Fixture f = new Fixture();
+		final String cacheFile = utils.getOutputDirectory()+"/connections.bin";
+
+		ConnectionScanDataCache.write( cacheFile , 42 , Fixture.WALK_DISTANCE , f.data );
+
+		Assert.assertNull(
+				"cache should be invalid for another schedule",
+				ConnectionScanDataCache.read( cacheFile , 43 , Fixture.WALK_DISTANCE , f.schedule ) );
+
+		final ConnectionScanData read = ConnectionScanDataCache.read( cacheFile , 42 , Fixture.WALK_DISTANCE , f.schedule );
+		Assert.assertNotNull( "cache should be valid" , read );
+		Assert.assertEquals(
+				"unexpected number of connections",
+				f.data.getConnections().size(),
+				read.getConnections().size() );
+
+		for ( int c = 0; c < read.getConnections().size(); c++ ) {
+			Assert.assertEquals( f.data.getConnections().getTripId( c ) , read.getConnections().getTripId( c ) );
+			Assert.assertEquals( f.data.getConnections().getOriginId( c ) , read.getConnections().getOriginId( c ) );
+			Assert.assertEquals( f.data.getConnections().getDestinationId( c ) , read.getConnections().getDestinationId( c ) );
+			Assert.assertEquals( f.data.getConnections().getDepartureTime( c ) , read.getConnections().getDepartureTime( c ) , 1E-9 );
+			Assert.assertEquals( f.data.getConnections().getArrivalTime( c ) , read.getConnections().getArrivalTime( c ) , 1E-9 );
+		}
+
+		final List<Leg> legs =
+				new ConnectionScanAlgorithm( read , f.schedule , f.routerConfig )
+						.calcEarliestArrivalRoute( A , C , 7 * 3600 + 50 * 60 );
+		Assert.assertEquals(
+				"unexpected travel time",
+				40 * 60,
+				calcTravelTime( legs ),
+				1E-9 );
+	}
+
+	@Test
+	public void testTruncatedOrCorruptedCacheIsInvalid() throws IOException {
+		final Fixture f = new Fixture();
+		final String cacheFile = utils.getOutputDirectory()+"/connections.bin";
+
+		ConnectionScanDataCache.write( cacheFile , 42 , Fixture.WALK_DISTANCE , f.data );
+		final byte[] content = Files.readAllBytes( Paths.get( cacheFile ) );
+
+		for ( int length : new int[]{ 0 , 10 , 52 , 60 , content.length / 2 , content.length - 1 } ) {
+			Files.write( Paths.get( cacheFile ) , Arrays.copyOf( content , length ) );
+			Assert.assertNull(
+					"cache truncated to "+length+" bytes should be invalid",
+					ConnectionScanDataCache.read( cacheFile , 42 , Fixture.WALK_DISTANCE , f.schedule ) );
+		}
+
+		// length of the first stop id, right after the header
+		final byte[] corrupted = content.clone();
+		ByteBuffer.wrap( corrupted ).putInt( 52 , Integer.MAX_VALUE );
+		Files.write( Paths.get( cacheFile ) , corrupted );
+		Assert.assertNull(
+				"cache with corrupted string length should be invalid",
+				ConnectionScanDataCache.read( cacheFile , 42 , Fixture.WALK_DISTANCE , f.schedule ) );
+
+		Files.write( Paths.get( cacheFile ) , content );
+		Assert.assertNotNull(
+				"restored cache should be valid",
+				ConnectionScanDataCache.read( cacheFile , 42 , Fixture.WALK_DISTANCE , f.schedule ) );
+	}
+
+	@Test
+	public void testOverwritingCacheKeepsMappedVersionValid() throws IOException {
+		final Fixture f = new Fixture();
+		final String cacheFile = utils.getOutputDirectory()+"/connections.bin";
+
+		ConnectionScanDataCache.write( cacheFile , 42 , Fixture.WALK_DISTANCE , f.data );
+		final ConnectionScanData mapped = ConnectionScanDataCache.read( cacheFile , 42 , Fixture.WALK_DISTANCE , f.schedule );
+		Assert.assertNotNull( "cache should be valid" , mapped );
+
+		ConnectionScanDataCache.write( cacheFile , 43 , Fixture.WALK_DISTANCE , f.data );
+		Assert.assertNotNull(
+				"overwritten cache should be valid",
+				ConnectionScanDataCache.read( cacheFile , 43 , Fixture.WALK_DISTANCE , f.schedule ) );
+
+		// the file mapped before was replaced, not truncated
+		Assert.assertEquals(
+				"unexpected number of connections",
+				f.data.getConnections().size(),
+				mapped.getConnections().size() );
+		for ( int c = 0; c < mapped.getConnections().size(); c++ ) {
+			Assert.assertEquals( f.data.getConnections().getTripId( c ) , mapped.getConnections().getTripId( c ) );
+			Assert.assertEquals( f.data.getConnections().getDepartureTime( c ) , mapped.getConnections().getDepartureTime( c ) , 1E-9 );
+		}
+
+		try ( Stream<Path> files = Files.list( Paths.get( utils.getOutputDirectory() ) ) ) {
+			Assert.assertEquals(
+					"temporary files left",
+					Collections.singletonList( "connections.bin" ),
+					files.map( p -> p.getFileName().toString() ).collect( Collectors.toList() ) );
+		}
+	}
+
+	private static double calcTravelTime( List<Leg> trip ) {
+		double tt = 0;
+		for ( Leg l : trip ) tt += l.getTravelTime();
+		return tt;
+	}
+
+	private static class Fixture {
+		static final double WALK_DISTANCE = 100;
+
+		final TransitSchedule schedule;
+		final TransitRouterConfig routerConfig;
+		final ConnectionScanData data;
+		final ConnectionScanAlgorithm algorithm;
+
+		Fixture() {
+			final Config config = ConfigUtils.createConfig();
+			config.transit().setUseTransit( true );
+			final Scenario scenario = ScenarioUtils.createScenario( config );
+			this.schedule = scenario.getTransitSchedule();
+			final TransitScheduleFactory factory = schedule.getFactory();
+
+			final TransitStopFacility stopA = factory.createTransitStopFacility( Id.create( "A" , TransitStopFacility.class ) , A , false );
+			final TransitStopFacility stopB = factory.createTransitStopFacility( Id.create( "B" , TransitStopFacility.class ) , B , false );
+			final TransitStopFacility stopC = factory.createTransitStopFacility( Id.create( "C" , TransitStopFacility.class ) , C , false );
+			for ( TransitStopFacility s : Arrays.asList( stopA , stopB , stopC ) ) {
+				s.setLinkId( Id.create( s.getId() , Link.class ) );
+				schedule.addStopFacility( s );
+			}
+
+			addLine( schedule , "fast" , 8 * 3600 , stopA , stopB , 10 * 60 );
+			addLine( schedule , "feeder" , 8 * 3600 + 15 * 60 , stopB , stopC , 15 * 60 );
+			addLine( schedule , "slow" , 8 * 3600 + 5 * 60 , stopA , stopC , 55 * 60 );
+
+			this.routerConfig = new TransitRouterConfig( config );
+			this.data = ConnectionScanData.createData( schedule , WALK_DISTANCE );
+			this.algorithm = new ConnectionScanAlgorithm( data , schedule , routerConfig );
+		}
+
+		private static void addLine(
+				final TransitSchedule schedule,
+				final String id,
+				final double departureTime,
+				final TransitStopFacility origin,
+				final TransitStopFacility destination,
+				final double travelTime ) {
+			final TransitScheduleFactory factory = schedule.getFactory();
+			final TransitLine line = factory.createTransitLine( Id.create( id , TransitLine.class ) );
+
+			final List<TransitRouteStop> stops =
+					Arrays.asList(
+							factory.createTransitRouteStop( origin , 0 , 0 ),
+							factory.createTransitRouteStop( destination , travelTime , travelTime ) );
+			final TransitRoute route =
+					factory.createTransitRoute(
+							Id.create( id , TransitRoute.class ),
+							RouteUtils.createLinkNetworkRouteImpl( origin.getLinkId() , destination.getLinkId() ),
+							stops,
+							"bus" );
+			route.addDeparture( factory.createDeparture( Id.create( id , Departure.class ) , departureTime ) );
+			line.addRoute( route );
+			schedule.addTransitLine( line );
+		}
+	}
+}
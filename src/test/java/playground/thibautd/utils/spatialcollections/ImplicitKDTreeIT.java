@@ -0,0 +1,253 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2013 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package playground.thibautd.utils.spatialcollections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author thibautd
+ */
+public class ImplicitKDTreeIT {
+	@Test
+	public void testLeftSubtreeSize() {
+		// sizes of complete trees
+		Assert.assertEquals( 0 , ImplicitKDTree.leftSubtreeSize( 1 ) );
+		Assert.assertEquals( 1 , ImplicitKDTree.leftSubtreeSize( 2 ) );
+		Assert.assertEquals( 1 , ImplicitKDTree.leftSubtreeSize( 3 ) );
+		Assert.assertEquals( 2 , ImplicitKDTree.leftSubtreeSize( 4 ) );
+		Assert.assertEquals( 3 , ImplicitKDTree.leftSubtreeSize( 6 ) );
+		Assert.assertEquals( 3 , ImplicitKDTree.leftSubtreeSize( 7 ) );
+		Assert.assertEquals( 4 , ImplicitKDTree.leftSubtreeSize( 8 ) );
+	}
+
+	@Test
+	public void testClosestEuclidean() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		final Random random = new Random( 123 );
+
+		for ( int i=0; i < 50; i++ ) {
+			final double[] c = new double[ 3 ];
+			for ( int j=0; j < c.length; j++ ) c[ j ] = random.nextDouble() * 100;
+
+			final int[] closest = tree.getClosest( c );
+
+			final int[] expected = new int[ 3 ];
+			for ( int j=0; j < c.length; j++ ) expected[ j ] = (int) Math.round( c[ j ] );
+
+			Assert.assertArrayEquals(
+					"unexpected closest point",
+					expected,
+					closest );
+		}
+	}
+
+	@Test
+	public void testClosestFilter() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		final Random random = new Random( 123 );
+
+		for ( int i=0; i < 50; i++ ) {
+			final double[] c = new double[ 3 ];
+			for ( int j=0; j < c.length; j++ ) c[ j ] = random.nextDouble() * 100;
+
+			final int[] searched = new int[ 3 ];
+			for ( int j=0; j < searched.length; j++ ) searched[ j ] = random.nextInt( 100 );
+
+			final int[] closest =
+					tree.getClosest(
+							c ,
+							a -> Arrays.equals( a , searched ) );
+
+			Assert.assertArrayEquals(
+					"closest point does not obey predicate",
+					searched,
+					closest );
+		}
+	}
+
+	@Test
+	public void testRemove() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		final Random random = new Random( 123 );
+
+		int size = 100 * 100 * 100;
+		for ( int i=0; i < 50; i++ ) {
+			final double[] c = new double[ 3 ];
+			for ( int j=0; j < c.length; j++ ) c[ j ] = random.nextDouble() * 100;
+
+			final int[] closest = tree.getClosest( c );
+
+			Assert.assertTrue(
+					"remove returned false when removing",
+					tree.remove( closest ) );
+
+			Assert.assertEquals(
+					"unexpected number of elements after removal",
+					--size,
+					tree.getAll().size() );
+
+			Assert.assertFalse(
+					"remove returned true when re-removing",
+					tree.remove( closest ) );
+
+			Assert.assertFalse(
+					"removed element is still there",
+					tree.contains( closest ) );
+
+			Assert.assertNotSame(
+					"removed element returned by query",
+					closest,
+					tree.getClosest( c ) );
+		}
+	}
+
+	@Test
+	public void testRemoveUntilRebuild() {
+		final Random random = new Random( 42 );
+		final List<double[]> points = new ArrayList<>();
+		for ( int i=0; i < 1000; i++ ) points.add( new double[]{ random.nextDouble() , random.nextDouble() } );
+
+		final ImplicitKDTree<double[]> tree = new ImplicitKDTree<>( 2 , p -> p , points );
+
+		for ( int i=0; i < 900; i++ ) {
+			Assert.assertTrue( "could not remove" , tree.remove( points.get( i ) ) );
+		}
+
+		Assert.assertEquals( "unexpected size" , 100 , tree.size() );
+		for ( int i=900; i < 1000; i++ ) {
+			Assert.assertSame(
+					"remaining point not found",
+					points.get( i ),
+					tree.getClosest( points.get( i ) ) );
+		}
+	}
+
+	@Test
+	public void testBox() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		Collection<int[]> box =
+				tree.getBox(
+						new double[]{ 20 , 20 , 20 },
+						new double[]{ 40 , 40 , 40 } );
+
+		Assert.assertEquals(
+				"unexpected number of elements in box",
+				21 * 21 * 21,
+				box.size() );
+
+		box = tree.getBox(
+						new double[]{ 20 , 40 , 20 },
+						new double[]{ 40 , 40 , 40 } );
+
+		Assert.assertEquals(
+				"unexpected number of elements in box",
+				21 * 1 * 21,
+				box.size() );
+
+		box = tree.getBox(
+						new double[]{ -10 , 20 , 20 },
+						new double[]{ 40 , 40 , 40 },
+						a -> a[0] == a[1] );
+
+		Assert.assertEquals(
+				"unexpected number of elements in box",
+				21 * 21,
+				box.size() );
+	}
+
+	@Test
+	public void testKClosest() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		final List<int[]> closest = tree.getKClosest( new double[]{ 50 , 50 , 50 } , 7 );
+
+		Assert.assertEquals( "unexpected number of neighbours" , 7 , closest.size() );
+		Assert.assertArrayEquals(
+				"unexpected closest point",
+				new int[]{ 50 , 50 , 50 },
+				closest.get( 0 ) );
+		for ( int[] a : closest.subList( 1 , closest.size() ) ) {
+			Assert.assertEquals(
+					"unexpected neighbour "+Arrays.toString( a ),
+					1,
+					Math.abs( a[ 0 ] - 50 ) + Math.abs( a[ 1 ] - 50 ) + Math.abs( a[ 2 ] - 50 ) );
+		}
+
+		final List<int[]> filtered =
+				tree.getKClosest(
+						new double[]{ 50 , 50 , 50 },
+						3,
+						a -> a[ 0 ] == 60 );
+		Assert.assertEquals( "unexpected number of neighbours" , 3 , filtered.size() );
+		Assert.assertArrayEquals(
+				"unexpected closest point",
+				new int[]{ 60 , 50 , 50 },
+				filtered.get( 0 ) );
+	}
+
+	@Test
+	public void testBall() {
+		final ImplicitKDTree<int[]> tree = createTree();
+
+		final double[] center = { 50 , 50 , 50 };
+		final List<int[]> ball = tree.getBall( center , 1.5 );
+
+		// the point itself, its 6 face neighbours and its 12 edge neighbours
+		Assert.assertEquals( "unexpected number of elements in ball" , 19 , ball.size() );
+
+		double lastDistance = 0;
+		for ( int[] a : ball ) {
+			final double d = SpatialCollectionUtils.euclidean( center , new double[]{ a[ 0 ] , a[ 1 ] , a[ 2 ] } );
+			Assert.assertTrue( "ball not sorted by distance" , d >= lastDistance );
+			lastDistance = d;
+		}
+
+		Assert.assertTrue(
+				"ball without points not empty",
+				tree.getBall( new double[]{ 50.5 , 50 , 50 } , 0.1 ).isEmpty() );
+	}
+
+	private ImplicitKDTree<int[]> createTree() {
+		final List<int[]> l = new ArrayList<>();
+
+		for ( int i=0; i < 100; i++ ) {
+			for ( int j=0; j < 100; j++ ) {
+				for ( int k=0; k < 100; k++ ) {
+					l.add( new int[]{ i , j , k } );
+				}
+			}
+		}
+
+		return new ImplicitKDTree<>(
+				3,
+				a -> new double[]{ a[ 0 ] , a[ 1 ] , a[ 2 ] },
+				l );
+	}
+}
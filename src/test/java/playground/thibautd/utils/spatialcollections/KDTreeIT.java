@@ -236,6 +236,58 @@ public class KDTreeIT {
 		log.info( "querying balanced was "+((double) unbalancedTime / balancedTime)+" times faster" );
 	}
 
+	@Test
+	public void testKClosest() {
+		final KDTree<int[]> tree = createTree();
+
+		final List<int[]> closest = tree.getKClosest( new double[]{ 50 , 50 , 50 } , 7 );
+
+		Assert.assertEquals( "unexpected number of neighbours" , 7 , closest.size() );
+		Assert.assertArrayEquals(
+				"unexpected closest point",
+				new int[]{ 50 , 50 , 50 },
+				closest.get( 0 ) );
+		for ( int[] a : closest.subList( 1 , closest.size() ) ) {
+			Assert.assertEquals(
+					"unexpected neighbour "+Arrays.toString( a ),
+					1,
+					Math.abs( a[ 0 ] - 50 ) + Math.abs( a[ 1 ] - 50 ) + Math.abs( a[ 2 ] - 50 ) );
+		}
+
+		final List<int[]> filtered =
+				tree.getKClosest(
+						new double[]{ 50 , 50 , 50 },
+						3,
+						a -> a[ 0 ] == 60 );
+		Assert.assertEquals( "unexpected number of neighbours" , 3 , filtered.size() );
+		Assert.assertArrayEquals(
+				"unexpected closest point",
+				new int[]{ 60 , 50 , 50 },
+				filtered.get( 0 ) );
+	}
+
+	@Test
+	public void testBall() {
+		final KDTree<int[]> tree = createTree();
+
+		final double[] center = { 50 , 50 , 50 };
+		final List<int[]> ball = tree.getBall( center , 1.5 );
+
+		// the point itself, its 6 face neighbours and its 12 edge neighbours
+		Assert.assertEquals( "unexpected number of elements in ball" , 19 , ball.size() );
+
+		double lastDistance = 0;
+		for ( int[] a : ball ) {
+			final double d = SpatialCollectionUtils.euclidean( center , new double[]{ a[ 0 ] , a[ 1 ] , a[ 2 ] } );
+			Assert.assertTrue( "ball not sorted by distance" , d >= lastDistance );
+			lastDistance = d;
+		}
+
+		Assert.assertTrue(
+				"ball without points not empty",
+				tree.getBall( new double[]{ 50.5 , 50 , 50 } , 0.1 ).isEmpty() );
+	}
+
 	private KDTree<int[]> createTree() {
 		return createTree( true );
 	}
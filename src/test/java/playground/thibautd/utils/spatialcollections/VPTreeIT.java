@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.stream.IntStream;
 
@@ -175,6 +176,66 @@ public class VPTreeIT {
 				new HashSet<>( distNonNull ) );
 	}
 
+	@Test
+	public void testKClosest() {
+		final VPTree<double[],Point> tree = createTree();
+
+		final List<Point> closest = tree.getKClosest( new double[]{ 25 , 25 , 25 } , 7 );
+
+		Assert.assertEquals( "unexpected number of neighbours" , 7 , closest.size() );
+		Assert.assertEquals( "unexpected closest point" , new Point( 25 , 25 , 25 ) , closest.get( 0 ) );
+		Assert.assertEquals(
+				"unexpected neighbours",
+				new HashSet<>( Arrays.asList(
+						new Point( 24 , 25 , 25 ) , new Point( 26 , 25 , 25 ),
+						new Point( 25 , 24 , 25 ) , new Point( 25 , 26 , 25 ),
+						new Point( 25 , 25 , 24 ) , new Point( 25 , 25 , 26 ) ) ),
+				new HashSet<>( closest.subList( 1 , closest.size() ) ) );
+	}
+
+	@Test
+	public void testBall() {
+		final VPTree<double[],Point> tree = createTree();
+
+		final double[] center = { 25 , 25 , 25 };
+		final List<Point> ball = tree.getBall( center , 2.5 );
+
+		// manhattan ball of radius 2 in a grid
+		Assert.assertEquals( "unexpected number of elements in ball" , 25 , ball.size() );
+
+		double lastDistance = 0;
+		for ( Point p : ball ) {
+			final double d = SpatialCollectionUtils.manhattan( center , p.getCoord() );
+			Assert.assertTrue( "ball not sorted by distance" , d >= lastDistance );
+			lastDistance = d;
+		}
+
+		final List<Point> filtered = tree.getBall( center , 2.5 , p -> p.ints[ 0 ] == 25 );
+		Assert.assertEquals( "unexpected number of elements in filtered ball" , 13 , filtered.size() );
+	}
+
+	@Test
+	public void testUnsortedBall() {
+		final VPTree<double[],Point> tree = createTree();
+
+		for ( double radius : new double[]{ 0.5 , 2.5 , 7.5 , 30 } ) {
+			for ( double[] center : new double[][]{ { 25 , 25 , 25 } , { 0 , 0 , 0 } , { 10.5 , 40 , 3 } } ) {
+				Assert.assertEquals(
+						"unexpected unsorted ball for radius "+radius+" around "+Arrays.toString( center ),
+						new HashSet<>( tree.getBall( center , radius ) ),
+						new HashSet<>( tree.getUnsortedBall( center , radius , p -> true ) ) );
+
+				Assert.assertEquals(
+						"unexpected size of unsorted ball for radius "+radius+" around "+Arrays.toString( center ),
+						tree.getBall( center , radius ).size(),
+						tree.getUnsortedBall( center , radius , p -> true ).size() );
+			}
+		}
+
+		final List<Point> filtered = tree.getUnsortedBall( new double[]{ 25 , 25 , 25 } , 2.5 , p -> p.ints[ 0 ] == 25 );
+		Assert.assertEquals( "unexpected number of elements in filtered ball" , 13 , filtered.size() );
+	}
+
 	@Test
 	public void testTreeSize() {
 		final VPTree<double[],Point> tree = createTree();